@@ -34,5 +34,17 @@ public @interface ThriftMethod
 
     boolean oneway() default false;
 
+    /**
+     * Marks the method as safe to invoke more than once for a single call, which
+     * allows clients to send speculative (hedged) requests to other servers.
+     */
+    boolean idempotent() default false;
+
+    /**
+     * Deadline for an entire invocation, including connecting and retries, for
+     * example {@code 10s}. Empty uses the client configuration.
+     */
+    String timeout() default "";
+
     ThriftException[] exception() default {};
 }
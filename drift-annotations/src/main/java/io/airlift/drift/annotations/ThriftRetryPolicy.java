@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Overrides the client retry policy for a Thrift method, and enables retries for
+ * the method even when they are not enabled for the client. Settings that are not
+ * specified use the client configuration. Durations use the airlift format,
+ * for example {@code 500ms} or {@code 10s}.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface ThriftRetryPolicy
+{
+    /**
+     * Maximum number of attempts, including the first. Zero uses the client setting.
+     */
+    int maxAttempts() default 0;
+
+    String attemptTimeout() default "";
+
+    String maxRetryTime() default "";
+}
@@ -16,6 +16,7 @@
 package io.airlift.drift.client;
 
 import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
 
 import java.util.Map;
 import java.util.Optional;
@@ -37,5 +38,14 @@ public interface DriftClient<T>
         return get(Optional.empty(), headers);
     }
 
-    T get(Optional<String> addressSelectionContext, Map<String, String> headers);
+    default T get(Optional<String> addressSelectionContext, Map<String, String> headers)
+    {
+        return get(addressSelectionContext, headers, Optional.empty());
+    }
+
+    /**
+     * @param timeout deadline for each invocation, including connecting and retries,
+     * which overrides the deadline configured for the method
+     */
+    T get(Optional<String> addressSelectionContext, Map<String, String> headers, Optional<Duration> timeout);
 }
@@ -17,6 +17,7 @@ package io.airlift.drift.client;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.annotations.ThriftRetryPolicy;
 import io.airlift.drift.client.stats.MethodInvocationStat;
 import io.airlift.drift.client.stats.MethodInvocationStatsFactory;
 import io.airlift.drift.client.stats.NullMethodInvocationStat;
@@ -31,19 +32,24 @@ import io.airlift.drift.transport.MethodInvokerFactory;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.ParameterMetadata;
 import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.RetryPolicy;
+import io.airlift.units.Duration;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Supplier;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Maps.transformEntries;
 import static com.google.common.reflect.Reflection.newProxy;
 import static io.airlift.drift.client.FilteredMethodInvoker.createFilteredMethodInvoker;
+import static io.airlift.drift.transport.RetryPolicy.createRetryPolicy;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.toList;
 
@@ -85,9 +91,12 @@ public class DriftClientFactory
 
         Optional<String> qualifier = qualifierAnnotation.map(Class::getSimpleName);
 
+        // the retry budget is shared by all methods of the client
+        RetryPolicy retryPolicy = createRetryPolicy(config);
+
         ImmutableMap.Builder<Method, DriftMethodHandler> builder = ImmutableMap.builder();
         for (ThriftMethodMetadata method : serviceMetadata.getMethods().values()) {
-            MethodMetadata metadata = getMethodMetadata(method);
+            MethodMetadata metadata = getMethodMetadata(method, retryPolicy, config);
             MethodInvocationStat statHandler;
             if (config.isStatsEnabled()) {
                 statHandler = methodInvocationStatsFactory.getStat(serviceMetadata, qualifier, metadata);
@@ -100,10 +109,10 @@ public class DriftClientFactory
         }
         Map<Method, DriftMethodHandler> methods = builder.build();
 
-        return (context, headers) -> newProxy(clientInterface, new DriftInvocationHandler(serviceMetadata.getName(), methods, context, headers));
+        return (context, headers, timeout) -> newProxy(clientInterface, new DriftInvocationHandler(serviceMetadata.getName(), methods, context, headers, timeout));
     }
 
-    private MethodMetadata getMethodMetadata(ThriftMethodMetadata metadata)
+    private MethodMetadata getMethodMetadata(ThriftMethodMetadata metadata, RetryPolicy retryPolicy, DriftClientConfig config)
     {
         List<ParameterMetadata> parameters = metadata.getParameters().stream()
                 .map(parameter -> new ParameterMetadata(
@@ -126,7 +135,40 @@ public class DriftClientFactory
                 resultCodec,
                 exceptionCodecs,
                 metadata.getOneway(),
-                resultsClassifier);
+                metadata.isIdempotent(),
+                resultsClassifier,
+                getMethodRetryPolicy(metadata, retryPolicy, config),
+                getMethodTimeout(metadata, config));
+    }
+
+    private static Optional<RetryPolicy> getMethodRetryPolicy(ThriftMethodMetadata metadata, RetryPolicy retryPolicy, DriftClientConfig config)
+    {
+        // retries are opt-in, either for the whole client or for each annotated method
+        if (!metadata.getRetryPolicy().isPresent()) {
+            return config.isRetryEnabled() ? Optional.of(retryPolicy) : Optional.empty();
+        }
+        ThriftRetryPolicy overrides = metadata.getRetryPolicy().get();
+        checkArgument(overrides.maxAttempts() >= 0, "Invalid maxAttempts for method %s: %s", metadata.getName(), overrides.maxAttempts());
+        return Optional.of(retryPolicy.withOverrides(
+                overrides.maxAttempts() == 0 ? OptionalInt.empty() : OptionalInt.of(overrides.maxAttempts()),
+                parseDuration(overrides.attemptTimeout()),
+                parseDuration(overrides.maxRetryTime())));
+    }
+
+    private static Optional<Duration> getMethodTimeout(ThriftMethodMetadata metadata, DriftClientConfig config)
+    {
+        if (metadata.getTimeout().isPresent()) {
+            return Optional.of(Duration.valueOf(metadata.getTimeout().get()));
+        }
+        return Optional.ofNullable(config.getInvocationTimeout());
+    }
+
+    private static Optional<Duration> parseDuration(String value)
+    {
+        if (value.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.valueOf(value));
     }
 
     @SuppressWarnings("unchecked")
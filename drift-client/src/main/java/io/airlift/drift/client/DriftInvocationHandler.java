@@ -25,13 +25,13 @@ import io.airlift.drift.TException;
 import io.airlift.drift.protocol.TProtocolException;
 import io.airlift.drift.transport.DriftApplicationException;
 import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.Duration;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
 
 import static io.airlift.drift.TApplicationException.Type.UNKNOWN_METHOD;
 import static java.util.Arrays.asList;
@@ -46,17 +46,20 @@ class DriftInvocationHandler
     private final Map<Method, DriftMethodHandler> methods;
     private final Optional<String> addressSelectionContext;
     private final Map<String, String> headers;
+    private final Optional<Duration> timeout;
 
     public DriftInvocationHandler(
             String serviceName,
             Map<Method, DriftMethodHandler> methods,
             Optional<String> addressSelectionContext,
-            Map<String, String> headers)
+            Map<String, String> headers,
+            Optional<Duration> timeout)
     {
         this.serviceName = requireNonNull(serviceName, "serviceName is null");
         this.methods = ImmutableMap.copyOf(requireNonNull(methods, "methods is null"));
         this.addressSelectionContext = requireNonNull(addressSelectionContext, "addressSelectionContext is null");
         this.headers = ImmutableMap.copyOf(requireNonNull(headers, "headers is null"));
+        this.timeout = requireNonNull(timeout, "timeout is null");
     }
 
     @Override
@@ -90,17 +93,15 @@ class DriftInvocationHandler
                 throw new TApplicationException(UNKNOWN_METHOD, "Unknown method: " + method);
             }
 
-            ListenableFuture<Object> future = methodHandler.invoke(addressSelectionContext, headers, asList(args));
-
             if (methodHandler.isAsync()) {
-                return unwrapUserException(future);
+                return unwrapUserException(methodHandler.invoke(addressSelectionContext, headers, timeout, asList(args)));
             }
 
             try {
-                return future.get();
+                return methodHandler.invokeSync(addressSelectionContext, headers, timeout, asList(args));
             }
-            catch (ExecutionException e) {
-                throw unwrapUserException(e.getCause());
+            catch (DriftApplicationException e) {
+                throw unwrapUserException(e);
             }
         }
         catch (Exception e) {
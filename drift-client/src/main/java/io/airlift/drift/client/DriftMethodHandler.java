@@ -20,6 +20,7 @@ import io.airlift.drift.client.stats.MethodInvocationStat;
 import io.airlift.drift.transport.InvokeRequest;
 import io.airlift.drift.transport.MethodInvoker;
 import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.units.Duration;
 
 import java.util.List;
 import java.util.Map;
@@ -47,11 +48,35 @@ class DriftMethodHandler
         return async;
     }
 
-    public ListenableFuture<Object> invoke(Optional<String> addressSelectionContext, Map<String, String> headers, List<Object> parameters)
+    public ListenableFuture<Object> invoke(Optional<String> addressSelectionContext, Map<String, String> headers, Optional<Duration> timeout, List<Object> parameters)
     {
         long startTime = System.nanoTime();
-        ListenableFuture<Object> result = invoker.invoke(new InvokeRequest(metadata, addressSelectionContext, headers, parameters));
+        ListenableFuture<Object> result = invoker.invoke(createRequest(addressSelectionContext, headers, timeout, parameters));
         stat.recordResult(startTime, result);
         return result;
     }
+
+    public Object invokeSync(Optional<String> addressSelectionContext, Map<String, String> headers, Optional<Duration> timeout, List<Object> parameters)
+            throws Exception
+    {
+        long startTime = System.nanoTime();
+        try {
+            Object result = invoker.invokeSync(createRequest(addressSelectionContext, headers, timeout, parameters));
+            stat.recordSuccess(startTime);
+            return result;
+        }
+        catch (Throwable t) {
+            stat.recordFailure(startTime, t);
+            throw t;
+        }
+    }
+
+    private InvokeRequest createRequest(Optional<String> addressSelectionContext, Map<String, String> headers, Optional<Duration> timeout, List<Object> parameters)
+    {
+        // a deadline for the call overrides the deadline of the method
+        if (!timeout.isPresent()) {
+            timeout = metadata.getTimeout();
+        }
+        return new InvokeRequest(metadata, addressSelectionContext, headers, parameters, timeout);
+    }
 }
@@ -25,6 +25,7 @@ import io.airlift.drift.annotations.ThriftException;
 import io.airlift.drift.annotations.ThriftField;
 import io.airlift.drift.annotations.ThriftIdlAnnotation;
 import io.airlift.drift.annotations.ThriftMethod;
+import io.airlift.drift.annotations.ThriftRetryPolicy;
 import io.airlift.drift.annotations.ThriftStruct;
 import io.airlift.drift.codec.metadata.DefaultThriftTypeReference;
 import io.airlift.drift.codec.metadata.ThriftCatalog;
@@ -61,6 +62,9 @@ class ThriftMethodMetadata
     private final Method method;
     private final ImmutableMap<Short, ThriftType> exceptions;
     private final boolean oneway;
+    private final boolean idempotent;
+    private final Optional<ThriftRetryPolicy> retryPolicy;
+    private final Optional<String> timeout;
 
     public ThriftMethodMetadata(Method method, ThriftCatalog catalog)
     {
@@ -155,6 +159,9 @@ class ThriftMethodMetadata
         exceptions = buildExceptionMap(catalog, thriftMethod);
 
         this.oneway = thriftMethod.oneway();
+        this.idempotent = thriftMethod.idempotent();
+        this.retryPolicy = Optional.ofNullable(method.getAnnotation(ThriftRetryPolicy.class));
+        this.timeout = Optional.of(thriftMethod.timeout()).filter(value -> !value.isEmpty());
     }
 
     public String getName()
@@ -187,6 +194,21 @@ class ThriftMethodMetadata
         return oneway;
     }
 
+    public boolean isIdempotent()
+    {
+        return idempotent;
+    }
+
+    public Optional<ThriftRetryPolicy> getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    public Optional<String> getTimeout()
+    {
+        return timeout;
+    }
+
     private ImmutableMap<Short, ThriftType> buildExceptionMap(ThriftCatalog catalog, ThriftMethod thriftMethod)
     {
         ImmutableMap.Builder<Short, ThriftType> exceptions = ImmutableMap.builder();
@@ -239,6 +261,9 @@ class ThriftMethodMetadata
         }
         ThriftMethodMetadata that = (ThriftMethodMetadata) o;
         return oneway == that.oneway &&
+                idempotent == that.idempotent &&
+                Objects.equals(retryPolicy, that.retryPolicy) &&
+                Objects.equals(timeout, that.timeout) &&
                 Objects.equals(name, that.name) &&
                 Objects.equals(returnType, that.returnType) &&
                 Objects.equals(parameters, that.parameters) &&
@@ -249,6 +274,6 @@ class ThriftMethodMetadata
     @Override
     public int hashCode()
     {
-        return Objects.hash(name, returnType, parameters, method, exceptions, oneway);
+        return Objects.hash(name, returnType, parameters, method, exceptions, oneway, idempotent, retryPolicy, timeout);
     }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.collect.ImmutableList;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+interface AddressResolver
+{
+    AddressResolver SYSTEM = host -> ImmutableList.copyOf(InetAddress.getAllByName(host));
+
+    List<InetAddress> resolve(String host)
+            throws UnknownHostException;
+}
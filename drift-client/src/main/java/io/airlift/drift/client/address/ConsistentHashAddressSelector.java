@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.AddressSelector;
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Address selector that routes each address selection context to the same
+ * addresses, so backends with per-key caches see the same keys. Every address
+ * is placed on a hash ring at several virtual nodes, and a key is routed to
+ * the first distinct addresses found clockwise from the hash of the key. When
+ * an address is added, removed or marked down, only the keys of the ring
+ * segments owned by that address move, and a key of a marked down address moves
+ * to its first fallback.
+ * <p>
+ * The ring and the address list of every virtual node are built when the
+ * addresses change, so a lookup only hashes the key and does a binary search,
+ * without allocating. Requests without a context are routed to a random position.
+ */
+public class ConsistentHashAddressSelector
+        implements AddressSelector
+{
+    private final ResolvedAddressTable addressTable;
+    private final int virtualNodes;
+    private final int maxAddresses;
+    private final long markdownNanos;
+    private final Ticker ticker;
+
+    @GuardedBy("this")
+    private final Map<HostAndPort, Long> downUntil = new HashMap<>();
+
+    private volatile HashRing ring = new HashRing(ImmutableList.of(), ImmutableList.of(), 1, 1, Optional.empty());
+
+    public ConsistentHashAddressSelector(ConsistentHashAddressSelectorConfig config)
+    {
+        this(
+                new ResolvedAddressTable(
+                        config.getAddresses(),
+                        AddressResolver.SYSTEM,
+                        config.getDnsCacheTtl(),
+                        Ticker.systemTicker(),
+                        SimpleAddressSelector.REFRESH_EXECUTOR),
+                config.getVirtualNodes(),
+                config.getMaxAddresses(),
+                config.getMarkdownTime(),
+                Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ConsistentHashAddressSelector(ResolvedAddressTable addressTable, int virtualNodes, int maxAddresses, Duration markdownTime, Ticker ticker)
+    {
+        checkArgument(virtualNodes > 0, "virtualNodes must be positive");
+        checkArgument(maxAddresses > 0, "maxAddresses must be positive");
+        this.addressTable = requireNonNull(addressTable, "addressTable is null");
+        this.virtualNodes = virtualNodes;
+        this.maxAddresses = maxAddresses;
+        this.markdownNanos = requireNonNull(markdownTime, "markdownTime is null").roundTo(NANOSECONDS);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    @Override
+    public List<HostAndPort> getAddresses(Optional<String> addressSelectionContext)
+    {
+        List<HostAndPort> addresses = addressTable.getAddresses();
+        HashRing ring = this.ring;
+        if (ring.getAddresses() != addresses || ring.isExpired(ticker)) {
+            ring = updateRing(addresses);
+        }
+
+        long hash;
+        if (addressSelectionContext.isPresent()) {
+            hash = hash(addressSelectionContext.get());
+        }
+        else {
+            hash = ThreadLocalRandom.current().nextLong();
+        }
+        return ring.getAddresses(hash);
+    }
+
+    @Override
+    public List<HostAndPort> getKnownAddresses()
+    {
+        return addressTable.getAddresses();
+    }
+
+    @Override
+    public void markdown(HostAndPort address)
+    {
+        HashRing ring = this.ring;
+        if (!ring.getLiveAddresses().contains(address)) {
+            // unknown or already down
+            return;
+        }
+        synchronized (this) {
+            downUntil.put(address, ticker.read() + markdownNanos);
+            buildRing(this.ring.getAddresses());
+        }
+    }
+
+    private synchronized HashRing updateRing(List<HostAndPort> addresses)
+    {
+        // another thread may have updated the ring while waiting for the lock
+        HashRing ring = this.ring;
+        if (ring.getAddresses() == addresses && !ring.isExpired(ticker)) {
+            return ring;
+        }
+        return buildRing(addresses);
+    }
+
+    @GuardedBy("this")
+    private HashRing buildRing(List<HostAndPort> addresses)
+    {
+        long now = ticker.read();
+        Optional<Long> nextExpiration = Optional.empty();
+        Iterator<Entry<HostAndPort, Long>> iterator = downUntil.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<HostAndPort, Long> entry = iterator.next();
+            if (now - entry.getValue() >= 0 || !addresses.contains(entry.getKey())) {
+                iterator.remove();
+            }
+            else if (!nextExpiration.isPresent() || entry.getValue() - nextExpiration.get() < 0) {
+                nextExpiration = Optional.of(entry.getValue());
+            }
+        }
+
+        List<HostAndPort> liveAddresses = addresses;
+        if (!downUntil.isEmpty()) {
+            liveAddresses = addresses.stream()
+                    .filter(address -> !downUntil.containsKey(address))
+                    .collect(ImmutableList.toImmutableList());
+            if (liveAddresses.isEmpty()) {
+                // fail open when every address is down
+                liveAddresses = addresses;
+            }
+        }
+
+        HashRing ring = this.ring;
+        if (ring.getAddresses() == addresses && ring.hasLiveAddresses(liveAddresses)) {
+            // membership did not change, for example when an address is marked
+            // down while every address is down, so only the expiration is updated
+            ring = ring.withExpiration(nextExpiration);
+        }
+        else {
+            ring = new HashRing(addresses, liveAddresses, virtualNodes, maxAddresses, nextExpiration);
+        }
+        this.ring = ring;
+        return ring;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters, followed by the MurmurHash3 finalizer
+     * to spread similar keys over the ring. Unlike the Guava hash functions, this
+     * does not allocate.
+     */
+    @VisibleForTesting
+    static long hash(String value)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class HashRing
+    {
+        private final List<HostAndPort> addresses;
+        private final ImmutableSet<HostAndPort> liveAddresses;
+        private final Optional<Long> expiration;
+
+        // sorted hashes of the virtual nodes, and the addresses for the keys that map to each node
+        private final long[] nodeHashes;
+        private final List<List<HostAndPort>> nodeAddresses;
+
+        public HashRing(List<HostAndPort> addresses, List<HostAndPort> liveAddresses, int virtualNodes, int maxAddresses, Optional<Long> expiration)
+        {
+            this.addresses = addresses;
+            this.liveAddresses = ImmutableSet.copyOf(liveAddresses);
+            this.expiration = expiration;
+
+            int nodeCount = liveAddresses.size() * virtualNodes;
+            long[][] nodes = new long[nodeCount][];
+            for (int address = 0; address < liveAddresses.size(); address++) {
+                String name = liveAddresses.get(address).toString();
+                for (int node = 0; node < virtualNodes; node++) {
+                    nodes[address * virtualNodes + node] = new long[] {hash(name + "#" + node), address};
+                }
+            }
+            Arrays.sort(nodes, Comparator.comparingLong(node -> node[0]));
+
+            nodeHashes = new long[nodeCount];
+            ImmutableList.Builder<List<HostAndPort>> nodeAddresses = ImmutableList.builder();
+            int addressesPerKey = Math.min(maxAddresses, liveAddresses.size());
+            boolean[] seen = new boolean[liveAddresses.size()];
+            for (int position = 0; position < nodeCount; position++) {
+                nodeHashes[position] = nodes[position][0];
+
+                // walk clockwise collecting distinct addresses, which are the primary and the fallbacks
+                Arrays.fill(seen, false);
+                ImmutableList.Builder<HostAndPort> keyAddresses = ImmutableList.builder();
+                int found = 0;
+                for (int step = 0; found < addressesPerKey; step++) {
+                    int address = (int) nodes[(position + step) % nodeCount][1];
+                    if (!seen[address]) {
+                        seen[address] = true;
+                        keyAddresses.add(liveAddresses.get(address));
+                        found++;
+                    }
+                }
+                nodeAddresses.add(keyAddresses.build());
+            }
+            this.nodeAddresses = nodeAddresses.build();
+        }
+
+        private HashRing(HashRing ring, Optional<Long> expiration)
+        {
+            this.addresses = ring.addresses;
+            this.liveAddresses = ring.liveAddresses;
+            this.expiration = expiration;
+            this.nodeHashes = ring.nodeHashes;
+            this.nodeAddresses = ring.nodeAddresses;
+        }
+
+        public HashRing withExpiration(Optional<Long> expiration)
+        {
+            return new HashRing(this, expiration);
+        }
+
+        public List<HostAndPort> getAddresses()
+        {
+            return addresses;
+        }
+
+        public ImmutableSet<HostAndPort> getLiveAddresses()
+        {
+            return liveAddresses;
+        }
+
+        public boolean hasLiveAddresses(List<HostAndPort> addresses)
+        {
+            return liveAddresses.size() == addresses.size() && liveAddresses.containsAll(addresses);
+        }
+
+        public boolean isExpired(Ticker ticker)
+        {
+            return expiration.isPresent() && ticker.read() - expiration.get() >= 0;
+        }
+
+        public List<HostAndPort> getAddresses(long hash)
+        {
+            if (nodeHashes.length == 0) {
+                return ImmutableList.of();
+            }
+            int position = Arrays.binarySearch(nodeHashes, hash);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            if (position == nodeHashes.length) {
+                position = 0;
+            }
+            return nodeAddresses.get(position);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+public class ConsistentHashAddressSelectorConfig
+{
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private List<HostAndPort> addresses;
+    private Duration dnsCacheTtl = new Duration(30, SECONDS);
+    private int virtualNodes = 128;
+    private int maxAddresses = 3;
+    private Duration markdownTime = new Duration(30, SECONDS);
+
+    @NotNull
+    public List<HostAndPort> getAddresses()
+    {
+        return addresses;
+    }
+
+    @Config("addresses")
+    public ConsistentHashAddressSelectorConfig setAddresses(String addresses)
+    {
+        if (addresses == null) {
+            this.addresses = null;
+        }
+        else {
+            this.addresses = ImmutableList.copyOf(SPLITTER.splitToList(addresses).stream()
+                    .map(HostAndPort::fromString)
+                    .collect(toList()));
+        }
+        return this;
+    }
+
+    public ConsistentHashAddressSelectorConfig setAddressesList(List<HostAndPort> addresses)
+    {
+        this.addresses = ImmutableList.copyOf(addresses);
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getDnsCacheTtl()
+    {
+        return dnsCacheTtl;
+    }
+
+    @Config("dns-cache-ttl")
+    public ConsistentHashAddressSelectorConfig setDnsCacheTtl(Duration dnsCacheTtl)
+    {
+        this.dnsCacheTtl = dnsCacheTtl;
+        return this;
+    }
+
+    @Min(1)
+    @Max(4096)
+    public int getVirtualNodes()
+    {
+        return virtualNodes;
+    }
+
+    /**
+     * Positions of each address on the hash ring. More positions spread the keys
+     * more evenly, at the cost of memory and a slower rebuild when the addresses change.
+     */
+    @Config("virtual-nodes")
+    public ConsistentHashAddressSelectorConfig setVirtualNodes(int virtualNodes)
+    {
+        this.virtualNodes = virtualNodes;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxAddresses()
+    {
+        return maxAddresses;
+    }
+
+    /**
+     * Addresses returned for a key, which are the primary followed by the fallbacks.
+     */
+    @Config("max-addresses")
+    public ConsistentHashAddressSelectorConfig setMaxAddresses(int maxAddresses)
+    {
+        this.maxAddresses = maxAddresses;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getMarkdownTime()
+    {
+        return markdownTime;
+    }
+
+    /**
+     * Time an address is removed from the ring after it is marked down. Only the
+     * keys of the address move to their fallbacks, and they move back afterwards.
+     */
+    @Config("markdown-time")
+    public ConsistentHashAddressSelectorConfig setMarkdownTime(Duration markdownTime)
+    {
+        this.markdownTime = markdownTime;
+        return this;
+    }
+}
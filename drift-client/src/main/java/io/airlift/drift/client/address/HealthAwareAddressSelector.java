@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.drift.transport.AddressSelector;
+import io.airlift.units.Duration;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.primitives.Ints.saturatedCast;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Address selector that tracks the health of every resolved address.
+ * <ul>
+ * <li>An address is marked down after consecutive failures reported through
+ * {@link #markdown}, and stays down for an exponentially increasing backoff.</li>
+ * <li>Addresses with a high error rate, or with a latency much higher than the
+ * median latency, are periodically ejected as outliers.</li>
+ * <li>After the backoff expires, an address is probed with a TCP connection
+ * before it is returned to the rotation.</li>
+ * <li>Host names are resolved periodically in the background, so requests
+ * never wait on DNS.</li>
+ * </ul>
+ * If every address is down, all addresses are returned, so requests still
+ * have a chance of succeeding.
+ */
+public class HealthAwareAddressSelector
+        implements AddressSelector, Closeable
+{
+    private final ResolvedAddressTable addressTable;
+    private final HostProber prober;
+    private final Ticker ticker;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService probeExecutor;
+
+    private final Duration dnsRefreshInterval;
+    private final int markdownConsecutiveFailures;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Duration outlierDetectionInterval;
+    private final int outlierMinRequests;
+    private final double outlierErrorRateThreshold;
+    private final double outlierLatencyMultiplier;
+    private final int outlierMaxEjectionPercent;
+    private final Duration probeInterval;
+
+    private final Map<HostAndPort, HostHealth> hosts = new ConcurrentHashMap<>();
+
+    private volatile List<HostAndPort> allAddresses = ImmutableList.of();
+    private volatile List<HostAndPort> healthyAddresses = ImmutableList.of();
+
+    public HealthAwareAddressSelector(HealthAwareAddressSelectorConfig config)
+    {
+        this(
+                config,
+                AddressResolver.SYSTEM,
+                new SocketProber(config.getProbeTimeout()),
+                Ticker.systemTicker(),
+                newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("drift-address-selector-%s")
+                        .setDaemon(true)
+                        .build()),
+                newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("drift-address-probe-%s")
+                        .setDaemon(true)
+                        .build()));
+        start();
+    }
+
+    @VisibleForTesting
+    HealthAwareAddressSelector(
+            HealthAwareAddressSelectorConfig config,
+            AddressResolver resolver,
+            HostProber prober,
+            Ticker ticker,
+            ScheduledExecutorService scheduler,
+            ExecutorService probeExecutor)
+    {
+        requireNonNull(config, "config is null");
+        // the table is only read through refresh, which the background task calls on schedule
+        this.addressTable = new ResolvedAddressTable(config.getAddresses(), resolver, config.getDnsRefreshInterval(), ticker, directExecutor());
+        this.prober = requireNonNull(prober, "prober is null");
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.scheduler = requireNonNull(scheduler, "scheduler is null");
+        this.probeExecutor = requireNonNull(probeExecutor, "probeExecutor is null");
+
+        this.dnsRefreshInterval = config.getDnsRefreshInterval();
+        this.markdownConsecutiveFailures = config.getMarkdownConsecutiveFailures();
+        this.initialBackoffNanos = config.getMarkdownInitialBackoff().roundTo(NANOSECONDS);
+        this.maxBackoffNanos = config.getMarkdownMaxBackoff().roundTo(NANOSECONDS);
+        this.outlierDetectionInterval = config.getOutlierDetectionInterval();
+        this.outlierMinRequests = config.getOutlierMinRequests();
+        this.outlierErrorRateThreshold = config.getOutlierErrorRateThreshold();
+        this.outlierLatencyMultiplier = config.getOutlierLatencyMultiplier();
+        this.outlierMaxEjectionPercent = config.getOutlierMaxEjectionPercent();
+        this.probeInterval = config.getProbeInterval();
+
+        // resolve once up front, so the first requests have addresses
+        refreshAddresses();
+    }
+
+    private void start()
+    {
+        scheduleWithFixedDelay(this::refreshAddresses, dnsRefreshInterval);
+        scheduleWithFixedDelay(this::detectOutliers, outlierDetectionInterval);
+        scheduleWithFixedDelay(this::probeHosts, probeInterval);
+    }
+
+    private void scheduleWithFixedDelay(Runnable task, Duration interval)
+    {
+        long nanos = interval.roundTo(NANOSECONDS);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            }
+            catch (RuntimeException ignored) {
+                // an exception would cancel all future executions of the task
+            }
+        }, nanos, nanos, NANOSECONDS);
+    }
+
+    @PreDestroy
+    @Override
+    public void close()
+    {
+        scheduler.shutdownNow();
+        probeExecutor.shutdownNow();
+    }
+
+    @Override
+    public List<HostAndPort> getAddresses(Optional<String> addressSelectionContext)
+    {
+        checkArgument(!addressSelectionContext.isPresent(), "addressSelectionContext should not be set");
+        List<HostAndPort> addresses = healthyAddresses;
+        if (addresses.isEmpty()) {
+            // fail open when every address is down
+            addresses = allAddresses;
+        }
+        if (addresses.size() <= 1) {
+            return addresses;
+        }
+        // the random stride spreads the load of a failed host over the others without copying the snapshot
+        return new RotatedList<>(addresses, ThreadLocalRandom.current().nextInt(addresses.size()), RotatedList.randomStride(addresses.size()));
+    }
+
+    @Override
+    public List<HostAndPort> getKnownAddresses()
+    {
+        return allAddresses;
+    }
+
+    @Override
+    public void markdown(HostAndPort address)
+    {
+        HostHealth health = hosts.get(address);
+        if (health != null && health.recordFailure()) {
+            updateHealthyAddresses();
+        }
+    }
+
+    @Override
+    public void markSuccess(HostAndPort address, Duration latency)
+    {
+        HostHealth health = hosts.get(address);
+        if (health != null) {
+            health.recordSuccess(latency.roundTo(NANOSECONDS));
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void refreshAddresses()
+    {
+        List<HostAndPort> addresses = addressTable.refresh();
+
+        // health is retained for addresses that are still resolved
+        for (HostAndPort address : addresses) {
+            hosts.computeIfAbsent(address, HostHealth::new);
+        }
+        hosts.keySet().retainAll(ImmutableSet.copyOf(addresses));
+
+        allAddresses = addresses;
+        updateHealthyAddresses();
+    }
+
+    @VisibleForTesting
+    void detectOutliers()
+    {
+        List<HostHealth> healthyHosts = new ArrayList<>();
+        List<Long> latencies = new ArrayList<>();
+        for (HostHealth health : hosts.values()) {
+            HostStats stats = health.getStats();
+            if (stats.isHealthy()) {
+                healthyHosts.add(health);
+                if (stats.getRequests() >= outlierMinRequests && stats.getLatencyNanos() >= 0) {
+                    latencies.add(stats.getLatencyNanos());
+                }
+            }
+        }
+
+        // latency outliers are relative to the other hosts, so a few hosts are needed for a meaningful median
+        long latencyThreshold = Long.MAX_VALUE;
+        if (latencies.size() >= 3) {
+            Collections.sort(latencies);
+            latencyThreshold = (long) (latencies.get(latencies.size() / 2) * outlierLatencyMultiplier);
+        }
+
+        int maxUnhealthy = hosts.size() * outlierMaxEjectionPercent / 100;
+        int unhealthy = hosts.size() - healthyHosts.size();
+        boolean changed = false;
+        for (HostHealth health : healthyHosts) {
+            HostStats stats = health.resetStats();
+            if (unhealthy >= maxUnhealthy || !stats.isHealthy() || stats.getRequests() < outlierMinRequests) {
+                continue;
+            }
+            double errorRate = (double) stats.getFailures() / stats.getRequests();
+            if (errorRate > outlierErrorRateThreshold || stats.getLatencyNanos() > latencyThreshold) {
+                if (health.eject()) {
+                    unhealthy++;
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            updateHealthyAddresses();
+        }
+    }
+
+    @VisibleForTesting
+    void probeHosts()
+    {
+        for (HostHealth health : hosts.values()) {
+            if (!health.startProbe()) {
+                continue;
+            }
+            try {
+                probeExecutor.execute(() -> {
+                    boolean success = false;
+                    try {
+                        success = prober.probe(health.getAddress());
+                    }
+                    finally {
+                        health.finishProbe(success);
+                        updateHealthyAddresses();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                health.finishProbe(false);
+            }
+        }
+    }
+
+    private synchronized void updateHealthyAddresses()
+    {
+        ImmutableList.Builder<HostAndPort> healthy = ImmutableList.builder();
+        for (HostAndPort address : allAddresses) {
+            HostHealth health = hosts.get(address);
+            if (health != null && health.getStats().isHealthy()) {
+                healthy.add(address);
+            }
+        }
+        healthyAddresses = healthy.build();
+    }
+
+    private long backoffNanos(int markdownCount)
+    {
+        // initial backoff doubled for each markdown since the address was last healthy
+        int shift = Math.min(markdownCount - 1, 30);
+        long backoff = initialBackoffNanos << shift;
+        if (backoff < 0 || backoff > maxBackoffNanos) {
+            return maxBackoffNanos;
+        }
+        return backoff;
+    }
+
+    private enum State
+    {
+        HEALTHY, DOWN, PROBING
+    }
+
+    private final class HostHealth
+    {
+        private final HostAndPort address;
+
+        @GuardedBy("this")
+        private State state = State.HEALTHY;
+        @GuardedBy("this")
+        private int consecutiveFailures;
+        @GuardedBy("this")
+        private int markdownCount;
+        @GuardedBy("this")
+        private long downUntilNanos;
+        @GuardedBy("this")
+        private long successes;
+        @GuardedBy("this")
+        private long failures;
+        @GuardedBy("this")
+        private long latencyNanos = -1;
+
+        public HostHealth(HostAndPort address)
+        {
+            this.address = requireNonNull(address, "address is null");
+        }
+
+        public HostAndPort getAddress()
+        {
+            return address;
+        }
+
+        public synchronized void recordSuccess(long latencyNanos)
+        {
+            successes++;
+            consecutiveFailures = 0;
+            // exponentially weighted moving average
+            if (this.latencyNanos < 0) {
+                this.latencyNanos = latencyNanos;
+            }
+            else {
+                this.latencyNanos += (latencyNanos - this.latencyNanos) / 5;
+            }
+        }
+
+        /**
+         * Returns true if the address was marked down.
+         */
+        public synchronized boolean recordFailure()
+        {
+            failures++;
+            consecutiveFailures++;
+            if (state != State.HEALTHY || consecutiveFailures < markdownConsecutiveFailures) {
+                return false;
+            }
+            markDown();
+            return true;
+        }
+
+        /**
+         * Returns true if the address was ejected.
+         */
+        public synchronized boolean eject()
+        {
+            if (state != State.HEALTHY) {
+                return false;
+            }
+            markDown();
+            return true;
+        }
+
+        @GuardedBy("this")
+        private void markDown()
+        {
+            markdownCount++;
+            state = State.DOWN;
+            downUntilNanos = ticker.read() + backoffNanos(markdownCount);
+        }
+
+        public synchronized boolean startProbe()
+        {
+            if (state != State.DOWN || ticker.read() - downUntilNanos < 0) {
+                return false;
+            }
+            state = State.PROBING;
+            return true;
+        }
+
+        public synchronized void finishProbe(boolean success)
+        {
+            if (state != State.PROBING) {
+                return;
+            }
+            if (success) {
+                // the address starts with a clean slate, but the backoff is only reset once it stays healthy
+                state = State.HEALTHY;
+                consecutiveFailures = 0;
+                successes = 0;
+                failures = 0;
+                latencyNanos = -1;
+            }
+            else {
+                markDown();
+            }
+        }
+
+        public synchronized HostStats getStats()
+        {
+            return new HostStats(state == State.HEALTHY, successes, failures, latencyNanos);
+        }
+
+        public synchronized HostStats resetStats()
+        {
+            HostStats stats = getStats();
+            if (state == State.HEALTHY && failures == 0 && successes > 0) {
+                // a full interval without failures
+                markdownCount = 0;
+            }
+            successes = 0;
+            failures = 0;
+            return stats;
+        }
+    }
+
+    private static class HostStats
+    {
+        private final boolean healthy;
+        private final long successes;
+        private final long failures;
+        private final long latencyNanos;
+
+        public HostStats(boolean healthy, long successes, long failures, long latencyNanos)
+        {
+            this.healthy = healthy;
+            this.successes = successes;
+            this.failures = failures;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public boolean isHealthy()
+        {
+            return healthy;
+        }
+
+        public long getRequests()
+        {
+            return successes + failures;
+        }
+
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        public long getLatencyNanos()
+        {
+            return latencyNanos;
+        }
+    }
+
+    interface HostProber
+    {
+        boolean probe(HostAndPort address);
+    }
+
+    private static class SocketProber
+            implements HostProber
+    {
+        private final int timeoutMillis;
+
+        public SocketProber(Duration timeout)
+        {
+            this.timeoutMillis = saturatedCast(requireNonNull(timeout, "timeout is null").toMillis());
+        }
+
+        @Override
+        public boolean probe(HostAndPort address)
+        {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(address.getHost(), address.getPort()), timeoutMillis);
+                return true;
+            }
+            catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+public class HealthAwareAddressSelectorConfig
+{
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private List<HostAndPort> addresses;
+    private Duration dnsRefreshInterval = new Duration(30, SECONDS);
+
+    private int markdownConsecutiveFailures = 3;
+    private Duration markdownInitialBackoff = new Duration(1, SECONDS);
+    private Duration markdownMaxBackoff = new Duration(1, MINUTES);
+
+    private Duration outlierDetectionInterval = new Duration(10, SECONDS);
+    private int outlierMinRequests = 20;
+    private double outlierErrorRateThreshold = 0.5;
+    private double outlierLatencyMultiplier = 3.0;
+    private int outlierMaxEjectionPercent = 50;
+
+    private Duration probeInterval = new Duration(1, SECONDS);
+    private Duration probeTimeout = new Duration(1, SECONDS);
+
+    @NotNull
+    public List<HostAndPort> getAddresses()
+    {
+        return addresses;
+    }
+
+    @Config("addresses")
+    public HealthAwareAddressSelectorConfig setAddresses(String addresses)
+    {
+        if (addresses == null) {
+            this.addresses = null;
+        }
+        else {
+            this.addresses = ImmutableList.copyOf(SPLITTER.splitToList(addresses).stream()
+                    .map(HostAndPort::fromString)
+                    .collect(toList()));
+        }
+        return this;
+    }
+
+    public HealthAwareAddressSelectorConfig setAddressesList(List<HostAndPort> addresses)
+    {
+        this.addresses = ImmutableList.copyOf(addresses);
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getDnsRefreshInterval()
+    {
+        return dnsRefreshInterval;
+    }
+
+    @Config("dns-refresh-interval")
+    public HealthAwareAddressSelectorConfig setDnsRefreshInterval(Duration dnsRefreshInterval)
+    {
+        this.dnsRefreshInterval = dnsRefreshInterval;
+        return this;
+    }
+
+    @Min(1)
+    public int getMarkdownConsecutiveFailures()
+    {
+        return markdownConsecutiveFailures;
+    }
+
+    @Config("markdown.consecutive-failures")
+    public HealthAwareAddressSelectorConfig setMarkdownConsecutiveFailures(int markdownConsecutiveFailures)
+    {
+        this.markdownConsecutiveFailures = markdownConsecutiveFailures;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getMarkdownInitialBackoff()
+    {
+        return markdownInitialBackoff;
+    }
+
+    @Config("markdown.initial-backoff")
+    public HealthAwareAddressSelectorConfig setMarkdownInitialBackoff(Duration markdownInitialBackoff)
+    {
+        this.markdownInitialBackoff = markdownInitialBackoff;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getMarkdownMaxBackoff()
+    {
+        return markdownMaxBackoff;
+    }
+
+    @Config("markdown.max-backoff")
+    public HealthAwareAddressSelectorConfig setMarkdownMaxBackoff(Duration markdownMaxBackoff)
+    {
+        this.markdownMaxBackoff = markdownMaxBackoff;
+        return this;
+    }
+
+    @AssertTrue(message = "Markdown max backoff must not be less than the initial backoff")
+    public boolean isMarkdownBackoffValid()
+    {
+        if (markdownInitialBackoff == null || markdownMaxBackoff == null) {
+            return true;
+        }
+        return markdownMaxBackoff.compareTo(markdownInitialBackoff) >= 0;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getOutlierDetectionInterval()
+    {
+        return outlierDetectionInterval;
+    }
+
+    @Config("outlier.interval")
+    public HealthAwareAddressSelectorConfig setOutlierDetectionInterval(Duration outlierDetectionInterval)
+    {
+        this.outlierDetectionInterval = outlierDetectionInterval;
+        return this;
+    }
+
+    @Min(1)
+    public int getOutlierMinRequests()
+    {
+        return outlierMinRequests;
+    }
+
+    @Config("outlier.min-requests")
+    public HealthAwareAddressSelectorConfig setOutlierMinRequests(int outlierMinRequests)
+    {
+        this.outlierMinRequests = outlierMinRequests;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getOutlierErrorRateThreshold()
+    {
+        return outlierErrorRateThreshold;
+    }
+
+    @Config("outlier.error-rate-threshold")
+    public HealthAwareAddressSelectorConfig setOutlierErrorRateThreshold(double outlierErrorRateThreshold)
+    {
+        this.outlierErrorRateThreshold = outlierErrorRateThreshold;
+        return this;
+    }
+
+    @DecimalMin("1.0")
+    public double getOutlierLatencyMultiplier()
+    {
+        return outlierLatencyMultiplier;
+    }
+
+    @Config("outlier.latency-multiplier")
+    public HealthAwareAddressSelectorConfig setOutlierLatencyMultiplier(double outlierLatencyMultiplier)
+    {
+        this.outlierLatencyMultiplier = outlierLatencyMultiplier;
+        return this;
+    }
+
+    @Min(0)
+    @Max(100)
+    public int getOutlierMaxEjectionPercent()
+    {
+        return outlierMaxEjectionPercent;
+    }
+
+    @Config("outlier.max-ejection-percent")
+    public HealthAwareAddressSelectorConfig setOutlierMaxEjectionPercent(int outlierMaxEjectionPercent)
+    {
+        this.outlierMaxEjectionPercent = outlierMaxEjectionPercent;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getProbeInterval()
+    {
+        return probeInterval;
+    }
+
+    @Config("probe.interval")
+    public HealthAwareAddressSelectorConfig setProbeInterval(Duration probeInterval)
+    {
+        this.probeInterval = probeInterval;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getProbeTimeout()
+    {
+        return probeTimeout;
+    }
+
+    @Config("probe.timeout")
+    public HealthAwareAddressSelectorConfig setProbeTimeout(Duration probeTimeout)
+    {
+        this.probeTimeout = probeTimeout;
+        return this;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.AddressSelector;
+import io.airlift.units.Duration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Address selector that sends each request to the less loaded of two randomly
+ * chosen addresses (power of two choices). The load of an address is the moving
+ * average of its latency multiplied by the number of requests in flight, so slow
+ * or busy hosts receive fewer requests without comparing every address.
+ * <p>
+ * The latency average adopts a higher sample immediately, and otherwise decays
+ * exponentially with time, so a slow host is avoided at once and is tried again
+ * after it has not been used for a while. Hosts without a latency sample are
+ * preferred, so new hosts are measured quickly. The remaining addresses follow
+ * the two choices, and are only used for retries. They are in address order,
+ * rotated to start after the first random choice, so retries are spread across
+ * the addresses without shuffling the whole list on each request.
+ */
+public class LoadBalancingAddressSelector
+        implements AddressSelector
+{
+    private final ResolvedAddressTable addressTable;
+    private final double decayTimeNanos;
+    private final long failurePenaltyNanos;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<HostAndPort, HostLoad> hosts = new ConcurrentHashMap<>();
+    private volatile List<HostAndPort> trackedAddresses = ImmutableList.of();
+
+    public LoadBalancingAddressSelector(LoadBalancingAddressSelectorConfig config)
+    {
+        this(
+                new ResolvedAddressTable(
+                        config.getAddresses(),
+                        AddressResolver.SYSTEM,
+                        config.getDnsCacheTtl(),
+                        Ticker.systemTicker(),
+                        SimpleAddressSelector.REFRESH_EXECUTOR),
+                config.getLatencyDecayTime(),
+                config.getFailurePenalty(),
+                Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    LoadBalancingAddressSelector(ResolvedAddressTable addressTable, Duration latencyDecayTime, Duration failurePenalty, Ticker ticker)
+    {
+        this.addressTable = requireNonNull(addressTable, "addressTable is null");
+        this.decayTimeNanos = requireNonNull(latencyDecayTime, "latencyDecayTime is null").getValue(NANOSECONDS);
+        checkArgument(decayTimeNanos > 0, "latencyDecayTime must be positive");
+        this.failurePenaltyNanos = requireNonNull(failurePenalty, "failurePenalty is null").roundTo(NANOSECONDS);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    @Override
+    public List<HostAndPort> getAddresses(Optional<String> addressSelectionContext)
+    {
+        checkArgument(!addressSelectionContext.isPresent(), "addressSelectionContext should not be set");
+        List<HostAndPort> addresses = addressTable.getAddresses();
+        if (addresses != trackedAddresses) {
+            trackAddresses(addresses);
+        }
+        int size = addresses.size();
+        if (size <= 1) {
+            return addresses;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        long now = ticker.read();
+        if (getCost(addresses.get(second), now) < getCost(addresses.get(first), now)) {
+            int winner = second;
+            second = first;
+            first = winner;
+        }
+
+        HostAndPort[] ordered = new HostAndPort[size];
+        ordered[0] = addresses.get(first);
+        ordered[1] = addresses.get(second);
+        int next = 2;
+        for (int i = 1; i < size; i++) {
+            int index = (first + i) % size;
+            if (index != second) {
+                ordered[next++] = addresses.get(index);
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(ordered));
+    }
+
+    @Override
+    public List<HostAndPort> getKnownAddresses()
+    {
+        return addressTable.getAddresses();
+    }
+
+    @Override
+    public void markdown(HostAndPort address)
+    {
+        HostLoad load = hosts.get(address);
+        if (load != null) {
+            load.recordLatency(failurePenaltyNanos, ticker.read());
+        }
+    }
+
+    @Override
+    public void markSuccess(HostAndPort address, Duration latency)
+    {
+        HostLoad load = hosts.get(address);
+        if (load != null) {
+            load.recordLatency(latency.roundTo(NANOSECONDS), ticker.read());
+        }
+    }
+
+    @Override
+    public void markRequestStarted(HostAndPort address)
+    {
+        HostLoad load = hosts.get(address);
+        if (load != null) {
+            load.requestStarted();
+        }
+    }
+
+    @Override
+    public void markRequestFinished(HostAndPort address)
+    {
+        HostLoad load = hosts.get(address);
+        if (load != null) {
+            load.requestFinished();
+        }
+    }
+
+    private double getCost(HostAndPort address, long now)
+    {
+        HostLoad load = hosts.get(address);
+        if (load == null) {
+            return 0;
+        }
+        return load.getCost(now);
+    }
+
+    private synchronized void trackAddresses(List<HostAndPort> addresses)
+    {
+        if (addresses == trackedAddresses) {
+            return;
+        }
+        // load is retained for addresses that are still resolved
+        for (HostAndPort address : addresses) {
+            hosts.computeIfAbsent(address, ignored -> new HostLoad(ticker.read()));
+        }
+        hosts.keySet().retainAll(ImmutableSet.copyOf(addresses));
+        trackedAddresses = addresses;
+    }
+
+    private final class HostLoad
+    {
+        private final AtomicInteger requestsInFlight = new AtomicInteger();
+        private final AtomicReference<LatencyEstimate> latency;
+
+        public HostLoad(long now)
+        {
+            latency = new AtomicReference<>(new LatencyEstimate(0, now));
+        }
+
+        public double getCost(long now)
+        {
+            // the latency is at least one nanosecond, so the requests in flight always count
+            return (latency.get().getLatencyNanos(now, decayTimeNanos) + 1) * (requestsInFlight.get() + 1);
+        }
+
+        public void recordLatency(long latencyNanos, long now)
+        {
+            while (true) {
+                LatencyEstimate current = latency.get();
+                if (latency.compareAndSet(current, current.update(latencyNanos, now, decayTimeNanos))) {
+                    return;
+                }
+            }
+        }
+
+        public void requestStarted()
+        {
+            requestsInFlight.incrementAndGet();
+        }
+
+        public void requestFinished()
+        {
+            // the entry may have been replaced while the request was in flight
+            requestsInFlight.getAndUpdate(requests -> Math.max(requests - 1, 0));
+        }
+    }
+
+    private static final class LatencyEstimate
+    {
+        private final double latencyNanos;
+        private final long timestamp;
+
+        public LatencyEstimate(double latencyNanos, long timestamp)
+        {
+            this.latencyNanos = latencyNanos;
+            this.timestamp = timestamp;
+        }
+
+        public double getLatencyNanos(long now, double decayTimeNanos)
+        {
+            return latencyNanos * decayWeight(now, decayTimeNanos);
+        }
+
+        public LatencyEstimate update(long sampleNanos, long now, double decayTimeNanos)
+        {
+            // peaks are adopted immediately, so the estimate reacts quickly to a slow host
+            if (sampleNanos >= latencyNanos) {
+                return new LatencyEstimate(sampleNanos, now);
+            }
+            double weight = decayWeight(now, decayTimeNanos);
+            return new LatencyEstimate(latencyNanos * weight + sampleNanos * (1 - weight), now);
+        }
+
+        private double decayWeight(long now, double decayTimeNanos)
+        {
+            return Math.exp(-Math.max(now - timestamp, 0) / decayTimeNanos);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.NotNull;
+
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+public class LoadBalancingAddressSelectorConfig
+{
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private List<HostAndPort> addresses;
+    private Duration dnsCacheTtl = new Duration(30, SECONDS);
+    private Duration latencyDecayTime = new Duration(10, SECONDS);
+    private Duration failurePenalty = new Duration(1, SECONDS);
+
+    @NotNull
+    public List<HostAndPort> getAddresses()
+    {
+        return addresses;
+    }
+
+    @Config("addresses")
+    public LoadBalancingAddressSelectorConfig setAddresses(String addresses)
+    {
+        if (addresses == null) {
+            this.addresses = null;
+        }
+        else {
+            this.addresses = ImmutableList.copyOf(SPLITTER.splitToList(addresses).stream()
+                    .map(HostAndPort::fromString)
+                    .collect(toList()));
+        }
+        return this;
+    }
+
+    public LoadBalancingAddressSelectorConfig setAddressesList(List<HostAndPort> addresses)
+    {
+        this.addresses = ImmutableList.copyOf(addresses);
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getDnsCacheTtl()
+    {
+        return dnsCacheTtl;
+    }
+
+    @Config("dns-cache-ttl")
+    public LoadBalancingAddressSelectorConfig setDnsCacheTtl(Duration dnsCacheTtl)
+    {
+        this.dnsCacheTtl = dnsCacheTtl;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getLatencyDecayTime()
+    {
+        return latencyDecayTime;
+    }
+
+    /**
+     * Time constant of the moving average of the latency of each address. Older
+     * samples lose weight exponentially, so a larger value reacts slower to changes.
+     */
+    @Config("latency-decay-time")
+    public LoadBalancingAddressSelectorConfig setLatencyDecayTime(Duration latencyDecayTime)
+    {
+        this.latencyDecayTime = latencyDecayTime;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getFailurePenalty()
+    {
+        return failurePenalty;
+    }
+
+    /**
+     * Latency recorded for an address when a request fails because the host is down.
+     */
+    @Config("failure-penalty")
+    public LoadBalancingAddressSelectorConfig setFailurePenalty(Duration failurePenalty)
+    {
+        this.failurePenalty = failurePenalty;
+        return this;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Resolved addresses for a list of configured host and port pairs. Readers
+ * get an immutable snapshot without blocking. Once the snapshot is older
+ * than the TTL, the next read starts an asynchronous refresh, and readers
+ * keep using the old snapshot until the refresh completes. When a host can
+ * not be resolved, its last successful resolution is kept.
+ */
+@ThreadSafe
+class ResolvedAddressTable
+{
+    private final List<HostAndPort> configuredAddresses;
+    private final AddressResolver resolver;
+    private final long ttlNanos;
+    private final Ticker ticker;
+    private final Executor refreshExecutor;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    @GuardedBy("this")
+    private Map<HostAndPort, List<HostAndPort>> resolvedAddresses = ImmutableMap.of();
+
+    private volatile List<HostAndPort> addresses = ImmutableList.of();
+    private volatile long expirationNanos;
+    private volatile boolean initialized;
+
+    public ResolvedAddressTable(List<HostAndPort> configuredAddresses, AddressResolver resolver, Duration ttl, Ticker ticker, Executor refreshExecutor)
+    {
+        requireNonNull(configuredAddresses, "configuredAddresses is null");
+        for (HostAndPort address : configuredAddresses) {
+            checkArgument(address.getPortOrDefault(0) > 0, "address port must be set");
+        }
+        this.configuredAddresses = ImmutableList.copyOf(new LinkedHashSet<>(configuredAddresses));
+        this.resolver = requireNonNull(resolver, "resolver is null");
+        this.ttlNanos = requireNonNull(ttl, "ttl is null").roundTo(NANOSECONDS);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.refreshExecutor = requireNonNull(refreshExecutor, "refreshExecutor is null");
+    }
+
+    /**
+     * Returns the current snapshot. Only the first call blocks on resolution.
+     */
+    public List<HostAndPort> getAddresses()
+    {
+        if (!initialized) {
+            return initialize();
+        }
+        if (ticker.read() - expirationNanos >= 0 && refreshing.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        refresh();
+                    }
+                    finally {
+                        refreshing.set(false);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                refreshing.set(false);
+            }
+        }
+        return addresses;
+    }
+
+    private synchronized List<HostAndPort> initialize()
+    {
+        if (initialized) {
+            return addresses;
+        }
+        return refresh();
+    }
+
+    /**
+     * Resolves all configured addresses, and returns the new snapshot.
+     */
+    public synchronized List<HostAndPort> refresh()
+    {
+        ImmutableMap.Builder<HostAndPort, List<HostAndPort>> newResolvedAddresses = ImmutableMap.builder();
+        Set<HostAndPort> newAddresses = new LinkedHashSet<>();
+        for (HostAndPort configuredAddress : configuredAddresses) {
+            List<HostAndPort> resolved;
+            try {
+                ImmutableList.Builder<HostAndPort> builder = ImmutableList.builder();
+                for (InetAddress ip : resolver.resolve(configuredAddress.getHost())) {
+                    builder.add(HostAndPort.fromParts(ip.getHostAddress(), configuredAddress.getPort()));
+                }
+                resolved = builder.build();
+            }
+            catch (UnknownHostException e) {
+                // keep using the last resolution, since a stale address is better than none
+                resolved = resolvedAddresses.getOrDefault(configuredAddress, ImmutableList.of());
+            }
+            newResolvedAddresses.put(configuredAddress, resolved);
+            newAddresses.addAll(resolved);
+        }
+        resolvedAddresses = newResolvedAddresses.build();
+
+        List<HostAndPort> snapshot = ImmutableList.copyOf(newAddresses);
+        addresses = snapshot;
+        expirationNanos = ticker.read() + ttlNanos;
+        initialized = true;
+        return snapshot;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.math.IntMath.gcd;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * View of a list starting at an offset and wrapping around to the beginning.
+ * Consecutive elements of the view are a fixed stride apart in the list. The
+ * stride and the size of the list have no common divisor, so the view contains
+ * every element exactly once.
+ */
+final class RotatedList<T>
+        extends AbstractList<T>
+        implements RandomAccess
+{
+    private final List<T> list;
+    private final int offset;
+    private final int stride;
+
+    public RotatedList(List<T> list, int offset, int stride)
+    {
+        this.list = requireNonNull(list, "list is null");
+        checkElementIndex(offset, list.size(), "offset");
+        checkArgument(stride > 0 && gcd(stride, list.size()) == 1, "stride must be positive and coprime with the list size");
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    /**
+     * Returns a random stride for a list of the given size. With a random stride,
+     * the requests that fail on an address continue on different addresses, rather
+     * than all moving the load of a failed address to its neighbour.
+     */
+    public static int randomStride(int size)
+    {
+        checkArgument(size > 0, "size must be positive");
+        if (size <= 2) {
+            return 1;
+        }
+        // stride of size - 1 is always coprime with the size, so the search terminates
+        int stride = 1 + ThreadLocalRandom.current().nextInt(size - 1);
+        while (gcd(stride, size) != 1) {
+            stride++;
+        }
+        return stride;
+    }
+
+    @Override
+    public T get(int index)
+    {
+        checkElementIndex(index, list.size());
+        return list.get((int) ((offset + (long) index * stride) % list.size()));
+    }
+
+    @Override
+    public int size()
+    {
+        return list.size();
+    }
+}
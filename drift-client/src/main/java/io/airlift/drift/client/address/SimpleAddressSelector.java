@@ -15,54 +15,93 @@
  */
 package io.airlift.drift.client.address;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.drift.client.address.SimpleAddressSelectorConfig.AddressOrder;
 import io.airlift.drift.transport.AddressSelector;
+import io.airlift.units.Duration;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static java.util.Collections.shuffle;
+import static java.lang.Math.floorMod;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class SimpleAddressSelector
         implements AddressSelector
 {
-    private final Set<HostAndPort> addresses;
+    // refreshes are short and infrequent, so all selectors share the threads
+    static final Executor REFRESH_EXECUTOR = newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("drift-dns-refresh-%s")
+            .setDaemon(true)
+            .build());
+
+    private final ResolvedAddressTable addressTable;
+    private final AddressOrder addressOrder;
+    private final AtomicInteger nextOffset = new AtomicInteger();
 
     public SimpleAddressSelector(SimpleAddressSelectorConfig config)
     {
-        this(config.getAddresses());
+        this(config.getAddresses(), config.getDnsCacheTtl(), config.getAddressOrder());
     }
 
     public SimpleAddressSelector(Iterable<HostAndPort> addresses)
     {
-        for (HostAndPort address : addresses) {
-            checkArgument(address.getPortOrDefault(0) > 0, "address port must be set");
-        }
-        this.addresses = ImmutableSet.copyOf(addresses);
+        this(addresses, new Duration(30, SECONDS), AddressOrder.RANDOM);
+    }
+
+    public SimpleAddressSelector(Iterable<HostAndPort> addresses, Duration dnsCacheTtl, AddressOrder addressOrder)
+    {
+        this(new ResolvedAddressTable(
+                        ImmutableList.copyOf(addresses),
+                        AddressResolver.SYSTEM,
+                        dnsCacheTtl,
+                        Ticker.systemTicker(),
+                        REFRESH_EXECUTOR),
+                addressOrder);
+    }
+
+    @VisibleForTesting
+    SimpleAddressSelector(ResolvedAddressTable addressTable, AddressOrder addressOrder)
+    {
+        this.addressTable = requireNonNull(addressTable, "addressTable is null");
+        this.addressOrder = requireNonNull(addressOrder, "addressOrder is null");
     }
 
     @Override
     public List<HostAndPort> getAddresses(Optional<String> addressSelectionContext)
     {
         checkArgument(!addressSelectionContext.isPresent(), "addressSelectionContext should not be set");
-        List<HostAndPort> result = new ArrayList<>();
-        for (HostAndPort address : addresses) {
-            try {
-                for (InetAddress ip : InetAddress.getAllByName(address.getHost())) {
-                    result.add(HostAndPort.fromParts(ip.getHostAddress(), address.getPort()));
-                }
-            }
-            catch (UnknownHostException ignored) {
-            }
+        List<HostAndPort> addresses = addressTable.getAddresses();
+        if (addresses.size() <= 1) {
+            return addresses;
         }
-        shuffle(result);
-        return result;
+
+        // the snapshot is shared, so requests are spread by starting at a different offset instead of
+        // shuffling a copy, and the failover order uses a random stride so it differs between requests
+        int offset;
+        if (addressOrder == AddressOrder.ROUND_ROBIN) {
+            offset = floorMod(nextOffset.getAndIncrement(), addresses.size());
+        }
+        else {
+            offset = ThreadLocalRandom.current().nextInt(addresses.size());
+        }
+        return new RotatedList<>(addresses, offset, RotatedList.randomStride(addresses.size()));
+    }
+
+    @Override
+    public List<HostAndPort> getKnownAddresses()
+    {
+        return addressTable.getAddresses();
     }
 
     @Override
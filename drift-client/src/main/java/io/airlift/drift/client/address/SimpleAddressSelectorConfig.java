@@ -19,18 +19,28 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
 import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
 
 import javax.validation.constraints.NotNull;
 
 import java.util.List;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 
 public class SimpleAddressSelectorConfig
 {
+    public enum AddressOrder
+    {
+        RANDOM, ROUND_ROBIN
+    }
+
     private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
 
     private List<HostAndPort> addresses;
+    private Duration dnsCacheTtl = new Duration(30, SECONDS);
+    private AddressOrder addressOrder = AddressOrder.RANDOM;
 
     @NotNull
     public List<HostAndPort> getAddresses()
@@ -57,4 +67,31 @@ public class SimpleAddressSelectorConfig
         this.addresses = ImmutableList.copyOf(addresses);
         return this;
     }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getDnsCacheTtl()
+    {
+        return dnsCacheTtl;
+    }
+
+    @Config("dns-cache-ttl")
+    public SimpleAddressSelectorConfig setDnsCacheTtl(Duration dnsCacheTtl)
+    {
+        this.dnsCacheTtl = dnsCacheTtl;
+        return this;
+    }
+
+    @NotNull
+    public AddressOrder getAddressOrder()
+    {
+        return addressOrder;
+    }
+
+    @Config("address-order")
+    public SimpleAddressSelectorConfig setAddressOrder(AddressOrder addressOrder)
+    {
+        this.addressOrder = addressOrder;
+        return this;
+    }
 }
@@ -71,18 +71,31 @@ public class JmxMethodInvocationStat
     {
         result.addListener(
                 () -> {
-                    time.add(nanosSince(startTime));
                     try {
                         result.get();
-                        successes.update(1);
+                        recordSuccess(startTime);
                     }
                     catch (Throwable throwable) {
-                        failures.update(1);
+                        recordFailure(startTime, throwable);
                     }
                 },
                 directExecutor());
     }
 
+    @Override
+    public void recordSuccess(long startTime)
+    {
+        time.add(nanosSince(startTime));
+        successes.update(1);
+    }
+
+    @Override
+    public void recordFailure(long startTime, Throwable failure)
+    {
+        time.add(nanosSince(startTime));
+        failures.update(1);
+    }
+
     @Override
     public String toString()
     {
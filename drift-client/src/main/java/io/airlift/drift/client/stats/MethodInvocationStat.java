@@ -17,7 +17,28 @@ package io.airlift.drift.client.stats;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+
 public interface MethodInvocationStat
 {
     void recordResult(long startTime, ListenableFuture<Object> result);
+
+    /**
+     * Records a synchronous invocation that completed successfully. The default
+     * records it as a result that is already complete.
+     */
+    default void recordSuccess(long startTime)
+    {
+        recordResult(startTime, immediateFuture(null));
+    }
+
+    /**
+     * Records a synchronous invocation that failed. The default records it as
+     * a result that has already failed.
+     */
+    default void recordFailure(long startTime, Throwable failure)
+    {
+        recordResult(startTime, immediateFailedFuture(failure));
+    }
 }
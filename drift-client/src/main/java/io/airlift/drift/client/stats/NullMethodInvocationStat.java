@@ -22,4 +22,10 @@ public final class NullMethodInvocationStat
 {
     @Override
     public void recordResult(long startTime, ListenableFuture<Object> result) {}
+
+    @Override
+    public void recordSuccess(long startTime) {}
+
+    @Override
+    public void recordFailure(long startTime, Throwable failure) {}
 }
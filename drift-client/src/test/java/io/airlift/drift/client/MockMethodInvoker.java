@@ -19,20 +19,35 @@ import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.drift.transport.InvokeRequest;
 import io.airlift.drift.transport.MethodInvoker;
 
+import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.util.concurrent.Futures.getDone;
 import static java.util.Objects.requireNonNull;
 
 public class MockMethodInvoker
         implements MethodInvoker, Supplier<InvokeRequest>
 {
     private final Supplier<ListenableFuture<Object>> resultsSupplier;
+    private final boolean synchronous;
 
     private InvokeRequest request;
 
     public MockMethodInvoker(Supplier<ListenableFuture<Object>> resultsSupplier)
+    {
+        this(resultsSupplier, false);
+    }
+
+    /**
+     * A synchronous invoker throws failures directly from {@code invokeSync} like
+     * a blocking transport, instead of blocking on the future of {@code invoke}.
+     */
+    public MockMethodInvoker(Supplier<ListenableFuture<Object>> resultsSupplier, boolean synchronous)
     {
         this.resultsSupplier = requireNonNull(resultsSupplier, "resultsSupplier is null");
+        this.synchronous = synchronous;
     }
 
     @Override
@@ -47,4 +62,24 @@ public class MockMethodInvoker
         this.request = request;
         return resultsSupplier.get();
     }
+
+    @Override
+    public Object invokeSync(InvokeRequest request)
+            throws Exception
+    {
+        if (!synchronous) {
+            return MethodInvoker.super.invokeSync(request);
+        }
+
+        this.request = request;
+        try {
+            return getDone(resultsSupplier.get());
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throwIfInstanceOf(cause, Exception.class);
+            throwIfUnchecked(cause);
+            throw new AssertionError(cause);
+        }
+    }
 }
@@ -29,7 +29,12 @@ public class MockMethodInvokerFactory<I>
 
     public MockMethodInvokerFactory(Supplier<ListenableFuture<Object>> resultsSupplier)
     {
-        this.methodInvoker = new MockMethodInvoker(resultsSupplier);
+        this(resultsSupplier, false);
+    }
+
+    public MockMethodInvokerFactory(Supplier<ListenableFuture<Object>> resultsSupplier, boolean synchronous)
+    {
+        this.methodInvoker = new MockMethodInvoker(resultsSupplier, synchronous);
     }
 
     public I getClientIdentity()
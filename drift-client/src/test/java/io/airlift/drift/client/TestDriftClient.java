@@ -33,6 +33,7 @@ import io.airlift.drift.client.stats.MethodInvocationStatsFactory;
 import io.airlift.drift.codec.ThriftCodecManager;
 import io.airlift.drift.codec.guice.ThriftCodecModule;
 import io.airlift.drift.protocol.TProtocolException;
+import io.airlift.drift.transport.DriftApplicationException;
 import io.airlift.drift.transport.DriftClientConfig;
 import io.airlift.drift.transport.InvokeRequest;
 import io.airlift.drift.transport.MethodInvokerFactory;
@@ -78,9 +79,22 @@ public class TestDriftClient
     @Test
     public void testInvoker()
             throws Exception
+    {
+        testInvoker(false);
+    }
+
+    @Test
+    public void testSynchronousInvoker()
+            throws Exception
+    {
+        testInvoker(true);
+    }
+
+    private void testInvoker(boolean synchronous)
+            throws Exception
     {
         ResultsSupplier resultsSupplier = new ResultsSupplier();
-        MockMethodInvokerFactory<String> methodInvokerFactory = new MockMethodInvokerFactory<>(resultsSupplier);
+        MockMethodInvokerFactory<String> methodInvokerFactory = new MockMethodInvokerFactory<>(resultsSupplier, synchronous);
         TestingMethodInvocationStatsFactory statsFactory = new TestingMethodInvocationStatsFactory();
 
         DriftClientFactoryManager<String> clientFactoryManager = new DriftClientFactoryManager<>(codecManager, methodInvokerFactory, statsFactory);
@@ -265,6 +279,11 @@ public class TestDriftClient
         assertExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new TTransportException() {});
         assertExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new TProtocolException() {});
 
+        // application exceptions are unwrapped, so the declared exception is thrown
+        assertApplicationExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new ClientException());
+        assertApplicationExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new ClientException() {});
+        assertApplicationExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new UnknownException(), TException.class);
+
         // test method does not throw TException
         assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new ClientException());
         assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new TException(), RuntimeTException.class);
@@ -282,6 +301,10 @@ public class TestDriftClient
         assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new TApplicationException() {}, RuntimeTApplicationException.class);
         assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new TTransportException() {}, RuntimeTTransportException.class);
         assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new TProtocolException() {}, RuntimeTProtocolException.class);
+
+        // application exceptions are unwrapped before undeclared exceptions are wrapped
+        assertNoTExceptionApplicationExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new ClientException());
+        assertNoTExceptionApplicationExceptionInvocation(resultsSupplier, targets, statsFactory, client, empty, new UnknownException(), RuntimeTException.class, TException.class);
     }
 
     private static void assertNormalInvocation(
@@ -319,13 +342,41 @@ public class TestDriftClient
             Throwable testException,
             Class<? extends Throwable>... expectedWrapperTypes)
             throws InterruptedException
+    {
+        assertExceptionInvocation(resultsSupplier, targets, statsFactory, client, qualifier, testException, testException, expectedWrapperTypes);
+    }
+
+    @SafeVarargs
+    private static void assertApplicationExceptionInvocation(
+            ResultsSupplier resultsSupplier,
+            Collection<Supplier<InvokeRequest>> targets,
+            TestingMethodInvocationStatsFactory statsFactory,
+            Client client,
+            Optional<String> qualifier,
+            Throwable testException,
+            Class<? extends Throwable>... expectedWrapperTypes)
+            throws InterruptedException
+    {
+        assertExceptionInvocation(resultsSupplier, targets, statsFactory, client, qualifier, new DriftApplicationException(testException), testException, expectedWrapperTypes);
+    }
+
+    private static void assertExceptionInvocation(
+            ResultsSupplier resultsSupplier,
+            Collection<Supplier<InvokeRequest>> targets,
+            TestingMethodInvocationStatsFactory statsFactory,
+            Client client,
+            Optional<String> qualifier,
+            Throwable invokerFailure,
+            Throwable testException,
+            Class<? extends Throwable>[] expectedWrapperTypes)
+            throws InterruptedException
     {
         String name = "exception-" + testException.getClass().getName();
 
         TestingMethodInvocationStat stat = statsFactory.getStat("clientService", qualifier, "test");
         stat.clear();
         int invocationId = ThreadLocalRandom.current().nextInt();
-        resultsSupplier.setFailedResult(testException);
+        resultsSupplier.setFailedResult(invokerFailure);
         try {
             client.test(invocationId, name);
         }
@@ -338,7 +389,7 @@ public class TestDriftClient
         stat = statsFactory.getStat("clientService", qualifier, "testAsync");
         stat.clear();
         invocationId = ThreadLocalRandom.current().nextInt();
-        resultsSupplier.setFailedResult(testException);
+        resultsSupplier.setFailedResult(invokerFailure);
         try {
             client.testAsync(invocationId, name).get();
         }
@@ -358,12 +409,38 @@ public class TestDriftClient
             Optional<String> qualifier,
             Throwable testException,
             Class<? extends Throwable>... expectedWrapperTypes)
+    {
+        assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, qualifier, testException, testException, expectedWrapperTypes);
+    }
+
+    @SafeVarargs
+    private final void assertNoTExceptionApplicationExceptionInvocation(
+            ResultsSupplier resultsSupplier,
+            Collection<Supplier<InvokeRequest>> targets,
+            TestingMethodInvocationStatsFactory statsFactory,
+            Client client,
+            Optional<String> qualifier,
+            Throwable testException,
+            Class<? extends Throwable>... expectedWrapperTypes)
+    {
+        assertNoTExceptionInvocation(resultsSupplier, targets, statsFactory, client, qualifier, new DriftApplicationException(testException), testException, expectedWrapperTypes);
+    }
+
+    private void assertNoTExceptionInvocation(
+            ResultsSupplier resultsSupplier,
+            Collection<Supplier<InvokeRequest>> targets,
+            TestingMethodInvocationStatsFactory statsFactory,
+            Client client,
+            Optional<String> qualifier,
+            Throwable invokerFailure,
+            Throwable testException,
+            Class<? extends Throwable>[] expectedWrapperTypes)
     {
         String name = "exception-" + testException.getClass().getName();
 
         TestingMethodInvocationStat stat = statsFactory.getStat("clientService", qualifier, "testNoTException");
         stat.clear();
-        resultsSupplier.setFailedResult(testException);
+        resultsSupplier.setFailedResult(invokerFailure);
         try {
             invocationId++;
             client.testNoTException(invocationId, name);
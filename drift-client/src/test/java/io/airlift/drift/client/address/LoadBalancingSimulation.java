@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.client.address.SimpleAddressSelectorConfig.AddressOrder;
+import io.airlift.drift.transport.AddressSelector;
+import io.airlift.units.Duration;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Discrete event simulation of a client sending requests to backends with
+ * different speeds. Each backend serves a fixed number of requests at a time
+ * with exponentially distributed service times, and queues the rest. The
+ * simulation runs in virtual time, so the results only depend on the address
+ * selection and not on the machine running it.
+ */
+public final class LoadBalancingSimulation
+{
+    private static final int FAST_BACKENDS = 7;
+    private static final int SLOW_BACKENDS = 3;
+    private static final long FAST_SERVICE_NANOS = MILLISECONDS.toNanos(10);
+    private static final long SLOW_SERVICE_NANOS = MILLISECONDS.toNanos(30);
+    private static final int BACKEND_CONCURRENCY = 4;
+    // with random selection, the slow backends are overloaded above 40% of the total capacity
+    private static final double[] UTILIZATIONS = {0.3, 0.4, 0.6, 0.8};
+    private static final int REQUESTS = 500_000;
+    private static final List<HostAndPort> ADDRESSES = createAddresses();
+
+    private LoadBalancingSimulation() {}
+
+    public static void main(String[] args)
+    {
+        for (double utilization : UTILIZATIONS) {
+            System.out.printf("utilization %.0f%%%n", utilization * 100);
+
+            SimulatedTicker ticker = new SimulatedTicker();
+            run("random", new SimpleAddressSelector(createAddressTable(ticker), AddressOrder.RANDOM), ticker, utilization);
+
+            ticker = new SimulatedTicker();
+            run("round-robin", new SimpleAddressSelector(createAddressTable(ticker), AddressOrder.ROUND_ROBIN), ticker, utilization);
+
+            ticker = new SimulatedTicker();
+            LoadBalancingAddressSelectorConfig config = new LoadBalancingAddressSelectorConfig();
+            LoadBalancingAddressSelector loadBalancingSelector = new LoadBalancingAddressSelector(
+                    createAddressTable(ticker),
+                    config.getLatencyDecayTime(),
+                    config.getFailurePenalty(),
+                    ticker);
+            run("power-of-two-choices", loadBalancingSelector, ticker, utilization);
+        }
+    }
+
+    private static void run(String name, AddressSelector selector, SimulatedTicker ticker, double utilization)
+    {
+        Map<HostAndPort, Backend> backends = new HashMap<>();
+        double capacityPerNano = 0;
+        for (int i = 0; i < ADDRESSES.size(); i++) {
+            long serviceNanos = i < FAST_BACKENDS ? FAST_SERVICE_NANOS : SLOW_SERVICE_NANOS;
+            backends.put(ADDRESSES.get(i), new Backend(ADDRESSES.get(i), serviceNanos));
+            capacityPerNano += (double) BACKEND_CONCURRENCY / serviceNanos;
+        }
+        double meanArrivalNanos = 1 / (capacityPerNano * utilization);
+
+        // same seed for every selector, so they see the same arrivals and service times
+        Random random = new Random(42);
+        PriorityQueue<Event> events = new PriorityQueue<>();
+        long[] latencies = new long[REQUESTS];
+        int completed = 0;
+        long arrivalTime = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            arrivalTime += exponential(random, meanArrivalNanos);
+            events.add(new Event(arrivalTime, null, null));
+        }
+
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            ticker.set(event.time);
+            if (event.request == null) {
+                HostAndPort address = selector.getAddresses(Optional.empty()).get(0);
+                selector.markRequestStarted(address);
+                Request request = new Request(address, event.time);
+                backends.get(address).submit(request, event.time, random, events);
+            }
+            else {
+                Request request = event.request;
+                long latency = event.time - request.arrivalTime;
+                latencies[completed++] = latency;
+                selector.markSuccess(request.address, new Duration(latency, NANOSECONDS));
+                selector.markRequestFinished(request.address);
+                event.backend.complete(event.time, random, events);
+            }
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("  %-22s p50 %7.1fms  p90 %7.1fms  p99 %7.1fms  p99.9 %7.1fms  max %7.1fms%n",
+                name,
+                percentile(latencies, 0.5),
+                percentile(latencies, 0.9),
+                percentile(latencies, 0.99),
+                percentile(latencies, 0.999),
+                latencies[latencies.length - 1] / 1_000_000.0);
+    }
+
+    private static double percentile(long[] sortedValues, double percentile)
+    {
+        return sortedValues[(int) (sortedValues.length * percentile)] / 1_000_000.0;
+    }
+
+    private static long exponential(Random random, double mean)
+    {
+        return (long) (-Math.log(1 - random.nextDouble()) * mean);
+    }
+
+    private static List<HostAndPort> createAddresses()
+    {
+        ImmutableList.Builder<HostAndPort> addresses = ImmutableList.builder();
+        for (int i = 0; i < FAST_BACKENDS + SLOW_BACKENDS; i++) {
+            addresses.add(HostAndPort.fromParts("10.0.0." + (i + 1), 1234));
+        }
+        return addresses.build();
+    }
+
+    private static ResolvedAddressTable createAddressTable(SimulatedTicker ticker)
+    {
+        return new ResolvedAddressTable(
+                ADDRESSES,
+                host -> ImmutableList.of(InetAddress.getByName(host)),
+                new Duration(1, DAYS),
+                ticker,
+                directExecutor());
+    }
+
+    private static final class Backend
+    {
+        private final HostAndPort address;
+        private final long meanServiceNanos;
+        private final Queue<Request> queue = new ArrayDeque<>();
+        private int running;
+
+        public Backend(HostAndPort address, long meanServiceNanos)
+        {
+            this.address = address;
+            this.meanServiceNanos = meanServiceNanos;
+        }
+
+        public void submit(Request request, long now, Random random, Queue<Event> events)
+        {
+            if (running < BACKEND_CONCURRENCY) {
+                start(request, now, random, events);
+            }
+            else {
+                queue.add(request);
+            }
+        }
+
+        public void complete(long now, Random random, Queue<Event> events)
+        {
+            running--;
+            Request next = queue.poll();
+            if (next != null) {
+                start(next, now, random, events);
+            }
+        }
+
+        private void start(Request request, long now, Random random, Queue<Event> events)
+        {
+            running++;
+            events.add(new Event(now + exponential(random, meanServiceNanos), request, this));
+        }
+
+        @Override
+        public String toString()
+        {
+            return address.toString();
+        }
+    }
+
+    private static final class Request
+    {
+        private final HostAndPort address;
+        private final long arrivalTime;
+
+        public Request(HostAndPort address, long arrivalTime)
+        {
+            this.address = address;
+            this.arrivalTime = arrivalTime;
+        }
+    }
+
+    /**
+     * Arrival of a new request, or completion of a request when the request is set.
+     */
+    private static final class Event
+            implements Comparable<Event>
+    {
+        private final long time;
+        private final Request request;
+        private final Backend backend;
+
+        public Event(long time, Request request, Backend backend)
+        {
+            this.time = time;
+            this.request = request;
+            this.backend = backend;
+        }
+
+        @Override
+        public int compareTo(Event other)
+        {
+            return Long.compare(time, other.time);
+        }
+    }
+
+    private static final class SimulatedTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void set(long time)
+        {
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestConsistentHashAddressSelector
+{
+    private static final HostAndPort A = HostAndPort.fromParts("10.0.0.1", 1234);
+    private static final HostAndPort B = HostAndPort.fromParts("10.0.0.2", 1234);
+    private static final HostAndPort C = HostAndPort.fromParts("10.0.0.3", 1234);
+    private static final HostAndPort D = HostAndPort.fromParts("10.0.0.4", 1234);
+    private static final HostAndPort E = HostAndPort.fromParts("10.0.0.5", 1234);
+
+    private static final int KEYS = 10_000;
+
+    private final TestingTicker ticker = new TestingTicker();
+
+    @Test
+    public void testStableRouting()
+    {
+        ConsistentHashAddressSelector selector = createSelector(A, B, C, D);
+        ConsistentHashAddressSelector other = createSelector(A, B, C, D);
+
+        Map<HostAndPort, Integer> primaries = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            List<HostAndPort> addresses = getAddresses(selector, i);
+            assertEquals(addresses.size(), 3);
+            assertEquals(ImmutableSet.copyOf(addresses).size(), 3);
+            // lookups do not allocate, so the same list is returned
+            assertSame(getAddresses(selector, i), addresses);
+            assertEquals(getAddresses(other, i), addresses);
+            primaries.merge(addresses.get(0), 1, Integer::sum);
+        }
+
+        // keys are spread evenly over the addresses
+        assertEquals(primaries.keySet(), ImmutableSet.of(A, B, C, D));
+        for (int count : primaries.values()) {
+            assertTrue(count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3, "unbalanced primaries: " + primaries);
+        }
+
+        // requests without a context are routed to a random position
+        assertEquals(selector.getAddresses(Optional.empty()).size(), 3);
+    }
+
+    @Test
+    public void testAddedAddressOnlyTakesItsKeys()
+    {
+        ConsistentHashAddressSelector selector = createSelector(A, B, C, D);
+        ConsistentHashAddressSelector expanded = createSelector(A, B, C, D, E);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            HostAndPort primary = getAddresses(selector, i).get(0);
+            HostAndPort newPrimary = getAddresses(expanded, i).get(0);
+            if (!newPrimary.equals(primary)) {
+                assertEquals(newPrimary, E);
+                moved++;
+            }
+        }
+        // about a fifth of the keys move to the new address
+        assertTrue(moved > KEYS / 5 * 0.7 && moved < KEYS / 5 * 1.3, "moved keys: " + moved);
+    }
+
+    @Test
+    public void testMarkdown()
+    {
+        ConsistentHashAddressSelector selector = createSelector(A, B, C, D);
+        List<List<HostAndPort>> original = getAllAddresses(selector);
+
+        selector.markdown(B);
+        List<List<HostAndPort>> markedDown = getAllAddresses(selector);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            HostAndPort primary = original.get(i).get(0);
+            HostAndPort newPrimary = markedDown.get(i).get(0);
+            assertNotEquals(newPrimary, B);
+            if (primary.equals(B)) {
+                // keys of the marked down address move to their first fallback
+                assertEquals(newPrimary, original.get(i).get(1));
+                moved++;
+            }
+            else {
+                assertEquals(newPrimary, primary);
+            }
+        }
+        assertTrue(moved > 0);
+
+        // marked down addresses are still known, so connections to them are kept warm
+        assertEquals(selector.getKnownAddresses(), ImmutableList.of(A, B, C, D));
+
+        // keys move back when the markdown expires
+        ticker.increment(10, SECONDS);
+        assertEquals(getAllAddresses(selector), original);
+    }
+
+    @Test
+    public void testAllAddressesDown()
+    {
+        ConsistentHashAddressSelector selector = createSelector(A, B);
+        List<List<HostAndPort>> original = getAllAddresses(selector);
+
+        selector.markdown(A);
+        selector.markdown(B);
+        List<List<HostAndPort>> allDown = getAllAddresses(selector);
+        assertEquals(allDown, original);
+
+        // marking down an address again does not rebuild the ring, since the live addresses did not change
+        selector.markdown(A);
+        selector.markdown(B);
+        List<List<HostAndPort>> markedDownAgain = getAllAddresses(selector);
+        for (int i = 0; i < KEYS; i++) {
+            assertSame(markedDownAgain.get(i), allDown.get(i));
+        }
+
+        // the markdown still expires
+        ticker.increment(10, SECONDS);
+        assertEquals(getAllAddresses(selector), original);
+
+        assertEquals(createSelector().getAddresses(Optional.of("key")), ImmutableList.of());
+    }
+
+    private ConsistentHashAddressSelector createSelector(HostAndPort... addresses)
+    {
+        ResolvedAddressTable addressTable = new ResolvedAddressTable(
+                ImmutableList.copyOf(addresses),
+                host -> ImmutableList.of(InetAddress.getByName(host)),
+                new Duration(1, DAYS),
+                ticker,
+                directExecutor());
+        return new ConsistentHashAddressSelector(addressTable, 128, 3, new Duration(10, SECONDS), ticker);
+    }
+
+    private static List<List<HostAndPort>> getAllAddresses(ConsistentHashAddressSelector selector)
+    {
+        ImmutableList.Builder<List<HostAndPort>> addresses = ImmutableList.builder();
+        for (int i = 0; i < KEYS; i++) {
+            addresses.add(getAddresses(selector, i));
+        }
+        return addresses.build();
+    }
+
+    private static List<HostAndPort> getAddresses(ConsistentHashAddressSelector selector, int key)
+    {
+        return selector.getAddresses(Optional.of("key-" + key));
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private volatile long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void increment(long delta, TimeUnit unit)
+        {
+            time += unit.toNanos(delta);
+        }
+    }
+}
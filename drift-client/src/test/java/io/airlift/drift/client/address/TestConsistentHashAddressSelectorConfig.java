@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
+import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
+import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class TestConsistentHashAddressSelectorConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        assertRecordedDefaults(recordDefaults(ConsistentHashAddressSelectorConfig.class)
+                .setAddresses(null)
+                .setDnsCacheTtl(new Duration(30, SECONDS))
+                .setVirtualNodes(128)
+                .setMaxAddresses(3)
+                .setMarkdownTime(new Duration(30, SECONDS)));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("addresses", "abc:8080,xyz:8888")
+                .put("dns-cache-ttl", "5m")
+                .put("virtual-nodes", "64")
+                .put("max-addresses", "2")
+                .put("markdown-time", "1m")
+                .build();
+
+        ConsistentHashAddressSelectorConfig expected = new ConsistentHashAddressSelectorConfig()
+                .setAddressesList(ImmutableList.of(
+                        HostAndPort.fromParts("abc", 8080),
+                        HostAndPort.fromParts("xyz", 8888)))
+                .setDnsCacheTtl(new Duration(5, MINUTES))
+                .setVirtualNodes(64)
+                .setMaxAddresses(2)
+                .setMarkdownTime(new Duration(1, MINUTES));
+
+        assertFullMapping(properties, expected);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHealthAwareAddressSelector
+{
+    private static final HostAndPort A = HostAndPort.fromParts("10.0.0.1", 1234);
+    private static final HostAndPort B = HostAndPort.fromParts("10.0.0.2", 1234);
+    private static final HostAndPort C = HostAndPort.fromParts("10.0.0.3", 1234);
+    private static final HostAndPort D = HostAndPort.fromParts("10.0.0.4", 1234);
+
+    private final TestingTicker ticker = new TestingTicker();
+    private final Map<String, List<InetAddress>> dns = new ConcurrentHashMap<>();
+    private final Set<HostAndPort> reachable = new CopyOnWriteArraySet<>();
+    private final AtomicInteger probes = new AtomicInteger();
+
+    @Test
+    public void testMarkdownBackoffAndProbe()
+            throws Exception
+    {
+        HealthAwareAddressSelectorConfig config = new HealthAwareAddressSelectorConfig()
+                .setMarkdownConsecutiveFailures(2)
+                .setMarkdownInitialBackoff(new Duration(1, SECONDS));
+        try (HealthAwareAddressSelector selector = createSelector(config, A, B, C)) {
+            selector.markdown(A);
+            assertAddresses(selector, A, B, C);
+
+            // a success resets the consecutive failures
+            selector.markSuccess(A, new Duration(1, MILLISECONDS));
+            selector.markdown(A);
+            assertAddresses(selector, A, B, C);
+
+            selector.markdown(A);
+            assertAddresses(selector, B, C);
+
+            // not probed before the backoff expires
+            ticker.increment(500, MILLISECONDS);
+            selector.probeHosts();
+            assertEquals(probes.get(), 0);
+
+            // failed probe doubles the backoff
+            ticker.increment(500, MILLISECONDS);
+            selector.probeHosts();
+            assertEquals(probes.get(), 1);
+            assertAddresses(selector, B, C);
+
+            ticker.increment(1, SECONDS);
+            selector.probeHosts();
+            assertEquals(probes.get(), 1);
+
+            // successful probe returns the address to the rotation
+            reachable.add(A);
+            ticker.increment(1, SECONDS);
+            selector.probeHosts();
+            assertEquals(probes.get(), 2);
+            assertAddresses(selector, A, B, C);
+        }
+    }
+
+    @Test
+    public void testAllAddressesDown()
+            throws Exception
+    {
+        HealthAwareAddressSelectorConfig config = new HealthAwareAddressSelectorConfig()
+                .setMarkdownConsecutiveFailures(1);
+        try (HealthAwareAddressSelector selector = createSelector(config, A, B)) {
+            selector.markdown(A);
+            assertAddresses(selector, B);
+            selector.markdown(B);
+            assertAddresses(selector, A, B);
+        }
+    }
+
+    @Test
+    public void testErrorRateOutlier()
+            throws Exception
+    {
+        HealthAwareAddressSelectorConfig config = new HealthAwareAddressSelectorConfig()
+                .setMarkdownConsecutiveFailures(1000)
+                .setOutlierMinRequests(10)
+                .setOutlierErrorRateThreshold(0.5);
+        try (HealthAwareAddressSelector selector = createSelector(config, A, B, C, D)) {
+            for (int i = 0; i < 10; i++) {
+                for (HostAndPort address : ImmutableList.of(A, B, C, D)) {
+                    selector.markSuccess(address, new Duration(1, MILLISECONDS));
+                }
+                selector.markdown(A);
+                selector.markdown(A);
+                selector.markdown(B);
+                selector.markdown(C);
+                selector.markdown(C);
+            }
+            selector.detectOutliers();
+
+            // at most half of the addresses are ejected
+            List<HostAndPort> addresses = selector.getAddresses(Optional.empty());
+            assertEquals(addresses.size(), 2);
+            assertTrue(addresses.contains(B));
+            assertTrue(addresses.contains(D));
+        }
+    }
+
+    @Test
+    public void testLatencyOutlier()
+            throws Exception
+    {
+        HealthAwareAddressSelectorConfig config = new HealthAwareAddressSelectorConfig()
+                .setOutlierMinRequests(10)
+                .setOutlierLatencyMultiplier(3.0);
+        try (HealthAwareAddressSelector selector = createSelector(config, A, B, C, D)) {
+            for (int i = 0; i < 20; i++) {
+                selector.markSuccess(A, new Duration(10, MILLISECONDS));
+                selector.markSuccess(B, new Duration(12, MILLISECONDS));
+                selector.markSuccess(C, new Duration(11, MILLISECONDS));
+                selector.markSuccess(D, new Duration(100, MILLISECONDS));
+            }
+            selector.detectOutliers();
+            assertAddresses(selector, A, B, C);
+        }
+    }
+
+    @Test
+    public void testDnsRefresh()
+            throws Exception
+    {
+        dns.put("service", ImmutableList.of(ip(1), ip(2)));
+        HealthAwareAddressSelectorConfig config = new HealthAwareAddressSelectorConfig()
+                .setAddressesList(ImmutableList.of(HostAndPort.fromParts("service", 1234)))
+                .setMarkdownConsecutiveFailures(1);
+        try (HealthAwareAddressSelector selector = createSelector(config)) {
+            assertAddresses(selector, A, B);
+
+            // health is retained for addresses that are still resolved
+            selector.markdown(A);
+            dns.put("service", ImmutableList.of(ip(1), ip(2), ip(3)));
+            selector.refreshAddresses();
+            assertAddresses(selector, B, C);
+
+            // last resolution is kept when resolution fails
+            dns.remove("service");
+            selector.refreshAddresses();
+            assertAddresses(selector, B, C);
+
+            dns.put("service", ImmutableList.of(ip(4)));
+            selector.refreshAddresses();
+            assertAddresses(selector, D);
+        }
+    }
+
+    private HealthAwareAddressSelector createSelector(HealthAwareAddressSelectorConfig config, HostAndPort... addresses)
+    {
+        if (addresses.length > 0) {
+            config.setAddressesList(ImmutableList.copyOf(addresses));
+        }
+        return new HealthAwareAddressSelector(
+                config,
+                this::resolve,
+                address -> {
+                    probes.incrementAndGet();
+                    return reachable.contains(address);
+                },
+                ticker,
+                newSingleThreadScheduledExecutor(),
+                newDirectExecutorService());
+    }
+
+    private List<InetAddress> resolve(String host)
+            throws UnknownHostException
+    {
+        if (host.startsWith("10.")) {
+            return ImmutableList.of(InetAddress.getByName(host));
+        }
+        List<InetAddress> addresses = dns.get(host);
+        if (addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return addresses;
+    }
+
+    private static InetAddress ip(int lastOctet)
+            throws UnknownHostException
+    {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) lastOctet});
+    }
+
+    private static void assertAddresses(HealthAwareAddressSelector selector, HostAndPort... expected)
+    {
+        assertEquals(ImmutableSet.copyOf(selector.getAddresses(Optional.empty())), ImmutableSet.copyOf(expected));
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private volatile long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void increment(long delta, TimeUnit unit)
+        {
+            time += unit.toNanos(delta);
+        }
+    }
+}
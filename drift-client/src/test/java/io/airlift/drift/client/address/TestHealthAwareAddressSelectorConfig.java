@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
+import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
+import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class TestHealthAwareAddressSelectorConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        assertRecordedDefaults(recordDefaults(HealthAwareAddressSelectorConfig.class)
+                .setAddresses(null)
+                .setDnsRefreshInterval(new Duration(30, SECONDS))
+                .setMarkdownConsecutiveFailures(3)
+                .setMarkdownInitialBackoff(new Duration(1, SECONDS))
+                .setMarkdownMaxBackoff(new Duration(1, MINUTES))
+                .setOutlierDetectionInterval(new Duration(10, SECONDS))
+                .setOutlierMinRequests(20)
+                .setOutlierErrorRateThreshold(0.5)
+                .setOutlierLatencyMultiplier(3.0)
+                .setOutlierMaxEjectionPercent(50)
+                .setProbeInterval(new Duration(1, SECONDS))
+                .setProbeTimeout(new Duration(1, SECONDS)));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("addresses", "abc:8080,xyz:8888")
+                .put("dns-refresh-interval", "5m")
+                .put("markdown.consecutive-failures", "7")
+                .put("markdown.initial-backoff", "100ms")
+                .put("markdown.max-backoff", "10m")
+                .put("outlier.interval", "1m")
+                .put("outlier.min-requests", "99")
+                .put("outlier.error-rate-threshold", "0.25")
+                .put("outlier.latency-multiplier", "5.5")
+                .put("outlier.max-ejection-percent", "10")
+                .put("probe.interval", "3s")
+                .put("probe.timeout", "200ms")
+                .build();
+
+        HealthAwareAddressSelectorConfig expected = new HealthAwareAddressSelectorConfig()
+                .setAddressesList(ImmutableList.of(
+                        HostAndPort.fromParts("abc", 8080),
+                        HostAndPort.fromParts("xyz", 8888)))
+                .setDnsRefreshInterval(new Duration(5, MINUTES))
+                .setMarkdownConsecutiveFailures(7)
+                .setMarkdownInitialBackoff(new Duration(100, MILLISECONDS))
+                .setMarkdownMaxBackoff(new Duration(10, MINUTES))
+                .setOutlierDetectionInterval(new Duration(1, MINUTES))
+                .setOutlierMinRequests(99)
+                .setOutlierErrorRateThreshold(0.25)
+                .setOutlierLatencyMultiplier(5.5)
+                .setOutlierMaxEjectionPercent(10)
+                .setProbeInterval(new Duration(3, SECONDS))
+                .setProbeTimeout(new Duration(200, MILLISECONDS));
+
+        assertFullMapping(properties, expected);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+
+public class TestLoadBalancingAddressSelector
+{
+    private static final HostAndPort A = HostAndPort.fromParts("10.0.0.1", 1234);
+    private static final HostAndPort B = HostAndPort.fromParts("10.0.0.2", 1234);
+    private static final HostAndPort C = HostAndPort.fromParts("10.0.0.3", 1234);
+    private static final HostAndPort D = HostAndPort.fromParts("10.0.0.4", 1234);
+
+    private final TestingTicker ticker = new TestingTicker();
+
+    @Test
+    public void testPrefersLowerLatency()
+    {
+        LoadBalancingAddressSelector selector = createSelector(A, B);
+        selector.markSuccess(A, new Duration(10, MILLISECONDS));
+        selector.markSuccess(B, new Duration(30, MILLISECONDS));
+        assertFirstAddress(selector, A);
+
+        // a higher latency is adopted immediately
+        selector.markSuccess(A, new Duration(50, MILLISECONDS));
+        assertFirstAddress(selector, B);
+
+        // a failure counts as the failure penalty
+        selector.markdown(B);
+        assertFirstAddress(selector, A);
+    }
+
+    @Test
+    public void testPrefersFewerRequestsInFlight()
+    {
+        LoadBalancingAddressSelector selector = createSelector(A, B);
+        selector.markSuccess(A, new Duration(10, MILLISECONDS));
+        selector.markSuccess(B, new Duration(20, MILLISECONDS));
+        assertFirstAddress(selector, A);
+
+        // cost of A is three times the latency of B
+        selector.markRequestStarted(A);
+        selector.markRequestStarted(A);
+        selector.markRequestStarted(A);
+        selector.markRequestStarted(A);
+        selector.markRequestStarted(A);
+        assertFirstAddress(selector, B);
+
+        selector.markRequestFinished(A);
+        selector.markRequestFinished(A);
+        selector.markRequestFinished(A);
+        selector.markRequestFinished(A);
+        selector.markRequestFinished(A);
+        assertFirstAddress(selector, A);
+
+        // unmatched finish does not make the count negative
+        selector.markRequestFinished(A);
+        selector.markRequestStarted(A);
+        selector.markRequestStarted(A);
+        assertFirstAddress(selector, B);
+    }
+
+    @Test
+    public void testLatencyDecays()
+    {
+        LoadBalancingAddressSelector selector = createSelector(A, B);
+        selector.markSuccess(A, new Duration(30, MILLISECONDS));
+        selector.markSuccess(B, new Duration(10, MILLISECONDS));
+        assertFirstAddress(selector, B);
+
+        // after two decay times, the latency of A has decayed to about 4ms
+        ticker.increment(20, SECONDS);
+        selector.markSuccess(B, new Duration(10, MILLISECONDS));
+        assertFirstAddress(selector, A);
+
+        // a lower sample only moves the average part of the way
+        selector.markSuccess(A, new Duration(1, MILLISECONDS));
+        assertFirstAddress(selector, A);
+    }
+
+    @Test
+    public void testAllAddressesReturned()
+    {
+        LoadBalancingAddressSelector selector = createSelector(A, B, C, D);
+        for (int i = 0; i < 100; i++) {
+            List<HostAndPort> addresses = selector.getAddresses(Optional.empty());
+            assertEquals(addresses.size(), 4);
+            assertEquals(ImmutableSet.copyOf(addresses), ImmutableSet.of(A, B, C, D));
+        }
+
+        assertEquals(createSelector(A).getAddresses(Optional.empty()), ImmutableList.of(A));
+        assertEquals(createSelector().getAddresses(Optional.empty()), ImmutableList.of());
+    }
+
+    @Test
+    public void testRetryAddressesRotated()
+    {
+        List<HostAndPort> all = ImmutableList.of(A, B, C, D);
+        LoadBalancingAddressSelector selector = createSelector(A, B, C, D);
+        for (int i = 0; i < 100; i++) {
+            List<HostAndPort> addresses = new ArrayList<>(selector.getAddresses(Optional.empty()));
+            HostAndPort second = addresses.remove(1);
+
+            // apart from the second choice, the addresses are in order starting from the first choice
+            int start = all.indexOf(addresses.get(0));
+            List<HostAndPort> expected = new ArrayList<>();
+            for (int j = 0; j < all.size(); j++) {
+                expected.add(all.get((start + j) % all.size()));
+            }
+            expected.remove(second);
+            assertEquals(addresses, expected);
+        }
+    }
+
+    private LoadBalancingAddressSelector createSelector(HostAndPort... addresses)
+    {
+        ResolvedAddressTable addressTable = new ResolvedAddressTable(
+                ImmutableList.copyOf(addresses),
+                host -> ImmutableList.of(InetAddress.getByName(host)),
+                new Duration(1, TimeUnit.DAYS),
+                ticker,
+                directExecutor());
+        LoadBalancingAddressSelector selector = new LoadBalancingAddressSelector(addressTable, new Duration(10, SECONDS), new Duration(1, SECONDS), ticker);
+        // load is only tracked for addresses that have been selected
+        selector.getAddresses(Optional.empty());
+        return selector;
+    }
+
+    private static void assertFirstAddress(LoadBalancingAddressSelector selector, HostAndPort expected)
+    {
+        // with two addresses, both are always compared
+        for (int i = 0; i < 10; i++) {
+            assertEquals(selector.getAddresses(Optional.empty()).get(0), expected);
+        }
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private volatile long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void increment(long delta, TimeUnit unit)
+        {
+            time += unit.toNanos(delta);
+        }
+    }
+}
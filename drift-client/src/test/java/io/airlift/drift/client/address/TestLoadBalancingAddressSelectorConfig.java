@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
+import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
+import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class TestLoadBalancingAddressSelectorConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        assertRecordedDefaults(recordDefaults(LoadBalancingAddressSelectorConfig.class)
+                .setAddresses(null)
+                .setDnsCacheTtl(new Duration(30, SECONDS))
+                .setLatencyDecayTime(new Duration(10, SECONDS))
+                .setFailurePenalty(new Duration(1, SECONDS)));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("addresses", "abc:8080,xyz:8888")
+                .put("dns-cache-ttl", "5m")
+                .put("latency-decay-time", "30s")
+                .put("failure-penalty", "500ms")
+                .build();
+
+        LoadBalancingAddressSelectorConfig expected = new LoadBalancingAddressSelectorConfig()
+                .setAddressesList(ImmutableList.of(
+                        HostAndPort.fromParts("abc", 8080),
+                        HostAndPort.fromParts("xyz", 8888)))
+                .setDnsCacheTtl(new Duration(5, MINUTES))
+                .setLatencyDecayTime(new Duration(30, SECONDS))
+                .setFailurePenalty(new Duration(500, MILLISECONDS));
+
+        assertFullMapping(properties, expected);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.client.address;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.client.address.SimpleAddressSelectorConfig.AddressOrder;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestResolvedAddressTable
+{
+    private static final HostAndPort SERVICE = HostAndPort.fromParts("service", 1234);
+    private static final HostAndPort A = HostAndPort.fromParts("10.0.0.1", 1234);
+    private static final HostAndPort B = HostAndPort.fromParts("10.0.0.2", 1234);
+    private static final HostAndPort C = HostAndPort.fromParts("10.0.0.3", 1234);
+
+    private final TestingTicker ticker = new TestingTicker();
+    private final Map<String, List<InetAddress>> dns = new ConcurrentHashMap<>();
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    @Test
+    public void testCachedUntilTtlExpires()
+            throws Exception
+    {
+        dns.put("service", ImmutableList.of(ip(1), ip(2)));
+        ResolvedAddressTable table = createTable();
+
+        List<HostAndPort> addresses = table.getAddresses();
+        assertEquals(addresses, ImmutableList.of(A, B));
+        assertEquals(resolutions.get(), 1);
+
+        // snapshot is reused without resolving again
+        dns.put("service", ImmutableList.of(ip(3)));
+        ticker.increment(29, SECONDS);
+        assertSame(table.getAddresses(), addresses);
+        assertEquals(resolutions.get(), 1);
+
+        // once expired, the refresh runs on the executor, which is direct in this test
+        ticker.increment(1, SECONDS);
+        table.getAddresses();
+        assertEquals(resolutions.get(), 2);
+        assertEquals(table.getAddresses(), ImmutableList.of(C));
+    }
+
+    @Test
+    public void testFailedResolutionKeepsLastAddresses()
+            throws Exception
+    {
+        dns.put("service", ImmutableList.of(ip(1)));
+        ResolvedAddressTable table = createTable();
+        assertEquals(table.getAddresses(), ImmutableList.of(A));
+
+        dns.remove("service");
+        assertEquals(table.refresh(), ImmutableList.of(A));
+    }
+
+    @Test
+    public void testRoundRobin()
+            throws Exception
+    {
+        dns.put("service", ImmutableList.of(ip(1), ip(2), ip(3)));
+        SimpleAddressSelector selector = new SimpleAddressSelector(createTable(), AddressOrder.ROUND_ROBIN);
+
+        for (HostAndPort first : ImmutableList.of(A, B, C, A)) {
+            List<HostAndPort> addresses = selector.getAddresses(Optional.empty());
+            assertEquals(addresses.get(0), first);
+            assertEquals(addresses.size(), 3);
+            assertEquals(ImmutableSet.copyOf(addresses), ImmutableSet.of(A, B, C));
+        }
+    }
+
+    @Test
+    public void testFailoverOrderIsSpread()
+            throws Exception
+    {
+        dns.put("service", ImmutableList.of(ip(1), ip(2), ip(3), ip(4), ip(5)));
+        SimpleAddressSelector selector = new SimpleAddressSelector(createTable(), AddressOrder.ROUND_ROBIN);
+
+        // requests that start on the same address do not all fail over to the same address
+        Set<HostAndPort> failoverAddresses = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            List<HostAndPort> addresses = selector.getAddresses(Optional.empty());
+            assertEquals(ImmutableSet.copyOf(addresses).size(), 5);
+            if (addresses.get(0).equals(A)) {
+                failoverAddresses.add(addresses.get(1));
+            }
+        }
+        assertTrue(failoverAddresses.size() > 1, "failover addresses: " + failoverAddresses);
+    }
+
+    private ResolvedAddressTable createTable()
+    {
+        return new ResolvedAddressTable(ImmutableList.of(SERVICE), this::resolve, new Duration(30, SECONDS), ticker, directExecutor());
+    }
+
+    private List<InetAddress> resolve(String host)
+            throws UnknownHostException
+    {
+        resolutions.incrementAndGet();
+        List<InetAddress> addresses = dns.get(host);
+        if (addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return addresses;
+    }
+
+    private static InetAddress ip(int lastOctet)
+            throws UnknownHostException
+    {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) lastOctet});
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private volatile long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void increment(long delta, TimeUnit unit)
+        {
+            time += unit.toNanos(delta);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package io.airlift.drift.client.address;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
 import java.util.Map;
@@ -25,6 +26,10 @@ import java.util.Map;
 import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
 import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
 import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static io.airlift.drift.client.address.SimpleAddressSelectorConfig.AddressOrder.RANDOM;
+import static io.airlift.drift.client.address.SimpleAddressSelectorConfig.AddressOrder.ROUND_ROBIN;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TestSimpleAddressSelectorConfig
 {
@@ -32,7 +37,9 @@ public class TestSimpleAddressSelectorConfig
     public void testDefaults()
     {
         assertRecordedDefaults(recordDefaults(SimpleAddressSelectorConfig.class)
-                .setAddresses(null));
+                .setAddresses(null)
+                .setDnsCacheTtl(new Duration(30, SECONDS))
+                .setAddressOrder(RANDOM));
     }
 
     @Test
@@ -40,12 +47,16 @@ public class TestSimpleAddressSelectorConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("addresses", "abc:8080,xyz:8888")
+                .put("dns-cache-ttl", "5m")
+                .put("address-order", "ROUND_ROBIN")
                 .build();
 
         SimpleAddressSelectorConfig expected = new SimpleAddressSelectorConfig()
                 .setAddressesList(ImmutableList.of(
                         HostAndPort.fromParts("abc", 8080),
-                        HostAndPort.fromParts("xyz", 8888)));
+                        HostAndPort.fromParts("xyz", 8888)))
+                .setDnsCacheTtl(new Duration(5, MINUTES))
+                .setAddressOrder(ROUND_ROBIN);
 
         assertFullMapping(properties, expected);
     }
@@ -23,6 +23,7 @@ import io.airlift.units.Duration;
 import io.airlift.units.MaxDataSize;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.io.File;
@@ -32,6 +33,7 @@ import static io.airlift.drift.transport.apache.ApacheThriftClientConfig.Transpo
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class ApacheThriftClientConfig
 {
@@ -55,6 +57,11 @@ public class ApacheThriftClientConfig
 
     private HostAndPort socksProxy;
 
+    private boolean poolEnabled;
+    private int maxConnectionsPerHost = 64;
+    private Duration connectionIdleTimeout = new Duration(1, MINUTES);
+    private Duration validateAfterInactivity = new Duration(2, SECONDS);
+
     private boolean sslEnabled;
     private File trustCertificate;
     private File key;
@@ -126,6 +133,65 @@ public class ApacheThriftClientConfig
         return this;
     }
 
+    public boolean isPoolEnabled()
+    {
+        return poolEnabled;
+    }
+
+    @Config("thrift.client.pool-enabled")
+    public ApacheThriftClientConfig setPoolEnabled(boolean poolEnabled)
+    {
+        this.poolEnabled = poolEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxConnectionsPerHost()
+    {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * When all connections to a host are in use, requests wait up to the connect timeout for a connection.
+     */
+    @Config("thrift.client.pool.max-connections-per-host")
+    public ApacheThriftClientConfig setMaxConnectionsPerHost(int maxConnectionsPerHost)
+    {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getConnectionIdleTimeout()
+    {
+        return connectionIdleTimeout;
+    }
+
+    @Config("thrift.client.pool.idle-timeout")
+    public ApacheThriftClientConfig setConnectionIdleTimeout(Duration connectionIdleTimeout)
+    {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getValidateAfterInactivity()
+    {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * Idle connections are checked for a closed socket or unexpected data before reuse.
+     */
+    @Config("thrift.client.pool.validate-after-inactivity")
+    public ApacheThriftClientConfig setValidateAfterInactivity(Duration validateAfterInactivity)
+    {
+        this.validateAfterInactivity = validateAfterInactivity;
+        return this;
+    }
+
     @MaxDataSize("1023MB")
     public DataSize getMaxFrameSize()
     {
@@ -17,9 +17,13 @@ package io.airlift.drift.transport.apache;
 
 import io.airlift.configuration.Config;
 
+import javax.validation.constraints.Min;
+
 public class ApacheThriftConnectionFactoryConfig
 {
     private Integer threadCount;
+    private boolean virtualThreadsEnabled;
+    private Integer maxConcurrentRequests;
 
     public Integer getThreadCount()
     {
@@ -27,9 +31,38 @@ public class ApacheThriftConnectionFactoryConfig
     }
 
     @Config("thrift.client.thread-count")
-    public ApacheThriftConnectionFactoryConfig setThreadCount(int threadCount)
+    public ApacheThriftConnectionFactoryConfig setThreadCount(Integer threadCount)
     {
         this.threadCount = threadCount;
         return this;
     }
+
+    public boolean isVirtualThreadsEnabled()
+    {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * Runs each request on a new virtual thread when the JVM supports them, and
+     * on a cached thread pool otherwise. The thread count is ignored in this mode.
+     */
+    @Config("thrift.client.virtual-threads-enabled")
+    public ApacheThriftConnectionFactoryConfig setVirtualThreadsEnabled(boolean virtualThreadsEnabled)
+    {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+    @Config("thrift.client.max-concurrent-requests")
+    public ApacheThriftConnectionFactoryConfig setMaxConcurrentRequests(Integer maxConcurrentRequests)
+    {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
 }
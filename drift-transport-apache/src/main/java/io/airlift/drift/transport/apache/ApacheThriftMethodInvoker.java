@@ -16,7 +16,6 @@
 package io.airlift.drift.transport.apache;
 
 import com.google.common.net.HostAndPort;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import io.airlift.drift.TApplicationException;
@@ -32,26 +31,18 @@ import io.airlift.drift.transport.InvokeRequest;
 import io.airlift.drift.transport.MethodInvoker;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.RetryPolicy;
 import io.airlift.drift.transport.TTransportException;
 import io.airlift.units.Duration;
 import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TProtocol;
-import org.apache.thrift.protocol.TProtocolFactory;
-import org.apache.thrift.transport.TSocket;
-import org.apache.thrift.transport.TTransport;
-import org.apache.thrift.transport.TTransportFactory;
 
-import javax.net.ssl.SSLContext;
-
-import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.Socket;
-import java.net.SocketException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.Semaphore;
 
-import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static io.airlift.drift.TApplicationException.Type.BAD_SEQUENCE_ID;
 import static io.airlift.drift.TApplicationException.Type.INTERNAL_ERROR;
@@ -65,8 +56,8 @@ import static io.airlift.drift.TApplicationException.Type.UNKNOWN_METHOD;
 import static io.airlift.drift.TApplicationException.Type.UNSUPPORTED_CLIENT_TYPE;
 import static io.airlift.drift.TApplicationException.Type.WRONG_METHOD_NAME;
 import static java.lang.String.format;
-import static java.net.Proxy.Type.SOCKS;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.apache.thrift.protocol.TMessageType.CALL;
 import static org.apache.thrift.protocol.TMessageType.EXCEPTION;
 import static org.apache.thrift.protocol.TMessageType.REPLY;
@@ -74,50 +65,61 @@ import static org.apache.thrift.protocol.TMessageType.REPLY;
 public class ApacheThriftMethodInvoker
         implements MethodInvoker
 {
-    // This client only sends a single request per connection, so the sequence id can be constant
-    private static final int SEQUENCE_ID = 77;
-
     private final ListeningExecutorService executorService;
+    private final Optional<Semaphore> concurrencyLimit;
     private final AddressSelector addressSelector;
-    private final TTransportFactory transportFactory;
-    private final TProtocolFactory protocolFactory;
-
-    private final int connectTimeoutMillis;
-    private final int requestTimeoutMillis;
-    private final Optional<HostAndPort> socksProxy;
-    private final Optional<SSLContext> sslContext;
+    private final ConnectionManager connectionManager;
 
-    public ApacheThriftMethodInvoker(
+    ApacheThriftMethodInvoker(
             ListeningExecutorService executorService,
-            TTransportFactory transportFactory,
-            TProtocolFactory protocolFactory,
-            AddressSelector addressSelector,
-            Duration connectTimeout,
-            Duration requestTimeout,
-            Optional<HostAndPort> socksProxy,
-            Optional<SSLContext> sslContext)
+            Optional<Semaphore> concurrencyLimit,
+            ConnectionManager connectionManager,
+            AddressSelector addressSelector)
     {
         this.executorService = requireNonNull(executorService, "executorService is null");
+        this.concurrencyLimit = requireNonNull(concurrencyLimit, "concurrencyLimit is null");
+        this.connectionManager = requireNonNull(connectionManager, "connectionManager is null");
         this.addressSelector = requireNonNull(addressSelector, "addressSelector is null");
-        this.transportFactory = requireNonNull(transportFactory, "transportFactory is null");
-        this.protocolFactory = requireNonNull(protocolFactory, "protocolFactory is null");
-        this.connectTimeoutMillis = Ints.saturatedCast(requireNonNull(connectTimeout, "connectTimeout is null").toMillis());
-        this.requestTimeoutMillis = Ints.saturatedCast(requireNonNull(requestTimeout, "requestTimeout is null").toMillis());
-        this.socksProxy = requireNonNull(socksProxy, "socksProxy is null");
-        this.sslContext = requireNonNull(sslContext, "sslContext is null");
     }
 
     @Override
     public ListenableFuture<Object> invoke(InvokeRequest request)
     {
         try {
-            return executorService.submit(() -> invokeSynchronous(request, new ResultHandler() {}));
+            return executorService.submit(() -> invokeWithConcurrencyLimit(request));
         }
         catch (Exception e) {
             return immediateFailedFuture(toDriftException(e));
         }
     }
 
+    @Override
+    public Object invokeSync(InvokeRequest request)
+            throws Exception
+    {
+        // socket I/O is blocking, so run the request on the calling thread rather than handing it to the executor
+        return invokeWithConcurrencyLimit(request);
+    }
+
+    private Object invokeWithConcurrencyLimit(InvokeRequest request)
+            throws Exception
+    {
+        if (!concurrencyLimit.isPresent()) {
+            return invokeSynchronous(request, new ResultHandler() {});
+        }
+
+        // the permit is acquired on the invocation thread, so with virtual threads
+        // waiting requests are parked rather than holding a platform thread
+        Semaphore semaphore = concurrencyLimit.get();
+        semaphore.acquire();
+        try {
+            return invokeSynchronous(request, new ResultHandler() {});
+        }
+        finally {
+            semaphore.release();
+        }
+    }
+
     private Object invokeSynchronous(InvokeRequest request, ResultHandler resultHandler)
             throws Exception
     {
@@ -126,29 +128,73 @@ public class ApacheThriftMethodInvoker
             throw new TTransportException("No hosts available");
         }
 
+        Optional<RetryPolicy> retryPolicy = request.getMethod().getRetryPolicy();
+        retryPolicy.ifPresent(policy -> policy.getBudget().recordRequest());
+        long startNanos = System.nanoTime();
+        Optional<Duration> timeout = request.getTimeout();
+        OptionalLong deadlineNanos = timeout.isPresent() ? OptionalLong.of(startNanos + timeout.get().roundTo(NANOSECONDS)) : OptionalLong.empty();
+
         Exception lastException = null;
-        for (HostAndPort address : addresses) {
-            TSocket socket = createTSocket(address);
-            if (!socket.isOpen()) {
-                try {
-                    socket.open();
+        boolean lastHostFailure = false;
+        int attempts = 0;
+        Iterator<HostAndPort> addressIterator = addresses.iterator();
+        while (true) {
+            if (!addressIterator.hasNext()) {
+                // only requests that did not reach a healthy host are repeated on a host that was already tried
+                if (!retryPolicy.isPresent() || !request.getMethod().isIdempotent() || !lastHostFailure) {
+                    break;
                 }
-                catch (org.apache.thrift.transport.TTransportException e) {
-                    addressSelector.markdown(address);
-                    continue;
+                addressIterator = addresses.iterator();
+            }
+            if (attempts > 0 && retryPolicy.isPresent() && !awaitRetry(retryPolicy.get(), attempts, startNanos, deadlineNanos)) {
+                break;
+            }
+            if (attempts > 0 && deadlineNanos.isPresent() && System.nanoTime() - deadlineNanos.getAsLong() >= 0) {
+                // the socket timeout bounds each attempt, so the deadline is only checked between attempts
+                throw new TTransportException("Invocation did not complete within " + timeout.get(), lastException);
+            }
+            attempts++;
+            HostAndPort address = addressIterator.next();
+
+            ThriftConnection connection;
+            try {
+                connection = connectionManager.getConnection(address);
+            }
+            catch (ConnectionPoolException e) {
+                // the host was not contacted, so it is not marked down
+                if (!e.isExhausted()) {
+                    throw e;
                 }
+                lastException = e;
+                lastHostFailure = false;
+                continue;
+            }
+            catch (TTransportException e) {
+                addressSelector.markdown(address);
+                lastException = e;
+                lastHostFailure = true;
+                continue;
             }
 
+            boolean reusable = false;
+            addressSelector.markRequestStarted(address);
             try {
-                TTransport transport = transportFactory.getTransport(socket);
-                TProtocol protocol = protocolFactory.getProtocol(transport);
+                TProtocol protocol = connection.getProtocol();
+                int sequenceId = connection.nextSequenceId();
 
-                writeRequest(request.getMethod(), request.getParameters(), protocol);
+                long start = System.nanoTime();
+                writeRequest(request.getMethod(), request.getParameters(), sequenceId, protocol);
 
-                return readResponse(request.getMethod(), protocol);
+                Object result = readResponse(request.getMethod(), sequenceId, protocol);
+                reusable = true;
+                addressSelector.markSuccess(address, Duration.nanosSince(start));
+                return result;
             }
             catch (Exception e) {
-                if (resultHandler.isHostDownException(e)) {
+                // these exceptions are only thrown after the entire response is read, so the connection is still in a clean state
+                reusable = e instanceof DriftApplicationException || e instanceof org.apache.thrift.TApplicationException;
+                lastHostFailure = resultHandler.isHostDownException(e);
+                if (lastHostFailure) {
                     addressSelector.markdown(address);
                 }
                 if (!resultHandler.isRetryable(e)) {
@@ -157,7 +203,8 @@ public class ApacheThriftMethodInvoker
                 lastException = e;
             }
             finally {
-                socket.close();
+                addressSelector.markRequestFinished(address);
+                connectionManager.returnConnection(connection, reusable);
             }
         }
         if (lastException == null) {
@@ -166,57 +213,35 @@ public class ApacheThriftMethodInvoker
         throw lastException;
     }
 
-    private TSocket createTSocket(HostAndPort address)
-            throws TTransportException
+    /**
+     * Waits for the backoff delay before the next attempt, and returns false if
+     * the policy does not allow another attempt.
+     */
+    private static boolean awaitRetry(RetryPolicy policy, int failedAttempts, long startNanos, OptionalLong deadlineNanos)
+            throws InterruptedException
     {
-        Proxy proxy = socksProxy
-                .map(socksAddress -> new Proxy(SOCKS, InetSocketAddress.createUnresolved(socksAddress.getHost(), socksAddress.getPort())))
-                .orElse(Proxy.NO_PROXY);
-
-        Socket socket = new Socket(proxy);
-        try {
-            setSocketProperties(socket);
-            socket.connect(new InetSocketAddress(address.getHost(), address.getPort()), Ints.saturatedCast(connectTimeoutMillis));
-
-            if (sslContext.isPresent()) {
-                SSLContext sslContext = this.sslContext.get();
-
-                // SSL connect is to the socks address when present
-                HostAndPort sslConnectAddress = socksProxy.orElse(address);
-
-                socket = sslContext.getSocketFactory().createSocket(socket, sslConnectAddress.getHost(), sslConnectAddress.getPort(), true);
-                setSocketProperties(socket);
-            }
-            return new TSocket(socket);
+        if (failedAttempts >= policy.getMaxAttempts()) {
+            return false;
         }
-        catch (Throwable t) {
-            // something went wrong, close the socket and rethrow
-            try {
-                socket.close();
-            }
-            catch (IOException e) {
-                t.addSuppressed(e);
-            }
-            // unchecked exceptions are not transport exceptions
-            // (any socket related exception will be a checked exception)
-            throwIfUnchecked(t);
-            throw new TTransportException(t);
+        long delayNanos = policy.getBackoffDelay(failedAttempts).roundTo(NANOSECONDS);
+        long retryTimeNanos = System.nanoTime() + delayNanos;
+        if (retryTimeNanos - startNanos >= policy.getMaxRetryTime().roundTo(NANOSECONDS)) {
+            return false;
         }
+        if (deadlineNanos.isPresent() && retryTimeNanos - deadlineNanos.getAsLong() >= 0) {
+            return false;
+        }
+        if (!policy.getBudget().tryAcquire()) {
+            return false;
+        }
+        NANOSECONDS.sleep(delayNanos);
+        return true;
     }
 
-    private void setSocketProperties(Socket socket)
-            throws SocketException
-    {
-        socket.setSoLinger(false, 0);
-        socket.setTcpNoDelay(true);
-        socket.setKeepAlive(true);
-        socket.setSoTimeout(Ints.saturatedCast(requestTimeoutMillis));
-    }
-
-    private static void writeRequest(MethodMetadata method, List<Object> parameters, TProtocol protocol)
+    private static void writeRequest(MethodMetadata method, List<Object> parameters, int sequenceId, TProtocol protocol)
             throws Exception
     {
-        TMessage requestMessage = new TMessage(method.getName(), CALL, SEQUENCE_ID);
+        TMessage requestMessage = new TMessage(method.getName(), CALL, sequenceId);
         protocol.writeMessageBegin(requestMessage);
 
         // write the parameters
@@ -233,7 +258,7 @@ public class ApacheThriftMethodInvoker
         protocol.getTransport().flush();
     }
 
-    private static Object readResponse(MethodMetadata method, TProtocol responseProtocol)
+    private static Object readResponse(MethodMetadata method, int sequenceId, TProtocol responseProtocol)
             throws TException, org.apache.thrift.TException
     {
         // validate response header
@@ -250,7 +275,7 @@ public class ApacheThriftMethodInvoker
         if (!message.name.equals(method.getName())) {
             throw new TApplicationException(WRONG_METHOD_NAME, format("Wrong method name in reply: expected %s but received %s", method.getName(), message.name));
         }
-        if (message.seqid != SEQUENCE_ID) {
+        if (message.seqid != sequenceId) {
             throw new TApplicationException(BAD_SEQUENCE_ID, format("%s failed: out of sequence response", method.getName()));
         }
 
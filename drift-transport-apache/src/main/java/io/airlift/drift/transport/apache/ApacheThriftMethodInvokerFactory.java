@@ -15,6 +15,7 @@
  */
 package io.airlift.drift.transport.apache;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import io.airlift.drift.transport.AddressSelector;
 import io.airlift.drift.transport.MethodInvoker;
@@ -38,6 +39,11 @@ import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.Security;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -51,6 +57,7 @@ import static io.airlift.drift.transport.apache.PemReader.loadTrustStore;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 public class ApacheThriftMethodInvokerFactory<I>
         implements MethodInvokerFactory<I>, Closeable
@@ -58,6 +65,9 @@ public class ApacheThriftMethodInvokerFactory<I>
     private final Function<I, ApacheThriftClientConfig> clientConfigurationProvider;
 
     private final ListeningExecutorService executorService;
+    private final Optional<Semaphore> concurrencyLimit;
+    private final ScheduledExecutorService maintenanceExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("drift-connection-maintenance-%s"));
+    private final Queue<ConnectionPool> connectionPools = new ConcurrentLinkedQueue<>();
 
     public static ApacheThriftMethodInvokerFactory<?> createStaticApacheThriftMethodInvokerFactory(ApacheThriftClientConfig clientConfig)
     {
@@ -77,13 +87,8 @@ public class ApacheThriftMethodInvokerFactory<I>
     {
         requireNonNull(factoryConfig, "factoryConfig is null");
 
-        ThreadFactory threadFactory = daemonThreadsNamed("drift-client-%s");
-        if (factoryConfig.getThreadCount() == null) {
-            executorService = listeningDecorator(newCachedThreadPool(threadFactory));
-        }
-        else {
-            executorService = listeningDecorator(newFixedThreadPool(factoryConfig.getThreadCount(), threadFactory));
-        }
+        executorService = createExecutorService(factoryConfig);
+        concurrencyLimit = Optional.ofNullable(factoryConfig.getMaxConcurrentRequests()).map(Semaphore::new);
         this.clientConfigurationProvider = requireNonNull(clientConfigurationProvider, "clientConfigurationProvider is null");
     }
 
@@ -121,15 +126,50 @@ public class ApacheThriftMethodInvokerFactory<I>
             sslContext = Optional.of(createSslContext(config));
         }
 
-        return new ApacheThriftMethodInvoker(
-                executorService,
+        ConnectionManager connectionManager = new ConnectionFactory(
                 transportFactory,
                 protocolFactory,
-                addressSelector,
                 config.getConnectTimeout(),
                 config.getRequestTimeout(),
                 Optional.ofNullable(config.getSocksProxy()),
                 sslContext);
+        if (config.isPoolEnabled()) {
+            ConnectionPool connectionPool = new ConnectionPool(
+                    connectionManager,
+                    maintenanceExecutor,
+                    config.getMaxConnectionsPerHost(),
+                    config.getConnectTimeout(),
+                    config.getConnectionIdleTimeout(),
+                    config.getValidateAfterInactivity());
+            connectionPools.add(connectionPool);
+            connectionManager = connectionPool;
+        }
+
+        return createMethodInvoker(connectionManager, addressSelector);
+    }
+
+    @VisibleForTesting
+    MethodInvoker createMethodInvoker(ConnectionManager connectionManager, AddressSelector addressSelector)
+    {
+        return new ApacheThriftMethodInvoker(executorService, concurrencyLimit, connectionManager, addressSelector);
+    }
+
+    static ListeningExecutorService createExecutorService(ApacheThriftConnectionFactoryConfig factoryConfig)
+    {
+        if (factoryConfig.isVirtualThreadsEnabled()) {
+            Optional<ExecutorService> virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor("drift-client-");
+            if (virtualThreadExecutor.isPresent()) {
+                return listeningDecorator(virtualThreadExecutor.get());
+            }
+            // virtual threads are not supported by this JVM, so fall back to an unbounded pool
+            return listeningDecorator(newCachedThreadPool(daemonThreadsNamed("drift-client-%s")));
+        }
+
+        ThreadFactory threadFactory = daemonThreadsNamed("drift-client-%s");
+        if (factoryConfig.getThreadCount() == null) {
+            return listeningDecorator(newCachedThreadPool(threadFactory));
+        }
+        return listeningDecorator(newFixedThreadPool(factoryConfig.getThreadCount(), threadFactory));
     }
 
     private static SSLContext createSslContext(ApacheThriftClientConfig config)
@@ -162,6 +202,12 @@ public class ApacheThriftMethodInvokerFactory<I>
     @Override
     public void close()
     {
-        shutdownAndAwaitTermination(executorService, 5, TimeUnit.MINUTES);
+        try {
+            shutdownAndAwaitTermination(executorService, 5, TimeUnit.MINUTES);
+        }
+        finally {
+            maintenanceExecutor.shutdownNow();
+            connectionPools.forEach(ConnectionPool::close);
+        }
     }
 }
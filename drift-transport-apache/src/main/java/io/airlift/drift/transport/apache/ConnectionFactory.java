@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.primitives.Ints;
+import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.Duration;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportFactory;
+
+import javax.net.ssl.SSLContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Optional;
+
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static java.net.Proxy.Type.SOCKS;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Opens a new connection for every request, and closes it when the request completes.
+ */
+class ConnectionFactory
+        implements ConnectionManager
+{
+    private final TTransportFactory transportFactory;
+    private final TProtocolFactory protocolFactory;
+
+    private final int connectTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final Optional<HostAndPort> socksProxy;
+    private final Optional<SSLContext> sslContext;
+
+    public ConnectionFactory(
+            TTransportFactory transportFactory,
+            TProtocolFactory protocolFactory,
+            Duration connectTimeout,
+            Duration requestTimeout,
+            Optional<HostAndPort> socksProxy,
+            Optional<SSLContext> sslContext)
+    {
+        this.transportFactory = requireNonNull(transportFactory, "transportFactory is null");
+        this.protocolFactory = requireNonNull(protocolFactory, "protocolFactory is null");
+        this.connectTimeoutMillis = Ints.saturatedCast(requireNonNull(connectTimeout, "connectTimeout is null").toMillis());
+        this.requestTimeoutMillis = Ints.saturatedCast(requireNonNull(requestTimeout, "requestTimeout is null").toMillis());
+        this.socksProxy = requireNonNull(socksProxy, "socksProxy is null");
+        this.sslContext = requireNonNull(sslContext, "sslContext is null");
+    }
+
+    @Override
+    public ThriftConnection getConnection(HostAndPort address)
+            throws TTransportException
+    {
+        Socket socket = createSocket(address);
+        try {
+            TTransport transport = transportFactory.getTransport(new TSocket(socket));
+            return new ThriftConnection(address, socket, transport, protocolFactory.getProtocol(transport));
+        }
+        catch (org.apache.thrift.transport.TTransportException | RuntimeException e) {
+            try {
+                socket.close();
+            }
+            catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throwIfUnchecked(e);
+            throw new TTransportException(e);
+        }
+    }
+
+    @Override
+    public void returnConnection(ThriftConnection connection, boolean reusable)
+    {
+        connection.close();
+    }
+
+    private Socket createSocket(HostAndPort address)
+            throws TTransportException
+    {
+        Proxy proxy = socksProxy
+                .map(socksAddress -> new Proxy(SOCKS, InetSocketAddress.createUnresolved(socksAddress.getHost(), socksAddress.getPort())))
+                .orElse(Proxy.NO_PROXY);
+
+        Socket socket = new Socket(proxy);
+        try {
+            setSocketProperties(socket);
+            socket.connect(new InetSocketAddress(address.getHost(), address.getPort()), connectTimeoutMillis);
+
+            if (sslContext.isPresent()) {
+                SSLContext sslContext = this.sslContext.get();
+
+                // SSL connect is to the socks address when present
+                HostAndPort sslConnectAddress = socksProxy.orElse(address);
+
+                socket = sslContext.getSocketFactory().createSocket(socket, sslConnectAddress.getHost(), sslConnectAddress.getPort(), true);
+                setSocketProperties(socket);
+            }
+            return socket;
+        }
+        catch (Throwable t) {
+            // something went wrong, close the socket and rethrow
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                t.addSuppressed(e);
+            }
+            // unchecked exceptions are not transport exceptions
+            // (any socket related exception will be a checked exception)
+            throwIfUnchecked(t);
+            throw new TTransportException(t);
+        }
+    }
+
+    private void setSocketProperties(Socket socket)
+            throws SocketException
+    {
+        socket.setSoLinger(false, 0);
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.setSoTimeout(requestTimeoutMillis);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.TTransportException;
+
+interface ConnectionManager
+{
+    ThriftConnection getConnection(HostAndPort address)
+            throws TTransportException;
+
+    /**
+     * Returns a connection obtained from {@link #getConnection}. If the
+     * connection is not reusable, because the request on it did not complete
+     * cleanly, it is closed.
+     */
+    void returnConnection(ThriftConnection connection, boolean reusable);
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.Duration;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Pool of open connections for each host. A connection is used by one request
+ * at a time, so the number of connections to a host is bounded, and requests
+ * wait for a connection when all of them are in use. Idle connections are
+ * reused most recently used first, so rarely used connections age out, and
+ * connections that were idle for a while are validated before they are reused.
+ */
+class ConnectionPool
+        implements ConnectionManager, Closeable
+{
+    private final ConnectionManager connectionFactory;
+    private final int maxConnectionsPerHost;
+    private final long maxWaitNanos;
+    private final long idleTimeoutNanos;
+    private final long validateAfterInactivityNanos;
+
+    private final ConcurrentMap<HostAndPort, HostConnections> pools = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> cleanupTask;
+
+    private volatile boolean closed;
+
+    public ConnectionPool(
+            ConnectionManager connectionFactory,
+            ScheduledExecutorService maintenanceExecutor,
+            int maxConnectionsPerHost,
+            Duration maxWait,
+            Duration idleTimeout,
+            Duration validateAfterInactivity)
+    {
+        this.connectionFactory = requireNonNull(connectionFactory, "connectionFactory is null");
+        requireNonNull(maintenanceExecutor, "maintenanceExecutor is null");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxWaitNanos = maxWait.roundTo(NANOSECONDS);
+        this.idleTimeoutNanos = idleTimeout.roundTo(NANOSECONDS);
+        this.validateAfterInactivityNanos = validateAfterInactivity.roundTo(NANOSECONDS);
+
+        cleanupTask = maintenanceExecutor.scheduleWithFixedDelay(this::cleanUp, 1, 1, SECONDS);
+    }
+
+    @Override
+    public ThriftConnection getConnection(HostAndPort address)
+            throws TTransportException
+    {
+        if (closed) {
+            throw new ConnectionPoolException("Connection pool is closed", false);
+        }
+
+        HostConnections connections = pools.computeIfAbsent(address, ignored -> new HostConnections());
+        try {
+            if (!connections.getPermits().tryAcquire(maxWaitNanos, NANOSECONDS)) {
+                throw new ConnectionPoolException("Timed out waiting for one of " + maxConnectionsPerHost + " connections to " + address, true);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionPoolException("Interrupted while waiting for a connection to " + address, false);
+        }
+
+        try {
+            ThriftConnection connection = connections.pollIdle();
+            while (connection != null) {
+                long idleNanos = System.nanoTime() - connection.getLastUsedNanos();
+                if (idleNanos < idleTimeoutNanos && (idleNanos < validateAfterInactivityNanos || connection.isValid())) {
+                    return connection;
+                }
+                connection.close();
+                connection = connections.pollIdle();
+            }
+            return connectionFactory.getConnection(address);
+        }
+        catch (Throwable t) {
+            connections.getPermits().release();
+            throw t;
+        }
+    }
+
+    @Override
+    public void returnConnection(ThriftConnection connection, boolean reusable)
+    {
+        HostConnections connections = pools.get(connection.getAddress());
+        if (reusable && !closed && connections != null) {
+            connection.markUsed();
+            connections.addIdle(connection);
+            // connections returned while the pool was closing would not be closed otherwise
+            if (closed) {
+                connections.closeIdle();
+            }
+        }
+        else {
+            connection.close();
+        }
+        if (connections != null) {
+            connections.getPermits().release();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        cleanupTask.cancel(false);
+        for (HostConnections connections : pools.values()) {
+            connections.closeIdle();
+        }
+    }
+
+    private void cleanUp()
+    {
+        long now = System.nanoTime();
+        for (HostConnections connections : pools.values()) {
+            connections.closeExpired(now);
+        }
+    }
+
+    private final class HostConnections
+    {
+        private final Semaphore permits = new Semaphore(maxConnectionsPerHost);
+        // most recently used connections are at the head
+        private final ConcurrentLinkedDeque<ThriftConnection> idle = new ConcurrentLinkedDeque<>();
+
+        public Semaphore getPermits()
+        {
+            return permits;
+        }
+
+        public ThriftConnection pollIdle()
+        {
+            return idle.pollFirst();
+        }
+
+        public void addIdle(ThriftConnection connection)
+        {
+            idle.addFirst(connection);
+        }
+
+        public void closeExpired(long now)
+        {
+            for (Iterator<ThriftConnection> iterator = idle.descendingIterator(); iterator.hasNext(); ) {
+                ThriftConnection connection = iterator.next();
+                if (now - connection.getLastUsedNanos() < idleTimeoutNanos) {
+                    // remaining connections were used more recently
+                    return;
+                }
+                // only close the connection if it was not borrowed concurrently
+                if (idle.remove(connection)) {
+                    connection.close();
+                }
+            }
+        }
+
+        public void closeIdle()
+        {
+            ThriftConnection connection = idle.pollFirst();
+            while (connection != null) {
+                connection.close();
+                connection = idle.pollFirst();
+            }
+        }
+    }
+}
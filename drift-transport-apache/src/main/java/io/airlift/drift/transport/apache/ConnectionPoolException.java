@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import io.airlift.drift.transport.TTransportException;
+
+/**
+ * A connection could not be taken from the pool for a reason local to this client,
+ * so the failure says nothing about the health of the host.
+ */
+class ConnectionPoolException
+        extends TTransportException
+{
+    private final boolean exhausted;
+
+    ConnectionPoolException(String message, boolean exhausted)
+    {
+        super(message);
+        this.exhausted = exhausted;
+    }
+
+    /**
+     * Returns true if every connection to the host was in use, in which case another
+     * host can be tried. Otherwise the pool is closed or the caller was interrupted.
+     */
+    public boolean isExhausted()
+    {
+        return exhausted;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import com.google.common.net.HostAndPort;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Open socket to a host with the transport and protocol layered on top. A
+ * connection is used by a single request at a time, and each request on the
+ * connection gets a new sequence id.
+ */
+class ThriftConnection
+        implements Closeable
+{
+    private final HostAndPort address;
+    private final Socket socket;
+    private final TTransport transport;
+    private final TProtocol protocol;
+
+    private int sequenceId;
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    public ThriftConnection(HostAndPort address, Socket socket, TTransport transport, TProtocol protocol)
+    {
+        this.address = requireNonNull(address, "address is null");
+        this.socket = requireNonNull(socket, "socket is null");
+        this.transport = requireNonNull(transport, "transport is null");
+        this.protocol = requireNonNull(protocol, "protocol is null");
+    }
+
+    public HostAndPort getAddress()
+    {
+        return address;
+    }
+
+    public TProtocol getProtocol()
+    {
+        return protocol;
+    }
+
+    public int nextSequenceId()
+    {
+        sequenceId++;
+        return sequenceId;
+    }
+
+    public long getLastUsedNanos()
+    {
+        return lastUsedNanos;
+    }
+
+    public void markUsed()
+    {
+        lastUsedNanos = System.nanoTime();
+    }
+
+    /**
+     * Checks that the server has not closed the connection, and that there
+     * is no unexpected data waiting to be read. This blocks for up to a
+     * millisecond, so it should only be used on connections that were idle.
+     */
+    public boolean isValid()
+    {
+        if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+
+        try {
+            InputStream input = socket.getInputStream();
+            if (input.available() > 0) {
+                return false;
+            }
+
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                // end of stream means the server closed the connection, and any data is unexpected
+                input.read();
+                return false;
+            }
+            catch (SocketTimeoutException e) {
+                return true;
+            }
+            finally {
+                socket.setSoTimeout(timeout);
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        transport.close();
+    }
+}
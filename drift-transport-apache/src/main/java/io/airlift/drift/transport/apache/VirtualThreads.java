@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import io.airlift.log.Logger;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual thread executors on JVMs that support them. The project is
+ * compiled for older JVMs, so the virtual thread API is accessed reflectively.
+ */
+final class VirtualThreads
+{
+    private static final Logger log = Logger.get(VirtualThreads.class);
+
+    private VirtualThreads() {}
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task, or
+     * empty if virtual threads are not available in this JVM.
+     */
+    public static Optional<ExecutorService> newVirtualThreadPerTaskExecutor(String namePrefix)
+    {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return Optional.of((ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory));
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // virtual threads are missing, or are a disabled preview feature
+            log.warn("Virtual threads are not available in this JVM, so platform threads are used instead: %s", e);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.transport.InvokeRequest;
+import io.airlift.drift.transport.MethodInvoker;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.ResultsClassifier;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.HotspotThreadProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static org.apache.thrift.protocol.TMessageType.REPLY;
+
+/**
+ * Measures the latency of completing a burst of concurrent calls through the
+ * Apache transport invoker with each executor mode. The calls use a simulated
+ * connection, which blocks in flush to model a remote request, so only the
+ * executor and the concurrency limit of the invoker are measured. Allocation
+ * is reported by the GC profiler, and the peak number of platform threads by
+ * the HotSpot thread profiler.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkApacheExecutors
+{
+    private static final long CALL_MILLIS = 10;
+    private static final HostAndPort ADDRESS = HostAndPort.fromParts("localhost", 1234);
+
+    @Param({"fixed", "cached", "virtual", "virtual-limited"})
+    private String executor = "virtual";
+
+    @Param("10000")
+    private int concurrentCalls = 10_000;
+
+    private ApacheThriftMethodInvokerFactory<Void> methodInvokerFactory;
+    private MethodInvoker methodInvoker;
+    private InvokeRequest request;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        ApacheThriftConnectionFactoryConfig config = new ApacheThriftConnectionFactoryConfig();
+        switch (executor) {
+            case "fixed":
+                config.setThreadCount(200);
+                break;
+            case "cached":
+                break;
+            case "virtual":
+                config.setVirtualThreadsEnabled(true);
+                break;
+            case "virtual-limited":
+                config.setVirtualThreadsEnabled(true);
+                config.setMaxConcurrentRequests(1000);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+        methodInvokerFactory = new ApacheThriftMethodInvokerFactory<>(config, clientIdentity -> new ApacheThriftClientConfig());
+        methodInvoker = methodInvokerFactory.createMethodInvoker(new SimulatedConnectionManager(createReply()), context -> ImmutableList.of(ADDRESS));
+        request = new InvokeRequest(createMethod(), Optional.empty(), ImmutableMap.of(), ImmutableList.of("request"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        methodInvokerFactory.close();
+    }
+
+    @Benchmark
+    public List<Object> concurrentCalls()
+            throws Exception
+    {
+        List<ListenableFuture<Object>> futures = new ArrayList<>(concurrentCalls);
+        for (int i = 0; i < concurrentCalls; i++) {
+            futures.add(methodInvoker.invoke(request));
+        }
+        return allAsList(futures).get();
+    }
+
+    private static byte[] createReply()
+            throws Exception
+    {
+        TMemoryBuffer buffer = new TMemoryBuffer(64);
+        TProtocol protocol = new TBinaryProtocol(buffer);
+        // each call uses a new connection, so the response is always the first sequence id
+        protocol.writeMessageBegin(new TMessage("test", REPLY, 1));
+        protocol.writeStructBegin(new TStruct("test_result"));
+        protocol.writeFieldBegin(new TField("success", TType.STRING, (short) 0));
+        protocol.writeString("response");
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        return Arrays.copyOf(buffer.getArray(), buffer.length());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod()
+    {
+        ThriftCodec<Object> codec = (ThriftCodec<Object>) (Object) new ThriftCodecManager().getCodec(String.class);
+        return new MethodMetadata(
+                "test",
+                ImmutableList.of(new ParameterMetadata((short) 1, "value", codec)),
+                codec,
+                ImmutableMap.of(),
+                false,
+                new ResultsClassifier() {});
+    }
+
+    private static class SimulatedConnectionManager
+            implements ConnectionManager
+    {
+        private final byte[] reply;
+
+        public SimulatedConnectionManager(byte[] reply)
+        {
+            this.reply = reply;
+        }
+
+        @Override
+        public ThriftConnection getConnection(HostAndPort address)
+        {
+            TTransport transport = new SimulatedTransport(reply);
+            return new ThriftConnection(address, new Socket(), transport, new TBinaryProtocol(transport));
+        }
+
+        @Override
+        public void returnConnection(ThriftConnection connection, boolean reusable)
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Transport that discards the request, and blocks in flush to simulate
+     * the latency of a remote call before returning the canned reply.
+     */
+    private static class SimulatedTransport
+            extends TTransport
+    {
+        private final byte[] reply;
+        private int position;
+
+        public SimulatedTransport(byte[] reply)
+        {
+            this.reply = reply;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void open()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length)
+        {
+        }
+
+        @Override
+        public void flush()
+                throws TTransportException
+        {
+            try {
+                Thread.sleep(CALL_MILLIS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TTransportException(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+        {
+            int count = Math.min(length, reply.length - position);
+            System.arraycopy(reply, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkApacheExecutors.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .addProfiler(HotspotThreadProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
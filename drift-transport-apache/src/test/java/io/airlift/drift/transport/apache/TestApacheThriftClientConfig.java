@@ -34,6 +34,7 @@ import static io.airlift.drift.transport.apache.ApacheThriftClientConfig.Transpo
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TestApacheThriftClientConfig
 {
@@ -46,6 +47,10 @@ public class TestApacheThriftClientConfig
                 .setConnectTimeout(new Duration(500, MILLISECONDS))
                 .setRequestTimeout(new Duration(1, MINUTES))
                 .setSocksProxy(null)
+                .setPoolEnabled(false)
+                .setMaxConnectionsPerHost(64)
+                .setConnectionIdleTimeout(new Duration(1, MINUTES))
+                .setValidateAfterInactivity(new Duration(2, SECONDS))
                 .setMaxFrameSize(new DataSize(16, MEGABYTE))
                 .setMaxStringSize(new DataSize(16, MEGABYTE))
                 .setSslEnabled(false)
@@ -63,6 +68,10 @@ public class TestApacheThriftClientConfig
                 .put("thrift.client.connect-timeout", "99ms")
                 .put("thrift.client.request-timeout", "33m")
                 .put("thrift.client.socks-proxy", "localhost:11")
+                .put("thrift.client.pool-enabled", "true")
+                .put("thrift.client.pool.max-connections-per-host", "8")
+                .put("thrift.client.pool.idle-timeout", "3m")
+                .put("thrift.client.pool.validate-after-inactivity", "7s")
                 .put("thrift.client.max-frame-size", "55MB")
                 .put("thrift.client.max-string-size", "66MB")
                 .put("thrift.client.ssl.enabled", "true")
@@ -77,6 +86,10 @@ public class TestApacheThriftClientConfig
                 .setConnectTimeout(new Duration(99, MILLISECONDS))
                 .setRequestTimeout(new Duration(33, MINUTES))
                 .setSocksProxy(HostAndPort.fromParts("localhost", 11))
+                .setPoolEnabled(true)
+                .setMaxConnectionsPerHost(8)
+                .setConnectionIdleTimeout(new Duration(3, MINUTES))
+                .setValidateAfterInactivity(new Duration(7, SECONDS))
                 .setMaxFrameSize(new DataSize(55, MEGABYTE))
                 .setMaxStringSize(new DataSize(66, MEGABYTE))
                 .setSslEnabled(true)
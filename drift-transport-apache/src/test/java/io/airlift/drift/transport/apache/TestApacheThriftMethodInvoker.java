@@ -21,26 +21,38 @@ import com.google.common.collect.Iterables;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.drift.annotations.ThriftConstructor;
+import io.airlift.drift.annotations.ThriftField;
+import io.airlift.drift.annotations.ThriftStruct;
 import io.airlift.drift.codec.ThriftCodec;
 import io.airlift.drift.codec.ThriftCodecManager;
 import io.airlift.drift.transport.AddressSelector;
+import io.airlift.drift.transport.DriftApplicationException;
 import io.airlift.drift.transport.InvokeRequest;
 import io.airlift.drift.transport.MethodInvoker;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.ParameterMetadata;
 import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.TTransportException;
 import io.airlift.drift.transport.apache.scribe.apache.LogEntry;
 import io.airlift.drift.transport.apache.scribe.apache.ResultCode;
 import io.airlift.drift.transport.apache.scribe.apache.ScribeService;
 import io.airlift.drift.transport.apache.scribe.apache.scribe;
 import io.airlift.drift.transport.apache.scribe.apache.scribe.AsyncClient.Log_call;
+import io.airlift.units.Duration;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.async.AsyncMethodCallback;
 import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TBinaryProtocol.Factory;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.TServer.Args;
 import org.apache.thrift.server.TSimpleServer;
@@ -51,15 +63,27 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransportFactory;
 import org.testng.annotations.Test;
 
+import java.net.ServerSocket;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static io.airlift.drift.codec.metadata.ThriftType.list;
 import static java.util.Collections.nCopies;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class TestApacheThriftMethodInvoker
 {
@@ -84,13 +108,106 @@ public class TestApacheThriftMethodInvoker
         assertEquals(scribeService.getMessages(), expectedMessages);
     }
 
+    @Test
+    public void testInvokeSyncApplicationException()
+            throws Exception
+    {
+        testProcessor(applicationExceptionProcessor("application failure"), ImmutableList.of(address -> {
+            try (ApacheThriftMethodInvokerFactory<Void> methodInvokerFactory = createMethodInvokerFactory(false)) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(address), null);
+                Exception failure = assertInvokeSyncFailure(methodInvoker, DriftApplicationException.class);
+                assertTrue(failure.getCause() instanceof TestingException, "unexpected cause: " + failure.getCause());
+                assertEquals(failure.getCause().getMessage(), "application failure");
+            }
+            return 0;
+        }));
+    }
+
+    @Test
+    public void testInvokeSyncTransportException()
+            throws Exception
+    {
+        HostAndPort address;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            address = HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+        }
+
+        // nothing is listening on the port, so both paths fail with the same transport exception
+        try (ApacheThriftMethodInvokerFactory<Void> methodInvokerFactory = createMethodInvokerFactory(false)) {
+            MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(address), null);
+            assertInvokeSyncFailure(methodInvoker, TTransportException.class);
+        }
+    }
+
+    @Test
+    public void testConnectionPoolFailuresDoNotMarkHostDown()
+            throws Exception
+    {
+        List<HostAndPort> markedDown = new CopyOnWriteArrayList<>();
+        ScheduledExecutorService maintenanceExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("test-connection-pool-%s"));
+        try (ServerSocket serverSocket = new ServerSocket(0);
+                ApacheThriftMethodInvokerFactory<Void> methodInvokerFactory = createMethodInvokerFactory(true)) {
+            HostAndPort address = HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+            AddressSelector addressSelector = new AddressSelector()
+            {
+                @Override
+                public List<HostAndPort> getAddresses(Optional<String> addressSelectionContext)
+                {
+                    return ImmutableList.of(address);
+                }
+
+                @Override
+                public void markdown(HostAndPort host)
+                {
+                    markedDown.add(host);
+                }
+            };
+
+            ConnectionFactory connectionFactory = new ConnectionFactory(
+                    new TTransportFactory(),
+                    new Factory(),
+                    new Duration(10, SECONDS),
+                    new Duration(10, SECONDS),
+                    Optional.empty(),
+                    Optional.empty());
+            ConnectionPool pool = new ConnectionPool(connectionFactory, maintenanceExecutor, 1, new Duration(10, MILLISECONDS), new Duration(1, DAYS), new Duration(1, DAYS));
+            MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(pool, addressSelector);
+            InvokeRequest request = new InvokeRequest(createLogMethod(), Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES));
+
+            // the only connection is borrowed, so the pool is exhausted
+            ThriftConnection borrowed = pool.getConnection(address);
+            assertInvokeSyncFailure(methodInvoker, request, "Timed out waiting for one of 1 connections to " + address);
+            pool.returnConnection(borrowed, true);
+
+            Thread.currentThread().interrupt();
+            try {
+                assertInvokeSyncFailure(methodInvoker, request, "Interrupted while waiting for a connection to " + address);
+                assertTrue(Thread.currentThread().isInterrupted());
+            }
+            finally {
+                Thread.interrupted();
+            }
+
+            pool.close();
+            assertInvokeSyncFailure(methodInvoker, request, "Connection pool is closed");
+
+            assertEquals(markedDown, ImmutableList.of());
+        }
+        finally {
+            maintenanceExecutor.shutdownNow();
+        }
+    }
+
     private static List<LogEntry> testProcessor(TProcessor processor)
             throws Exception
     {
         int invocationCount = testProcessor(processor, ImmutableList.of(
                 address -> logThrift(address, MESSAGES),
                 address -> logThriftAsync(address, MESSAGES),
-                address -> logApacheThriftInvocationHandler(address, DRIFT_MESSAGES)));
+                address -> logApacheThriftInvocationHandler(address, DRIFT_MESSAGES, false, false),
+                address -> logApacheThriftInvocationHandler(address, DRIFT_MESSAGES, false, true),
+                // the simple server handles one connection at a time, so the pooled client must be last
+                address -> logApacheThriftInvocationHandler(address, DRIFT_MESSAGES, true, false)));
 
         return newArrayList(Iterables.concat(nCopies(invocationCount, MESSAGES)));
     }
@@ -187,34 +304,143 @@ public class TestApacheThriftMethodInvoker
         return 1;
     }
 
-    private static int logApacheThriftInvocationHandler(HostAndPort address, List<io.airlift.drift.transport.apache.scribe.drift.LogEntry> entries)
+    private static int logApacheThriftInvocationHandler(HostAndPort address, List<io.airlift.drift.transport.apache.scribe.drift.LogEntry> entries, boolean poolEnabled, boolean sync)
     {
         AddressSelector addressSelector = context -> ImmutableList.of(address);
-        ApacheThriftClientConfig config = new ApacheThriftClientConfig();
-        ApacheThriftConnectionFactoryConfig factoryConfig = new ApacheThriftConnectionFactoryConfig();
-        try (ApacheThriftMethodInvokerFactory<Void> methodInvokerFactory = new ApacheThriftMethodInvokerFactory<>(factoryConfig, clientIdentity -> config)) {
+        try (ApacheThriftMethodInvokerFactory<Void> methodInvokerFactory = createMethodInvokerFactory(poolEnabled)) {
             MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(addressSelector, null);
+            InvokeRequest request = new InvokeRequest(createLogMethod(), Optional.empty(), ImmutableMap.of(), ImmutableList.of(entries));
+
+            // pooled connections are reused, so each request must get a new sequence id
+            int invocations = poolEnabled ? 3 : 1;
+            for (int i = 0; i < invocations; i++) {
+                if (sync) {
+                    assertEquals(methodInvoker.invokeSync(request), DRIFT_OK);
+                }
+                else {
+                    ListenableFuture<Object> future = methodInvoker.invoke(request);
+                    assertEquals(future.get(), DRIFT_OK);
+                }
+            }
 
-            ParameterMetadata parameter = new ParameterMetadata(
-                    (short) 1,
-                    "messages",
-                    (ThriftCodec<Object>) codecManager.getCodec(list(codecManager.getCodec(io.airlift.drift.transport.apache.scribe.drift.LogEntry.class).getType())));
+            return invocations;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            MethodMetadata methodMetadata = new MethodMetadata(
-                    "Log",
-                    ImmutableList.of(parameter),
-                    (ThriftCodec<Object>) (Object) codecManager.getCodec(io.airlift.drift.transport.apache.scribe.drift.ResultCode.class),
-                    ImmutableMap.of(),
-                    false,
-                    new ResultsClassifier() {});
+    private static ApacheThriftMethodInvokerFactory<Void> createMethodInvokerFactory(boolean poolEnabled)
+    {
+        ApacheThriftClientConfig config = new ApacheThriftClientConfig()
+                .setPoolEnabled(poolEnabled);
+        return new ApacheThriftMethodInvokerFactory<>(new ApacheThriftConnectionFactoryConfig(), clientIdentity -> config);
+    }
 
-            ListenableFuture<Object> future = methodInvoker.invoke(new InvokeRequest(methodMetadata, Optional.empty(), ImmutableMap.of(), ImmutableList.of(entries)));
-            assertEquals(future.get(), DRIFT_OK);
+    private static MethodMetadata createLogMethod()
+    {
+        ParameterMetadata parameter = new ParameterMetadata(
+                (short) 1,
+                "messages",
+                (ThriftCodec<Object>) codecManager.getCodec(list(codecManager.getCodec(io.airlift.drift.transport.apache.scribe.drift.LogEntry.class).getType())));
 
-            return 1;
+        return new MethodMetadata(
+                "Log",
+                ImmutableList.of(parameter),
+                (ThriftCodec<Object>) (Object) codecManager.getCodec(io.airlift.drift.transport.apache.scribe.drift.ResultCode.class),
+                ImmutableMap.of((short) 1, (ThriftCodec<Object>) (Object) codecManager.getCodec(TestingException.class)),
+                false,
+                new ResultsClassifier() {});
+    }
+
+    /**
+     * Invokes the log method both asynchronously and synchronously, and verifies that
+     * {@code invokeSync} throws the exception contained in the future of {@code invoke}.
+     */
+    private static Exception assertInvokeSyncFailure(MethodInvoker methodInvoker, Class<? extends Exception> expectedType)
+    {
+        InvokeRequest request = new InvokeRequest(createLogMethod(), Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES));
+
+        Throwable asyncFailure = null;
+        try {
+            methodInvoker.invoke(request).get(10, SECONDS);
+            fail("expected exception");
         }
-        catch (Exception e) {
+        catch (ExecutionException e) {
+            asyncFailure = e.getCause();
+        }
+        catch (InterruptedException | TimeoutException e) {
             throw new RuntimeException(e);
         }
+        assertTrue(expectedType.isInstance(asyncFailure), "unexpected async failure: " + asyncFailure);
+
+        try {
+            methodInvoker.invokeSync(request);
+            fail("expected exception");
+        }
+        catch (Exception e) {
+            assertEquals(e.getClass(), asyncFailure.getClass());
+            assertEquals(e.getMessage(), asyncFailure.getMessage());
+            return e;
+        }
+        throw new AssertionError();
+    }
+
+    private static void assertInvokeSyncFailure(MethodInvoker methodInvoker, InvokeRequest request, String expectedMessage)
+    {
+        try {
+            methodInvoker.invokeSync(request);
+            fail("expected exception");
+        }
+        catch (Exception e) {
+            assertTrue(e instanceof TTransportException, "unexpected failure: " + e);
+            assertEquals(e.getMessage(), expectedMessage);
+        }
+    }
+
+    /**
+     * Processor that answers every request with a {@link TestingException} in result field 1.
+     */
+    private static TProcessor applicationExceptionProcessor(String message)
+    {
+        return (in, out) -> {
+            TMessage request = in.readMessageBegin();
+            TProtocolUtil.skip(in, TType.STRUCT);
+            in.readMessageEnd();
+
+            out.writeMessageBegin(new TMessage(request.name, TMessageType.REPLY, request.seqid));
+            out.writeStructBegin(new TStruct(request.name + "_result"));
+            out.writeFieldBegin(new TField("exception", TType.STRUCT, (short) 1));
+            out.writeStructBegin(new TStruct("TestingException"));
+            out.writeFieldBegin(new TField("message", TType.STRING, (short) 1));
+            out.writeString(message);
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            out.writeMessageEnd();
+            out.getTransport().flush();
+            return true;
+        };
+    }
+
+    @ThriftStruct
+    public static class TestingException
+            extends Exception
+    {
+        @ThriftConstructor
+        public TestingException(@ThriftField(1) String message)
+        {
+            super(message);
+        }
+
+        @ThriftField(1)
+        @Override
+        public String getMessage()
+        {
+            return super.getMessage();
+        }
     }
 }
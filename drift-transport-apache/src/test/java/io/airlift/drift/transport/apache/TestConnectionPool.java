@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.apache;
+
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.Duration;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestConnectionPool
+{
+    private static final Duration LONG = new Duration(1, DAYS);
+
+    private TestingServer server;
+    private TestingConnectionFactory connectionFactory;
+    private ScheduledExecutorService maintenanceExecutor;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        server = new TestingServer();
+        connectionFactory = new TestingConnectionFactory();
+        maintenanceExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("test-connection-pool-%s"));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+            throws IOException
+    {
+        maintenanceExecutor.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void testReuse()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(10, LONG, LONG, LONG)) {
+            ThriftConnection connection = pool.getConnection(server.getAddress());
+            pool.returnConnection(connection, true);
+
+            assertSame(pool.getConnection(server.getAddress()), connection);
+            assertEquals(connectionFactory.getSockets().size(), 1);
+        }
+    }
+
+    @Test
+    public void testValidateAfterInactivity()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(10, LONG, LONG, new Duration(0, MILLISECONDS))) {
+            // a live connection passes validation
+            ThriftConnection connection = pool.getConnection(server.getAddress());
+            pool.returnConnection(connection, true);
+            assertSame(pool.getConnection(server.getAddress()), connection);
+
+            // a connection closed by the server is replaced
+            pool.returnConnection(connection, true);
+            server.closeConnections();
+            ThriftConnection replacement = pool.getConnection(server.getAddress());
+            assertNotSame(replacement, connection);
+            assertTrue(connectionFactory.getSockets().get(0).isClosed());
+            assertEquals(connectionFactory.getSockets().size(), 2);
+        }
+    }
+
+    @Test
+    public void testStaleConnectionNotValidatedWhenRecentlyUsed()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(10, LONG, LONG, LONG)) {
+            ThriftConnection connection = pool.getConnection(server.getAddress());
+            pool.returnConnection(connection, true);
+            server.closeConnections();
+
+            // validation blocks, so recently used connections are reused without it
+            assertSame(pool.getConnection(server.getAddress()), connection);
+        }
+    }
+
+    @Test
+    public void testIdleConnectionEvictedOnBorrow()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(10, LONG, new Duration(50, MILLISECONDS), LONG)) {
+            ThriftConnection connection = pool.getConnection(server.getAddress());
+            pool.returnConnection(connection, true);
+            Thread.sleep(100);
+
+            assertNotSame(pool.getConnection(server.getAddress()), connection);
+            assertTrue(connectionFactory.getSockets().get(0).isClosed());
+        }
+    }
+
+    @Test
+    public void testIdleConnectionEvictedInBackground()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(10, LONG, new Duration(50, MILLISECONDS), LONG)) {
+            pool.returnConnection(pool.getConnection(server.getAddress()), true);
+
+            // cleanup runs every second
+            Socket socket = connectionFactory.getSockets().get(0);
+            long start = System.nanoTime();
+            while (!socket.isClosed()) {
+                assertTrue(Duration.nanosSince(start).compareTo(new Duration(10, SECONDS)) < 0, "idle connection was not closed");
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost()
+            throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreadsNamed("test-borrower-%s"));
+        try (ConnectionPool pool = createPool(1, new Duration(10, SECONDS), LONG, LONG)) {
+            ThriftConnection connection = pool.getConnection(server.getAddress());
+
+            // second borrower waits until the connection is returned
+            Future<ThriftConnection> waiting = executor.submit(() -> pool.getConnection(server.getAddress()));
+            try {
+                waiting.get(100, MILLISECONDS);
+                fail("expected borrower to wait");
+            }
+            catch (TimeoutException expected) {
+            }
+
+            pool.returnConnection(connection, true);
+            assertSame(waiting.get(10, SECONDS), connection);
+            assertEquals(connectionFactory.getSockets().size(), 1);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMaxWait()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(1, new Duration(50, MILLISECONDS), LONG, LONG)) {
+            pool.getConnection(server.getAddress());
+            try {
+                pool.getConnection(server.getAddress());
+                fail("expected exception");
+            }
+            catch (TTransportException e) {
+                assertTrue(e.getMessage().startsWith("Timed out waiting for one of 1 connections"), e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testNonReusableConnectionClosed()
+            throws Exception
+    {
+        try (ConnectionPool pool = createPool(1, new Duration(10, SECONDS), LONG, LONG)) {
+            ThriftConnection connection = pool.getConnection(server.getAddress());
+            pool.returnConnection(connection, false);
+            assertTrue(connectionFactory.getSockets().get(0).isClosed());
+
+            // permit is released, and a new connection is opened
+            ThriftConnection replacement = pool.getConnection(server.getAddress());
+            assertNotSame(replacement, connection);
+            assertEquals(connectionFactory.getSockets().size(), 2);
+        }
+    }
+
+    @Test
+    public void testClose()
+            throws Exception
+    {
+        ConnectionPool pool = createPool(10, LONG, LONG, LONG);
+        ThriftConnection idle = pool.getConnection(server.getAddress());
+        ThriftConnection borrowed = pool.getConnection(server.getAddress());
+        pool.returnConnection(idle, true);
+
+        pool.close();
+        assertTrue(connectionFactory.getSockets().get(0).isClosed());
+        assertFalse(connectionFactory.getSockets().get(1).isClosed());
+
+        // connections returned after close are closed
+        pool.returnConnection(borrowed, true);
+        assertTrue(connectionFactory.getSockets().get(1).isClosed());
+
+        try {
+            pool.getConnection(server.getAddress());
+            fail("expected exception");
+        }
+        catch (TTransportException e) {
+            assertEquals(e.getMessage(), "Connection pool is closed");
+        }
+    }
+
+    private ConnectionPool createPool(int maxConnectionsPerHost, Duration maxWait, Duration idleTimeout, Duration validateAfterInactivity)
+    {
+        return new ConnectionPool(connectionFactory, maintenanceExecutor, maxConnectionsPerHost, maxWait, idleTimeout, validateAfterInactivity);
+    }
+
+    private static class TestingConnectionFactory
+            implements ConnectionManager
+    {
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ThriftConnection getConnection(HostAndPort address)
+                throws TTransportException
+        {
+            try {
+                Socket socket = new Socket(address.getHost(), address.getPort());
+                sockets.add(socket);
+                TSocket transport = new TSocket(socket);
+                return new ThriftConnection(address, socket, transport, new TBinaryProtocol(transport));
+            }
+            catch (IOException | org.apache.thrift.transport.TTransportException e) {
+                throw new TTransportException(e);
+            }
+        }
+
+        @Override
+        public void returnConnection(ThriftConnection connection, boolean reusable)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<Socket> getSockets()
+        {
+            return sockets;
+        }
+    }
+
+    /**
+     * Server that accepts connections and never reads from them.
+     */
+    private static class TestingServer
+            implements AutoCloseable
+    {
+        private final ServerSocket serverSocket;
+        private final List<Socket> connections = new CopyOnWriteArrayList<>();
+        private final Thread acceptThread;
+
+        public TestingServer()
+                throws IOException
+        {
+            serverSocket = new ServerSocket(0);
+            acceptThread = new Thread(this::accept);
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        private void accept()
+        {
+            try {
+                while (true) {
+                    connections.add(serverSocket.accept());
+                }
+            }
+            catch (IOException ignored) {
+                // server was closed
+            }
+        }
+
+        public HostAndPort getAddress()
+        {
+            return HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+        }
+
+        public void closeConnections()
+                throws IOException, InterruptedException
+        {
+            // connections are accepted asynchronously
+            while (connections.isEmpty()) {
+                Thread.sleep(1);
+            }
+            for (Socket connection : connections) {
+                connection.close();
+            }
+            // wait for the close to reach the client sockets
+            Thread.sleep(100);
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            serverSocket.close();
+            for (Socket connection : connections) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.protocol.TProtocolFactory;
+import io.airlift.drift.protocol.TProtocolReader;
+import io.airlift.drift.protocol.TProtocolWriter;
+import io.netty.buffer.ByteBuf;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Creates protocol readers and writers that operate directly on a {@link ByteBuf}.
+ */
+interface ChannelBufferProtocolFactory
+{
+    /**
+     * Creates a reader that consumes the readable bytes of the buffer.
+     */
+    TProtocolReader createReader(ByteBuf buffer);
+
+    /**
+     * Creates a writer that appends to the buffer.
+     */
+    TProtocolWriter createWriter(ByteBuf buffer);
+
+    /**
+     * Adapts a transport based protocol factory. Every value is copied through
+     * the byte array based {@link io.airlift.drift.transport.TTransport} interface,
+     * so this is much slower than the native implementations.
+     */
+    static ChannelBufferProtocolFactory fromTransportProtocolFactory(TProtocolFactory protocolFactory)
+    {
+        requireNonNull(protocolFactory, "protocolFactory is null");
+        return new ChannelBufferProtocolFactory()
+        {
+            @Override
+            public TProtocolReader createReader(ByteBuf buffer)
+            {
+                return protocolFactory.getProtocol(new TChannelBufferInputTransport(buffer));
+            }
+
+            @Override
+            public TProtocolWriter createWriter(ByteBuf buffer)
+            {
+                return protocolFactory.getProtocol(new TChannelBufferOutputTransport(buffer));
+            }
+        };
+    }
+}
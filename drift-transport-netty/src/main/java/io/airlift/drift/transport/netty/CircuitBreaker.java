@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Circuit breaker for each host, which skips hosts that are failing instead of
+ * paying the connect or request timeout against them again and again. A closed
+ * circuit opens when the failure rate over a sliding window exceeds the threshold,
+ * or when several consecutive requests find the host down. An open circuit rejects
+ * every request until the open duration passes, and then becomes half-open, letting
+ * a limited number of probe requests through. The circuit closes when all of the
+ * probes succeed, and opens again when any of them fails.
+ */
+@ThreadSafe
+public class CircuitBreaker
+{
+    private static final int WINDOW_BUCKETS = 10;
+
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean enabled;
+    private final double failureRateThreshold;
+    private final int minimumRequests;
+    private final int hostDownThreshold;
+    private final long bucketNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<HostAndPort, HostCircuit> circuits = new ConcurrentHashMap<>();
+    private final CounterStat rejections = new CounterStat();
+    private final CounterStat opened = new CounterStat();
+
+    public static CircuitBreaker createCircuitBreaker(DriftNettyConnectionFactoryConfig config)
+    {
+        return new CircuitBreaker(
+                config.isCircuitBreakerEnabled(),
+                config.getCircuitBreakerFailureRateThreshold(),
+                config.getCircuitBreakerMinimumRequests(),
+                config.getCircuitBreakerHostDownThreshold(),
+                config.getCircuitBreakerWindow(),
+                config.getCircuitBreakerOpenDuration(),
+                config.getCircuitBreakerHalfOpenProbes(),
+                Ticker.systemTicker());
+    }
+
+    CircuitBreaker(
+            boolean enabled,
+            double failureRateThreshold,
+            int minimumRequests,
+            int hostDownThreshold,
+            Duration window,
+            Duration openDuration,
+            int halfOpenProbes,
+            Ticker ticker)
+    {
+        checkArgument(failureRateThreshold >= 0 && failureRateThreshold <= 1, "failureRateThreshold must be between 0 and 1");
+        checkArgument(minimumRequests >= 1, "minimumRequests must be at least 1");
+        checkArgument(hostDownThreshold >= 1, "hostDownThreshold must be at least 1");
+        checkArgument(halfOpenProbes >= 1, "halfOpenProbes must be at least 1");
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumRequests = minimumRequests;
+        this.hostDownThreshold = hostDownThreshold;
+        this.bucketNanos = Math.max(1, window.roundTo(NANOSECONDS) / WINDOW_BUCKETS);
+        this.openNanos = openDuration.roundTo(NANOSECONDS);
+        this.halfOpenProbes = halfOpenProbes;
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    /**
+     * Returns true if a request may be sent to the address. When the circuit is
+     * half-open, a true result reserves one of the probes, so the outcome of the
+     * request must be reported with {@link #onSuccess}, {@link #onFailure} or
+     * {@link #onIgnored}.
+     */
+    public boolean tryAcquire(HostAndPort address)
+    {
+        if (!enabled) {
+            return true;
+        }
+        // circuits are only created when a result is recorded, so healthy hosts never lock here
+        HostCircuit circuit = circuits.get(address);
+        if (circuit == null || circuit.tryAcquire(ticker.read())) {
+            return true;
+        }
+        rejections.update(1);
+        return false;
+    }
+
+    public void onSuccess(HostAndPort address)
+    {
+        if (enabled) {
+            circuits.computeIfAbsent(address, ignored -> new HostCircuit()).onSuccess(ticker.read());
+        }
+    }
+
+    /**
+     * Records a failed request, where host down means the host could not be
+     * reached or the result was classified as coming from a host that is down.
+     */
+    public void onFailure(HostAndPort address, boolean hostDown)
+    {
+        if (enabled && circuits.computeIfAbsent(address, ignored -> new HostCircuit()).onFailure(ticker.read(), hostDown)) {
+            opened.update(1);
+        }
+    }
+
+    /**
+     * Releases an acquired request whose outcome says nothing about the host, such as
+     * a canceled request or one that was never sent, so a half-open circuit can send
+     * another probe right away.
+     */
+    public void onIgnored(HostAndPort address)
+    {
+        if (enabled) {
+            HostCircuit circuit = circuits.get(address);
+            if (circuit != null) {
+                circuit.onIgnored();
+            }
+        }
+    }
+
+    State getState(HostAndPort address)
+    {
+        HostCircuit circuit = circuits.get(address);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejections()
+    {
+        return rejections;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getOpened()
+    {
+        return opened;
+    }
+
+    @Managed
+    public Map<String, String> getHostStates()
+    {
+        ImmutableMap.Builder<String, String> states = ImmutableMap.builder();
+        circuits.forEach((address, circuit) -> states.put(address.toString(), circuit.getState().toString()));
+        return states.build();
+    }
+
+    private final class HostCircuit
+    {
+        private volatile State state = State.CLOSED;
+
+        @GuardedBy("this")
+        private final long[] bucketIds = new long[WINDOW_BUCKETS];
+        @GuardedBy("this")
+        private final int[] successes = new int[WINDOW_BUCKETS];
+        @GuardedBy("this")
+        private final int[] failures = new int[WINDOW_BUCKETS];
+        @GuardedBy("this")
+        private int consecutiveHostDown;
+        @GuardedBy("this")
+        private long openUntil;
+        @GuardedBy("this")
+        private long halfOpenSince;
+        @GuardedBy("this")
+        private int probesStarted;
+        @GuardedBy("this")
+        private int probesSucceeded;
+
+        public HostCircuit()
+        {
+            Arrays.fill(bucketIds, Long.MIN_VALUE);
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+
+        public boolean tryAcquire(long now)
+        {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            synchronized (this) {
+                if (state == State.OPEN) {
+                    if (now - openUntil < 0) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    halfOpenSince = now;
+                    probesStarted = 0;
+                    probesSucceeded = 0;
+                }
+                if (state == State.HALF_OPEN) {
+                    // probes that never report a result must not keep the circuit half-open forever
+                    if (probesStarted >= halfOpenProbes && now - halfOpenSince >= openNanos) {
+                        halfOpenSince = now;
+                        probesStarted = probesSucceeded;
+                    }
+                    if (probesStarted >= halfOpenProbes) {
+                        return false;
+                    }
+                    probesStarted++;
+                }
+                return true;
+            }
+        }
+
+        public synchronized void onSuccess(long now)
+        {
+            consecutiveHostDown = 0;
+            if (state == State.HALF_OPEN) {
+                probesSucceeded++;
+                if (probesSucceeded >= halfOpenProbes) {
+                    close();
+                }
+            }
+            else if (state == State.CLOSED) {
+                successes[bucket(now)]++;
+            }
+            // results of requests sent before the circuit opened are ignored
+        }
+
+        public synchronized void onIgnored()
+        {
+            // requests acquired before the circuit opened are not probes, but can not be told
+            // apart here, so at most the probes that have not reported a result are released
+            if (state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+                probesStarted--;
+            }
+        }
+
+        /**
+         * Returns true if this failure opened the circuit.
+         */
+        public synchronized boolean onFailure(long now, boolean hostDown)
+        {
+            if (state == State.HALF_OPEN) {
+                open(now);
+                return true;
+            }
+            if (state == State.OPEN) {
+                return false;
+            }
+
+            if (hostDown) {
+                consecutiveHostDown++;
+            }
+            failures[bucket(now)]++;
+
+            if (consecutiveHostDown >= hostDownThreshold || isFailureRateExceeded(now)) {
+                open(now);
+                return true;
+            }
+            return false;
+        }
+
+        @GuardedBy("this")
+        private boolean isFailureRateExceeded(long now)
+        {
+            long currentBucket = Math.floorDiv(now, bucketNanos);
+            long requests = 0;
+            long failed = 0;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                if (bucketIds[i] > currentBucket - WINDOW_BUCKETS) {
+                    requests += successes[i] + failures[i];
+                    failed += failures[i];
+                }
+            }
+            return requests >= minimumRequests && failed > requests * failureRateThreshold;
+        }
+
+        /**
+         * Returns the index of the window bucket for the time, clearing the bucket if it held an older period.
+         */
+        @GuardedBy("this")
+        private int bucket(long now)
+        {
+            long bucketId = Math.floorDiv(now, bucketNanos);
+            int index = (int) Math.floorMod(bucketId, (long) WINDOW_BUCKETS);
+            if (bucketIds[index] != bucketId) {
+                bucketIds[index] = bucketId;
+                successes[index] = 0;
+                failures[index] = 0;
+            }
+            return index;
+        }
+
+        @GuardedBy("this")
+        private void open(long now)
+        {
+            state = State.OPEN;
+            openUntil = now + openNanos;
+            resetWindow();
+        }
+
+        @GuardedBy("this")
+        private void close()
+        {
+            state = State.CLOSED;
+            resetWindow();
+        }
+
+        @GuardedBy("this")
+        private void resetWindow()
+        {
+            Arrays.fill(bucketIds, Long.MIN_VALUE);
+            Arrays.fill(successes, 0);
+            Arrays.fill(failures, 0);
+            consecutiveHostDown = 0;
+        }
+    }
+}
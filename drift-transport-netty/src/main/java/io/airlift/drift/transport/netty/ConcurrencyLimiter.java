@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import io.airlift.stats.CounterStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Adaptive limit on the concurrent requests to each host, which stops the
+ * client from piling requests onto a host that has slowed down. The limit
+ * follows the gradient between the long term and the recent round trip time:
+ * while the recent time is close to the long term time, the limit grows by
+ * about its square root, and when requests start queueing on the host, the
+ * recent time rises and the limit shrinks in proportion. Requests that time
+ * out or find the host down shrink the limit by a fixed factor.
+ */
+@ThreadSafe
+public class ConcurrencyLimiter
+{
+    private static final Permit UNLIMITED_PERMIT = new Permit(null);
+
+    // recent round trip time reacts within about ten requests, while the long term time averages about the last 600
+    private static final double SHORT_RTT_WEIGHT = 0.1;
+    private static final double LONG_RTT_WEIGHT = 1.0 / 600;
+    private static final double RTT_TOLERANCE = 1.5;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double DROP_DECREASE = 0.9;
+
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final ConcurrentMap<HostAndPort, HostLimit> hostLimits = new ConcurrentHashMap<>();
+    private final CounterStat rejections = new CounterStat();
+
+    public static ConcurrencyLimiter createConcurrencyLimiter(DriftNettyConnectionFactoryConfig config)
+    {
+        return new ConcurrencyLimiter(config.isConcurrencyLimitEnabled(), config.getConcurrencyLimitInitial(), config.getConcurrencyLimitMax());
+    }
+
+    ConcurrencyLimiter(boolean enabled, int initialLimit, int maxLimit)
+    {
+        checkArgument(initialLimit >= 1, "initialLimit must be at least 1");
+        checkArgument(maxLimit >= initialLimit, "maxLimit must not be less than initialLimit");
+        this.enabled = enabled;
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Returns a permit for a request to the address, or null if the address has
+     * reached its limit. The permit must be released exactly once.
+     */
+    @Nullable
+    public Permit tryAcquire(HostAndPort address)
+    {
+        if (!enabled) {
+            return UNLIMITED_PERMIT;
+        }
+        HostLimit hostLimit = hostLimits.computeIfAbsent(address, ignored -> new HostLimit(initialLimit, maxLimit));
+        if (!hostLimit.tryAcquire()) {
+            rejections.update(1);
+            return null;
+        }
+        return new Permit(hostLimit);
+    }
+
+    int getLimit(HostAndPort address)
+    {
+        HostLimit hostLimit = hostLimits.get(address);
+        return hostLimit == null ? initialLimit : hostLimit.getLimit();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejections()
+    {
+        return rejections;
+    }
+
+    @Managed
+    public Map<String, Integer> getHostLimits()
+    {
+        ImmutableMap.Builder<String, Integer> limits = ImmutableMap.builder();
+        hostLimits.forEach((address, hostLimit) -> limits.put(address.toString(), hostLimit.getLimit()));
+        return limits.build();
+    }
+
+    @Managed
+    public Map<String, Long> getHostRejections()
+    {
+        ImmutableMap.Builder<String, Long> hostRejections = ImmutableMap.builder();
+        hostLimits.forEach((address, hostLimit) -> hostRejections.put(address.toString(), hostLimit.getRejections()));
+        return hostRejections.build();
+    }
+
+    public static final class Permit
+    {
+        @Nullable
+        private final HostLimit hostLimit;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(@Nullable HostLimit hostLimit)
+        {
+            this.hostLimit = hostLimit;
+        }
+
+        /**
+         * Releases the permit of a request that completed after the round trip time.
+         */
+        public void onSuccess(long roundTripNanos)
+        {
+            if (hostLimit != null && released.compareAndSet(false, true)) {
+                hostLimit.release();
+                hostLimit.onSample(roundTripNanos);
+            }
+        }
+
+        /**
+         * Releases the permit of a request that timed out or found the host down.
+         */
+        public void onDropped()
+        {
+            if (hostLimit != null && released.compareAndSet(false, true)) {
+                hostLimit.release();
+                hostLimit.onDropped();
+            }
+        }
+
+        /**
+         * Releases the permit without affecting the limit, such as when the request was never sent.
+         */
+        public void onIgnored()
+        {
+            if (hostLimit != null && released.compareAndSet(false, true)) {
+                hostLimit.release();
+            }
+        }
+    }
+
+    private static final class HostLimit
+    {
+        private final int maxLimit;
+        private final AtomicInteger requestsInFlight = new AtomicInteger();
+        private final AtomicLong rejections = new AtomicLong();
+        private volatile int limit;
+
+        @GuardedBy("this")
+        private double estimatedLimit;
+        @GuardedBy("this")
+        private double shortRttNanos = -1;
+        @GuardedBy("this")
+        private double longRttNanos = -1;
+
+        public HostLimit(int initialLimit, int maxLimit)
+        {
+            this.maxLimit = maxLimit;
+            this.limit = initialLimit;
+            this.estimatedLimit = initialLimit;
+        }
+
+        public int getLimit()
+        {
+            return limit;
+        }
+
+        public long getRejections()
+        {
+            return rejections.get();
+        }
+
+        public boolean tryAcquire()
+        {
+            while (true) {
+                int requests = requestsInFlight.get();
+                if (requests >= limit) {
+                    rejections.incrementAndGet();
+                    return false;
+                }
+                if (requestsInFlight.compareAndSet(requests, requests + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release()
+        {
+            requestsInFlight.decrementAndGet();
+        }
+
+        public synchronized void onSample(long roundTripNanos)
+        {
+            // clock granularity can report a zero time, which would break the gradient
+            double rttNanos = Math.max(1, roundTripNanos);
+            if (longRttNanos < 0) {
+                shortRttNanos = rttNanos;
+                longRttNanos = rttNanos;
+                return;
+            }
+            shortRttNanos += (rttNanos - shortRttNanos) * SHORT_RTT_WEIGHT;
+            longRttNanos += (rttNanos - longRttNanos) * LONG_RTT_WEIGHT;
+
+            // after a sustained drop in latency, the long term time catches up faster
+            if (longRttNanos / shortRttNanos > 2) {
+                longRttNanos *= 0.95;
+            }
+
+            // the recent time only reflects the capacity of the host when the limit is in use
+            if (requestsInFlight.get() + 1 < estimatedLimit / 2) {
+                return;
+            }
+
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, RTT_TOLERANCE * longRttNanos / shortRttNanos));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            setEstimatedLimit(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+        }
+
+        public synchronized void onDropped()
+        {
+            setEstimatedLimit(estimatedLimit * DROP_DECREASE);
+        }
+
+        @GuardedBy("this")
+        private void setEstimatedLimit(double newLimit)
+        {
+            estimatedLimit = Math.max(1, Math.min(maxLimit, newLimit));
+            limit = (int) estimatedLimit;
+        }
+    }
+}
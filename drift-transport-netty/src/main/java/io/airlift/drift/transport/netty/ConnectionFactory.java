@@ -17,12 +17,16 @@ package io.airlift.drift.transport.netty;
 
 import com.google.common.net.HostAndPort;
 import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslContext;
 import io.netty.util.concurrent.Future;
@@ -30,15 +34,30 @@ import io.netty.util.concurrent.Promise;
 
 import java.net.InetSocketAddress;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import static com.google.common.primitives.Ints.saturatedCast;
 import static io.netty.channel.ChannelOption.CONNECT_TIMEOUT_MILLIS;
+import static io.netty.channel.ChannelOption.SO_KEEPALIVE;
+import static io.netty.channel.ChannelOption.SO_RCVBUF;
+import static io.netty.channel.ChannelOption.SO_SNDBUF;
+import static io.netty.channel.ChannelOption.TCP_NODELAY;
+import static io.netty.channel.ChannelOption.WRITE_BUFFER_WATER_MARK;
+import static io.netty.channel.epoll.EpollChannelOption.TCP_KEEPCNT;
+import static io.netty.channel.epoll.EpollChannelOption.TCP_KEEPIDLE;
+import static io.netty.channel.epoll.EpollChannelOption.TCP_KEEPINTVL;
+import static io.netty.channel.epoll.EpollChannelOption.TCP_QUICKACK;
+import static java.lang.Math.toIntExact;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 class ConnectionFactory
         implements ConnectionManager
 {
     private final EventLoopGroup group;
+    private final RequestTimeoutManager requestTimeoutManager;
+    private final Executor decoderExecutor;
     private final MessageFraming messageFraming;
     private final MessageEncoding messageEncoding;
     private final Optional<SslContext> sslContext;
@@ -46,15 +65,29 @@ class ConnectionFactory
     private final Duration connectTimeout;
     private final Duration requestTimeout;
     private final Optional<HostAndPort> socksProxy;
+    private final Optional<DataSize> sendBufferSize;
+    private final Optional<DataSize> receiveBufferSize;
+    private final WriteBufferWaterMark writeBufferWaterMark;
+    private final boolean tcpNoDelay;
+    private final boolean tcpQuickAck;
+    private final Optional<Duration> tcpKeepAliveInterval;
+    private final Optional<Supplier<FlushCoalescingHandler>> flushCoalescingHandlerFactory;
+    private final Optional<DataSize> decoderOffloadThreshold;
+    private final DriftNettyClientStats stats;
 
     ConnectionFactory(
             EventLoopGroup group,
+            RequestTimeoutManager requestTimeoutManager,
+            Executor decoderExecutor,
             MessageFraming messageFraming,
             MessageEncoding messageEncoding,
             Optional<SslContext> sslContext,
-            DriftNettyClientConfig clientConfig)
+            DriftNettyClientConfig clientConfig,
+            DriftNettyClientStats stats)
     {
         this.group = requireNonNull(group, "group is null");
+        this.requestTimeoutManager = requireNonNull(requestTimeoutManager, "requestTimeoutManager is null");
+        this.decoderExecutor = requireNonNull(decoderExecutor, "decoderExecutor is null");
         this.messageFraming = requireNonNull(messageFraming, "messageFraming is null");
         this.messageEncoding = requireNonNull(messageEncoding, "messageEncoding is null");
         this.sslContext = requireNonNull(sslContext, "sslContext is null");
@@ -63,22 +96,64 @@ class ConnectionFactory
         this.connectTimeout = clientConfig.getConnectTimeout();
         this.requestTimeout = clientConfig.getRequestTimeout();
         this.socksProxy = Optional.ofNullable(clientConfig.getSocksProxy());
+        this.sendBufferSize = Optional.ofNullable(clientConfig.getSendBufferSize());
+        this.receiveBufferSize = Optional.ofNullable(clientConfig.getReceiveBufferSize());
+        this.writeBufferWaterMark = new WriteBufferWaterMark(
+                toIntExact(clientConfig.getWriteBufferLowWaterMark().toBytes()),
+                toIntExact(clientConfig.getWriteBufferHighWaterMark().toBytes()));
+        this.tcpNoDelay = clientConfig.isTcpNoDelay();
+        this.tcpQuickAck = clientConfig.isTcpQuickAck();
+        this.tcpKeepAliveInterval = Optional.ofNullable(clientConfig.getTcpKeepAliveInterval());
+        this.decoderOffloadThreshold = Optional.ofNullable(clientConfig.getDecoderOffloadThreshold());
+
+        this.stats = requireNonNull(stats, "stats is null");
+        if (clientConfig.isWriteCoalescingEnabled()) {
+            int maxWriteBatchSize = clientConfig.getMaxWriteBatchSize();
+            Duration maxWriteDelay = clientConfig.getMaxWriteDelay();
+            this.flushCoalescingHandlerFactory = Optional.of(() -> new FlushCoalescingHandler(maxWriteBatchSize, maxWriteDelay, stats.getFlushBatchSize()));
+        }
+        else {
+            this.flushCoalescingHandlerFactory = Optional.empty();
+        }
     }
 
     @Override
     public Future<Channel> getConnection(HostAndPort address)
     {
         try {
+            boolean nativeTransport = group instanceof EpollEventLoopGroup;
             Bootstrap bootstrap = new Bootstrap()
                     .group(group)
-                    .channel(NioSocketChannel.class)
+                    .channel(nativeTransport ? EpollSocketChannel.class : NioSocketChannel.class)
                     .option(CONNECT_TIMEOUT_MILLIS, saturatedCast(connectTimeout.toMillis()))
+                    .option(TCP_NODELAY, tcpNoDelay)
+                    .option(WRITE_BUFFER_WATER_MARK, writeBufferWaterMark)
                     .handler(new ThriftClientInitializer(
                             messageFraming,
                             messageEncoding,
                             requestTimeout,
+                            requestTimeoutManager,
+                            decoderExecutor,
+                            decoderOffloadThreshold,
+                            stats,
                             socksProxy,
-                            sslContext));
+                            sslContext,
+                            flushCoalescingHandlerFactory));
+            sendBufferSize.ifPresent(size -> bootstrap.option(SO_SNDBUF, toIntExact(size.toBytes())));
+            receiveBufferSize.ifPresent(size -> bootstrap.option(SO_RCVBUF, toIntExact(size.toBytes())));
+            if (nativeTransport && tcpQuickAck) {
+                bootstrap.option(TCP_QUICKACK, true);
+            }
+            if (tcpKeepAliveInterval.isPresent()) {
+                bootstrap.option(SO_KEEPALIVE, true);
+                if (nativeTransport) {
+                    // a dead host is detected after three unanswered probes
+                    int intervalSeconds = saturatedCast(tcpKeepAliveInterval.get().roundTo(SECONDS));
+                    bootstrap.option(TCP_KEEPIDLE, intervalSeconds);
+                    bootstrap.option(TCP_KEEPINTVL, intervalSeconds);
+                    bootstrap.option(TCP_KEEPCNT, 3);
+                }
+            }
 
             Promise<Channel> promise = group.next().newPromise();
             bootstrap.connect(new InetSocketAddress(address.getHost(), address.getPort()))
@@ -15,139 +15,594 @@
  */
 package io.airlift.drift.transport.netty;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.Duration;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.Future;
-
-import javax.annotation.concurrent.GuardedBy;
+import io.netty.util.concurrent.Promise;
 
 import java.io.Closeable;
-import java.util.concurrent.ExecutionException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+/**
+ * Pool of multiplexed connections. Each host has a fixed number of connection
+ * slots which are filled lazily, and each request is assigned to the connection
+ * with the fewest in-flight requests. New connections are only opened when every
+ * existing connection to the host is busy. While an established connection can take
+ * the request, the new connection is opened in the background, so requests only wait
+ * for a connection to be established when no established connection can take them.
+ * All state is managed with atomic
+ * operations, so requests for different hosts (or the same host) never contend
+ * on a lock.
+ * <p>
+ * Hosts returned by the supplier passed to {@link #warmUp} keep a minimum number
+ * of connections open even when idle. These connections are opened in the background,
+ * and are reopened with an exponential backoff when they fail or close, so requests
+ * to those hosts rarely wait for a connection to be established. The supplier is
+ * checked on every clean up, so hosts that are resolved later are warmed, and hosts
+ * that are no longer returned stop being reconnected.
+ */
 class ConnectionPool
         implements ConnectionManager, Closeable
 {
+    private static final AttributeKey<PooledConnection> POOLED_CONNECTION = AttributeKey.valueOf("drift.pooledConnection");
+
     private final ConnectionManager connectionFactory;
     private final EventLoopGroup group;
 
-    private final LoadingCache<HostAndPort, Future<Channel>> cachedConnections;
+    private final int maxConnectionsPerHost;
+    private final int maxRequestsPerConnection;
+    private final long idleTimeoutNanos;
+    private final long maxConnectionLifetimeNanos;
+    private final int minConnectionsPerHost;
+    private final long reconnectDelayNanos;
+    private final long maxReconnectDelayNanos;
+
+    private final ConcurrentMap<HostAndPort, HostConnections> pools = new ConcurrentHashMap<>();
+    private final Set<HostAndPort> warmAddresses = ConcurrentHashMap.newKeySet();
+    private volatile Supplier<? extends Collection<HostAndPort>> warmAddressesSupplier;
     private final ScheduledExecutorService maintenanceThread;
 
-    @GuardedBy("this")
-    private boolean closed;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public ConnectionPool(ConnectionManager connectionFactory, EventLoopGroup group, DriftNettyClientConfig config)
     {
-        this.connectionFactory = connectionFactory;
+        this.connectionFactory = requireNonNull(connectionFactory, "connectionFactory is null");
         this.group = requireNonNull(group, "group is null");
         requireNonNull(config, "config is null");
 
-        // todo from config
-        cachedConnections = CacheBuilder.newBuilder()
-                .maximumSize(100)
-                .expireAfterAccess(10, TimeUnit.MINUTES)
-                .<HostAndPort, Future<Channel>>removalListener(notification -> closeConnection(notification.getValue()))
-                .build(new CacheLoader<HostAndPort, Future<Channel>>()
-                {
-                    @Override
-                    public Future<Channel> load(HostAndPort address)
-                            throws Exception
-                    {
-                        return createConnection(address);
-                    }
-                });
+        this.maxConnectionsPerHost = config.getMaxConnectionsPerHost();
+        this.maxRequestsPerConnection = config.getMaxRequestsPerConnection();
+        this.idleTimeoutNanos = config.getConnectionIdleTimeout().roundTo(TimeUnit.NANOSECONDS);
+        Duration maxConnectionLifetime = config.getMaxConnectionLifetime();
+        this.maxConnectionLifetimeNanos = maxConnectionLifetime == null ? Long.MAX_VALUE : maxConnectionLifetime.roundTo(TimeUnit.NANOSECONDS);
+        this.minConnectionsPerHost = Math.min(config.getMinConnectionsPerHost(), maxConnectionsPerHost);
+        this.reconnectDelayNanos = config.getReconnectDelay().roundTo(TimeUnit.NANOSECONDS);
+        this.maxReconnectDelayNanos = Math.max(reconnectDelayNanos, config.getMaxReconnectDelay().roundTo(TimeUnit.NANOSECONDS));
 
         maintenanceThread = newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
                 .setNameFormat("drift-connection-maintenance-%s")
                 .setDaemon(true)
                 .build());
 
-        maintenanceThread.scheduleWithFixedDelay(cachedConnections::cleanUp, 1, 1, TimeUnit.SECONDS);
+        maintenanceThread.scheduleWithFixedDelay(this::cleanUp, 1, 1, TimeUnit.SECONDS);
     }
 
     @Override
     public Future<Channel> getConnection(HostAndPort address)
     {
-        Future<Channel> future;
-        synchronized (this) {
-            if (closed) {
+        while (true) {
+            if (closed.get()) {
                 return group.next().newFailedFuture(new TTransportException("Connection pool is closed"));
             }
 
-            try {
-                future = cachedConnections.get(address);
+            HostConnections connections = pools.computeIfAbsent(address, HostConnections::new);
+            Future<Channel> future = connections.acquire();
+            if (future != null) {
+                return future;
             }
-            catch (ExecutionException e) {
-                throw new RuntimeException(e);
+            if (!connections.isRemoved()) {
+                return group.next().newFailedFuture(new TTransportException(
+                        "All " + maxConnectionsPerHost + " connections to " + address + " have " + maxRequestsPerConnection + " requests in flight"));
             }
+            // host entry was removed concurrently by the maintenance thread, so try again with a new entry
         }
+    }
 
-        // check if connection is failed
-        if (isFailed(future)) {
-            // remove failed connection
-            cachedConnections.asMap().remove(address, future);
+    /**
+     * Opens the minimum number of connections to each supplied address in the
+     * background, and keeps them open while the supplier returns the address.
+     */
+    public void warmUp(Supplier<? extends Collection<HostAndPort>> addresses)
+    {
+        requireNonNull(addresses, "addresses is null");
+        if (minConnectionsPerHost == 0) {
+            return;
+        }
+        warmAddressesSupplier = addresses;
+        try {
+            // the supplier may block on address resolution, so it is not called by the caller
+            maintenanceThread.execute(this::refreshWarmAddresses);
+        }
+        catch (RejectedExecutionException ignored) {
+            // pool was closed concurrently
+        }
+    }
+
+    private void refreshWarmAddresses()
+    {
+        Supplier<? extends Collection<HostAndPort>> supplier = warmAddressesSupplier;
+        if (supplier == null || closed.get()) {
+            return;
+        }
+
+        Set<HostAndPort> addresses;
+        try {
+            addresses = ImmutableSet.copyOf(supplier.get());
+        }
+        catch (RuntimeException ignored) {
+            // warm up is best effort, so the current addresses are kept
+            return;
+        }
+
+        // removed hosts are no longer reconnected, and their idle connections are closed by the clean up
+        warmAddresses.retainAll(addresses);
+        for (HostAndPort address : addresses) {
+            if (warmAddresses.add(address)) {
+                fill(address);
+            }
         }
-        return future;
     }
 
     @Override
     public void returnConnection(Channel connection)
     {
+        PooledConnection pooledConnection = connection.attr(POOLED_CONNECTION).get();
+        if (pooledConnection != null) {
+            pooledConnection.release();
+        }
     }
 
     @Override
-    public synchronized void close()
+    public void close()
     {
-        if (closed) {
+        if (!closed.compareAndSet(false, true)) {
             return;
         }
-        closed = true;
 
         try {
-            cachedConnections.invalidateAll();
+            warmAddressesSupplier = null;
+            warmAddresses.clear();
+            for (HostConnections connections : pools.values()) {
+                connections.markRemoved();
+                connections.closeAll();
+            }
+            pools.clear();
         }
         finally {
             maintenanceThread.shutdownNow();
         }
     }
 
-    private Future<Channel> createConnection(HostAndPort address)
+    private void cleanUp()
+    {
+        refreshWarmAddresses();
+
+        long now = System.nanoTime();
+        for (HostConnections connections : pools.values()) {
+            connections.cleanUp(now);
+            if (connections.isEmpty() && !warmAddresses.contains(connections.getAddress())) {
+                // once marked, the entry will not accept new connections, and any
+                // connection added concurrently is retired after its requests finish
+                connections.markRemoved();
+                pools.remove(connections.getAddress(), connections);
+                connections.retireAll();
+            }
+        }
+
+        // reopens warm connections whose reconnect was not scheduled, such as those retired here
+        for (HostAndPort address : warmAddresses) {
+            fill(address);
+        }
+    }
+
+    private void scheduleFill(HostAndPort address, long delayNanos)
     {
-        return connectionFactory.getConnection(address);
+        if (closed.get()) {
+            return;
+        }
+        try {
+            maintenanceThread.schedule(() -> fill(address), delayNanos, NANOSECONDS);
+        }
+        catch (RejectedExecutionException ignored) {
+            // pool was closed concurrently
+        }
     }
 
-    private static void closeConnection(Future<Channel> future)
+    private void fill(HostAndPort address)
     {
-        future.addListener(ignored -> {
-            if (future.isSuccess()) {
-                Channel channel = future.getNow();
-                channel.close();
+        if (closed.get() || !warmAddresses.contains(address)) {
+            return;
+        }
+        pools.computeIfAbsent(address, HostConnections::new).fill(System.nanoTime());
+    }
+
+    private long getReconnectDelay(int failures)
+    {
+        long delay = reconnectDelayNanos << Math.min(failures - 1, 30);
+        if (delay <= 0 || delay > maxReconnectDelayNanos) {
+            return maxReconnectDelayNanos;
+        }
+        return delay;
+    }
+
+    private final class HostConnections
+    {
+        private final HostAndPort address;
+        private final AtomicReferenceArray<PooledConnection> connections = new AtomicReferenceArray<>(maxConnectionsPerHost);
+        private final AtomicInteger connectFailures = new AtomicInteger();
+        private volatile long nextConnectTime;
+        private volatile boolean removed;
+
+        public HostConnections(HostAndPort address)
+        {
+            this.address = requireNonNull(address, "address is null");
+            this.nextConnectTime = System.nanoTime();
+        }
+
+        public HostAndPort getAddress()
+        {
+            return address;
+        }
+
+        /**
+         * Returns a connection with a reserved request slot, or null if all
+         * connections are at capacity or this host entry has been removed.
+         */
+        public Future<Channel> acquire()
+        {
+            while (!removed) {
+                long now = System.nanoTime();
+
+                PooledConnection established = null;
+                int establishedRequests = Integer.MAX_VALUE;
+                PooledConnection connecting = null;
+                int connectingRequests = Integer.MAX_VALUE;
+                int emptySlot = -1;
+                for (int slot = 0; slot < connections.length(); slot++) {
+                    PooledConnection connection = connections.get(slot);
+                    if (connection != null && !connection.isUsable(now)) {
+                        retire(slot, connection);
+                        connection = connections.get(slot);
+                    }
+                    if (connection == null) {
+                        if (emptySlot < 0) {
+                            emptySlot = slot;
+                        }
+                        continue;
+                    }
+                    int requests = connection.getRequestsInFlight();
+                    if (connection.isConnected()) {
+                        if (requests < establishedRequests) {
+                            established = connection;
+                            establishedRequests = requests;
+                        }
+                    }
+                    else if (requests < connectingRequests) {
+                        connecting = connection;
+                        connectingRequests = requests;
+                    }
+                }
+
+                if (establishedRequests < maxRequestsPerConnection) {
+                    // every established connection is busy, so another connection is opened in the
+                    // background, but the request does not wait for it
+                    if (establishedRequests > 0 && connecting == null && emptySlot >= 0) {
+                        openConnection(emptySlot, now);
+                    }
+                    if (established.tryAcquire()) {
+                        return established.getFuture();
+                    }
+                    // lost a race for the last request slot or connection was retired, so start over
+                    continue;
+                }
+
+                // no established connection can take the request, so it waits for a new connection,
+                // which is only opened when every connection that is being established is busy
+                PooledConnection best = connecting;
+                if (emptySlot >= 0 && connectingRequests > 0) {
+                    best = openConnection(emptySlot, now);
+                    if (best == null) {
+                        // another thread filled the slot, or this host entry was removed
+                        continue;
+                    }
+                }
+
+                if (best == null) {
+                    return null;
+                }
+                if (best.tryAcquire()) {
+                    return best.getFuture();
+                }
+                if (best == connecting && connectingRequests >= maxRequestsPerConnection) {
+                    // least loaded connection is full, so the pool is exhausted
+                    return null;
+                }
+                // lost a race for the last request slot or connection was retired, so start over
             }
-        });
+            return null;
+        }
+
+        /**
+         * Opens connections in the background until the host has the minimum
+         * number of connections, unless a reconnect backoff is in effect.
+         */
+        public void fill(long now)
+        {
+            if (now - nextConnectTime < 0) {
+                return;
+            }
+
+            int open = 0;
+            for (int slot = 0; slot < connections.length(); slot++) {
+                if (connections.get(slot) != null) {
+                    open++;
+                }
+            }
+            for (int slot = 0; slot < connections.length() && open < minConnectionsPerHost; slot++) {
+                if (connections.get(slot) != null) {
+                    continue;
+                }
+                if (openConnection(slot, now) != null) {
+                    open++;
+                }
+                else if (removed) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Opens a connection in the slot, and returns null if the slot was
+         * filled concurrently or this host entry has been removed.
+         */
+        private PooledConnection openConnection(int slot, long now)
+        {
+            PooledConnection connection = new PooledConnection(group.next().newPromise(), now);
+            if (!connections.compareAndSet(slot, null, connection)) {
+                return null;
+            }
+            if (removed) {
+                connections.compareAndSet(slot, connection, null);
+                return null;
+            }
+            connect(slot, connection);
+            return connection;
+        }
+
+        private void connect(int slot, PooledConnection connection)
+        {
+            Promise<Channel> promise = connection.getFuture();
+            Future<Channel> connectFuture = connectionFactory.getConnection(address);
+            connectFuture.addListener(ignored -> {
+                if (!connectFuture.isSuccess()) {
+                    connections.compareAndSet(slot, connection, null);
+                    promise.tryFailure(connectFuture.cause());
+
+                    long delay = getReconnectDelay(connectFailures.incrementAndGet());
+                    nextConnectTime = System.nanoTime() + delay;
+                    if (warmAddresses.contains(address)) {
+                        scheduleFill(address, delay);
+                    }
+                    return;
+                }
+                long connectedTime = System.nanoTime();
+                Channel channel = connectFuture.getNow();
+                channel.attr(POOLED_CONNECTION).set(connection);
+                channel.closeFuture().addListener(channelClosed -> {
+                    connections.compareAndSet(slot, connection, null);
+
+                    // a host that keeps closing new connections is reconnected with the same backoff as
+                    // a host that refuses them, and a connection that stayed open resets the backoff
+                    long now = System.nanoTime();
+                    if (now - connectedTime >= maxReconnectDelayNanos) {
+                        connectFailures.set(0);
+                    }
+                    long delay = getReconnectDelay(connectFailures.incrementAndGet());
+                    nextConnectTime = now + delay;
+                    if (warmAddresses.contains(address)) {
+                        scheduleFill(address, delay);
+                    }
+                });
+                if (!promise.trySuccess(channel)) {
+                    channel.close();
+                }
+            });
+        }
+
+        public void cleanUp(long now)
+        {
+            int open = 0;
+            for (int slot = 0; slot < connections.length(); slot++) {
+                PooledConnection connection = connections.get(slot);
+                if (connection == null) {
+                    continue;
+                }
+                if (!connection.isUsable(now)) {
+                    retire(slot, connection);
+                }
+                else {
+                    open++;
+                }
+            }
+
+            // idle connections are kept open for hosts that are kept warm
+            int minimum = warmAddresses.contains(address) ? minConnectionsPerHost : 0;
+            for (int slot = 0; slot < connections.length() && open > minimum; slot++) {
+                PooledConnection connection = connections.get(slot);
+                if (connection != null && connection.isIdle(now)) {
+                    retire(slot, connection);
+                    open--;
+                }
+            }
+        }
+
+        private void retire(int slot, PooledConnection connection)
+        {
+            if (connections.compareAndSet(slot, connection, null)) {
+                connection.retire();
+            }
+        }
+
+        public boolean isEmpty()
+        {
+            for (int slot = 0; slot < connections.length(); slot++) {
+                if (connections.get(slot) != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void retireAll()
+        {
+            for (int slot = 0; slot < connections.length(); slot++) {
+                PooledConnection connection = connections.getAndSet(slot, null);
+                if (connection != null) {
+                    connection.retire();
+                }
+            }
+        }
+
+        public void closeAll()
+        {
+            for (int slot = 0; slot < connections.length(); slot++) {
+                PooledConnection connection = connections.getAndSet(slot, null);
+                if (connection != null) {
+                    connection.retire();
+                    connection.closeConnection();
+                }
+            }
+        }
+
+        public boolean isRemoved()
+        {
+            return removed;
+        }
+
+        public void markRemoved()
+        {
+            removed = true;
+        }
     }
 
-    private static boolean isFailed(Future<?> future)
+    private final class PooledConnection
     {
-        if (!future.isDone()) {
-            return false;
+        private final Promise<Channel> future;
+        private final long createTime;
+        private final AtomicInteger requestsInFlight = new AtomicInteger();
+        private final AtomicBoolean retired = new AtomicBoolean();
+        private volatile long lastUsedTime;
+
+        public PooledConnection(Promise<Channel> future, long createTime)
+        {
+            this.future = requireNonNull(future, "future is null");
+            this.createTime = createTime;
+            this.lastUsedTime = createTime;
         }
-        try {
-            future.get();
-            return false;
+
+        public Promise<Channel> getFuture()
+        {
+            return future;
+        }
+
+        public int getRequestsInFlight()
+        {
+            return requestsInFlight.get();
         }
-        catch (Exception e) {
+
+        public boolean tryAcquire()
+        {
+            while (true) {
+                int requests = requestsInFlight.get();
+                if (requests >= maxRequestsPerConnection) {
+                    return false;
+                }
+                if (requestsInFlight.compareAndSet(requests, requests + 1)) {
+                    break;
+                }
+            }
+
+            // connection may have been retired between selection and acquisition
+            if (retired.get()) {
+                release();
+                return false;
+            }
             return true;
         }
+
+        public void release()
+        {
+            lastUsedTime = System.nanoTime();
+            if (requestsInFlight.decrementAndGet() <= 0 && retired.get()) {
+                closeConnection();
+            }
+        }
+
+        public boolean isConnected()
+        {
+            return future.isSuccess();
+        }
+
+        public boolean isUsable(long now)
+        {
+            if (now - createTime >= maxConnectionLifetimeNanos) {
+                return false;
+            }
+            if (!future.isDone()) {
+                return true;
+            }
+            return future.isSuccess() && future.getNow().isActive();
+        }
+
+        public boolean isIdle(long now)
+        {
+            return requestsInFlight.get() == 0 && now - lastUsedTime >= idleTimeoutNanos;
+        }
+
+        public void retire()
+        {
+            if (retired.compareAndSet(false, true) && requestsInFlight.get() <= 0) {
+                closeConnection();
+            }
+        }
+
+        public void closeConnection()
+        {
+            future.addListener(ignored -> {
+                if (future.isSuccess()) {
+                    future.getNow().close();
+                }
+            });
+        }
     }
 }
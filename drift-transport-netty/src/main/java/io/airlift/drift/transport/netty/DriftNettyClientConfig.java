@@ -24,18 +24,25 @@ import io.airlift.units.Duration;
 import io.airlift.units.MaxDataSize;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.io.File;
 import java.util.List;
 
+import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Compression.NONE;
 import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol.BINARY;
 import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Transport.FRAMED;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class DriftNettyClientConfig
 {
@@ -49,6 +56,11 @@ public class DriftNettyClientConfig
         BINARY, COMPACT
     }
 
+    public enum Compression
+    {
+        NONE, ZLIB, SNAPPY
+    }
+
     private Transport transport = FRAMED;
     private Protocol protocol = BINARY;
     private DataSize maxFrameSize = new DataSize(16, MEGABYTE);
@@ -59,6 +71,37 @@ public class DriftNettyClientConfig
     private HostAndPort socksProxy;
 
     private boolean poolEnabled;
+    private int maxConnectionsPerHost = 1;
+    private int maxRequestsPerConnection = 1000;
+    private Duration connectionIdleTimeout = new Duration(10, MINUTES);
+    private Duration maxConnectionLifetime;
+    private int minConnectionsPerHost;
+    private Duration reconnectDelay = new Duration(100, MILLISECONDS);
+    private Duration maxReconnectDelay = new Duration(30, SECONDS);
+
+    private boolean writeCoalescingEnabled;
+    private int maxWriteBatchSize = 128;
+    private Duration maxWriteDelay = new Duration(0, MILLISECONDS);
+
+    private DataSize sendBufferSize;
+    private DataSize receiveBufferSize;
+    private DataSize writeBufferLowWaterMark = new DataSize(32, KILOBYTE);
+    private DataSize writeBufferHighWaterMark = new DataSize(64, KILOBYTE);
+    private boolean tcpNoDelay = true;
+    private boolean tcpQuickAck;
+    private Duration tcpKeepAliveInterval;
+
+    private boolean hedgingEnabled;
+    private Duration hedgingDelay = new Duration(100, MILLISECONDS);
+    private Double hedgingLatencyPercentile;
+    private double hedgingBudgetRatio = 0.1;
+    private int hedgingBudgetBurst = 10;
+
+    private Compression compression = NONE;
+    private DataSize compressionThreshold = new DataSize(1, KILOBYTE);
+    private List<String> compressionMethods = ImmutableList.of();
+
+    private DataSize decoderOffloadThreshold;
 
     private boolean sslEnabled;
     private List<String> ciphers = ImmutableList.of();
@@ -160,6 +203,419 @@ public class DriftNettyClientConfig
         return this;
     }
 
+    @Min(1)
+    public int getMaxConnectionsPerHost()
+    {
+        return maxConnectionsPerHost;
+    }
+
+    @Config("thrift.client.pool.max-connections-per-host")
+    public DriftNettyClientConfig setMaxConnectionsPerHost(int maxConnectionsPerHost)
+    {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxRequestsPerConnection()
+    {
+        return maxRequestsPerConnection;
+    }
+
+    @Config("thrift.client.pool.max-requests-per-connection")
+    public DriftNettyClientConfig setMaxRequestsPerConnection(int maxRequestsPerConnection)
+    {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getConnectionIdleTimeout()
+    {
+        return connectionIdleTimeout;
+    }
+
+    @Config("thrift.client.pool.idle-timeout")
+    public DriftNettyClientConfig setConnectionIdleTimeout(Duration connectionIdleTimeout)
+    {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getMaxConnectionLifetime()
+    {
+        return maxConnectionLifetime;
+    }
+
+    @Config("thrift.client.pool.max-connection-lifetime")
+    public DriftNettyClientConfig setMaxConnectionLifetime(Duration maxConnectionLifetime)
+    {
+        this.maxConnectionLifetime = maxConnectionLifetime;
+        return this;
+    }
+
+    @Min(0)
+    public int getMinConnectionsPerHost()
+    {
+        return minConnectionsPerHost;
+    }
+
+    /**
+     * Connections opened to every known host when the client is created, and
+     * kept open in the background even when idle.
+     */
+    @Config("thrift.client.pool.min-connections-per-host")
+    public DriftNettyClientConfig setMinConnectionsPerHost(int minConnectionsPerHost)
+    {
+        this.minConnectionsPerHost = minConnectionsPerHost;
+        return this;
+    }
+
+    @AssertTrue(message = "Minimum connections per host must not be greater than the maximum")
+    public boolean isMinConnectionsPerHostValid()
+    {
+        return minConnectionsPerHost <= maxConnectionsPerHost;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getReconnectDelay()
+    {
+        return reconnectDelay;
+    }
+
+    /**
+     * Delay before a background connection is retried after the first failure, doubling with each further failure.
+     */
+    @Config("thrift.client.pool.reconnect-delay")
+    public DriftNettyClientConfig setReconnectDelay(Duration reconnectDelay)
+    {
+        this.reconnectDelay = reconnectDelay;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getMaxReconnectDelay()
+    {
+        return maxReconnectDelay;
+    }
+
+    @Config("thrift.client.pool.max-reconnect-delay")
+    public DriftNettyClientConfig setMaxReconnectDelay(Duration maxReconnectDelay)
+    {
+        this.maxReconnectDelay = maxReconnectDelay;
+        return this;
+    }
+
+    public boolean isWriteCoalescingEnabled()
+    {
+        return writeCoalescingEnabled;
+    }
+
+    @Config("thrift.client.write-coalescing-enabled")
+    public DriftNettyClientConfig setWriteCoalescingEnabled(boolean writeCoalescingEnabled)
+    {
+        this.writeCoalescingEnabled = writeCoalescingEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxWriteBatchSize()
+    {
+        return maxWriteBatchSize;
+    }
+
+    @Config("thrift.client.write-coalescing.max-batch-size")
+    public DriftNettyClientConfig setMaxWriteBatchSize(int maxWriteBatchSize)
+    {
+        this.maxWriteBatchSize = maxWriteBatchSize;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getMaxWriteDelay()
+    {
+        return maxWriteDelay;
+    }
+
+    @Config("thrift.client.write-coalescing.max-delay")
+    public DriftNettyClientConfig setMaxWriteDelay(Duration maxWriteDelay)
+    {
+        this.maxWriteDelay = maxWriteDelay;
+        return this;
+    }
+
+    @MaxDataSize("1GB")
+    public DataSize getSendBufferSize()
+    {
+        return sendBufferSize;
+    }
+
+    @Config("thrift.client.socket.send-buffer-size")
+    public DriftNettyClientConfig setSendBufferSize(DataSize sendBufferSize)
+    {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    @MaxDataSize("1GB")
+    public DataSize getReceiveBufferSize()
+    {
+        return receiveBufferSize;
+    }
+
+    @Config("thrift.client.socket.receive-buffer-size")
+    public DriftNettyClientConfig setReceiveBufferSize(DataSize receiveBufferSize)
+    {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    @NotNull
+    @MaxDataSize("1GB")
+    public DataSize getWriteBufferLowWaterMark()
+    {
+        return writeBufferLowWaterMark;
+    }
+
+    @Config("thrift.client.write-buffer.low-water-mark")
+    public DriftNettyClientConfig setWriteBufferLowWaterMark(DataSize writeBufferLowWaterMark)
+    {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+        return this;
+    }
+
+    @NotNull
+    @MaxDataSize("1GB")
+    public DataSize getWriteBufferHighWaterMark()
+    {
+        return writeBufferHighWaterMark;
+    }
+
+    @Config("thrift.client.write-buffer.high-water-mark")
+    public DriftNettyClientConfig setWriteBufferHighWaterMark(DataSize writeBufferHighWaterMark)
+    {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+        return this;
+    }
+
+    @AssertTrue(message = "Write buffer low water mark must not be greater than the high water mark")
+    public boolean isWriteBufferWaterMarkValid()
+    {
+        if (writeBufferLowWaterMark == null || writeBufferHighWaterMark == null) {
+            return true;
+        }
+        return writeBufferLowWaterMark.toBytes() <= writeBufferHighWaterMark.toBytes();
+    }
+
+    public boolean isTcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Disables Nagle's algorithm, so small requests are sent without waiting for
+     * outstanding acknowledgements.
+     */
+    @Config("thrift.client.socket.tcp-no-delay")
+    public DriftNettyClientConfig setTcpNoDelay(boolean tcpNoDelay)
+    {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public boolean isTcpQuickAck()
+    {
+        return tcpQuickAck;
+    }
+
+    /**
+     * Only supported by the native transport.
+     */
+    @Config("thrift.client.socket.tcp-quick-ack")
+    public DriftNettyClientConfig setTcpQuickAck(boolean tcpQuickAck)
+    {
+        this.tcpQuickAck = tcpQuickAck;
+        return this;
+    }
+
+    @MinDuration("1s")
+    public Duration getTcpKeepAliveInterval()
+    {
+        return tcpKeepAliveInterval;
+    }
+
+    /**
+     * Enables TCP keepalive probes, so connections to hosts that disappeared without
+     * closing them are detected while idle. The native transport sends the probes at
+     * this interval, while other transports use the operating system interval.
+     */
+    @Config("thrift.client.socket.tcp-keep-alive-interval")
+    public DriftNettyClientConfig setTcpKeepAliveInterval(Duration tcpKeepAliveInterval)
+    {
+        this.tcpKeepAliveInterval = tcpKeepAliveInterval;
+        return this;
+    }
+
+    public boolean isHedgingEnabled()
+    {
+        return hedgingEnabled;
+    }
+
+    /**
+     * Send a duplicate request to the next address when an idempotent method
+     * has not completed within the hedging delay.
+     */
+    @Config("thrift.client.hedging.enabled")
+    public DriftNettyClientConfig setHedgingEnabled(boolean hedgingEnabled)
+    {
+        this.hedgingEnabled = hedgingEnabled;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getHedgingDelay()
+    {
+        return hedgingDelay;
+    }
+
+    @Config("thrift.client.hedging.delay")
+    public DriftNettyClientConfig setHedgingDelay(Duration hedgingDelay)
+    {
+        this.hedgingDelay = hedgingDelay;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("100.0")
+    public Double getHedgingLatencyPercentile()
+    {
+        return hedgingLatencyPercentile;
+    }
+
+    /**
+     * When set, the hedging delay of each method is the specified percentile of
+     * its recent latency. The fixed delay is used until enough samples are recorded.
+     */
+    @Config("thrift.client.hedging.latency-percentile")
+    public DriftNettyClientConfig setHedgingLatencyPercentile(Double hedgingLatencyPercentile)
+    {
+        this.hedgingLatencyPercentile = hedgingLatencyPercentile;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getHedgingBudgetRatio()
+    {
+        return hedgingBudgetRatio;
+    }
+
+    /**
+     * Maximum number of hedged requests as a fraction of all hedgeable requests.
+     */
+    @Config("thrift.client.hedging.budget-ratio")
+    public DriftNettyClientConfig setHedgingBudgetRatio(double hedgingBudgetRatio)
+    {
+        this.hedgingBudgetRatio = hedgingBudgetRatio;
+        return this;
+    }
+
+    @Min(1)
+    public int getHedgingBudgetBurst()
+    {
+        return hedgingBudgetBurst;
+    }
+
+    /**
+     * Maximum number of hedged requests that can be sent back to back before the budget is exhausted.
+     */
+    @Config("thrift.client.hedging.budget-burst")
+    public DriftNettyClientConfig setHedgingBudgetBurst(int hedgingBudgetBurst)
+    {
+        this.hedgingBudgetBurst = hedgingBudgetBurst;
+        return this;
+    }
+
+    @NotNull
+    public Compression getCompression()
+    {
+        return compression;
+    }
+
+    /**
+     * Compresses requests with a header transform. Responses are decompressed
+     * with any supported transform, regardless of this setting.
+     */
+    @Config("thrift.client.compression")
+    public DriftNettyClientConfig setCompression(Compression compression)
+    {
+        this.compression = compression;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+    /**
+     * Requests smaller than this size are not compressed.
+     */
+    @Config("thrift.client.compression.threshold")
+    public DriftNettyClientConfig setCompressionThreshold(DataSize compressionThreshold)
+    {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public List<String> getCompressionMethods()
+    {
+        return compressionMethods;
+    }
+
+    /**
+     * Names of the methods with compressed requests. If empty, requests for all methods are compressed.
+     */
+    @Config("thrift.client.compression.methods")
+    public DriftNettyClientConfig setCompressionMethods(String compressionMethods)
+    {
+        this.compressionMethods = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .splitToList(requireNonNull(compressionMethods, "compressionMethods is null"));
+        return this;
+    }
+
+    @AssertTrue(message = "Compression requires the HEADER transport")
+    public boolean isCompressionValid()
+    {
+        return compression == NONE || transport == Transport.HEADER;
+    }
+
+    public DataSize getDecoderOffloadThreshold()
+    {
+        return decoderOffloadThreshold;
+    }
+
+    /**
+     * Responses of at least this size are decoded on the decoder threads instead
+     * of the event loop. If not set, all responses are decoded on the event loop.
+     */
+    @Config("thrift.client.decoder.offload-threshold")
+    public DriftNettyClientConfig setDecoderOffloadThreshold(DataSize decoderOffloadThreshold)
+    {
+        this.decoderOffloadThreshold = decoderOffloadThreshold;
+        return this;
+    }
+
     public boolean isSslEnabled()
     {
         return sslEnabled;
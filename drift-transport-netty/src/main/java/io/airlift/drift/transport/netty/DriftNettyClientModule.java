@@ -23,10 +23,12 @@ import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import io.airlift.drift.transport.DriftClientConfig;
 import io.airlift.drift.transport.MethodInvokerFactory;
+import org.weakref.jmx.MBeanExporter;
 
 import java.lang.annotation.Annotation;
 
 import static io.airlift.configuration.ConfigBinder.configBinder;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
 
 public class DriftNettyClientModule
         implements Module
@@ -46,6 +48,14 @@ public class DriftNettyClientModule
     @Singleton
     private static MethodInvokerFactory<Annotation> getMethodInvokerFactory(DriftNettyConnectionFactoryConfig factoryConfig, Injector injector)
     {
-        return new DriftNettyMethodInvokerFactory<>(factoryConfig, annotation -> injector.getInstance(Key.get(DriftNettyClientConfig.class, annotation)));
+        DriftNettyMethodInvokerFactory<Annotation> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                factoryConfig,
+                annotation -> injector.getInstance(Key.get(DriftNettyClientConfig.class, annotation)));
+
+        // export stats only when JMX is configured in the application
+        if (injector.getExistingBinding(Key.get(MBeanExporter.class)) != null) {
+            injector.getInstance(MBeanExporter.class).export(generatedNameOf(DriftNettyMethodInvokerFactory.class), methodInvokerFactory);
+        }
+        return methodInvokerFactory;
     }
 }
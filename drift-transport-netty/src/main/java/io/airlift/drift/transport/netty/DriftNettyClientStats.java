@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.DistributionStat;
+import io.airlift.stats.TimeStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+public class DriftNettyClientStats
+{
+    private final DistributionStat flushBatchSize = new DistributionStat();
+    private final CounterStat retries = new CounterStat();
+    private final CounterStat retriesRejected = new CounterStat();
+    private final CounterStat retriesExhausted = new CounterStat();
+    private final CounterStat attemptTimeouts = new CounterStat();
+    private final CounterStat hedges = new CounterStat();
+    private final CounterStat abandonedRequests = new CounterStat();
+    private final TimeStat compressionTime = new TimeStat();
+    private final TimeStat decompressionTime = new TimeStat();
+    private final CounterStat requestUncompressedBytes = new CounterStat();
+    private final CounterStat requestCompressedBytes = new CounterStat();
+    private final DistributionStat requestCompressionRatio = new DistributionStat();
+    private final CounterStat responseUncompressedBytes = new CounterStat();
+    private final CounterStat responseCompressedBytes = new CounterStat();
+    private final DistributionStat responseCompressionRatio = new DistributionStat();
+    private final TimeStat eventLoopResponseTime = new TimeStat();
+    private final TimeStat offloadedDecodeTime = new TimeStat();
+    private final CounterStat offloadedResponses = new CounterStat();
+
+    @Managed
+    @Nested
+    public DistributionStat getFlushBatchSize()
+    {
+        return flushBatchSize;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRetries()
+    {
+        return retries;
+    }
+
+    /**
+     * Retries that were not sent because the retry budget was exhausted.
+     */
+    @Managed
+    @Nested
+    public CounterStat getRetriesRejected()
+    {
+        return retriesRejected;
+    }
+
+    /**
+     * Invocations that failed after reaching the maximum attempts or retry time.
+     */
+    @Managed
+    @Nested
+    public CounterStat getRetriesExhausted()
+    {
+        return retriesExhausted;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getAttemptTimeouts()
+    {
+        return attemptTimeouts;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHedges()
+    {
+        return hedges;
+    }
+
+    /**
+     * Requests cancelled while in flight, such as the loser of a hedged request,
+     * whose late response is dropped when it arrives.
+     */
+    @Managed
+    @Nested
+    public CounterStat getAbandonedRequests()
+    {
+        return abandonedRequests;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getCompressionTime()
+    {
+        return compressionTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getDecompressionTime()
+    {
+        return decompressionTime;
+    }
+
+    /**
+     * Size of compressed requests before compression.
+     */
+    @Managed
+    @Nested
+    public CounterStat getRequestUncompressedBytes()
+    {
+        return requestUncompressedBytes;
+    }
+
+    /**
+     * Size of compressed requests after compression.
+     */
+    @Managed
+    @Nested
+    public CounterStat getRequestCompressedBytes()
+    {
+        return requestCompressedBytes;
+    }
+
+    /**
+     * Compressed request size as a percentage of the uncompressed size.
+     */
+    @Managed
+    @Nested
+    public DistributionStat getRequestCompressionRatio()
+    {
+        return requestCompressionRatio;
+    }
+
+    /**
+     * Size of compressed responses after decompression.
+     */
+    @Managed
+    @Nested
+    public CounterStat getResponseUncompressedBytes()
+    {
+        return responseUncompressedBytes;
+    }
+
+    /**
+     * Size of compressed responses as received.
+     */
+    @Managed
+    @Nested
+    public CounterStat getResponseCompressedBytes()
+    {
+        return responseCompressedBytes;
+    }
+
+    /**
+     * Compressed response size as a percentage of the decompressed size.
+     */
+    @Managed
+    @Nested
+    public DistributionStat getResponseCompressionRatio()
+    {
+        return responseCompressionRatio;
+    }
+
+    /**
+     * Time the event loop is busy handling each response, which includes
+     * decoding unless the response is offloaded to the decoder threads.
+     */
+    @Managed
+    @Nested
+    public TimeStat getEventLoopResponseTime()
+    {
+        return eventLoopResponseTime;
+    }
+
+    /**
+     * Time spent decoding responses on the decoder threads.
+     */
+    @Managed
+    @Nested
+    public TimeStat getOffloadedDecodeTime()
+    {
+        return offloadedDecodeTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getOffloadedResponses()
+    {
+        return offloadedResponses;
+    }
+}
@@ -16,12 +16,36 @@
 package io.airlift.drift.transport.netty;
 
 import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class DriftNettyConnectionFactoryConfig
 {
     private static final int DEFAULT_WORKER_THREAD_COUNT = Runtime.getRuntime().availableProcessors() * 2;
 
     private Integer threadCount = DEFAULT_WORKER_THREAD_COUNT;
+    private int decoderThreadCount = Runtime.getRuntime().availableProcessors();
+    private boolean nativeTransportEnabled;
+    private Duration timeoutTickDuration = new Duration(10, MILLISECONDS);
+    private boolean concurrencyLimitEnabled;
+    private int concurrencyLimitInitial = 20;
+    private int concurrencyLimitMax = 1000;
+    private boolean circuitBreakerEnabled;
+    private double circuitBreakerFailureRateThreshold = 0.5;
+    private int circuitBreakerMinimumRequests = 20;
+    private int circuitBreakerHostDownThreshold = 3;
+    private Duration circuitBreakerWindow = new Duration(10, SECONDS);
+    private Duration circuitBreakerOpenDuration = new Duration(5, SECONDS);
+    private int circuitBreakerHalfOpenProbes = 3;
 
     public Integer getThreadCount()
     {
@@ -34,4 +58,201 @@ public class DriftNettyConnectionFactoryConfig
         this.threadCount = threadCount;
         return this;
     }
+
+    @Min(1)
+    public int getDecoderThreadCount()
+    {
+        return decoderThreadCount;
+    }
+
+    /**
+     * Threads used to decode responses that are offloaded from the event loop.
+     */
+    @Config("thrift.client.decoder-thread-count")
+    public DriftNettyConnectionFactoryConfig setDecoderThreadCount(int decoderThreadCount)
+    {
+        this.decoderThreadCount = decoderThreadCount;
+        return this;
+    }
+
+    public boolean isNativeTransportEnabled()
+    {
+        return nativeTransportEnabled;
+    }
+
+    @Config("thrift.client.native-transport")
+    public DriftNettyConnectionFactoryConfig setNativeTransportEnabled(boolean nativeTransportEnabled)
+    {
+        this.nativeTransportEnabled = nativeTransportEnabled;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getTimeoutTickDuration()
+    {
+        return timeoutTickDuration;
+    }
+
+    @Config("thrift.client.timeout-tick-duration")
+    public DriftNettyConnectionFactoryConfig setTimeoutTickDuration(Duration timeoutTickDuration)
+    {
+        this.timeoutTickDuration = timeoutTickDuration;
+        return this;
+    }
+
+    public boolean isConcurrencyLimitEnabled()
+    {
+        return concurrencyLimitEnabled;
+    }
+
+    /**
+     * Limits the concurrent requests to each host, with a limit that adapts to the round trip time of the host.
+     */
+    @Config("thrift.client.concurrency-limit.enabled")
+    public DriftNettyConnectionFactoryConfig setConcurrencyLimitEnabled(boolean concurrencyLimitEnabled)
+    {
+        this.concurrencyLimitEnabled = concurrencyLimitEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getConcurrencyLimitInitial()
+    {
+        return concurrencyLimitInitial;
+    }
+
+    @Config("thrift.client.concurrency-limit.initial")
+    public DriftNettyConnectionFactoryConfig setConcurrencyLimitInitial(int concurrencyLimitInitial)
+    {
+        this.concurrencyLimitInitial = concurrencyLimitInitial;
+        return this;
+    }
+
+    @Min(1)
+    public int getConcurrencyLimitMax()
+    {
+        return concurrencyLimitMax;
+    }
+
+    @Config("thrift.client.concurrency-limit.max")
+    public DriftNettyConnectionFactoryConfig setConcurrencyLimitMax(int concurrencyLimitMax)
+    {
+        this.concurrencyLimitMax = concurrencyLimitMax;
+        return this;
+    }
+
+    @AssertTrue(message = "Maximum concurrency limit must not be less than the initial limit")
+    public boolean isConcurrencyLimitValid()
+    {
+        return concurrencyLimitMax >= concurrencyLimitInitial;
+    }
+
+    public boolean isCircuitBreakerEnabled()
+    {
+        return circuitBreakerEnabled;
+    }
+
+    /**
+     * Stops sending requests to hosts that are failing, until a few probe requests succeed.
+     */
+    @Config("thrift.client.circuit-breaker.enabled")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerEnabled(boolean circuitBreakerEnabled)
+    {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getCircuitBreakerFailureRateThreshold()
+    {
+        return circuitBreakerFailureRateThreshold;
+    }
+
+    @Config("thrift.client.circuit-breaker.failure-rate-threshold")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerFailureRateThreshold(double circuitBreakerFailureRateThreshold)
+    {
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+        return this;
+    }
+
+    @Min(1)
+    public int getCircuitBreakerMinimumRequests()
+    {
+        return circuitBreakerMinimumRequests;
+    }
+
+    /**
+     * Requests to a host within the window before its failure rate is considered.
+     */
+    @Config("thrift.client.circuit-breaker.minimum-requests")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerMinimumRequests(int circuitBreakerMinimumRequests)
+    {
+        this.circuitBreakerMinimumRequests = circuitBreakerMinimumRequests;
+        return this;
+    }
+
+    @Min(1)
+    public int getCircuitBreakerHostDownThreshold()
+    {
+        return circuitBreakerHostDownThreshold;
+    }
+
+    /**
+     * Consecutive requests that find the host down before the circuit opens, regardless of the failure rate.
+     */
+    @Config("thrift.client.circuit-breaker.host-down-threshold")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerHostDownThreshold(int circuitBreakerHostDownThreshold)
+    {
+        this.circuitBreakerHostDownThreshold = circuitBreakerHostDownThreshold;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getCircuitBreakerWindow()
+    {
+        return circuitBreakerWindow;
+    }
+
+    @Config("thrift.client.circuit-breaker.window")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerWindow(Duration circuitBreakerWindow)
+    {
+        this.circuitBreakerWindow = circuitBreakerWindow;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getCircuitBreakerOpenDuration()
+    {
+        return circuitBreakerOpenDuration;
+    }
+
+    /**
+     * Time a host is skipped after its circuit opens, before probe requests are sent.
+     */
+    @Config("thrift.client.circuit-breaker.open-duration")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration)
+    {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+        return this;
+    }
+
+    @Min(1)
+    public int getCircuitBreakerHalfOpenProbes()
+    {
+        return circuitBreakerHalfOpenProbes;
+    }
+
+    /**
+     * Probe requests that must succeed before a half-open circuit closes.
+     */
+    @Config("thrift.client.circuit-breaker.half-open-probes")
+    public DriftNettyConnectionFactoryConfig setCircuitBreakerHalfOpenProbes(int circuitBreakerHalfOpenProbes)
+    {
+        this.circuitBreakerHalfOpenProbes = circuitBreakerHalfOpenProbes;
+        return this;
+    }
 }
@@ -16,47 +16,134 @@
 package io.airlift.drift.transport.netty;
 
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.inject.Inject;
 import io.airlift.drift.transport.AddressSelector;
 import io.airlift.drift.transport.InvokeRequest;
+import io.airlift.drift.transport.InvokeResponse;
 import io.airlift.drift.transport.MethodInvoker;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.ResultClassification;
 import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.TTransportException;
 import io.airlift.drift.transport.netty.ThriftClientHandler.ThriftRequest;
+import io.airlift.units.Duration;
 import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 class DriftNettyMethodInvoker
         implements MethodInvoker
 {
     private final AddressSelector addressSelector;
     private final ConnectionManager connectionManager;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Optional<HedgingPolicy> hedgingPolicy;
+    private final EventExecutorGroup scheduler;
+    private final RequestTimeoutManager requestTimeoutManager;
+    private final DriftNettyClientStats stats;
     private final ResultsClassifier globalResultsClassifier = new ResultsClassifier() {};
 
-    @Inject
-    public DriftNettyMethodInvoker(ConnectionManager connectionManager, AddressSelector addressSelector)
+    public DriftNettyMethodInvoker(
+            ConnectionManager connectionManager,
+            ConcurrencyLimiter concurrencyLimiter,
+            CircuitBreaker circuitBreaker,
+            AddressSelector addressSelector,
+            Optional<HedgingPolicy> hedgingPolicy,
+            EventExecutorGroup scheduler,
+            RequestTimeoutManager requestTimeoutManager,
+            DriftNettyClientStats stats)
     {
         this.addressSelector = requireNonNull(addressSelector, "addressSelector is null");
         this.connectionManager = requireNonNull(connectionManager, "connectionManager is null");
+        this.concurrencyLimiter = requireNonNull(concurrencyLimiter, "concurrencyLimiter is null");
+        this.circuitBreaker = requireNonNull(circuitBreaker, "circuitBreaker is null");
+        this.hedgingPolicy = requireNonNull(hedgingPolicy, "hedgingPolicy is null");
+        this.scheduler = requireNonNull(scheduler, "scheduler is null");
+        this.requestTimeoutManager = requireNonNull(requestTimeoutManager, "requestTimeoutManager is null");
+        this.stats = requireNonNull(stats, "stats is null");
     }
 
     @Override
     public ListenableFuture<Object> invoke(InvokeRequest request)
+    {
+        return invoke(request, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public ListenableFuture<InvokeResponse> invokeWithResponse(InvokeRequest request)
+    {
+        return (ListenableFuture<InvokeResponse>) (ListenableFuture<?>) invoke(request, true);
+    }
+
+    private ListenableFuture<Object> invoke(InvokeRequest request, boolean includeHeaders)
     {
         try {
             List<HostAndPort> addresses = addressSelector.getAddresses(request.getAddressSelectionContext());
-            InvocationAttempt invocationAttempt = new InvocationAttempt(
-                    addresses,
-                    connectionManager,
-                    new MethodInvocationFunction(request.getMethod(), request.getParameters(), globalResultsClassifier),
-                    addressSelector::markdown);
+            MethodMetadata method = request.getMethod();
+            // the deadline is shared by every attempt, and starts before the addresses are connected
+            OptionalLong deadlineNanos = OptionalLong.empty();
+            if (request.getTimeout().isPresent()) {
+                deadlineNanos = OptionalLong.of(System.nanoTime() + request.getTimeout().get().roundTo(NANOSECONDS));
+            }
+            MethodInvocationFunction invocationFunction = new MethodInvocationFunction(method, request.getParameters(), request.getHeaders(), deadlineNanos, includeHeaders, globalResultsClassifier);
+
+            InvocationAttempt invocationAttempt;
+            if (hedgingPolicy.isPresent()) {
+                HedgingPolicy policy = hedgingPolicy.get();
+                invocationAttempt = new InvocationAttempt(
+                        addresses,
+                        connectionManager,
+                        concurrencyLimiter,
+                        circuitBreaker,
+                        invocationFunction,
+                        addressSelector::markdown,
+                        (address, latency) -> {
+                            addressSelector.markSuccess(address, latency);
+                            policy.recordLatency(method, latency);
+                        },
+                        addressSelector::markRequestStarted,
+                        addressSelector::markRequestFinished,
+                        method.getRetryPolicy(),
+                        method.isIdempotent(),
+                        deadlineNanos,
+                        policy.getHedgeDelay(method),
+                        policy::tryAcquireHedge,
+                        scheduler,
+                        requestTimeoutManager,
+                        stats);
+            }
+            else {
+                invocationAttempt = new InvocationAttempt(
+                        addresses,
+                        connectionManager,
+                        concurrencyLimiter,
+                        circuitBreaker,
+                        invocationFunction,
+                        addressSelector::markdown,
+                        addressSelector::markSuccess,
+                        addressSelector::markRequestStarted,
+                        addressSelector::markRequestFinished,
+                        method.getRetryPolicy(),
+                        method.isIdempotent(),
+                        deadlineNanos,
+                        Optional.empty(),
+                        () -> false,
+                        scheduler,
+                        requestTimeoutManager,
+                        stats);
+            }
             return invocationAttempt.getFuture();
         }
         catch (Exception e) {
@@ -69,12 +156,28 @@ class DriftNettyMethodInvoker
     {
         private final MethodMetadata method;
         private final List<Object> parameters;
+        private final Map<String, String> headers;
+        private final OptionalLong deadlineNanos;
+        private final boolean includeHeaders;
         private final ResultsClassifier globalResultsClassifier;
 
-        public MethodInvocationFunction(MethodMetadata method, List<Object> parameters, ResultsClassifier globalResultsClassifier)
+        /**
+         * @param includeHeaders if true, the results are {@link InvokeResponse} values containing
+         * the response headers, instead of the raw method result
+         */
+        public MethodInvocationFunction(
+                MethodMetadata method,
+                List<Object> parameters,
+                Map<String, String> headers,
+                OptionalLong deadlineNanos,
+                boolean includeHeaders,
+                ResultsClassifier globalResultsClassifier)
         {
             this.method = method;
             this.parameters = parameters;
+            this.headers = headers;
+            this.deadlineNanos = deadlineNanos;
+            this.includeHeaders = includeHeaders;
             this.globalResultsClassifier = globalResultsClassifier;
         }
 
@@ -82,8 +185,23 @@ class DriftNettyMethodInvoker
         public ListenableFuture<Object> invokeOn(Channel channel)
         {
             try {
-                ThriftRequest thriftRequest = new ThriftRequest(method, parameters);
+                // each attempt only gets the time remaining until the invocation deadline
+                Optional<Duration> remaining = Optional.empty();
+                if (deadlineNanos.isPresent()) {
+                    long remainingNanos = deadlineNanos.getAsLong() - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return immediateFailedFuture(new TTransportException("Invocation deadline exceeded before request was sent"));
+                    }
+                    remaining = Optional.of(new Duration(remainingNanos, NANOSECONDS));
+                }
+                ThriftRequest thriftRequest = new ThriftRequest(method, parameters, headers, remaining);
                 channel.writeAndFlush(thriftRequest);
+                if (includeHeaders) {
+                    return Futures.transform(
+                            thriftRequest,
+                            value -> new InvokeResponse(value, thriftRequest.getResponseHeaders(), thriftRequest.getResponsePersistentHeaders()),
+                            directExecutor());
+                }
                 return thriftRequest;
             }
             catch (Throwable throwable) {
@@ -94,6 +212,9 @@ class DriftNettyMethodInvoker
         @Override
         public ResultClassification classifyResult(Object result)
         {
+            if (includeHeaders) {
+                result = ((InvokeResponse) result).getValue();
+            }
             ResultClassification methodClassification = method.getResultsClassifier().classifyResult(result);
             ResultClassification globalClassification = globalResultsClassifier.classifyResult(result);
             return merge(methodClassification, globalClassification);
@@ -16,18 +16,19 @@
 package io.airlift.drift.transport.netty;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import io.airlift.drift.protocol.TBinaryProtocol;
-import io.airlift.drift.protocol.TCompactProtocol;
-import io.airlift.drift.protocol.TProtocolFactory;
 import io.airlift.drift.transport.AddressSelector;
 import io.airlift.drift.transport.MethodInvoker;
 import io.airlift.drift.transport.MethodInvokerFactory;
 import io.airlift.drift.transport.netty.DriftNettyClientConfig.Transport;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.util.concurrent.Future;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
@@ -35,11 +36,16 @@ import javax.net.ssl.SSLException;
 
 import java.io.Closeable;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Function;
 
-import static java.lang.Math.toIntExact;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.ForkJoinPool.defaultForkJoinWorkerThreadFactory;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class DriftNettyMethodInvokerFactory<I>
@@ -48,6 +54,12 @@ public class DriftNettyMethodInvokerFactory<I>
     private final Function<I, DriftNettyClientConfig> clientConfigurationProvider;
 
     private final EventLoopGroup group;
+    private final RequestTimeoutManager requestTimeoutManager;
+    private final ForkJoinPool decoderExecutor;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Queue<ConnectionPool> connectionPools = new ConcurrentLinkedQueue<>();
+    private final DriftNettyClientStats stats = new DriftNettyClientStats();
 
     public static DriftNettyMethodInvokerFactory<?> createStaticDriftNettyMethodInvokerFactory(DriftNettyClientConfig clientConfig)
     {
@@ -59,10 +71,23 @@ public class DriftNettyMethodInvokerFactory<I>
     {
         requireNonNull(factoryConfig, "factoryConfig is null");
 
-        group = new NioEventLoopGroup(factoryConfig.getThreadCount(), new ThreadFactoryBuilder()
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("drift-client-%s")
                 .setDaemon(true)
-                .build());
+                .build();
+        // native transport is only used when the epoll library can be loaded on this platform
+        if (factoryConfig.isNativeTransportEnabled() && Epoll.isAvailable()) {
+            group = new EpollEventLoopGroup(factoryConfig.getThreadCount(), threadFactory);
+        }
+        else {
+            group = new NioEventLoopGroup(factoryConfig.getThreadCount(), threadFactory);
+        }
+        requestTimeoutManager = new RequestTimeoutManager(factoryConfig.getTimeoutTickDuration());
+        // decoding is CPU bound, so a work stealing pool sized to the processors is used, in FIFO mode since tasks are never joined
+        decoderExecutor = new ForkJoinPool(factoryConfig.getDecoderThreadCount(), DriftNettyMethodInvokerFactory::newDecoderThread, null, true);
+        // limits are shared by all clients since the capacity of a host does not depend on the client calling it
+        concurrencyLimiter = ConcurrencyLimiter.createConcurrencyLimiter(factoryConfig);
+        circuitBreaker = CircuitBreaker.createCircuitBreaker(factoryConfig);
 
         this.clientConfigurationProvider = requireNonNull(clientConfigurationProvider, "clientConfigurationProvider is null");
     }
@@ -72,18 +97,19 @@ public class DriftNettyMethodInvokerFactory<I>
     {
         DriftNettyClientConfig clientConfig = clientConfigurationProvider.apply(clientIdentity);
 
-        TProtocolFactory protocolFactory;
+        // protocols read and write the Netty buffers directly, without copying through a TTransport
+        ChannelBufferProtocolFactory protocolFactory;
         switch (clientConfig.getProtocol()) {
             case BINARY:
-                protocolFactory = new TBinaryProtocol.Factory(false, true, -1, clientConfig.getMaxFrameSize().toBytes());
+                protocolFactory = TChannelBufferBinaryProtocol.createFactory(-1, clientConfig.getMaxFrameSize().toBytes());
                 break;
             case COMPACT:
                 // Header transport uses the FB fork of the compact protocol
                 if (clientConfig.getTransport() == Transport.HEADER) {
-                    protocolFactory = new TFacebookCompactProtocol.Factory(toIntExact(clientConfig.getMaxFrameSize().toBytes()));
+                    protocolFactory = TChannelBufferCompactProtocol.createFacebookFactory(clientConfig.getMaxFrameSize().toBytes());
                 }
                 else {
-                    protocolFactory = new TCompactProtocol.Factory(-1, clientConfig.getMaxFrameSize().toBytes());
+                    protocolFactory = TChannelBufferCompactProtocol.createFactory(-1, clientConfig.getMaxFrameSize().toBytes());
                 }
                 break;
             default:
@@ -94,7 +120,7 @@ public class DriftNettyMethodInvokerFactory<I>
         MessageEncoding messageEncoding;
         switch (clientConfig.getTransport()) {
             case UNFRAMED:
-                messageFraming = new NoMessageFraming(protocolFactory, clientConfig.getMaxFrameSize());
+                messageFraming = new NoMessageFraming(clientConfig.getProtocol(), clientConfig.getMaxFrameSize());
                 messageEncoding = new SimpleMessageEncoding(protocolFactory);
                 break;
             case FRAMED:
@@ -103,7 +129,14 @@ public class DriftNettyMethodInvokerFactory<I>
                 break;
             case HEADER:
                 messageFraming = new LengthPrefixedMessageFraming(clientConfig.getMaxFrameSize());
-                messageEncoding = new HeaderMessageEncoding(protocolFactory);
+                messageEncoding = new HeaderMessageEncoding(
+                        protocolFactory,
+                        clientConfig.getProtocol(),
+                        clientConfig.getCompression(),
+                        clientConfig.getCompressionThreshold(),
+                        clientConfig.getCompressionMethods(),
+                        clientConfig.getMaxFrameSize(),
+                        stats);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown transport: " + clientConfig.getTransport());
@@ -132,14 +165,57 @@ public class DriftNettyMethodInvokerFactory<I>
 
         ConnectionManager connectionManager = new ConnectionFactory(
                 group,
+                requestTimeoutManager,
+                decoderExecutor,
                 messageFraming,
                 messageEncoding,
                 sslContext,
-                clientConfig);
+                clientConfig,
+                stats);
         if (clientConfig.isPoolEnabled()) {
-            connectionManager = new ConnectionPool(connectionManager, group, clientConfig);
+            ConnectionPool connectionPool = new ConnectionPool(connectionManager, group, clientConfig);
+            connectionPools.add(connectionPool);
+            connectionPool.warmUp(addressSelector::getKnownAddresses);
+            connectionManager = connectionPool;
         }
-        return new DriftNettyMethodInvoker(connectionManager, addressSelector);
+        return new DriftNettyMethodInvoker(
+                connectionManager,
+                concurrencyLimiter,
+                circuitBreaker,
+                addressSelector,
+                HedgingPolicy.createHedgingPolicy(clientConfig),
+                group,
+                requestTimeoutManager,
+                stats);
+    }
+
+    private static ForkJoinWorkerThread newDecoderThread(ForkJoinPool pool)
+    {
+        ForkJoinWorkerThread thread = defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("drift-decoder-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Managed
+    @Nested
+    public DriftNettyClientStats getStats()
+    {
+        return stats;
+    }
+
+    @Managed
+    @Nested
+    public ConcurrencyLimiter getConcurrencyLimiter()
+    {
+        return concurrencyLimiter;
+    }
+
+    @Managed
+    @Nested
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
     }
 
     @PreDestroy
@@ -156,7 +232,14 @@ public class DriftNettyMethodInvokerFactory<I>
 
     private void shutdownGracefully(boolean awaitTermination)
     {
+        // pools are closed first so warm connections are not reopened while the event loop shuts down
+        ConnectionPool connectionPool;
+        while ((connectionPool = connectionPools.poll()) != null) {
+            connectionPool.close();
+        }
         Future<?> future = group.shutdownGracefully();
+        // responses that arrive while the event loop shuts down are decoded inline once the decoder rejects them
+        decoderExecutor.shutdown();
         if (awaitTermination) {
             try {
                 future.get();
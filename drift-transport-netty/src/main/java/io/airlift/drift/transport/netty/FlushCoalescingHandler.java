@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.stats.DistributionStat;
+import io.airlift.units.Duration;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Defers flushes so multiple writes issued in the same event loop iteration are
+ * sent with a single syscall. A deferred flush happens once the number of
+ * unflushed writes reaches the max batch size, after the max delay, or, when
+ * the max delay is zero, once the event loop has processed the pending tasks.
+ * <p>
+ * This handler is only accessed from the channel event loop.
+ */
+class FlushCoalescingHandler
+        extends ChannelDuplexHandler
+{
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final DistributionStat flushBatchSize;
+
+    private ChannelHandlerContext context;
+    private int unflushedWrites;
+    private boolean flushRequested;
+    private Future<?> scheduledFlush;
+
+    private final Runnable flushTask = () -> {
+        scheduledFlush = null;
+        if (flushRequested) {
+            flushNow(context);
+        }
+    };
+
+    public FlushCoalescingHandler(int maxBatchSize, Duration maxDelay, DistributionStat flushBatchSize)
+    {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = requireNonNull(maxDelay, "maxDelay is null").roundTo(NANOSECONDS);
+        this.flushBatchSize = requireNonNull(flushBatchSize, "flushBatchSize is null");
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext context)
+    {
+        this.context = context;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext context)
+    {
+        // do not strand any writes
+        flushIfRequested(context);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext context, Object message, ChannelPromise promise)
+    {
+        unflushedWrites++;
+        context.write(message, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext context)
+    {
+        if (unflushedWrites >= maxBatchSize) {
+            flushNow(context);
+            return;
+        }
+
+        flushRequested = true;
+        if (scheduledFlush == null) {
+            if (maxDelayNanos == 0) {
+                // runs after the tasks already queued on the event loop, which includes writes from other threads
+                scheduledFlush = context.executor().submit(flushTask);
+            }
+            else {
+                scheduledFlush = context.executor().schedule(flushTask, maxDelayNanos, NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext context, ChannelPromise promise)
+            throws Exception
+    {
+        flushIfRequested(context);
+        context.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext context, ChannelPromise promise)
+            throws Exception
+    {
+        flushIfRequested(context);
+        context.close(promise);
+    }
+
+    private void flushIfRequested(ChannelHandlerContext context)
+    {
+        if (flushRequested) {
+            flushNow(context);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext context)
+    {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        flushRequested = false;
+        if (unflushedWrites > 0) {
+            flushBatchSize.add(unflushedWrites);
+            unflushedWrites = 0;
+        }
+        context.flush();
+    }
+}
@@ -15,28 +15,41 @@
  */
 package io.airlift.drift.transport.netty;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import com.google.common.collect.ImmutableSet;
 import io.airlift.drift.TApplicationException;
-import io.airlift.drift.protocol.TBinaryProtocol;
-import io.airlift.drift.protocol.TCompactProtocol;
-import io.airlift.drift.protocol.TProtocolFactory;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.TTransportException;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Compression;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.DistributionStat;
+import io.airlift.units.DataSize;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.Unpooled;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.Set;
 
 import static com.google.common.base.Verify.verify;
 import static io.airlift.drift.TApplicationException.Type.BAD_SEQUENCE_ID;
+import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Compression.NONE;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.lang.Math.toIntExact;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @ThreadSafe
 class HeaderMessageEncoding
@@ -51,82 +64,204 @@ class HeaderMessageEncoding
 
     private static final int FLAG_SUPPORT_OUT_OF_ORDER = 1;
 
+    // magic, flags, sequence id and header size
+    private static final int FRAME_HEADER_SIZE = 10;
+    // protocol id, transform count and one transform
+    private static final int MAX_ENCODING_INFO_SIZE = 3;
+    private static final int MAX_PADDING_SIZE = 4;
+
+    private static final int PADDING = 0;
     private static final int NORMAL_HEADERS = 1;
-    private static final int PERSISTENT_HEADERS = 1;
+    private static final int PERSISTENT_HEADERS = 2;
+
+    // transforms which can be applied to responses
+    private static final Map<Integer, HeaderTransform> TRANSFORMS = ImmutableMap.of(
+            ZlibTransform.ZLIB_TRANSFORM_ID, new ZlibTransform(),
+            SnappyTransform.SNAPPY_TRANSFORM_ID, new SnappyTransform());
 
-    private final TProtocolFactory protocolFactory;
+    private final ChannelBufferProtocolFactory protocolFactory;
+    private final RequestSizeEstimator sizeEstimator = new RequestSizeEstimator();
     private final int protocolId;
 
-    // GZip compression is currently not supported since this is rarely desired for an RPC system
-    @SuppressFBWarnings("SS_SHOULD_BE_STATIC")
-    private final boolean gzip = false;
+    private final Optional<HeaderTransform> compression;
+    private final long compressionThreshold;
+    private final Set<String> compressionMethods;
+    private final int maxFrameSize;
+    private final DriftNettyClientStats stats;
 
-    public HeaderMessageEncoding(TProtocolFactory protocolFactory)
+    public HeaderMessageEncoding(ChannelBufferProtocolFactory protocolFactory, Protocol protocol)
     {
-        if (protocolFactory instanceof TBinaryProtocol.Factory) {
-            protocolId = PROTOCOL_BINARY;
-        }
-        else if (protocolFactory instanceof TCompactProtocol.Factory || protocolFactory instanceof TFacebookCompactProtocol.Factory) {
-            protocolId = PROTOCOL_COMPACT;
+        this(protocolFactory, protocol, NONE, new DataSize(0, BYTE), ImmutableList.of(), new DataSize(16, MEGABYTE), new DriftNettyClientStats());
+    }
+
+    /**
+     * @param compressionMethods methods with compressed requests, or empty to compress requests of all methods
+     */
+    public HeaderMessageEncoding(
+            ChannelBufferProtocolFactory protocolFactory,
+            Protocol protocol,
+            Compression compression,
+            DataSize compressionThreshold,
+            List<String> compressionMethods,
+            DataSize maxFrameSize,
+            DriftNettyClientStats stats)
+    {
+        this.protocolFactory = requireNonNull(protocolFactory, "protocolFactory is null");
+        requireNonNull(protocol, "protocol is null");
+        switch (protocol) {
+            case BINARY:
+                protocolId = PROTOCOL_BINARY;
+                break;
+            case COMPACT:
+                protocolId = PROTOCOL_COMPACT;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown protocol: " + protocol);
         }
-        else {
-            throw new IllegalArgumentException("Unknown protocol: " + protocolFactory.getClass().getName());
+
+        requireNonNull(compression, "compression is null");
+        switch (compression) {
+            case NONE:
+                this.compression = Optional.empty();
+                break;
+            case ZLIB:
+                this.compression = Optional.of(TRANSFORMS.get(ZlibTransform.ZLIB_TRANSFORM_ID));
+                break;
+            case SNAPPY:
+                this.compression = Optional.of(TRANSFORMS.get(SnappyTransform.SNAPPY_TRANSFORM_ID));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
         }
-        this.protocolFactory = protocolFactory;
+        this.compressionThreshold = requireNonNull(compressionThreshold, "compressionThreshold is null").toBytes();
+        this.compressionMethods = ImmutableSet.copyOf(requireNonNull(compressionMethods, "compressionMethods is null"));
+        this.maxFrameSize = toIntExact(requireNonNull(maxFrameSize, "maxFrameSize is null").toBytes());
+        this.stats = requireNonNull(stats, "stats is null");
+    }
+
+    @Override
+    public boolean supportsHeaders()
+    {
+        return true;
     }
 
     @Override
     public ByteBuf writeRequest(ByteBufAllocator allocator, int sequenceId, MethodMetadata method, List<Object> parameters, Map<String, String> headers)
             throws Exception
     {
-        ByteBuf message = MessageEncoding.encodeRequest(protocolFactory, allocator, sequenceId, method, parameters);
-
-        //
-        // describe the encoding (Thrift protocol, compression info)
-        ByteBuf encodingInfo = Unpooled.buffer(3);
-        encodingInfo.writeByte(protocolId);
-        // number of "transforms"
-        encodingInfo.writeByte(gzip ? 1 : 0);
-        if (gzip) {
-            // Note this is actually a vint, but there are only 3 headers for now
-            encodingInfo.writeByte(0x01);
+        if (!isCompressed(method)) {
+            return writeRequest(allocator, sequenceId, method, parameters, headers, null);
+        }
+
+        // the size is only known after encoding, so the message is encoded into a separate buffer
+        ByteBuf message = MessageEncoding.encodeRequest(protocolFactory, sizeEstimator, allocator, sequenceId, method, parameters);
+        try {
+            return writeRequest(allocator, sequenceId, method, parameters, headers, message);
+        }
+        finally {
+            message.release();
+        }
+    }
+
+    private boolean isCompressed(MethodMetadata method)
+    {
+        return compression.isPresent() && (compressionMethods.isEmpty() || compressionMethods.contains(method.getName()));
+    }
+
+    /**
+     * @param message the encoded message, or null to encode the message directly after the header
+     */
+    private ByteBuf writeRequest(ByteBufAllocator allocator, int sequenceId, MethodMetadata method, List<Object> parameters, Map<String, String> headers, @Nullable ByteBuf message)
+            throws Exception
+    {
+        Optional<HeaderTransform> transform = Optional.empty();
+        int messageSize = sizeEstimator.estimateSize(method);
+        if (message != null) {
+            messageSize = message.readableBytes();
+            if (messageSize >= compressionThreshold) {
+                transform = compression;
+            }
+        }
+
+        // the frame header, transport header and message are written into a single buffer
+        ByteBuf buffer = allocator.buffer(FRAME_HEADER_SIZE + MAX_ENCODING_INFO_SIZE + estimateHeadersSize(headers) + MAX_PADDING_SIZE + messageSize);
+        try {
+            // frame header (magic, flags, sequenceId, headerSize)
+            buffer.writeShort(HEADER_MAGIC);
+            buffer.writeShort(FLAG_SUPPORT_OUT_OF_ORDER);
+            buffer.writeInt(sequenceId);
+            int headerSizeIndex = buffer.writerIndex();
+            // header size is written after the header is encoded
+            buffer.writeShort(0);
+
+            int headerStart = buffer.writerIndex();
+
+            // describe the encoding (Thrift protocol, compression info)
+            buffer.writeByte(protocolId);
+            // number of "transforms", followed by the transform ids which are vints, but all known ids fit in one byte
+            if (transform.isPresent()) {
+                buffer.writeByte(1);
+                buffer.writeByte(transform.get().getId());
+            }
+            else {
+                buffer.writeByte(0);
+            }
+
+            // headers
+            writeHeaders(buffer, headers);
+
+            // Padding - header size must be a multiple of 4
+            int headerSize = buffer.writerIndex() - headerStart;
+            int paddingSize = 4 - headerSize % 4;
+            buffer.writeZero(paddingSize);
+            headerSize += paddingSize;
+            buffer.setShort(headerSizeIndex, headerSize >> 2);
+
+            if (message == null) {
+                MessageEncoding.writeRequestMessage(protocolFactory, sizeEstimator, buffer, sequenceId, method, parameters);
+            }
+            else if (!transform.isPresent()) {
+                buffer.writeBytes(message, message.readerIndex(), message.readableBytes());
+            }
+            else {
+                long start = System.nanoTime();
+                int compressedStart = buffer.writerIndex();
+                transform.get().compress(message, buffer);
+                recordRequestCompression(start, messageSize, buffer.writerIndex() - compressedStart);
+            }
+            return buffer;
+        }
+        catch (Throwable t) {
+            buffer.release();
+            throw t;
         }
+    }
+
+    private void recordRequestCompression(long startNanos, long uncompressedSize, long compressedSize)
+    {
+        stats.getCompressionTime().add(System.nanoTime() - startNanos, NANOSECONDS);
+        recordSizes(stats.getRequestUncompressedBytes(), stats.getRequestCompressedBytes(), stats.getRequestCompressionRatio(), uncompressedSize, compressedSize);
+    }
 
-        // headers
-        ByteBuf encodedHeaders = encodeHeaders(headers);
-
-        // Padding - header size must be a multiple of 4
-        int headerSize = encodingInfo.readableBytes() + encodedHeaders.readableBytes();
-        ByteBuf padding = getPadding(headerSize);
-        headerSize += padding.readableBytes();
-
-        // frame header (magic, flags, sequenceId, headerSize
-        ByteBuf frameHeader = Unpooled.buffer(12);
-        frameHeader.writeShort(HEADER_MAGIC);
-        frameHeader.writeShort(FLAG_SUPPORT_OUT_OF_ORDER);
-        frameHeader.writeInt(sequenceId);
-        frameHeader.writeShort(headerSize >> 2);
-
-        return Unpooled.wrappedBuffer(
-                frameHeader,
-                encodingInfo,
-                encodedHeaders,
-                padding,
-                message);
+    private void recordResponseDecompression(long startNanos, long uncompressedSize, long compressedSize)
+    {
+        stats.getDecompressionTime().add(System.nanoTime() - startNanos, NANOSECONDS);
+        recordSizes(stats.getResponseUncompressedBytes(), stats.getResponseCompressedBytes(), stats.getResponseCompressionRatio(), uncompressedSize, compressedSize);
     }
 
-    private static ByteBuf getPadding(int headerSize)
+    private static void recordSizes(CounterStat uncompressedBytes, CounterStat compressedBytes, DistributionStat compressionRatio, long uncompressedSize, long compressedSize)
     {
-        int paddingSize = 4 - headerSize % 4;
-        ByteBuf padding = Unpooled.buffer(paddingSize);
-        padding.writeZero(paddingSize);
-        return padding;
+        uncompressedBytes.update(uncompressedSize);
+        compressedBytes.update(compressedSize);
+        if (uncompressedSize > 0) {
+            compressionRatio.add(compressedSize * 100 / uncompressedSize);
+        }
     }
 
-    private static ByteBuf encodeHeaders(Map<String, String> headers)
+    private static int estimateHeadersSize(Map<String, String> headers)
     {
         if (headers.isEmpty()) {
-            return Unpooled.EMPTY_BUFFER;
+            return 0;
         }
 
         // 1 bytes for header type, 5 for header count vint, and 5 for each header key and value length vint
@@ -135,25 +270,50 @@ class HeaderMessageEncoding
             // assume the key and value are ASCII
             estimatedSize += entry.getKey().length() + entry.getValue().length();
         }
+        return estimatedSize;
+    }
+
+    private static void writeHeaders(ByteBuf out, Map<String, String> headers)
+    {
+        if (headers.isEmpty()) {
+            return;
+        }
 
-        ByteBuf headersBuffer = Unpooled.buffer(estimatedSize);
         // non persistent header
-        headersBuffer.writeByte(0x01);
-        writeVint(headersBuffer, headers.size());
+        out.writeByte(NORMAL_HEADERS);
+        writeVint(out, headers.size());
         for (Entry<String, String> entry : headers.entrySet()) {
-            writeString(headersBuffer, entry.getKey());
-            writeString(headersBuffer, entry.getValue());
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
         }
-        return headersBuffer;
     }
 
     private static void writeString(ByteBuf out, String value)
     {
+        // header names and values are almost always ASCII, which is copied without creating a byte array
+        if (isAscii(value)) {
+            writeVint(out, value.length());
+            for (int i = 0; i < value.length(); i++) {
+                out.writeByte(value.charAt(i));
+            }
+            return;
+        }
+
         byte[] bytes = value.getBytes(UTF_8);
         writeVint(out, bytes.length);
         out.writeBytes(bytes);
     }
 
+    private static boolean isAscii(String value)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static void writeVint(ByteBuf out, int n)
     {
         while (true) {
@@ -177,8 +337,7 @@ class HeaderMessageEncoding
     }
 
     @Override
-    @SuppressFBWarnings("DLS_DEAD_LOCAL_STORE")
-    public Object readResponse(ByteBuf buffer, int sequenceId, MethodMetadata method)
+    public ThriftResponse readResponse(ByteBuf buffer, int sequenceId, MethodMetadata method)
             throws Exception
     {
         short magic = buffer.readShort();
@@ -192,58 +351,88 @@ class HeaderMessageEncoding
         }
         int headerSize = buffer.readShort() << 2;
 
-        ByteBuf messageHeader = buffer.readBytes(headerSize);
+        ByteBuf messageHeader = buffer.readSlice(headerSize);
         int protocolId = messageHeader.readUnsignedByte();
         verify(protocolId == this.protocolId, "response protocol is different than request protocol");
 
         int numberOfTransforms = messageHeader.readUnsignedByte();
         verify(numberOfTransforms < 128, "Too many transforms for response");
 
-        boolean gzipCompressed = false;
+        List<HeaderTransform> transforms = new ArrayList<>(numberOfTransforms);
         for (int i = 0; i < numberOfTransforms; i++) {
-            int transform = messageHeader.readUnsignedByte();
-            verify(transform == 0x01, "Unsupported response transform");
-            gzipCompressed = true;
+            int transformId = readVarint(messageHeader);
+            HeaderTransform transform = TRANSFORMS.get(transformId);
+            if (transform == null) {
+                throw new TTransportException("Unsupported response transform: " + transformId);
+            }
+            transforms.add(transform);
         }
 
-        // Currently we ignore response headers from the server because there is no API to fetch the headers
-        Map<String, String> normalHeaders = decodeHeaders(NORMAL_HEADERS, messageHeader);
-        Map<String, String> persistentHeaders = decodeHeaders(PERSISTENT_HEADERS, messageHeader);
-
-        ByteBuf message = buffer.readBytes(buffer.readableBytes());
-        if (gzipCompressed) {
-            // todo decompress
-            throw new TTransportException("gzip compression not implemented");
+        // header sections may appear in any order and are followed by zero padding
+        Map<String, String> normalHeaders = ImmutableMap.of();
+        Map<String, String> persistentHeaders = ImmutableMap.of();
+        while (messageHeader.isReadable()) {
+            int headersType = messageHeader.readUnsignedByte();
+            if (headersType == PADDING) {
+                break;
+            }
+            if (headersType == NORMAL_HEADERS) {
+                normalHeaders = decodeHeaders(messageHeader);
+            }
+            else if (headersType == PERSISTENT_HEADERS) {
+                persistentHeaders = decodeHeaders(messageHeader);
+            }
+            else {
+                // unknown sections do not have a length, so they can not be skipped
+                break;
+            }
         }
 
-        return MessageEncoding.decodeResponse(protocolFactory, message, sequenceId, method);
-    }
-
-    private static Map<String, String> decodeHeaders(int expectedHeadersType, ByteBuf messageHeader)
-    {
-        if (messageHeader.readableBytes() == 0) {
-            return ImmutableMap.of();
+        ByteBuf message = buffer.readSlice(buffer.readableBytes());
+        if (transforms.isEmpty()) {
+            Object result = MessageEncoding.decodeResponse(protocolFactory, message, sequenceId, method);
+            return new ThriftResponse(result, normalHeaders, persistentHeaders);
         }
 
-        byte headersType = messageHeader.readByte();
-        if (headersType != expectedHeadersType) {
-            return ImmutableMap.of();
+        // transforms are reversed in the order listed, like the other header transport implementations
+        ByteBuf decompressed = message;
+        try {
+            for (HeaderTransform transform : transforms) {
+                long start = System.nanoTime();
+                ByteBuf input = decompressed;
+                decompressed = transform.decompress(buffer.alloc(), input, maxFrameSize);
+                recordResponseDecompression(start, decompressed.readableBytes(), input.readableBytes());
+                if (input != message) {
+                    input.release();
+                }
+            }
+            Object result = MessageEncoding.decodeResponse(protocolFactory, decompressed, sequenceId, method);
+            return new ThriftResponse(result, normalHeaders, persistentHeaders);
         }
+        finally {
+            if (decompressed != message) {
+                decompressed.release();
+            }
+        }
+    }
 
-        ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
+    private static Map<String, String> decodeHeaders(ByteBuf messageHeader)
+    {
+        // a repeated key replaces the earlier value, like the other header transport implementations
+        Map<String, String> headers = new LinkedHashMap<>();
         int headerCount = readVarint(messageHeader);
         for (int i = 0; i < headerCount; i++) {
             String key = readString(messageHeader);
             String value = readString(messageHeader);
             headers.put(key, value);
         }
-        return headers.build();
+        return ImmutableMap.copyOf(headers);
     }
 
     private static String readString(ByteBuf messageHeader)
     {
         int length = readVarint(messageHeader);
-        return messageHeader.readBytes(length).toString(UTF_8);
+        return messageHeader.readSlice(length).toString(UTF_8);
     }
 
     private static int readVarint(ByteBuf messageHeader)
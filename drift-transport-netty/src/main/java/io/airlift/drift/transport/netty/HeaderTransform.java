@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Payload transform of the header transport, which is applied to the message
+ * following the transport header. Implementations must be thread safe.
+ */
+interface HeaderTransform
+{
+    /**
+     * Transform id sent in the transport header.
+     */
+    int getId();
+
+    /**
+     * Compresses the readable bytes of the input into the output buffer, starting
+     * at its writer index. The input is not modified.
+     */
+    void compress(ByteBuf input, ByteBuf output)
+            throws Exception;
+
+    /**
+     * Decompresses the readable bytes of the input into a new buffer, which must be
+     * released by the caller.
+     *
+     * @param maxSize maximum size of the decompressed data
+     */
+    ByteBuf decompress(ByteBufAllocator allocator, ByteBuf input, int maxSize)
+            throws Exception;
+}
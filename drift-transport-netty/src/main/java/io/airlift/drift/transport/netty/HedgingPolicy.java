@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.MapMaker;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.RequestBudget;
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Decides when an invocation of an idempotent method should be hedged by
+ * sending a duplicate request to another address. The delay is either fixed,
+ * or a percentile of the recent latency of the method.
+ */
+@ThreadSafe
+class HedgingPolicy
+{
+    private static final int SAMPLE_COUNT = 1024;
+    private static final int RECOMPUTE_INTERVAL = 128;
+
+    private final long delayNanos;
+    private final Optional<Double> latencyPercentile;
+    private final RequestBudget budget;
+    // methods of different services can have the same name, so the trackers are keyed by the
+    // method metadata instance, which is weakly referenced so discarded clients can be collected
+    private final ConcurrentMap<MethodMetadata, LatencyTracker> latencyTrackers = new MapMaker().weakKeys().makeMap();
+
+    public HedgingPolicy(Duration delay, Optional<Double> latencyPercentile, RequestBudget budget)
+    {
+        this.delayNanos = requireNonNull(delay, "delay is null").roundTo(NANOSECONDS);
+        this.latencyPercentile = requireNonNull(latencyPercentile, "latencyPercentile is null");
+        latencyPercentile.ifPresent(percentile -> checkArgument(percentile >= 0 && percentile <= 100, "latencyPercentile must be between 0 and 100"));
+        this.budget = requireNonNull(budget, "budget is null");
+    }
+
+    public static Optional<HedgingPolicy> createHedgingPolicy(DriftNettyClientConfig config)
+    {
+        if (!config.isHedgingEnabled()) {
+            return Optional.empty();
+        }
+        return Optional.of(new HedgingPolicy(
+                config.getHedgingDelay(),
+                Optional.ofNullable(config.getHedgingLatencyPercentile()),
+                new RequestBudget(config.getHedgingBudgetRatio(), config.getHedgingBudgetBurst(), false)));
+    }
+
+    /**
+     * Returns the delay before a hedged request is sent for the method, or empty
+     * if the method can not be hedged. Each call counts as a hedgeable request
+     * towards the budget.
+     */
+    public Optional<Duration> getHedgeDelay(MethodMetadata method)
+    {
+        if (!method.isIdempotent() || method.isOneway()) {
+            return Optional.empty();
+        }
+        budget.recordRequest();
+
+        long delay = delayNanos;
+        if (latencyPercentile.isPresent()) {
+            long percentileNanos = getLatencyTracker(method).getPercentileNanos();
+            if (percentileNanos >= 0) {
+                delay = percentileNanos;
+            }
+        }
+        return Optional.of(new Duration(delay, NANOSECONDS));
+    }
+
+    public boolean tryAcquireHedge()
+    {
+        return budget.tryAcquire();
+    }
+
+    public void recordLatency(MethodMetadata method, Duration latency)
+    {
+        if (latencyPercentile.isPresent() && method.isIdempotent()) {
+            getLatencyTracker(method).add(latency.roundTo(NANOSECONDS));
+        }
+    }
+
+    private LatencyTracker getLatencyTracker(MethodMetadata method)
+    {
+        return latencyTrackers.computeIfAbsent(method, key -> new LatencyTracker(latencyPercentile.get()));
+    }
+
+    /**
+     * Keeps a ring of the most recent latency samples. The percentile is
+     * recomputed by the recording thread after every few samples, so lookups
+     * on the request path are a single volatile read.
+     */
+    private static class LatencyTracker
+    {
+        private final double percentile;
+        private final AtomicLongArray samples = new AtomicLongArray(SAMPLE_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private volatile long percentileNanos = -1;
+
+        public LatencyTracker(double percentile)
+        {
+            this.percentile = percentile;
+        }
+
+        public long getPercentileNanos()
+        {
+            return percentileNanos;
+        }
+
+        public void add(long latencyNanos)
+        {
+            long index = count.getAndIncrement();
+            samples.set((int) (index % SAMPLE_COUNT), latencyNanos);
+            if ((index + 1) % RECOMPUTE_INTERVAL == 0) {
+                recompute((int) Math.min(index + 1, SAMPLE_COUNT));
+            }
+        }
+
+        private void recompute(int sampleCount)
+        {
+            long[] values = new long[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                values[i] = samples.get(i);
+            }
+            Arrays.sort(values);
+            int position = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+            percentileNanos = values[Math.max(0, Math.min(position, sampleCount - 1))];
+        }
+    }
+}
@@ -15,7 +15,6 @@
  */
 package io.airlift.drift.transport.netty;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.FutureCallback;
@@ -24,55 +23,154 @@ import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.drift.TApplicationException;
 import io.airlift.drift.TException;
 import io.airlift.drift.transport.ResultClassification;
+import io.airlift.drift.transport.RetryPolicy;
 import io.airlift.drift.transport.TTransportException;
+import io.airlift.drift.transport.netty.ConcurrencyLimiter.Permit;
+import io.airlift.units.Duration;
 import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
 
 import javax.annotation.Nullable;
 
-import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static io.airlift.drift.TApplicationException.Type.INTERNAL_ERROR;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 class InvocationAttempt
 {
-    private final Iterator<HostAndPort> addresses;
+    private final List<HostAndPort> addresses;
     private final ConnectionManager connectionManager;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreaker circuitBreaker;
     private final InvocationFunction<Channel> invocationFunction;
     private final Consumer<HostAndPort> onConnectionFailed;
+    private final BiConsumer<HostAndPort, Duration> onRequestSucceeded;
+    private final Consumer<HostAndPort> onRequestStarted;
+    private final Consumer<HostAndPort> onRequestFinished;
+    private final Optional<RetryPolicy> retryPolicy;
+    private final boolean idempotent;
+    private final OptionalLong deadlineNanos;
+    private final Optional<Duration> hedgeDelay;
+    private final BooleanSupplier hedgeBudget;
+    private final EventExecutorGroup scheduler;
+    private final RequestTimeoutManager requestTimeoutManager;
+    private final DriftNettyClientStats stats;
 
     private final InvocationResponseFuture future = new InvocationResponseFuture();
 
     private final AtomicBoolean started = new AtomicBoolean();
     private final AtomicReference<Throwable> lastException = new AtomicReference<>();
+    // non-retryable failure, which is reported once the other request chain finishes
+    private final AtomicReference<Throwable> fatalException = new AtomicReference<>();
+    private volatile long startNanos;
+    private volatile WheelTimer deadlineTimer;
+
+    // guarded by addresses
+    private int nextAddressIndex;
+    // addresses with a request in flight, which are skipped so a hedge never goes to the same host
+    private final Set<HostAndPort> inFlightAddresses = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    // number of request chains (the original and an optional hedge) that have not finished
+    private final AtomicInteger activeAttempts = new AtomicInteger();
+    private final AtomicBoolean hedgeScheduled = new AtomicBoolean();
+    // in-flight requests and timers that are cancelled when the invocation completes; only used with hedging or a deadline
+    private final Queue<java.util.concurrent.Future<?>> inFlightTasks = new ConcurrentLinkedQueue<>();
 
     // current outstanding task for debugging
     private final AtomicReference<java.util.concurrent.Future<?>> currentTask = new AtomicReference<>();
 
+    /**
+     * @param concurrencyLimiter addresses at their concurrency limit are skipped
+     * @param circuitBreaker addresses with an open circuit are skipped without connecting
+     * @param onRequestStarted called when a request is sent to an address
+     * @param onRequestFinished called once for every started request, when it is no longer in flight
+     * @param retryPolicy if present, limits the attempts and delays each retry; otherwise each
+     * remaining address is tried immediately
+     * @param idempotent if true and a retry policy is present, a request that failed because
+     * the host could not be reached or is down is retried on addresses that were already tried
+     * @param deadlineNanos if present, the {@link System#nanoTime()} at which the invocation
+     * fails when it has not completed, including connecting and retries
+     * @param hedgeDelay if present, a duplicate request is sent to the next address when
+     * the first request has not completed within this delay
+     * @param hedgeBudget called before sending a hedged request, which is skipped when this returns false
+     * @param scheduler used to schedule retries
+     * @param requestTimeoutManager provides the timeout wheels used for attempt timeouts and the deadline
+     */
     InvocationAttempt(
             List<HostAndPort> addresses,
             ConnectionManager connectionManager,
+            ConcurrencyLimiter concurrencyLimiter,
+            CircuitBreaker circuitBreaker,
             InvocationFunction<Channel> invocationFunction,
-            Consumer<HostAndPort> onConnectionFailed)
+            Consumer<HostAndPort> onConnectionFailed,
+            BiConsumer<HostAndPort, Duration> onRequestSucceeded,
+            Consumer<HostAndPort> onRequestStarted,
+            Consumer<HostAndPort> onRequestFinished,
+            Optional<RetryPolicy> retryPolicy,
+            boolean idempotent,
+            OptionalLong deadlineNanos,
+            Optional<Duration> hedgeDelay,
+            BooleanSupplier hedgeBudget,
+            EventExecutorGroup scheduler,
+            RequestTimeoutManager requestTimeoutManager,
+            DriftNettyClientStats stats)
     {
-        this.addresses = ImmutableList.copyOf(addresses).iterator();
+        // selectors return immutable snapshots, so the list is not copied
+        this.addresses = addresses;
         this.connectionManager = connectionManager;
+        this.concurrencyLimiter = requireNonNull(concurrencyLimiter, "concurrencyLimiter is null");
+        this.circuitBreaker = requireNonNull(circuitBreaker, "circuitBreaker is null");
         this.invocationFunction = invocationFunction;
         this.onConnectionFailed = onConnectionFailed;
+        this.onRequestSucceeded = onRequestSucceeded;
+        this.onRequestStarted = requireNonNull(onRequestStarted, "onRequestStarted is null");
+        this.onRequestFinished = requireNonNull(onRequestFinished, "onRequestFinished is null");
+        this.retryPolicy = requireNonNull(retryPolicy, "retryPolicy is null");
+        this.idempotent = idempotent;
+        this.deadlineNanos = requireNonNull(deadlineNanos, "deadlineNanos is null");
+        this.hedgeDelay = requireNonNull(hedgeDelay, "hedgeDelay is null");
+        this.hedgeBudget = requireNonNull(hedgeBudget, "hedgeBudget is null");
+        this.scheduler = requireNonNull(scheduler, "scheduler is null");
+        this.requestTimeoutManager = requireNonNull(requestTimeoutManager, "requestTimeoutManager is null");
+        this.stats = requireNonNull(stats, "stats is null");
+
+        if (isTrackingInFlightTasks()) {
+            // the first response wins, so cancel the losing request and any pending timers
+            future.addListener(this::cancelInFlightTasks, directExecutor());
+        }
     }
 
     ListenableFuture<Object> getFuture()
     {
         if (started.compareAndSet(false, true)) {
             try {
-                tryNextAddress();
+                startNanos = System.nanoTime();
+                retryPolicy.ifPresent(policy -> policy.getBudget().recordRequest());
+                deadlineNanos.ifPresent(this::scheduleDeadline);
+                activeAttempts.incrementAndGet();
+                tryNextAddress(false);
             }
             catch (Throwable throwable) {
                 future.fatalError(throwable);
@@ -82,52 +180,316 @@ class InvocationAttempt
         return future;
     }
 
-    private void tryNextAddress()
+    private boolean isTrackingInFlightTasks()
+    {
+        return hedgeDelay.isPresent() || deadlineNanos.isPresent();
+    }
+
+    private void scheduleDeadline(long deadline)
     {
-        // request was already canceled
-        if (future.isCancelled()) {
+        WheelTimer timer = new WheelTimer(
+                requestTimeoutManager.getTimeoutWheel(scheduler.next()),
+                () -> future.fatalError(new TTransportException("Invocation deadline exceeded")));
+        deadlineTimer = timer;
+        timer.start(deadline - System.nanoTime());
+        if (future.isDone()) {
+            timer.cancel();
+        }
+    }
+
+    private HostAndPort nextAddress(boolean repeatAddresses)
+    {
+        // the original request and the hedge share the address list
+        synchronized (addresses) {
+            if (nextAddressIndex >= addresses.size() && repeatAddresses) {
+                nextAddressIndex = 0;
+            }
+            while (nextAddressIndex < addresses.size()) {
+                HostAndPort address = addresses.get(nextAddressIndex);
+                nextAddressIndex++;
+                if (!inFlightAddresses.contains(address)) {
+                    return address;
+                }
+            }
+            return null;
+        }
+    }
+
+    private boolean hasHedgeAddress()
+    {
+        synchronized (addresses) {
+            for (int index = nextAddressIndex; index < addresses.size(); index++) {
+                if (!inFlightAddresses.contains(addresses.get(index))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Continues the current request chain on the next address. The caller must
+     * own one of the active attempts, which is released when no addresses remain.
+     *
+     * @param repeatAddresses if true, addresses that were already tried are tried again once
+     * every address has been tried
+     */
+    private void tryNextAddress(boolean repeatAddresses)
+    {
+        // request was already completed by another chain or canceled
+        if (future.isDone()) {
             return;
         }
 
-        if (!addresses.hasNext()) {
-            Throwable cause = lastException.get();
-            if (cause != null) {
-                future.fatalError(cause);
+        HostAndPort address;
+        Permit permit;
+        int rejectedAddresses = 0;
+        while (true) {
+            address = nextAddress(repeatAddresses);
+            if (address == null) {
+                finishChain();
+                return;
+            }
+            permit = concurrencyLimiter.tryAcquire(address);
+            if (permit == null) {
+                lastException.set(new TTransportException("Concurrency limit of " + concurrencyLimiter.getLimit(address) + " requests reached for " + address));
+            }
+            else if (circuitBreaker.tryAcquire(address)) {
+                break;
             }
             else {
-                future.fatalError(new TTransportException("No hosts available"));
+                permit.onIgnored();
+                lastException.set(new TTransportException("Circuit breaker is open for " + address));
+            }
+            // the request moves to the next address without waiting, and fails once every address has been rejected
+            rejectedAddresses++;
+            if (rejectedAddresses >= addresses.size()) {
+                finishChain();
+                return;
             }
-            return;
         }
+        attempts.incrementAndGet();
 
-        HostAndPort address = addresses.next();
-        Future<Channel> channelFuture = connectionManager.getConnection(address);
+        HostAndPort selectedAddress = address;
+        Permit selectedPermit = permit;
+        Future<Channel> channelFuture;
+        try {
+            channelFuture = connectionManager.getConnection(selectedAddress);
+        }
+        catch (Throwable t) {
+            selectedPermit.onIgnored();
+            circuitBreaker.onIgnored(selectedAddress);
+            throw t;
+        }
         currentTask.set(channelFuture);
         channelFuture.addListener(new SafeFutureCallback<Channel>()
         {
             @Override
             public void safeOnSuccess(Channel channel)
             {
-                tryInvocation(channel, address);
+                tryInvocation(channel, selectedAddress, selectedPermit);
             }
 
             @Override
             public void safeOnFailure(Throwable t)
             {
+                selectedPermit.onIgnored();
                 lastException.set(t);
 
-                onConnectionFailed.accept(address);
+                // transport exceptions come from the client itself, such as an exhausted connection pool,
+                // so the host was not contacted and is not reported as failed
+                boolean connectFailure = !(t instanceof TTransportException);
+                if (connectFailure) {
+                    circuitBreaker.onFailure(selectedAddress, true);
+                    onConnectionFailed.accept(selectedAddress);
+                }
+                else {
+                    circuitBreaker.onIgnored(selectedAddress);
+                }
 
-                tryNextAddress();
+                retry(connectFailure);
             }
         });
     }
 
-    private void tryInvocation(Channel channel, HostAndPort address)
+    /**
+     * Releases the active attempt of the current request chain. The last chain
+     * to finish reports the failure.
+     */
+    private void finishChain()
+    {
+        if (activeAttempts.decrementAndGet() == 0) {
+            Throwable cause = fatalException.get();
+            if (cause == null) {
+                cause = lastException.get();
+            }
+            if (cause != null) {
+                future.fatalError(cause);
+            }
+            else {
+                future.fatalError(new TTransportException("No hosts available"));
+            }
+        }
+    }
+
+    /**
+     * Continues the current request chain after a failed attempt.
+     *
+     * @param hostFailure the host could not be reached or is down, so the request can be
+     * repeated on the same host if the method is idempotent
+     */
+    private void retry(boolean hostFailure)
+    {
+        if (fatalException.get() != null) {
+            // the other request chain failed with a non-retryable failure
+            finishChain();
+            return;
+        }
+        if (!retryPolicy.isPresent()) {
+            tryNextAddress(false);
+            return;
+        }
+        if (future.isDone()) {
+            return;
+        }
+
+        RetryPolicy policy = retryPolicy.get();
+        int failedAttempts = attempts.get();
+        if (failedAttempts >= policy.getMaxAttempts()) {
+            stats.getRetriesExhausted().update(1);
+            finishChain();
+            return;
+        }
+
+        long delayNanos = policy.getBackoffDelay(failedAttempts).roundTo(NANOSECONDS);
+        long retryTimeNanos = System.nanoTime() + delayNanos;
+        if (retryTimeNanos - startNanos >= policy.getMaxRetryTime().roundTo(NANOSECONDS) || (deadlineNanos.isPresent() && retryTimeNanos - deadlineNanos.getAsLong() >= 0)) {
+            stats.getRetriesExhausted().update(1);
+            finishChain();
+            return;
+        }
+
+        if (!policy.getBudget().tryAcquire()) {
+            stats.getRetriesRejected().update(1);
+            finishChain();
+            return;
+        }
+
+        stats.getRetries().update(1);
+        // only requests that did not reach a healthy host are repeated on a host that was already tried
+        boolean repeatAddresses = hostFailure && idempotent;
+        scheduler.schedule(() -> tryNextAddressSafely(repeatAddresses), delayNanos, NANOSECONDS);
+    }
+
+    private void tryNextAddressSafely(boolean repeatAddresses)
+    {
+        try {
+            tryNextAddress(repeatAddresses);
+        }
+        catch (Throwable t) {
+            future.fatalError(t);
+        }
+    }
+
+    private void scheduleHedge(Channel channel)
+    {
+        if (!hedgeDelay.isPresent() || !hedgeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledFuture<?> hedgeTask = channel.eventLoop().schedule(this::sendHedge, hedgeDelay.get().roundTo(NANOSECONDS), NANOSECONDS);
+        inFlightTasks.add(hedgeTask);
+        if (future.isDone()) {
+            hedgeTask.cancel(false);
+        }
+    }
+
+    private void sendHedge()
     {
         try {
-            ListenableFuture<Object> invocationFuture = invocationFunction.invokeOn(channel);
+            // hedging to the host of the original request would not avoid a slow host
+            if (future.isDone() || !hasHedgeAddress() || !hedgeBudget.getAsBoolean()) {
+                return;
+            }
+            stats.getHedges().update(1);
+            activeAttempts.incrementAndGet();
+            tryNextAddress(false);
+        }
+        catch (Throwable t) {
+            future.fatalError(t);
+        }
+    }
+
+    private void cancelInFlightTasks()
+    {
+        java.util.concurrent.Future<?> task;
+        while ((task = inFlightTasks.poll()) != null) {
+            task.cancel(false);
+        }
+        WheelTimer timer = deadlineTimer;
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Cancels the request if it does not complete before the attempt timeout or the
+     * overall retry deadline. Returns null when the retry policy has no attempt timeout,
+     * since the request is then bounded by the request timeout of the connection.
+     */
+    @Nullable
+    private WheelTimer scheduleAttemptTimeout(Channel channel, ListenableFuture<Object> invocationFuture)
+    {
+        if (!retryPolicy.isPresent() || !retryPolicy.get().getAttemptTimeout().isPresent()) {
+            return null;
+        }
+
+        RetryPolicy policy = retryPolicy.get();
+        long timeoutNanos = Math.min(
+                policy.getAttemptTimeout().get().roundTo(NANOSECONDS),
+                policy.getMaxRetryTime().roundTo(NANOSECONDS) - (System.nanoTime() - startNanos));
+
+        WheelTimer timer = new WheelTimer(requestTimeoutManager.getTimeoutWheel(channel.eventLoop()), () -> invocationFuture.cancel(false));
+        timer.start(timeoutNanos);
+        invocationFuture.addListener(timer::cancel, directExecutor());
+        return timer;
+    }
+
+    private void tryInvocation(Channel channel, HostAndPort address, Permit permit)
+    {
+        // another chain already completed the request while this connection was opening
+        if (future.isDone()) {
+            permit.onIgnored();
+            circuitBreaker.onIgnored(address);
+            connectionManager.returnConnection(channel);
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            onRequestStarted.accept(address);
+            inFlightAddresses.add(address);
+            ListenableFuture<Object> invocationFuture;
+            try {
+                invocationFuture = invocationFunction.invokeOn(channel);
+            }
+            catch (Throwable t) {
+                inFlightAddresses.remove(address);
+                onRequestFinished.accept(address);
+                throw t;
+            }
+            invocationFuture.addListener(() -> {
+                inFlightAddresses.remove(address);
+                onRequestFinished.accept(address);
+            }, directExecutor());
             currentTask.set(invocationFuture);
+            if (isTrackingInFlightTasks()) {
+                inFlightTasks.add(invocationFuture);
+                if (future.isDone()) {
+                    invocationFuture.cancel(false);
+                }
+            }
+            scheduleHedge(channel);
+            WheelTimer attemptTimer = scheduleAttemptTimeout(channel, invocationFuture);
             Futures.addCallback(invocationFuture, new SafeFutureCallback<Object>()
             {
                 @Override
@@ -135,14 +497,21 @@ class InvocationAttempt
                 {
                     ResultClassification classification = invocationFunction.classifyResult(result);
                     if (classification.isHostDown()) {
+                        permit.onDropped();
+                        circuitBreaker.onFailure(address, true);
                         onConnectionFailed.accept(address);
                     }
+                    else {
+                        permit.onSuccess(System.nanoTime() - start);
+                        circuitBreaker.onSuccess(address);
+                        onRequestSucceeded.accept(address, Duration.nanosSince(start));
+                    }
                     connectionManager.returnConnection(channel);
 
                     if (classification.isRetry().orElse(FALSE)) {
                         // todo message???
                         lastException.set(new TApplicationException(INTERNAL_ERROR, "Retry of successful result was requested"));
-                        tryNextAddress();
+                        retry(classification.isHostDown());
                     }
                     else {
                         future.success(result);
@@ -152,7 +521,34 @@ class InvocationAttempt
                 @Override
                 public void safeOnFailure(Throwable t)
                 {
+                    boolean attemptTimedOut = t instanceof CancellationException && attemptTimer != null && attemptTimer.isExpired();
+                    if (attemptTimedOut) {
+                        stats.getAttemptTimeouts().update(1);
+                        t = new TTransportException("Attempt timed out waiting " + Duration.nanosSince(start).convertToMostSuccinctTimeUnit() + " for response from " + address);
+                    }
+                    else if (t instanceof CancellationException && future.isDone()) {
+                        // losing request of a hedged invocation, or a request that exceeded the deadline
+                        permit.onIgnored();
+                        circuitBreaker.onIgnored(address);
+                        connectionManager.returnConnection(channel);
+                        return;
+                    }
+
                     ResultClassification classification = invocationFunction.classifyException(t);
+                    if (classification.isHostDown() || attemptTimedOut) {
+                        permit.onDropped();
+                    }
+                    else {
+                        // other failures still measure how long the host took to respond
+                        permit.onSuccess(System.nanoTime() - start);
+                    }
+                    // application exceptions show the host is healthy enough to respond
+                    if (classification.isHostDown() || t instanceof TTransportException) {
+                        circuitBreaker.onFailure(address, classification.isHostDown());
+                    }
+                    else {
+                        circuitBreaker.onSuccess(address);
+                    }
                     if (classification.isHostDown()) {
                         onConnectionFailed.accept(address);
                     }
@@ -160,20 +556,88 @@ class InvocationAttempt
 
                     if (classification.isRetry().orElse(TRUE)) {
                         lastException.set(t);
-                        tryNextAddress();
+                        retry(classification.isHostDown());
                     }
                     else {
-                        future.fatalError(t);
+                        // an outstanding hedge may still succeed, so the failure is reported when it finishes
+                        fatalException.compareAndSet(null, t);
+                        finishChain();
                     }
                 }
             });
         }
         catch (Throwable e) {
+            permit.onIgnored();
+            circuitBreaker.onIgnored(address);
             connectionManager.returnConnection(channel);
             throw e;
         }
     }
 
+    /**
+     * Timer on the timeout wheel of an event loop, which can be started and
+     * cancelled from any thread. The action runs on the event loop.
+     */
+    private static final class WheelTimer
+            extends TimeoutWheel.Timeout
+    {
+        private final TimeoutWheel wheel;
+        private final Runnable action;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile boolean expired;
+
+        public WheelTimer(TimeoutWheel wheel, Runnable action)
+        {
+            this.wheel = requireNonNull(wheel, "wheel is null");
+            this.action = requireNonNull(action, "action is null");
+        }
+
+        public void start(long delayNanos)
+        {
+            if (wheel.isInEventLoop()) {
+                add(delayNanos);
+            }
+            else {
+                wheel.execute(() -> add(delayNanos));
+            }
+        }
+
+        private void add(long delayNanos)
+        {
+            // timer may have been cancelled before it was added to the wheel
+            if (!done.get()) {
+                wheel.add(this, delayNanos);
+            }
+        }
+
+        public void cancel()
+        {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            if (wheel.isInEventLoop()) {
+                wheel.remove(this);
+            }
+            else {
+                wheel.execute(() -> wheel.remove(this));
+            }
+        }
+
+        public boolean isExpired()
+        {
+            return expired;
+        }
+
+        @Override
+        protected void expire()
+        {
+            if (done.compareAndSet(false, true)) {
+                expired = true;
+                action.run();
+            }
+        }
+    }
+
     // This is an non-static inner class so it retains a reference to
     // the invocation attempt which make debugging easier
     private static class InvocationResponseFuture
@@ -21,7 +21,6 @@ import io.airlift.drift.codec.internal.ProtocolReader;
 import io.airlift.drift.codec.internal.ProtocolWriter;
 import io.airlift.drift.codec.metadata.ThriftType;
 import io.airlift.drift.protocol.TMessage;
-import io.airlift.drift.protocol.TProtocolFactory;
 import io.airlift.drift.protocol.TProtocolReader;
 import io.airlift.drift.protocol.TProtocolWriter;
 import io.airlift.drift.transport.DriftApplicationException;
@@ -50,16 +49,54 @@ interface MessageEncoding
     ByteBuf writeRequest(ByteBufAllocator allocator, int sequenceId, MethodMetadata method, List<Object> parameters, Map<String, String> headers)
             throws Exception;
 
+    /**
+     * Returns true if the headers passed to {@link #writeRequest} are sent to the server.
+     */
+    default boolean supportsHeaders()
+    {
+        return false;
+    }
+
     OptionalInt extractResponseSequenceId(ByteBuf buffer);
 
-    Object readResponse(ByteBuf buffer, int sequenceId, MethodMetadata method)
+    ThriftResponse readResponse(ByteBuf buffer, int sequenceId, MethodMetadata method)
             throws Exception;
 
-    static ByteBuf encodeRequest(TProtocolFactory protocolFactory, ByteBufAllocator allocator, int sequenceId, MethodMetadata method, List<Object> parameters)
+    static ByteBuf encodeRequest(
+            ChannelBufferProtocolFactory protocolFactory,
+            RequestSizeEstimator sizeEstimator,
+            ByteBufAllocator allocator,
+            int sequenceId,
+            MethodMetadata method,
+            List<Object> parameters)
+            throws Exception
+    {
+        ByteBuf buffer = allocator.buffer(sizeEstimator.estimateSize(method));
+        try {
+            writeRequestMessage(protocolFactory, sizeEstimator, buffer, sequenceId, method, parameters);
+        }
+        catch (Throwable t) {
+            buffer.release();
+            throw t;
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes the request message at the writer index of the buffer, which allows
+     * the message to follow a transport header in the same buffer.
+     */
+    static void writeRequestMessage(
+            ChannelBufferProtocolFactory protocolFactory,
+            RequestSizeEstimator sizeEstimator,
+            ByteBuf buffer,
+            int sequenceId,
+            MethodMetadata method,
+            List<Object> parameters)
             throws Exception
     {
-        TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport(allocator.buffer(1024));
-        TProtocolWriter protocol = protocolFactory.getProtocol(transport);
+        int start = buffer.writerIndex();
+        TProtocolWriter protocol = protocolFactory.createWriter(buffer);
 
         // Note that though setting message type to ONEWAY can be helpful when looking at packet
         // captures, some clients always send CALL and so servers are forced to rely on the "oneway"
@@ -78,14 +115,13 @@ interface MessageEncoding
         writer.writeStructEnd();
 
         protocol.writeMessageEnd();
-        return transport.getOutputBuffer();
+        sizeEstimator.recordSize(method, buffer.writerIndex() - start);
     }
 
-    static Object decodeResponse(TProtocolFactory protocolFactory, ByteBuf responseMessage, int sequenceId, MethodMetadata method)
+    static Object decodeResponse(ChannelBufferProtocolFactory protocolFactory, ByteBuf responseMessage, int sequenceId, MethodMetadata method)
             throws Exception
     {
-        TChannelBufferInputTransport transport = new TChannelBufferInputTransport(responseMessage);
-        TProtocolReader protocol = protocolFactory.getProtocol(transport);
+        TProtocolReader protocol = protocolFactory.createReader(responseMessage);
 
         // validate response header
         TMessage message = protocol.readMessageBegin();
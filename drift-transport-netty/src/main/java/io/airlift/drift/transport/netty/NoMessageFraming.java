@@ -15,7 +15,7 @@
  */
 package io.airlift.drift.transport.netty;
 
-import io.airlift.drift.protocol.TProtocolFactory;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
 import io.airlift.units.DataSize;
 import io.netty.channel.ChannelPipeline;
 
@@ -24,18 +24,18 @@ import static java.util.Objects.requireNonNull;
 class NoMessageFraming
         implements MessageFraming
 {
-    private final TProtocolFactory protocolFactory;
+    private final Protocol protocol;
     private final DataSize maxFrameSize;
 
-    public NoMessageFraming(TProtocolFactory protocolFactory, DataSize maxFrameSize)
+    public NoMessageFraming(Protocol protocol, DataSize maxFrameSize)
     {
-        this.protocolFactory = requireNonNull(protocolFactory, "protocolFactory is null");
+        this.protocol = requireNonNull(protocol, "protocol is null");
         this.maxFrameSize = requireNonNull(maxFrameSize, "maxFrameSize is null");
     }
 
     @Override
     public void addFrameHandlers(ChannelPipeline pipeline)
     {
-        pipeline.addLast("thriftUnframedDecoder", new ThriftUnframedDecoder(protocolFactory, maxFrameSize));
+        pipeline.addLast("thriftUnframedDecoder", new ThriftUnframedDecoder(protocol, maxFrameSize));
     }
 }
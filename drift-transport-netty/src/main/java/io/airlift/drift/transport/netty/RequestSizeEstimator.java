@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.MapMaker;
+import io.airlift.drift.transport.MethodMetadata;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Estimates the encoded size of requests for each method from an exponentially
+ * weighted moving average of previous requests, so the request buffer can be
+ * allocated at the right size up front. Small requests do not hold on to large
+ * pooled buffers, and large requests avoid repeatedly growing and copying the buffer.
+ */
+@ThreadSafe
+class RequestSizeEstimator
+{
+    static final int DEFAULT_INITIAL_SIZE = 1024;
+
+    private static final int MIN_SIZE = 64;
+    private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+    // each new sample contributes 1/8 of the average
+    private static final int WEIGHT_SHIFT = 3;
+
+    // methods of different services can have the same name, so the averages are keyed by the
+    // method metadata instance, which is weakly referenced so discarded clients can be collected
+    private final ConcurrentMap<MethodMetadata, SizeAverage> averages = new MapMaker().weakKeys().makeMap();
+
+    public int estimateSize(MethodMetadata method)
+    {
+        SizeAverage average = averages.get(method);
+        if (average == null) {
+            return DEFAULT_INITIAL_SIZE;
+        }
+        // leave headroom, so requests slightly above average do not grow the buffer
+        long size = average.get();
+        long estimate = size + (size >> 2);
+        return (int) Math.min(Math.max(estimate, MIN_SIZE), MAX_SIZE);
+    }
+
+    public void recordSize(MethodMetadata method, int size)
+    {
+        checkArgument(size >= 0, "size is negative");
+        averages.computeIfAbsent(method, key -> new SizeAverage(size)).add(size);
+    }
+
+    private static class SizeAverage
+    {
+        // updates are not atomic, since an occasional lost sample does not affect the estimate much
+        private volatile long average;
+
+        public SizeAverage(int initialSize)
+        {
+            this.average = initialSize;
+        }
+
+        public long get()
+        {
+            return average;
+        }
+
+        public void add(int size)
+        {
+            long current = average;
+            average = current + ((size - current) >> WEIGHT_SHIFT);
+        }
+    }
+}
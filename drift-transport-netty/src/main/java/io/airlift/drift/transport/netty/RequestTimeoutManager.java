@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.units.Duration;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Provides the timeout wheel for each event loop, so every connection
+ * handled by an event loop shares a single wheel.
+ */
+class RequestTimeoutManager
+{
+    private final Duration tickDuration;
+    private final ConcurrentMap<EventExecutor, TimeoutWheel> wheels = new ConcurrentHashMap<>();
+
+    public RequestTimeoutManager(Duration tickDuration)
+    {
+        this.tickDuration = requireNonNull(tickDuration, "tickDuration is null");
+    }
+
+    public TimeoutWheel getTimeoutWheel(EventExecutor executor)
+    {
+        return wheels.computeIfAbsent(executor, key -> new TimeoutWheel(key, tickDuration));
+    }
+}
@@ -16,9 +16,7 @@
 package io.airlift.drift.transport.netty;
 
 import io.airlift.drift.protocol.TMessage;
-import io.airlift.drift.protocol.TProtocolFactory;
 import io.airlift.drift.transport.MethodMetadata;
-import io.airlift.drift.transport.TTransport;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 
@@ -35,9 +33,10 @@ import static java.util.Objects.requireNonNull;
 class SimpleMessageEncoding
         implements MessageEncoding
 {
-    private final TProtocolFactory protocolFactory;
+    private final ChannelBufferProtocolFactory protocolFactory;
+    private final RequestSizeEstimator sizeEstimator = new RequestSizeEstimator();
 
-    public SimpleMessageEncoding(TProtocolFactory protocolFactory)
+    public SimpleMessageEncoding(ChannelBufferProtocolFactory protocolFactory)
     {
         this.protocolFactory = requireNonNull(protocolFactory, "protocolFactory is null");
     }
@@ -47,15 +46,14 @@ class SimpleMessageEncoding
             throws Exception
     {
         checkArgument(headers.isEmpty(), "Headers are only supported with header transport");
-        return MessageEncoding.encodeRequest(protocolFactory, allocator, sequenceId, method, parameters);
+        return MessageEncoding.encodeRequest(protocolFactory, sizeEstimator, allocator, sequenceId, method, parameters);
     }
 
     @Override
     public OptionalInt extractResponseSequenceId(ByteBuf buffer)
     {
         try {
-            TTransport inputTransport = new TChannelBufferInputTransport(buffer.duplicate());
-            TMessage message = protocolFactory.getProtocol(inputTransport).readMessageBegin();
+            TMessage message = protocolFactory.createReader(buffer.duplicate()).readMessageBegin();
             return OptionalInt.of(message.getSequenceId());
         }
         catch (Throwable ignored) {
@@ -64,9 +62,9 @@ class SimpleMessageEncoding
     }
 
     @Override
-    public Object readResponse(ByteBuf buffer, int sequenceId, MethodMetadata method)
+    public ThriftResponse readResponse(ByteBuf buffer, int sequenceId, MethodMetadata method)
             throws Exception
     {
-        return MessageEncoding.decodeResponse(protocolFactory, buffer, sequenceId, method);
+        return new ThriftResponse(MessageEncoding.decodeResponse(protocolFactory, buffer, sequenceId, method));
     }
 }
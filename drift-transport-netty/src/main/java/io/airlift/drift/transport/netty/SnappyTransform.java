@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.snappy.SnappyCompressor;
+import io.airlift.compress.snappy.SnappyDecompressor;
+import io.airlift.drift.transport.TTransportException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Snappy transform using the pure Java implementation from aircompressor, which
+ * is much faster than zlib at a lower compression ratio.
+ */
+@ThreadSafe
+class SnappyTransform
+        implements HeaderTransform
+{
+    static final int SNAPPY_TRANSFORM_ID = 0x03;
+
+    // the compressor keeps a hash table between calls, so it is not thread safe
+    private static final ThreadLocal<SnappyCompressor> COMPRESSOR = ThreadLocal.withInitial(SnappyCompressor::new);
+    private static final SnappyDecompressor DECOMPRESSOR = new SnappyDecompressor();
+
+    @Override
+    public int getId()
+    {
+        return SNAPPY_TRANSFORM_ID;
+    }
+
+    @Override
+    public void compress(ByteBuf input, ByteBuf output)
+    {
+        SnappyCompressor compressor = COMPRESSOR.get();
+        output.ensureWritable(compressor.maxCompressedLength(input.readableBytes()));
+
+        ByteBuffer inputBuffer = input.nioBuffer(input.readerIndex(), input.readableBytes());
+        ByteBuffer outputBuffer = output.nioBuffer(output.writerIndex(), output.writableBytes());
+        int start = outputBuffer.position();
+        compressor.compress(inputBuffer, outputBuffer);
+        output.writerIndex(output.writerIndex() + outputBuffer.position() - start);
+    }
+
+    @Override
+    public ByteBuf decompress(ByteBufAllocator allocator, ByteBuf input, int maxSize)
+            throws TTransportException
+    {
+        int uncompressedLength = readUncompressedLength(input);
+        if (uncompressedLength > maxSize) {
+            throw new TTransportException("Decompressed response exceeds maximum size of " + maxSize + " bytes");
+        }
+
+        ByteBuf output = allocator.buffer(uncompressedLength, uncompressedLength);
+        try {
+            ByteBuffer inputBuffer = input.nioBuffer(input.readerIndex(), input.readableBytes());
+            ByteBuffer outputBuffer = output.nioBuffer(0, uncompressedLength);
+            int start = outputBuffer.position();
+            DECOMPRESSOR.decompress(inputBuffer, outputBuffer);
+            output.writerIndex(outputBuffer.position() - start);
+            return output;
+        }
+        catch (MalformedInputException e) {
+            output.release();
+            throw new TTransportException("Invalid snappy compressed response", e);
+        }
+        catch (Throwable t) {
+            output.release();
+            throw t;
+        }
+    }
+
+    /**
+     * Snappy data starts with the uncompressed length as a little endian varint.
+     */
+    private static int readUncompressedLength(ByteBuf input)
+            throws TTransportException
+    {
+        int result = 0;
+        int index = input.readerIndex();
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (index >= input.writerIndex()) {
+                break;
+            }
+            int b = input.getUnsignedByte(index++);
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (result < 0) {
+                    break;
+                }
+                return result;
+            }
+        }
+        throw new TTransportException("Invalid snappy compressed response length");
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.TException;
+import io.airlift.drift.protocol.TField;
+import io.airlift.drift.protocol.TList;
+import io.airlift.drift.protocol.TMap;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocol;
+import io.airlift.drift.protocol.TProtocolException;
+import io.airlift.drift.protocol.TSet;
+import io.airlift.drift.protocol.TStruct;
+import io.airlift.drift.protocol.TType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.nio.ByteBuffer;
+
+import static java.lang.Double.doubleToLongBits;
+import static java.lang.Double.longBitsToDouble;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Binary protocol that reads and writes a {@link ByteBuf} directly, rather than
+ * copying each value through the byte array based transport interface. The wire
+ * format is the same as {@link io.airlift.drift.protocol.TBinaryProtocol} with
+ * strict writes and non-strict reads.
+ */
+@NotThreadSafe
+class TChannelBufferBinaryProtocol
+        implements TProtocol
+{
+    private static final TStruct ANONYMOUS_STRUCT = new TStruct("");
+    private static final long NO_LENGTH_LIMIT = -1;
+
+    private static final int VERSION_MASK = 0xffff0000;
+    private static final int VERSION_1 = 0x80010000;
+
+    private final ByteBuf buffer;
+    private final long stringLengthLimit;
+    private final long containerLengthLimit;
+
+    public static ChannelBufferProtocolFactory createFactory(long stringLengthLimit, long containerLengthLimit)
+    {
+        return new ChannelBufferProtocolFactory()
+        {
+            @Override
+            public TProtocol createReader(ByteBuf buffer)
+            {
+                return new TChannelBufferBinaryProtocol(buffer, stringLengthLimit, containerLengthLimit);
+            }
+
+            @Override
+            public TProtocol createWriter(ByteBuf buffer)
+            {
+                return new TChannelBufferBinaryProtocol(buffer, stringLengthLimit, containerLengthLimit);
+            }
+        };
+    }
+
+    public TChannelBufferBinaryProtocol(ByteBuf buffer)
+    {
+        this(buffer, NO_LENGTH_LIMIT, NO_LENGTH_LIMIT);
+    }
+
+    public TChannelBufferBinaryProtocol(ByteBuf buffer, long stringLengthLimit, long containerLengthLimit)
+    {
+        this.buffer = requireNonNull(buffer, "buffer is null");
+        this.stringLengthLimit = stringLengthLimit;
+        this.containerLengthLimit = containerLengthLimit;
+    }
+
+    @Override
+    public void writeMessageBegin(TMessage message)
+            throws TException
+    {
+        buffer.writeInt(VERSION_1 | (message.getType() & 0xFF));
+        writeString(message.getName());
+        buffer.writeInt(message.getSequenceId());
+    }
+
+    @Override
+    public void writeMessageEnd() {}
+
+    @Override
+    public void writeStructBegin(TStruct struct) {}
+
+    @Override
+    public void writeStructEnd() {}
+
+    @Override
+    public void writeFieldBegin(TField field)
+    {
+        buffer.writeByte(field.getType());
+        buffer.writeShort(field.getId());
+    }
+
+    @Override
+    public void writeFieldEnd() {}
+
+    @Override
+    public void writeFieldStop()
+    {
+        buffer.writeByte(TType.STOP);
+    }
+
+    @Override
+    public void writeMapBegin(TMap map)
+    {
+        buffer.writeByte(map.getKeyType());
+        buffer.writeByte(map.getValueType());
+        buffer.writeInt(map.getSize());
+    }
+
+    @Override
+    public void writeMapEnd() {}
+
+    @Override
+    public void writeListBegin(TList list)
+    {
+        buffer.writeByte(list.getType());
+        buffer.writeInt(list.getSize());
+    }
+
+    @Override
+    public void writeListEnd() {}
+
+    @Override
+    public void writeSetBegin(TSet set)
+    {
+        buffer.writeByte(set.getType());
+        buffer.writeInt(set.getSize());
+    }
+
+    @Override
+    public void writeSetEnd() {}
+
+    @Override
+    public void writeBool(boolean value)
+    {
+        buffer.writeByte(value ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(byte value)
+    {
+        buffer.writeByte(value);
+    }
+
+    @Override
+    public void writeI16(short value)
+    {
+        buffer.writeShort(value);
+    }
+
+    @Override
+    public void writeI32(int value)
+    {
+        buffer.writeInt(value);
+    }
+
+    @Override
+    public void writeI64(long value)
+    {
+        buffer.writeLong(value);
+    }
+
+    @Override
+    public void writeDouble(double value)
+    {
+        buffer.writeLong(doubleToLongBits(value));
+    }
+
+    @Override
+    public void writeString(String value)
+    {
+        int length = TChannelBufferCompactProtocol.utf8Length(value);
+        if (length < 0) {
+            byte[] bytes = value.getBytes(UTF_8);
+            buffer.writeInt(bytes.length);
+            buffer.writeBytes(bytes);
+            return;
+        }
+        buffer.writeInt(length);
+        ByteBufUtil.writeUtf8(buffer, value);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer value)
+    {
+        buffer.writeInt(value.remaining());
+        buffer.writeBytes(value.duplicate());
+    }
+
+    @Override
+    public TMessage readMessageBegin()
+            throws TException
+    {
+        int size = buffer.readInt();
+        if (size < 0) {
+            int version = size & VERSION_MASK;
+            if (version != VERSION_1) {
+                throw new TProtocolException("Bad version in readMessageBegin: " + version);
+            }
+            return new TMessage(readString(), (byte) (size & 0x000000ff), buffer.readInt());
+        }
+        return new TMessage(readStringBody(size), buffer.readByte(), buffer.readInt());
+    }
+
+    @Override
+    public void readMessageEnd() {}
+
+    @Override
+    public TStruct readStructBegin()
+    {
+        return ANONYMOUS_STRUCT;
+    }
+
+    @Override
+    public void readStructEnd() {}
+
+    @Override
+    public TField readFieldBegin()
+    {
+        byte type = buffer.readByte();
+        short id = type == TType.STOP ? 0 : buffer.readShort();
+        return new TField("", type, id);
+    }
+
+    @Override
+    public void readFieldEnd() {}
+
+    @Override
+    public TMap readMapBegin()
+            throws TException
+    {
+        TMap map = new TMap(buffer.readByte(), buffer.readByte(), buffer.readInt());
+        checkContainerReadLength(map.getSize());
+        return map;
+    }
+
+    @Override
+    public void readMapEnd() {}
+
+    @Override
+    public TList readListBegin()
+            throws TException
+    {
+        TList list = new TList(buffer.readByte(), buffer.readInt());
+        checkContainerReadLength(list.getSize());
+        return list;
+    }
+
+    @Override
+    public void readListEnd() {}
+
+    @Override
+    public TSet readSetBegin()
+            throws TException
+    {
+        TSet set = new TSet(buffer.readByte(), buffer.readInt());
+        checkContainerReadLength(set.getSize());
+        return set;
+    }
+
+    @Override
+    public void readSetEnd() {}
+
+    @Override
+    public boolean readBool()
+    {
+        return buffer.readByte() == 1;
+    }
+
+    @Override
+    public byte readByte()
+    {
+        return buffer.readByte();
+    }
+
+    @Override
+    public short readI16()
+    {
+        return buffer.readShort();
+    }
+
+    @Override
+    public int readI32()
+    {
+        return buffer.readInt();
+    }
+
+    @Override
+    public long readI64()
+    {
+        return buffer.readLong();
+    }
+
+    @Override
+    public double readDouble()
+    {
+        return longBitsToDouble(buffer.readLong());
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        int size = buffer.readInt();
+        checkStringReadLength(size);
+        return readStringBody(size);
+    }
+
+    private String readStringBody(int size)
+    {
+        // decodes directly from the buffer memory without an intermediate byte array
+        return buffer.readCharSequence(size, UTF_8).toString();
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        int size = buffer.readInt();
+        checkStringReadLength(size);
+
+        // the buffer is released after decoding, so the value must be copied
+        byte[] bytes = new byte[size];
+        buffer.readBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void checkStringReadLength(int length)
+            throws TProtocolException
+    {
+        if (length < 0) {
+            throw new TProtocolException("Negative length: " + length);
+        }
+        if (stringLengthLimit != NO_LENGTH_LIMIT && length > stringLengthLimit) {
+            throw new TProtocolException("Length exceeded max allowed: " + length);
+        }
+    }
+
+    private void checkContainerReadLength(int length)
+            throws TProtocolException
+    {
+        if (length < 0) {
+            throw new TProtocolException("Negative length: " + length);
+        }
+        if (containerLengthLimit != NO_LENGTH_LIMIT && length > containerLengthLimit) {
+            throw new TProtocolException("Length exceeded max allowed: " + length);
+        }
+    }
+}
@@ -0,0 +1,702 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.TException;
+import io.airlift.drift.protocol.TField;
+import io.airlift.drift.protocol.TList;
+import io.airlift.drift.protocol.TMap;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocol;
+import io.airlift.drift.protocol.TProtocolException;
+import io.airlift.drift.protocol.TSet;
+import io.airlift.drift.protocol.TStruct;
+import io.airlift.drift.protocol.TType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.lang.Double.doubleToLongBits;
+import static java.lang.Double.longBitsToDouble;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compact protocol that reads and writes a {@link ByteBuf} directly, rather than
+ * copying each value through the byte array based transport interface. This
+ * supports both the Apache wire format of {@link io.airlift.drift.protocol.TCompactProtocol}
+ * and the Facebook fork implemented by {@link TFacebookCompactProtocol}, which
+ * differ only in the message version, the message type mask, and the byte order
+ * of doubles.
+ */
+@NotThreadSafe
+class TChannelBufferCompactProtocol
+        implements TProtocol
+{
+    private static final TStruct ANONYMOUS_STRUCT = new TStruct("");
+    private static final TField TSTOP = new TField("", TType.STOP, (short) 0);
+    private static final long NO_LENGTH_LIMIT = -1;
+
+    private static final byte[] TTYPE_TO_COMPACT_TYPE = new byte[16];
+
+    static {
+        TTYPE_TO_COMPACT_TYPE[TType.STOP] = TType.STOP;
+        TTYPE_TO_COMPACT_TYPE[TType.BOOL] = Types.BOOLEAN_TRUE;
+        TTYPE_TO_COMPACT_TYPE[TType.BYTE] = Types.BYTE;
+        TTYPE_TO_COMPACT_TYPE[TType.I16] = Types.I16;
+        TTYPE_TO_COMPACT_TYPE[TType.I32] = Types.I32;
+        TTYPE_TO_COMPACT_TYPE[TType.I64] = Types.I64;
+        TTYPE_TO_COMPACT_TYPE[TType.DOUBLE] = Types.DOUBLE;
+        TTYPE_TO_COMPACT_TYPE[TType.STRING] = Types.BINARY;
+        TTYPE_TO_COMPACT_TYPE[TType.LIST] = Types.LIST;
+        TTYPE_TO_COMPACT_TYPE[TType.SET] = Types.SET;
+        TTYPE_TO_COMPACT_TYPE[TType.MAP] = Types.MAP;
+        TTYPE_TO_COMPACT_TYPE[TType.STRUCT] = Types.STRUCT;
+    }
+
+    private static final byte PROTOCOL_ID = (byte) 0x82;
+    private static final byte APACHE_VERSION = 1;
+    private static final byte FACEBOOK_VERSION = 2;
+    private static final byte VERSION_MASK = 0x1f; // 0001 1111
+    private static final byte TYPE_MASK = (byte) 0xE0; // 1110 0000
+    private static final byte APACHE_TYPE_BITS = 0x07; // 0000 0111
+    private static final byte FACEBOOK_TYPE_BITS = 0x03; // 0000 0011
+    private static final int TYPE_SHIFT_AMOUNT = 5;
+
+    /**
+     * All of the on-wire type codes.
+     */
+    private static final class Types
+    {
+        public static final byte BOOLEAN_TRUE = 0x01;
+        public static final byte BOOLEAN_FALSE = 0x02;
+        public static final byte BYTE = 0x03;
+        public static final byte I16 = 0x04;
+        public static final byte I32 = 0x05;
+        public static final byte I64 = 0x06;
+        public static final byte DOUBLE = 0x07;
+        public static final byte BINARY = 0x08;
+        public static final byte LIST = 0x09;
+        public static final byte SET = 0x0A;
+        public static final byte MAP = 0x0B;
+        public static final byte STRUCT = 0x0C;
+    }
+
+    private final ByteBuf buffer;
+    private final boolean facebook;
+    private final long stringLengthLimit;
+    private final long containerLengthLimit;
+
+    /**
+     * Field ids of the enclosing structs, used for the field id delta encoding.
+     * Nesting is shallow, so a small array is cheaper than a boxed deque.
+     */
+    private short[] lastFieldIds = new short[8];
+    private int structDepth;
+    private short lastFieldId;
+
+    /**
+     * If we encounter a boolean field begin, save the TField here so it can
+     * have the value incorporated.
+     */
+    private TField booleanField;
+
+    /**
+     * If we read a field header, and it's a boolean field, save the boolean
+     * value here so that readBool can use it.
+     */
+    private Boolean boolValue;
+
+    public static ChannelBufferProtocolFactory createFactory(long stringLengthLimit, long containerLengthLimit)
+    {
+        return createFactory(false, stringLengthLimit, containerLengthLimit);
+    }
+
+    public static ChannelBufferProtocolFactory createFacebookFactory(long maxNetworkBytes)
+    {
+        // like TFacebookCompactProtocol, only the byte length of strings and binary values is limited
+        return createFactory(true, maxNetworkBytes, NO_LENGTH_LIMIT);
+    }
+
+    private static ChannelBufferProtocolFactory createFactory(boolean facebook, long stringLengthLimit, long containerLengthLimit)
+    {
+        return new ChannelBufferProtocolFactory()
+        {
+            @Override
+            public TProtocol createReader(ByteBuf buffer)
+            {
+                return new TChannelBufferCompactProtocol(buffer, facebook, stringLengthLimit, containerLengthLimit);
+            }
+
+            @Override
+            public TProtocol createWriter(ByteBuf buffer)
+            {
+                return new TChannelBufferCompactProtocol(buffer, facebook, stringLengthLimit, containerLengthLimit);
+            }
+        };
+    }
+
+    public TChannelBufferCompactProtocol(ByteBuf buffer, boolean facebook)
+    {
+        this(buffer, facebook, NO_LENGTH_LIMIT, NO_LENGTH_LIMIT);
+    }
+
+    public TChannelBufferCompactProtocol(ByteBuf buffer, boolean facebook, long stringLengthLimit, long containerLengthLimit)
+    {
+        this.buffer = requireNonNull(buffer, "buffer is null");
+        this.facebook = facebook;
+        this.stringLengthLimit = stringLengthLimit;
+        this.containerLengthLimit = containerLengthLimit;
+    }
+
+    //
+    // Writing methods
+    //
+
+    @Override
+    public void writeMessageBegin(TMessage message)
+    {
+        byte version = facebook ? FACEBOOK_VERSION : APACHE_VERSION;
+        buffer.writeByte(PROTOCOL_ID);
+        buffer.writeByte((version & VERSION_MASK) | ((message.getType() << TYPE_SHIFT_AMOUNT) & TYPE_MASK));
+        writeVarint32(message.getSequenceId());
+        writeString(message.getName());
+    }
+
+    @Override
+    public void writeStructBegin(TStruct struct)
+    {
+        pushLastFieldId();
+    }
+
+    @Override
+    public void writeStructEnd()
+    {
+        popLastFieldId();
+    }
+
+    @Override
+    public void writeFieldBegin(TField field)
+    {
+        if (field.getType() == TType.BOOL) {
+            // the value is encoded in the field header, so wait for writeBool
+            booleanField = field;
+        }
+        else {
+            writeFieldBeginInternal(field, TTYPE_TO_COMPACT_TYPE[field.getType()]);
+        }
+    }
+
+    private void writeFieldBeginInternal(TField field, byte typeToWrite)
+    {
+        // check if we can use delta encoding for the field id
+        if (field.getId() > lastFieldId && field.getId() - lastFieldId <= 15) {
+            buffer.writeByte((field.getId() - lastFieldId) << 4 | typeToWrite);
+        }
+        else {
+            buffer.writeByte(typeToWrite);
+            writeI16(field.getId());
+        }
+        lastFieldId = field.getId();
+    }
+
+    @Override
+    public void writeFieldStop()
+    {
+        buffer.writeByte(TType.STOP);
+    }
+
+    @Override
+    public void writeMapBegin(TMap map)
+    {
+        if (map.getSize() == 0) {
+            buffer.writeByte(0);
+        }
+        else {
+            writeVarint32(map.getSize());
+            buffer.writeByte(TTYPE_TO_COMPACT_TYPE[map.getKeyType()] << 4 | TTYPE_TO_COMPACT_TYPE[map.getValueType()]);
+        }
+    }
+
+    @Override
+    public void writeListBegin(TList list)
+    {
+        writeCollectionBegin(list.getType(), list.getSize());
+    }
+
+    @Override
+    public void writeSetBegin(TSet set)
+    {
+        writeCollectionBegin(set.getType(), set.getSize());
+    }
+
+    private void writeCollectionBegin(byte elementType, int size)
+    {
+        if (size <= 14) {
+            buffer.writeByte(size << 4 | TTYPE_TO_COMPACT_TYPE[elementType]);
+        }
+        else {
+            buffer.writeByte(0xf0 | TTYPE_TO_COMPACT_TYPE[elementType]);
+            writeVarint32(size);
+        }
+    }
+
+    @Override
+    public void writeBool(boolean value)
+    {
+        byte compactValue = value ? Types.BOOLEAN_TRUE : Types.BOOLEAN_FALSE;
+        if (booleanField != null) {
+            // we haven't written the field header yet
+            writeFieldBeginInternal(booleanField, compactValue);
+            booleanField = null;
+        }
+        else {
+            buffer.writeByte(compactValue);
+        }
+    }
+
+    @Override
+    public void writeByte(byte value)
+    {
+        buffer.writeByte(value);
+    }
+
+    @Override
+    public void writeI16(short value)
+    {
+        writeVarint32(intToZigZag(value));
+    }
+
+    @Override
+    public void writeI32(int value)
+    {
+        writeVarint32(intToZigZag(value));
+    }
+
+    @Override
+    public void writeI64(long value)
+    {
+        writeVarint64(longToZigzag(value));
+    }
+
+    @Override
+    public void writeDouble(double value)
+    {
+        long bits = doubleToLongBits(value);
+        if (facebook) {
+            buffer.writeLong(bits);
+        }
+        else {
+            buffer.writeLongLE(bits);
+        }
+    }
+
+    @Override
+    public void writeString(String value)
+    {
+        int length = utf8Length(value);
+        if (length < 0) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint32(bytes.length);
+            buffer.writeBytes(bytes);
+            return;
+        }
+        writeVarint32(length);
+        ByteBufUtil.writeUtf8(buffer, value);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer value)
+    {
+        writeVarint32(value.remaining());
+        buffer.writeBytes(value.duplicate());
+    }
+
+    @Override
+    public void writeMessageEnd() {}
+
+    @Override
+    public void writeMapEnd() {}
+
+    @Override
+    public void writeListEnd() {}
+
+    @Override
+    public void writeSetEnd() {}
+
+    @Override
+    public void writeFieldEnd() {}
+
+    private void writeVarint32(int n)
+    {
+        while ((n & ~0x7F) != 0) {
+            buffer.writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        buffer.writeByte(n);
+    }
+
+    private void writeVarint64(long n)
+    {
+        while ((n & ~0x7FL) != 0) {
+            buffer.writeByte((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        buffer.writeByte((int) n);
+    }
+
+    //
+    // Reading methods
+    //
+
+    @Override
+    public TMessage readMessageBegin()
+            throws TException
+    {
+        byte protocolId = buffer.readByte();
+        if (protocolId != PROTOCOL_ID) {
+            throw new TProtocolException("Expected protocol id " + Integer.toHexString(PROTOCOL_ID) + " but got " + Integer.toHexString(protocolId));
+        }
+        byte versionAndType = buffer.readByte();
+        byte version = (byte) (versionAndType & VERSION_MASK);
+        byte expectedVersion = facebook ? FACEBOOK_VERSION : APACHE_VERSION;
+        if (version != expectedVersion) {
+            throw new TProtocolException("Expected version " + expectedVersion + " but got " + version);
+        }
+        byte type = (byte) ((versionAndType >> TYPE_SHIFT_AMOUNT) & (facebook ? FACEBOOK_TYPE_BITS : APACHE_TYPE_BITS));
+        int sequenceId = readVarint32();
+        String messageName = readString();
+        return new TMessage(messageName, type, sequenceId);
+    }
+
+    @Override
+    public TStruct readStructBegin()
+    {
+        pushLastFieldId();
+        return ANONYMOUS_STRUCT;
+    }
+
+    @Override
+    public void readStructEnd()
+    {
+        popLastFieldId();
+    }
+
+    @Override
+    public TField readFieldBegin()
+            throws TException
+    {
+        byte type = buffer.readByte();
+
+        // if it's a stop, then we can return immediately, as the struct is over.
+        if (type == TType.STOP) {
+            return TSTOP;
+        }
+
+        // mask off the 4 MSB of the type header. it could contain a field id delta.
+        short fieldId;
+        short modifier = (short) ((type & 0xf0) >> 4);
+        if (modifier == 0) {
+            fieldId = readI16();
+        }
+        else {
+            fieldId = (short) (lastFieldId + modifier);
+        }
+
+        TField field = new TField("", getTType((byte) (type & 0x0f)), fieldId);
+
+        // if this happens to be a boolean field, the value is encoded in the type
+        if (isBoolType(type)) {
+            boolValue = (byte) (type & 0x0f) == Types.BOOLEAN_TRUE ? Boolean.TRUE : Boolean.FALSE;
+        }
+
+        lastFieldId = fieldId;
+        return field;
+    }
+
+    @Override
+    public TMap readMapBegin()
+            throws TException
+    {
+        int size = readVarint32();
+        checkContainerReadLength(size);
+        byte keyAndValueType = size == 0 ? 0 : buffer.readByte();
+        return new TMap(getTType((byte) (keyAndValueType >> 4)), getTType((byte) (keyAndValueType & 0xf)), size);
+    }
+
+    @Override
+    public TList readListBegin()
+            throws TException
+    {
+        byte sizeAndType = buffer.readByte();
+        int size = (sizeAndType >> 4) & 0x0f;
+        if (size == 15) {
+            size = readVarint32();
+        }
+        checkContainerReadLength(size);
+        return new TList(getTType(sizeAndType), size);
+    }
+
+    @Override
+    public TSet readSetBegin()
+            throws TException
+    {
+        return new TSet(readListBegin());
+    }
+
+    @Override
+    public boolean readBool()
+    {
+        if (boolValue != null) {
+            boolean result = boolValue;
+            boolValue = null;
+            return result;
+        }
+        return buffer.readByte() == Types.BOOLEAN_TRUE;
+    }
+
+    @Override
+    public byte readByte()
+    {
+        return buffer.readByte();
+    }
+
+    @Override
+    public short readI16()
+            throws TException
+    {
+        return (short) zigzagToInt(readVarint32());
+    }
+
+    @Override
+    public int readI32()
+            throws TException
+    {
+        return zigzagToInt(readVarint32());
+    }
+
+    @Override
+    public long readI64()
+            throws TException
+    {
+        return zigzagToLong(readVarint64());
+    }
+
+    @Override
+    public double readDouble()
+    {
+        return longBitsToDouble(facebook ? buffer.readLong() : buffer.readLongLE());
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        int length = readVarint32();
+        checkStringReadLength(length);
+        if (length == 0) {
+            return "";
+        }
+        // decodes directly from the buffer memory without an intermediate byte array
+        return buffer.readCharSequence(length, UTF_8).toString();
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        int length = readVarint32();
+        checkStringReadLength(length);
+
+        // the buffer is released after decoding, so the value must be copied
+        byte[] bytes = new byte[length];
+        buffer.readBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void readMessageEnd() {}
+
+    @Override
+    public void readFieldEnd() {}
+
+    @Override
+    public void readMapEnd() {}
+
+    @Override
+    public void readListEnd() {}
+
+    @Override
+    public void readSetEnd() {}
+
+    private int readVarint32()
+            throws TProtocolException
+    {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.readByte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) != 0x80) {
+                return result;
+            }
+        }
+        throw new TProtocolException("Variable length integer is longer than 5 bytes");
+    }
+
+    private long readVarint64()
+            throws TProtocolException
+    {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) != 0x80) {
+                return result;
+            }
+        }
+        throw new TProtocolException("Variable length integer is longer than 10 bytes");
+    }
+
+    private void checkStringReadLength(int length)
+            throws TProtocolException
+    {
+        if (length < 0) {
+            throw new TProtocolException("Negative length: " + length);
+        }
+        if (stringLengthLimit != NO_LENGTH_LIMIT && length > stringLengthLimit) {
+            throw new TProtocolException("Length exceeded max allowed: " + length);
+        }
+    }
+
+    private void checkContainerReadLength(int length)
+            throws TProtocolException
+    {
+        if (length < 0) {
+            throw new TProtocolException("Negative length: " + length);
+        }
+        if (containerLengthLimit != NO_LENGTH_LIMIT && length > containerLengthLimit) {
+            throw new TProtocolException("Length exceeded max allowed: " + length);
+        }
+    }
+
+    private void pushLastFieldId()
+    {
+        if (structDepth == lastFieldIds.length) {
+            lastFieldIds = Arrays.copyOf(lastFieldIds, structDepth * 2);
+        }
+        lastFieldIds[structDepth] = lastFieldId;
+        structDepth++;
+        lastFieldId = 0;
+    }
+
+    private void popLastFieldId()
+    {
+        structDepth--;
+        lastFieldId = lastFieldIds[structDepth];
+    }
+
+    //
+    // encoding helpers
+    //
+
+    /**
+     * Returns the UTF-8 encoded length of the string, or -1 if the string contains
+     * surrogates, in which case the caller must fall back to {@link String#getBytes}
+     * to get the same replacement behavior as the transport based protocols.
+     */
+    static int utf8Length(String value)
+    {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isSurrogate(c)) {
+                    return -1;
+                }
+                bytes += 2;
+            }
+            else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    private static int intToZigZag(int n)
+    {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static long longToZigzag(long l)
+    {
+        return (l << 1) ^ (l >> 63);
+    }
+
+    private static int zigzagToInt(int n)
+    {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static long zigzagToLong(long n)
+    {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static boolean isBoolType(byte b)
+    {
+        int lowerNibble = b & 0x0f;
+        return lowerNibble == Types.BOOLEAN_TRUE || lowerNibble == Types.BOOLEAN_FALSE;
+    }
+
+    private static byte getTType(byte type)
+            throws TProtocolException
+    {
+        switch ((byte) (type & 0x0f)) {
+            case TType.STOP:
+                return TType.STOP;
+            case Types.BOOLEAN_FALSE:
+            case Types.BOOLEAN_TRUE:
+                return TType.BOOL;
+            case Types.BYTE:
+                return TType.BYTE;
+            case Types.I16:
+                return TType.I16;
+            case Types.I32:
+                return TType.I32;
+            case Types.I64:
+                return TType.I64;
+            case Types.DOUBLE:
+                return TType.DOUBLE;
+            case Types.BINARY:
+                return TType.STRING;
+            case Types.LIST:
+                return TType.LIST;
+            case Types.SET:
+                return TType.SET;
+            case Types.MAP:
+                return TType.MAP;
+            case Types.STRUCT:
+                return TType.STRUCT;
+            default:
+                throw new TProtocolException("don't know what type: " + (byte) (type & 0x0f));
+        }
+    }
+}
@@ -15,11 +15,13 @@
  */
 package io.airlift.drift.transport.netty;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.AbstractFuture;
 import io.airlift.drift.TException;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.TTransportException;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
@@ -27,21 +29,25 @@ import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
-import io.netty.util.concurrent.EventExecutor;
-import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 
 import javax.annotation.concurrent.ThreadSafe;
 
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.OptionalInt;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @ThreadSafe
 class ThriftClientHandler
@@ -49,17 +55,48 @@ class ThriftClientHandler
 {
     private static final int ONEWAY_SEQUENCE_ID = 0xFFFF_FFFF;
 
+    // remaining time for the request in milliseconds, which servers use to drop requests that can no longer complete in time
+    static final String CLIENT_TIMEOUT_HEADER = "client_timeout";
+
     private final Duration requestTimeout;
     private final MessageEncoding messageEncoding;
-
-    private final ConcurrentHashMap<Integer, RequestHandler> pendingRequests = new ConcurrentHashMap<>();
+    private final RequestTimeoutManager requestTimeoutManager;
+    private final Executor decoderExecutor;
+    private final long decoderOffloadThreshold;
+    private final DriftNettyClientStats stats;
+
+    // only accessed from the event loop
+    private final IntObjectMap<RequestHandler> pendingRequests = new IntObjectHashMap<>();
+    // cancelled requests whose response may still arrive; kept until the response or the request timeout
+    private final IntObjectMap<RequestHandler> abandonedRequests = new IntObjectHashMap<>();
     private final AtomicReference<TException> channelError = new AtomicReference<>();
     private final AtomicInteger sequenceId = new AtomicInteger(42);
 
-    ThriftClientHandler(Duration requestTimeout, MessageEncoding messageEncoding)
+    private volatile TimeoutWheel timeoutWheel;
+
+    ThriftClientHandler(
+            Duration requestTimeout,
+            MessageEncoding messageEncoding,
+            RequestTimeoutManager requestTimeoutManager,
+            Executor decoderExecutor,
+            Optional<DataSize> decoderOffloadThreshold,
+            DriftNettyClientStats stats)
     {
         this.requestTimeout = requireNonNull(requestTimeout, "requestTimeout is null");
         this.messageEncoding = requireNonNull(messageEncoding, "messageEncoding is null");
+        this.requestTimeoutManager = requireNonNull(requestTimeoutManager, "requestTimeoutManager is null");
+        this.decoderExecutor = requireNonNull(decoderExecutor, "decoderExecutor is null");
+        this.decoderOffloadThreshold = requireNonNull(decoderOffloadThreshold, "decoderOffloadThreshold is null")
+                .map(DataSize::toBytes)
+                .orElse(Long.MAX_VALUE);
+        this.stats = requireNonNull(stats, "stats is null");
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext context)
+    {
+        // the channel is bound to a single event loop, so the wheel can be resolved once
+        timeoutWheel = requestTimeoutManager.getTimeoutWheel(context.executor());
     }
 
     @Override
@@ -83,16 +120,21 @@ class ThriftClientHandler
         RequestHandler requestHandler = new RequestHandler(thriftRequest, sequenceId);
 
         // register timeout
-        requestHandler.registerRequestTimeout(context.executor());
+        requestHandler.registerRequestTimeout(timeoutWheel);
 
         // write request
         ByteBuf requestBuffer = requestHandler.encodeRequest(context.alloc());
 
         // register request if we are expecting a response
         if (!thriftRequest.isOneway()) {
-            if (pendingRequests.putIfAbsent(sequenceId, requestHandler) != null) {
+            // primitive key methods are used to avoid boxing the sequence id
+            if (pendingRequests.containsKey(sequenceId)) {
                 requestHandler.onChannelError(new TTransportException("Another request with the same sequenceId is already in progress"));
             }
+            else {
+                pendingRequests.put(sequenceId, requestHandler);
+                thriftRequest.setCancellationListener(requestHandler::onCancelled);
+            }
         }
 
         try {
@@ -124,28 +166,36 @@ class ThriftClientHandler
             throws Exception
     {
         if (message instanceof ByteBuf && ((ByteBuf) message).isReadable()) {
-            ByteBuf response = (ByteBuf) message;
-            if (response.isReadable()) {
-                messageReceived(context, response);
-                return;
-            }
+            long start = System.nanoTime();
+            messageReceived(context, (ByteBuf) message);
+            stats.getEventLoopResponseTime().add(System.nanoTime() - start, NANOSECONDS);
+            return;
         }
         context.fireChannelRead(message);
     }
 
+    /**
+     * Takes ownership of the response frame, which is released here unless it
+     * is handed to the request handler.
+     */
     private void messageReceived(ChannelHandlerContext context, ByteBuf response)
     {
+        RequestHandler requestHandler;
         try {
-            OptionalInt sequenceId = messageEncoding.extractResponseSequenceId(response);
-            if (!sequenceId.isPresent()) {
-                throw new TTransportException("Could not find sequenceId in Thrift message");
-            }
+            requestHandler = removeRequestHandler(response);
+        }
+        catch (Throwable t) {
+            response.release();
+            onError(context, t);
+            return;
+        }
 
-            RequestHandler requestHandler = pendingRequests.remove(sequenceId.getAsInt());
-            if (requestHandler == null) {
-                throw new TTransportException("Unknown sequence id in response: " + sequenceId.getAsInt());
-            }
+        if (requestHandler == null) {
+            response.release();
+            return;
+        }
 
+        try {
             requestHandler.onResponseReceived(response);
         }
         catch (Throwable t) {
@@ -153,6 +203,27 @@ class ThriftClientHandler
         }
     }
 
+    private RequestHandler removeRequestHandler(ByteBuf response)
+            throws TTransportException
+    {
+        OptionalInt sequenceId = messageEncoding.extractResponseSequenceId(response);
+        if (!sequenceId.isPresent()) {
+            throw new TTransportException("Could not find sequenceId in Thrift message");
+        }
+
+        RequestHandler requestHandler = pendingRequests.remove(sequenceId.getAsInt());
+        if (requestHandler == null) {
+            RequestHandler abandonedRequest = abandonedRequests.remove(sequenceId.getAsInt());
+            if (abandonedRequest != null) {
+                // response to a cancelled request is dropped without affecting the other requests on the channel
+                abandonedRequest.cancelRequestTimeout();
+                return null;
+            }
+            throw new TTransportException("Unknown sequence id in response: " + sequenceId.getAsInt());
+        }
+        return requestHandler;
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext context, Throwable cause)
     {
@@ -170,6 +241,11 @@ class ThriftClientHandler
 
     private void onError(ChannelHandlerContext context, Throwable throwable)
     {
+        if (!context.executor().inEventLoop()) {
+            context.executor().execute(() -> onError(context, throwable));
+            return;
+        }
+
         TException thriftException;
         if (throwable instanceof TException) {
             thriftException = (TException) throwable;
@@ -185,12 +261,11 @@ class ThriftClientHandler
         }
 
         // notify all pending requests of the error
-        while (!pendingRequests.isEmpty()) {
-            for (Iterator<RequestHandler> iterator = pendingRequests.values().iterator(); iterator.hasNext(); ) {
-                RequestHandler requestHandler = iterator.next();
-                iterator.remove();
-                requestHandler.onChannelError(thriftException);
-            }
+        List<RequestHandler> requestHandlers = ImmutableList.copyOf(pendingRequests.values());
+        pendingRequests.clear();
+        abandonedRequests.clear();
+        for (RequestHandler requestHandler : requestHandlers) {
+            requestHandler.onChannelError(thriftException);
         }
 
         context.close();
@@ -201,11 +276,28 @@ class ThriftClientHandler
     {
         private final MethodMetadata method;
         private final List<Object> parameters;
+        private final Map<String, String> headers;
+        private final Optional<Duration> timeout;
+
+        private volatile Map<String, String> responseHeaders = ImmutableMap.of();
+        private volatile Map<String, String> responsePersistentHeaders = ImmutableMap.of();
+        private volatile Runnable cancellationListener;
+
+        public ThriftRequest(MethodMetadata method, List<Object> parameters, Map<String, String> headers)
+        {
+            this(method, parameters, headers, Optional.empty());
+        }
 
-        public ThriftRequest(MethodMetadata method, List<Object> parameters)
+        /**
+         * @param timeout remaining time for the request, which is used instead of the
+         * configured request timeout when it is shorter
+         */
+        public ThriftRequest(MethodMetadata method, List<Object> parameters, Map<String, String> headers, Optional<Duration> timeout)
         {
             this.method = method;
             this.parameters = parameters;
+            this.headers = ImmutableMap.copyOf(headers);
+            this.timeout = requireNonNull(timeout, "timeout is null");
         }
 
         MethodMetadata getMethod()
@@ -218,43 +310,106 @@ class ThriftClientHandler
             return parameters;
         }
 
+        Map<String, String> getHeaders()
+        {
+            return headers;
+        }
+
+        Optional<Duration> getTimeout()
+        {
+            return timeout;
+        }
+
+        /**
+         * Normal (per message) headers sent by the server with the response.
+         * Only valid after the request completes successfully.
+         */
+        public Map<String, String> getResponseHeaders()
+        {
+            return responseHeaders;
+        }
+
+        /**
+         * Persistent (per connection) headers sent by the server with the response.
+         * Only valid after the request completes successfully.
+         */
+        public Map<String, String> getResponsePersistentHeaders()
+        {
+            return responsePersistentHeaders;
+        }
+
         boolean isOneway()
         {
             return method.isOneway();
         }
 
-        void setResponse(Object response)
+        void setResponse(ThriftResponse response)
+        {
+            responseHeaders = response.getHeaders();
+            responsePersistentHeaders = response.getPersistentHeaders();
+            set(response.getValue());
+        }
+
+        void setOnewayResponse()
         {
-            set(response);
+            set(null);
         }
 
         void failed(Throwable throwable)
         {
             setException(throwable);
         }
+
+        /**
+         * Registers a listener that is called if the request is cancelled. The
+         * listener may be called more than once.
+         */
+        void setCancellationListener(Runnable cancellationListener)
+        {
+            this.cancellationListener = cancellationListener;
+            // request may have been cancelled before the listener was set
+            if (isCancelled()) {
+                cancellationListener.run();
+            }
+        }
+
+        @Override
+        protected void afterDone()
+        {
+            Runnable listener = cancellationListener;
+            if (listener != null && isCancelled()) {
+                listener.run();
+            }
+        }
     }
 
     private final class RequestHandler
+            extends TimeoutWheel.Timeout
     {
         private final ThriftRequest thriftRequest;
         private final int sequenceId;
 
+        private final Duration timeout;
+
         private final AtomicBoolean finished = new AtomicBoolean();
-        private final AtomicReference<ScheduledFuture<?>> timeout = new AtomicReference<>();
+        private TimeoutWheel wheel;
+        // only accessed from the event loop
+        private boolean abandoned;
 
         public RequestHandler(ThriftRequest thriftRequest, int sequenceId)
         {
             this.thriftRequest = thriftRequest;
             this.sequenceId = sequenceId;
+            this.timeout = thriftRequest.getTimeout()
+                    .filter(value -> value.compareTo(requestTimeout) < 0)
+                    .orElse(requestTimeout);
         }
 
-        void registerRequestTimeout(EventExecutor executor)
+        void registerRequestTimeout(TimeoutWheel wheel)
         {
             try {
-                timeout.set(executor.schedule(
-                        () -> onChannelError(new TTransportException("Timed out waiting " + requestTimeout + " to receive response")),
-                        requestTimeout.toMillis(),
-                        MILLISECONDS));
+                wheel.add(this, timeout.roundTo(NANOSECONDS));
+                this.wheel = wheel;
             }
             catch (Throwable throwable) {
                 onChannelError(new TTransportException("Unable to schedule request timeout", throwable));
@@ -266,7 +421,12 @@ class ThriftClientHandler
                 throws Exception
         {
             try {
-                return messageEncoding.writeRequest(allocator, sequenceId, thriftRequest.getMethod(), thriftRequest.getParameters(), ImmutableMap.of());
+                Map<String, String> headers = thriftRequest.getHeaders();
+                if (thriftRequest.getTimeout().isPresent() && messageEncoding.supportsHeaders()) {
+                    headers = new HashMap<>(headers);
+                    headers.put(CLIENT_TIMEOUT_HEADER, String.valueOf(Math.max(timeout.roundTo(MILLISECONDS), 1)));
+                }
+                return messageEncoding.writeRequest(allocator, sequenceId, thriftRequest.getMethod(), thriftRequest.getParameters(), headers);
             }
             catch (Throwable throwable) {
                 onChannelError(throwable);
@@ -286,26 +446,92 @@ class ThriftClientHandler
 
             try {
                 cancelRequestTimeout();
-                thriftRequest.setResponse(null);
+                thriftRequest.setOnewayResponse();
             }
             catch (Throwable throwable) {
                 onChannelError(throwable);
             }
         }
 
+        /**
+         * Takes ownership of the response frame, which is released after decoding.
+         */
         void onResponseReceived(ByteBuf message)
         {
             if (!finished.compareAndSet(false, true)) {
+                message.release();
                 return;
             }
+
             try {
                 cancelRequestTimeout();
-                Object response = messageEncoding.readResponse(message, sequenceId, thriftRequest.getMethod());
+            }
+            catch (Throwable throwable) {
+                message.release();
+                thriftRequest.failed(throwable);
+                return;
+            }
+
+            // large responses are decoded on the decoder threads, so they do not stall the other channels on the event loop
+            if (message.readableBytes() >= decoderOffloadThreshold) {
+                try {
+                    decoderExecutor.execute(() -> decodeOffloadedResponse(message));
+                    stats.getOffloadedResponses().update(1);
+                    return;
+                }
+                catch (RejectedExecutionException ignored) {
+                    // decoder is shutting down, so the response is decoded on the event loop
+                }
+            }
+            decodeResponse(message);
+        }
+
+        /**
+         * Decodes the response on a decoder thread. The request is completed back on the
+         * event loop, so the request listeners run on the same thread as they do for responses
+         * decoded on the event loop.
+         */
+        private void decodeOffloadedResponse(ByteBuf message)
+        {
+            long start = System.nanoTime();
+            ThriftResponse response;
+            try {
+                response = messageEncoding.readResponse(message, sequenceId, thriftRequest.getMethod());
+            }
+            catch (Throwable throwable) {
+                completeOnEventLoop(() -> thriftRequest.failed(throwable));
+                return;
+            }
+            finally {
+                message.release();
+                stats.getOffloadedDecodeTime().add(System.nanoTime() - start, NANOSECONDS);
+            }
+            completeOnEventLoop(() -> thriftRequest.setResponse(response));
+        }
+
+        private void completeOnEventLoop(Runnable completion)
+        {
+            try {
+                timeoutWheel.execute(completion);
+            }
+            catch (RejectedExecutionException ignored) {
+                // event loop is shutting down, so the request is completed on the decoder thread
+                completion.run();
+            }
+        }
+
+        private void decodeResponse(ByteBuf message)
+        {
+            try {
+                ThriftResponse response = messageEncoding.readResponse(message, sequenceId, thriftRequest.getMethod());
                 thriftRequest.setResponse(response);
             }
             catch (Throwable throwable) {
                 thriftRequest.failed(throwable);
             }
+            finally {
+                message.release();
+            }
         }
 
         void onChannelError(Throwable requestException)
@@ -322,11 +548,60 @@ class ThriftClientHandler
             }
         }
 
+        void onCancelled()
+        {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+
+            // the handler's wheel is used, because it is safely published to other threads
+            TimeoutWheel wheel = timeoutWheel;
+            if (wheel.isInEventLoop()) {
+                abandon();
+            }
+            else {
+                wheel.execute(this::abandon);
+            }
+        }
+
+        private void abandon()
+        {
+            // the request may have been removed by a channel error
+            if (pendingRequests.get(sequenceId) != this) {
+                cancelRequestTimeout();
+                return;
+            }
+            // the timeout stays registered, so the abandoned entry is removed if the response never arrives
+            pendingRequests.remove(sequenceId);
+            abandonedRequests.put(sequenceId, this);
+            abandoned = true;
+            stats.getAbandonedRequests().update(1);
+        }
+
+        @Override
+        protected void expire()
+        {
+            if (abandoned) {
+                if (abandonedRequests.get(sequenceId) == this) {
+                    abandonedRequests.remove(sequenceId);
+                }
+                return;
+            }
+            onChannelError(new TTransportException("Timed out waiting " + timeout + " to receive response"));
+        }
+
         private void cancelRequestTimeout()
         {
-            ScheduledFuture<?> timeout = this.timeout.get();
-            if (timeout != null) {
-                timeout.cancel(false);
+            TimeoutWheel wheel = this.wheel;
+            if (wheel == null) {
+                return;
+            }
+            // the wheel is confined to the event loop, which is where requests normally complete
+            if (wheel.isInEventLoop()) {
+                wheel.remove(this);
+            }
+            else {
+                wheel.execute(() -> wheel.remove(this));
             }
         }
     }
@@ -16,6 +16,7 @@
 package io.airlift.drift.transport.netty;
 
 import com.google.common.net.HostAndPort;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
@@ -25,6 +26,8 @@ import io.netty.handler.ssl.SslContext;
 
 import java.net.InetSocketAddress;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 class ThriftClientInitializer
         extends ChannelInitializer<SocketChannel>
@@ -32,21 +35,36 @@ class ThriftClientInitializer
     private final MessageFraming messageFraming;
     private final Duration requestTimeout;
     private final MessageEncoding messageEncoding;
+    private final RequestTimeoutManager requestTimeoutManager;
+    private final Executor decoderExecutor;
+    private final Optional<DataSize> decoderOffloadThreshold;
+    private final DriftNettyClientStats stats;
     private final Optional<HostAndPort> socksProxyAddress;
     private final Optional<SslContext> sslContext;
+    private final Optional<Supplier<FlushCoalescingHandler>> flushCoalescingHandlerFactory;
 
     public ThriftClientInitializer(
             MessageFraming messageFraming,
             MessageEncoding messageEncoding,
             Duration requestTimeout,
+            RequestTimeoutManager requestTimeoutManager,
+            Executor decoderExecutor,
+            Optional<DataSize> decoderOffloadThreshold,
+            DriftNettyClientStats stats,
             Optional<HostAndPort> socksProxyAddress,
-            Optional<SslContext> sslContext)
+            Optional<SslContext> sslContext,
+            Optional<Supplier<FlushCoalescingHandler>> flushCoalescingHandlerFactory)
     {
         this.messageFraming = messageFraming;
         this.requestTimeout = requestTimeout;
         this.messageEncoding = messageEncoding;
+        this.requestTimeoutManager = requestTimeoutManager;
+        this.decoderExecutor = decoderExecutor;
+        this.decoderOffloadThreshold = decoderOffloadThreshold;
+        this.stats = stats;
         this.socksProxyAddress = socksProxyAddress;
         this.sslContext = sslContext;
+        this.flushCoalescingHandlerFactory = flushCoalescingHandlerFactory;
     }
 
     @Override
@@ -56,7 +74,10 @@ class ThriftClientInitializer
 
         messageFraming.addFrameHandlers(pipeline);
 
-        pipeline.addLast(new ThriftClientHandler(requestTimeout, messageEncoding));
+        // must be closer to the network than the client handler, so it sees the encoded request writes
+        flushCoalescingHandlerFactory.ifPresent(factory -> pipeline.addLast(factory.get()));
+
+        pipeline.addLast(new ThriftClientHandler(requestTimeout, messageEncoding, requestTimeoutManager, decoderExecutor, decoderOffloadThreshold, stats));
 
         sslContext.ifPresent(sslContext -> pipeline.addFirst(sslContext.newHandler(channel.alloc())));
 
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+
+import java.util.Map;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+final class ThriftResponse
+{
+    private final Object value;
+    private final Map<String, String> headers;
+    private final Map<String, String> persistentHeaders;
+
+    public ThriftResponse(@Nullable Object value)
+    {
+        this(value, ImmutableMap.of(), ImmutableMap.of());
+    }
+
+    public ThriftResponse(@Nullable Object value, Map<String, String> headers, Map<String, String> persistentHeaders)
+    {
+        this.value = value;
+        this.headers = ImmutableMap.copyOf(requireNonNull(headers, "headers is null"));
+        this.persistentHeaders = ImmutableMap.copyOf(requireNonNull(persistentHeaders, "persistentHeaders is null"));
+    }
+
+    @Nullable
+    public Object getValue()
+    {
+        return value;
+    }
+
+    public Map<String, String> getHeaders()
+    {
+        return headers;
+    }
+
+    public Map<String, String> getPersistentHeaders()
+    {
+        return persistentHeaders;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .omitNullValues()
+                .add("value", value)
+                .add("headers", headers.isEmpty() ? null : headers)
+                .add("persistentHeaders", persistentHeaders.isEmpty() ? null : persistentHeaders)
+                .toString();
+    }
+}
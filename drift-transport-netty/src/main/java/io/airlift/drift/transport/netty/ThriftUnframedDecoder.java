@@ -15,64 +15,499 @@
  */
 package io.airlift.drift.transport.netty;
 
-import io.airlift.drift.protocol.TProtocolFactory;
-import io.airlift.drift.protocol.TProtocolReader;
-import io.airlift.drift.protocol.TProtocolUtil;
+import io.airlift.drift.protocol.TProtocolException;
 import io.airlift.drift.protocol.TType;
-import io.airlift.drift.transport.TTransport;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
 import io.airlift.units.DataSize;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.TooLongFrameException;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static java.lang.Math.toIntExact;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Splits an unframed stream into messages by skipping over the message structure.
+ * <p>
+ * The scan is resumable: the position and the stack of open structs and containers
+ * are kept across calls, so each received chunk is only scanned once, and an
+ * incomplete message is detected without parsing from the start or throwing.
+ * The max frame size is enforced as soon as the scan passes the limit, rather than
+ * after the entire message is buffered.
+ */
 class ThriftUnframedDecoder
         extends ByteToMessageDecoder
 {
-    private final TProtocolFactory protocolFactory;
+    private static final int NEED_MORE_DATA = -1;
+    private static final byte NO_VALUE = -1;
+
+    private static final int BINARY_VERSION_MASK = 0xffff0000;
+    private static final int BINARY_VERSION_1 = 0x80010000;
+    private static final byte COMPACT_PROTOCOL_ID = (byte) 0x82;
+
+    // on-wire compact types indexed by compact type id
+    private static final byte[] COMPACT_TYPE_TO_TTYPE = {
+            TType.STOP,
+            TType.BOOL, // BOOLEAN_TRUE
+            TType.BOOL, // BOOLEAN_FALSE
+            TType.BYTE,
+            TType.I16,
+            TType.I32,
+            TType.I64,
+            TType.DOUBLE,
+            TType.STRING,
+            TType.LIST,
+            TType.SET,
+            TType.MAP,
+            TType.STRUCT,
+    };
+
+    private final boolean compact;
     private final int maxFrameSize;
 
-    public ThriftUnframedDecoder(TProtocolFactory protocolFactory, DataSize maxFrameSize)
+    // scan state of the current message, relative to the reader index
+    private int position;
+    private boolean messageHeaderRead;
+    private byte pendingValueType = NO_VALUE;
+
+    // stack of open structs and containers
+    private int depth;
+    private byte[] containerTypes = new byte[16];
+    private byte[] keyTypes = new byte[16];
+    private byte[] valueTypes = new byte[16];
+    private int[] remainingElements = new int[16];
+
+    public ThriftUnframedDecoder(Protocol protocol, DataSize maxFrameSize)
     {
-        this.protocolFactory = requireNonNull(protocolFactory, "protocolFactory is null");
+        requireNonNull(protocol, "protocol is null");
+        this.compact = protocol == Protocol.COMPACT;
         this.maxFrameSize = toIntExact(requireNonNull(maxFrameSize, "maxFrameSize is null").toBytes());
     }
 
     @Override
     protected final void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+            throws Exception
+    {
+        int frameLength = scan(in);
+        if (frameLength == NEED_MORE_DATA) {
+            return;
+        }
+        resetState();
+        out.add(in.readRetainedSlice(frameLength));
+    }
+
+    private int scan(ByteBuf buffer)
+            throws TProtocolException, TooLongFrameException
+    {
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+
+        if (!messageHeaderRead) {
+            int headerLength = compact ? compactMessageHeaderLength(buffer, start, end) : binaryMessageHeaderLength(buffer, start, end);
+            if (headerLength == NEED_MORE_DATA) {
+                return NEED_MORE_DATA;
+            }
+            messageHeaderRead = true;
+            advance(headerLength);
+            pushContainer(TType.STRUCT, NO_VALUE, NO_VALUE, 0);
+        }
+
+        while (depth > 0) {
+            if (pendingValueType != NO_VALUE) {
+                if (!skipValue(buffer, start + position, end, pendingValueType)) {
+                    return NEED_MORE_DATA;
+                }
+                pendingValueType = NO_VALUE;
+                continue;
+            }
+
+            int top = depth - 1;
+            if (containerTypes[top] == TType.STRUCT) {
+                if (!readFieldHeader(buffer, start + position, end)) {
+                    return NEED_MORE_DATA;
+                }
+            }
+            else if (remainingElements[top] == 0) {
+                depth--;
+            }
+            else {
+                // map entries alternate between key and value, starting with the key
+                remainingElements[top]--;
+                boolean key = containerTypes[top] == TType.MAP && remainingElements[top] % 2 == 1;
+                pendingValueType = key ? keyTypes[top] : valueTypes[top];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Reads a field header. For a stop field the struct is closed, otherwise
+     * the field value becomes the pending value.
+     */
+    private boolean readFieldHeader(ByteBuf buffer, int index, int end)
+            throws TProtocolException, TooLongFrameException
+    {
+        if (index >= end) {
+            return false;
+        }
+        byte type = buffer.getByte(index);
+        if (type == TType.STOP) {
+            advance(1);
+            depth--;
+            return true;
+        }
+
+        if (!compact) {
+            if (end - index < 3) {
+                return false;
+            }
+            advance(3);
+            pendingValueType = type;
+            return true;
+        }
+
+        int length = 1;
+        if ((type & 0xf0) == 0) {
+            // field id delta does not fit, so the field id follows as a varint
+            int idLength = varintLength(buffer, index + 1, end);
+            if (idLength == NEED_MORE_DATA) {
+                return false;
+            }
+            length += idLength;
+        }
+        byte fieldType = compactToTType(type);
+        advance(length);
+        // boolean field values are encoded in the field header
+        if (fieldType != TType.BOOL) {
+            pendingValueType = fieldType;
+        }
+        return true;
+    }
+
+    private boolean skipValue(ByteBuf buffer, int index, int end, byte type)
+            throws TProtocolException, TooLongFrameException
+    {
+        int available = end - index;
+        switch (type) {
+            case TType.BOOL:
+            case TType.BYTE:
+                return skipFixed(available, 1);
+            case TType.DOUBLE:
+                return skipFixed(available, 8);
+            case TType.I16:
+                return compact ? skipVarint(buffer, index, end) : skipFixed(available, 2);
+            case TType.I32:
+                return compact ? skipVarint(buffer, index, end) : skipFixed(available, 4);
+            case TType.I64:
+                return compact ? skipVarint(buffer, index, end) : skipFixed(available, 8);
+            case TType.STRING:
+                return skipString(buffer, index, end);
+            case TType.STRUCT:
+                pushContainer(TType.STRUCT, NO_VALUE, NO_VALUE, 0);
+                return true;
+            case TType.LIST:
+            case TType.SET:
+                return compact ? readCompactListHeader(buffer, index, end, type) : readBinaryListHeader(buffer, index, end, type);
+            case TType.MAP:
+                return compact ? readCompactMapHeader(buffer, index, end) : readBinaryMapHeader(buffer, index, end);
+            default:
+                throw new TProtocolException("Unknown type: " + type);
+        }
+    }
+
+    private boolean skipFixed(int available, int length)
+            throws TooLongFrameException
+    {
+        if (available < length) {
+            checkFrameSize(position + length);
+            return false;
+        }
+        advance(length);
+        return true;
+    }
+
+    private boolean skipVarint(ByteBuf buffer, int index, int end)
+            throws TProtocolException, TooLongFrameException
+    {
+        int length = varintLength(buffer, index, end);
+        if (length == NEED_MORE_DATA) {
+            return false;
+        }
+        advance(length);
+        return true;
+    }
+
+    private boolean skipString(ByteBuf buffer, int index, int end)
+            throws TProtocolException, TooLongFrameException
+    {
+        int prefixLength;
+        int stringLength;
+        if (compact) {
+            prefixLength = varintLength(buffer, index, end);
+            if (prefixLength == NEED_MORE_DATA) {
+                return false;
+            }
+            stringLength = readVarint32(buffer, index);
+        }
+        else {
+            if (end - index < 4) {
+                return false;
+            }
+            prefixLength = 4;
+            stringLength = buffer.getInt(index);
+        }
+        checkLength(stringLength);
+
+        // fail before buffering a string that can not fit in the frame
+        long length = (long) prefixLength + stringLength;
+        checkFrameSize(position + length);
+        if (end - index < length) {
+            return false;
+        }
+        advance(toIntExact(length));
+        return true;
+    }
+
+    private boolean readBinaryListHeader(ByteBuf buffer, int index, int end, byte type)
+            throws TProtocolException, TooLongFrameException
+    {
+        if (end - index < 5) {
+            return false;
+        }
+        byte elementType = buffer.getByte(index);
+        int size = buffer.getInt(index + 1);
+        checkLength(size);
+        advance(5);
+        pushContainer(type, NO_VALUE, elementType, size);
+        return true;
+    }
+
+    private boolean readBinaryMapHeader(ByteBuf buffer, int index, int end)
+            throws TProtocolException, TooLongFrameException
     {
-        Object decoded = decode(ctx, in);
-        if (decoded != null) {
-            out.add(decoded);
+        if (end - index < 6) {
+            return false;
         }
+        byte keyType = buffer.getByte(index);
+        byte valueType = buffer.getByte(index + 1);
+        int size = buffer.getInt(index + 2);
+        checkLength(size);
+        advance(6);
+        pushContainer(TType.MAP, keyType, valueType, entriesToElements(size));
+        return true;
     }
 
-    private Object decode(ChannelHandlerContext ctx, ByteBuf buffer)
+    private boolean readCompactListHeader(ByteBuf buffer, int index, int end, byte type)
+            throws TProtocolException, TooLongFrameException
     {
-        int frameOffset = buffer.readerIndex();
-        try {
-            TTransport transport = new TChannelBufferInputTransport(buffer);
-            TProtocolReader protocol = protocolFactory.getProtocol(transport);
+        if (index >= end) {
+            return false;
+        }
+        byte sizeAndType = buffer.getByte(index);
+        int length = 1;
+        int size = (sizeAndType >> 4) & 0x0f;
+        if (size == 15) {
+            int sizeLength = varintLength(buffer, index + 1, end);
+            if (sizeLength == NEED_MORE_DATA) {
+                return false;
+            }
+            size = readVarint32(buffer, index + 1);
+            length += sizeLength;
+        }
+        checkLength(size);
+        byte elementType = compactToTType(sizeAndType);
+        advance(length);
+        pushContainer(type, NO_VALUE, elementType, size);
+        return true;
+    }
 
-            protocol.readMessageBegin();
-            TProtocolUtil.skip(protocol, TType.STRUCT);
-            protocol.readMessageEnd();
+    private boolean readCompactMapHeader(ByteBuf buffer, int index, int end)
+            throws TProtocolException, TooLongFrameException
+    {
+        int sizeLength = varintLength(buffer, index, end);
+        if (sizeLength == NEED_MORE_DATA) {
+            return false;
+        }
+        int size = readVarint32(buffer, index);
+        checkLength(size);
+        if (size == 0) {
+            // key and value types are omitted for empty maps
+            advance(sizeLength);
+            return true;
+        }
+        if (index + sizeLength >= end) {
+            return false;
+        }
+        byte keyAndValueType = buffer.getByte(index + sizeLength);
+        advance(sizeLength + 1);
+        pushContainer(TType.MAP, compactToTType((byte) (keyAndValueType >> 4)), compactToTType(keyAndValueType), entriesToElements(size));
+        return true;
+    }
 
-            int frameLength = buffer.readerIndex() - frameOffset;
-            if (frameLength > maxFrameSize) {
-                ctx.fireExceptionCaught(new TooLongFrameException("Response message exceeds max size " + maxFrameSize + ": " + frameLength + " - discarded"));
+    private int binaryMessageHeaderLength(ByteBuf buffer, int start, int end)
+            throws TProtocolException, TooLongFrameException
+    {
+        if (end - start < 4) {
+            return NEED_MORE_DATA;
+        }
+        int size = buffer.getInt(start);
+        long length;
+        if (size < 0) {
+            // strict: version and type, name, sequence id
+            if ((size & BINARY_VERSION_MASK) != BINARY_VERSION_1) {
+                throw new TProtocolException("Bad version in message header: " + (size & BINARY_VERSION_MASK));
+            }
+            if (end - start < 8) {
+                return NEED_MORE_DATA;
             }
+            int nameLength = buffer.getInt(start + 4);
+            checkLength(nameLength);
+            length = 4L + 4 + nameLength + 4;
+        }
+        else {
+            // old style: name, type, sequence id
+            length = 4L + size + 1 + 4;
+        }
+        checkFrameSize(length);
+        if (end - start < length) {
+            return NEED_MORE_DATA;
+        }
+        return toIntExact(length);
+    }
+
+    private int compactMessageHeaderLength(ByteBuf buffer, int start, int end)
+            throws TProtocolException, TooLongFrameException
+    {
+        if (end - start < 2) {
+            return NEED_MORE_DATA;
+        }
+        byte protocolId = buffer.getByte(start);
+        if (protocolId != COMPACT_PROTOCOL_ID) {
+            throw new TProtocolException("Expected protocol id " + Integer.toHexString(COMPACT_PROTOCOL_ID) + " but got " + Integer.toHexString(protocolId));
+        }
+        int index = start + 2;
+
+        int sequenceIdLength = varintLength(buffer, index, end);
+        if (sequenceIdLength == NEED_MORE_DATA) {
+            return NEED_MORE_DATA;
+        }
+        index += sequenceIdLength;
+
+        int nameLengthLength = varintLength(buffer, index, end);
+        if (nameLengthLength == NEED_MORE_DATA) {
+            return NEED_MORE_DATA;
+        }
+        int nameLength = readVarint32(buffer, index);
+        checkLength(nameLength);
+        index += nameLengthLength;
+
+        long length = (long) (index - start) + nameLength;
+        checkFrameSize(length);
+        if (end - start < length) {
+            return NEED_MORE_DATA;
+        }
+        return toIntExact(length);
+    }
+
+    private void pushContainer(byte containerType, byte keyType, byte valueType, int elements)
+    {
+        if (depth == containerTypes.length) {
+            int newSize = depth * 2;
+            containerTypes = Arrays.copyOf(containerTypes, newSize);
+            keyTypes = Arrays.copyOf(keyTypes, newSize);
+            valueTypes = Arrays.copyOf(valueTypes, newSize);
+            remainingElements = Arrays.copyOf(remainingElements, newSize);
+        }
+        containerTypes[depth] = containerType;
+        keyTypes[depth] = keyType;
+        valueTypes[depth] = valueType;
+        remainingElements[depth] = elements;
+        depth++;
+    }
+
+    private void advance(int length)
+            throws TooLongFrameException
+    {
+        position += length;
+        checkFrameSize(position);
+    }
+
+    private void checkFrameSize(long frameSize)
+            throws TooLongFrameException
+    {
+        if (frameSize > maxFrameSize) {
+            throw new TooLongFrameException("Response message exceeds max size " + maxFrameSize + ": " + frameSize + " - discarded");
+        }
+    }
+
+    private void resetState()
+    {
+        position = 0;
+        messageHeaderRead = false;
+        pendingValueType = NO_VALUE;
+        depth = 0;
+    }
+
+    private static int entriesToElements(int size)
+            throws TProtocolException
+    {
+        if (size > Integer.MAX_VALUE / 2) {
+            throw new TProtocolException("Map size too large: " + size);
+        }
+        return size * 2;
+    }
 
-            return buffer.slice(frameOffset, frameLength).retain();
+    private static void checkLength(int length)
+            throws TProtocolException
+    {
+        if (length < 0) {
+            throw new TProtocolException("Negative length: " + length);
+        }
+    }
+
+    private static byte compactToTType(byte type)
+            throws TProtocolException
+    {
+        int compactType = type & 0x0f;
+        if (compactType >= COMPACT_TYPE_TO_TTYPE.length) {
+            throw new TProtocolException("Unknown compact type: " + compactType);
         }
-        catch (Throwable th) {
-            buffer.readerIndex(frameOffset);
-            return null;
+        return COMPACT_TYPE_TO_TTYPE[compactType];
+    }
+
+    /**
+     * Returns the number of bytes in the varint at the index, or {@link #NEED_MORE_DATA}
+     * if the varint is not complete.
+     */
+    private static int varintLength(ByteBuf buffer, int index, int end)
+            throws TProtocolException
+    {
+        for (int length = 1; length <= 10; length++) {
+            if (index + length > end) {
+                return NEED_MORE_DATA;
+            }
+            if ((buffer.getByte(index + length - 1) & 0x80) == 0) {
+                return length;
+            }
+        }
+        throw new TProtocolException("Variable length integer is longer than 10 bytes");
+    }
+
+    private static int readVarint32(ByteBuf buffer, int index)
+    {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.getByte(index++);
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
         }
     }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.units.Duration;
+import io.netty.util.concurrent.EventExecutor;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Hashed timer wheel for request timeouts, owned by a single event loop.
+ * Timeouts are linked directly into the wheel buckets, so adding and removing
+ * a timeout is constant time and allocates nothing. The wheel only has a
+ * scheduled task on the event loop while it contains timeouts, and a single
+ * task serves every timeout in the wheel. Timeouts expire at tick granularity,
+ * so a timeout can fire up to one tick late, but never early.
+ * <p>
+ * All methods must be called from the owning event loop.
+ */
+@NotThreadSafe
+class TimeoutWheel
+{
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final EventExecutor executor;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+
+    // bucket that is detached while its timeouts are expired
+    private Timeout expiring;
+    private long processedTick;
+    private int timeoutCount;
+    private boolean tickScheduled;
+
+    public TimeoutWheel(EventExecutor executor, Duration tickDuration)
+    {
+        this(executor, tickDuration, DEFAULT_WHEEL_SIZE);
+    }
+
+    public TimeoutWheel(EventExecutor executor, Duration tickDuration, int wheelSize)
+    {
+        this.executor = requireNonNull(executor, "executor is null");
+        requireNonNull(tickDuration, "tickDuration is null");
+        this.tickNanos = tickDuration.roundTo(NANOSECONDS);
+        checkArgument(tickNanos > 0, "tickDuration must be positive");
+        checkArgument(wheelSize > 0 && Integer.bitCount(wheelSize) == 1, "wheelSize must be a power of two");
+
+        this.startNanos = System.nanoTime();
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+    }
+
+    public boolean isInEventLoop()
+    {
+        return executor.inEventLoop();
+    }
+
+    public void execute(Runnable task)
+    {
+        executor.execute(task);
+    }
+
+    public int getTimeoutCount()
+    {
+        return timeoutCount;
+    }
+
+    public void add(Timeout timeout, long delayNanos)
+    {
+        checkState(executor.inEventLoop(), "must be called from the event loop");
+        checkArgument(!timeout.isScheduled(), "timeout is already scheduled");
+
+        long deadline = System.nanoTime() + Math.max(delayNanos, 0);
+        timeout.deadline = deadline;
+
+        // first tick at or after the deadline, but never a tick that was already processed
+        long tick = Math.max(ceilDiv(deadline - startNanos, tickNanos), processedTick + 1);
+        link(timeout, (int) (tick & mask));
+
+        if (!tickScheduled) {
+            scheduleTick();
+        }
+    }
+
+    public void remove(Timeout timeout)
+    {
+        checkState(executor.inEventLoop(), "must be called from the event loop");
+        if (timeout.wheel != this) {
+            return;
+        }
+        unlink(timeout);
+    }
+
+    private void link(Timeout timeout, int bucket)
+    {
+        timeout.wheel = this;
+        timeout.previous = null;
+        timeout.next = buckets[bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[bucket] = timeout;
+        timeout.bucket = bucket;
+        timeoutCount++;
+    }
+
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        }
+        else if (buckets[timeout.bucket] == timeout) {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        else {
+            // head of the detached bucket
+            expiring = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.wheel = null;
+        timeoutCount--;
+    }
+
+    private void scheduleTick()
+    {
+        long now = System.nanoTime();
+        long nextTickTime = startNanos + (processedTick + 1) * tickNanos;
+        executor.schedule(this::tick, Math.max(nextTickTime - now, 0), NANOSECONDS);
+        tickScheduled = true;
+    }
+
+    private void tick()
+    {
+        tickScheduled = false;
+
+        long now = System.nanoTime();
+        long currentTick = (now - startNanos) / tickNanos;
+
+        // when the event loop falls more than a full rotation behind, each bucket only needs to be visited once
+        long firstTick = Math.max(processedTick + 1, currentTick - mask);
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            expireBucket((int) (tick & mask), now);
+        }
+        processedTick = Math.max(processedTick, currentTick);
+
+        if (timeoutCount > 0 && !tickScheduled) {
+            scheduleTick();
+        }
+    }
+
+    private void expireBucket(int bucket, long now)
+    {
+        // the bucket is detached, so expiration actions can add and remove any timeout,
+        // including timeouts of this bucket that have not been visited yet
+        expiring = buckets[bucket];
+        buckets[bucket] = null;
+        while (expiring != null) {
+            Timeout timeout = expiring;
+            unlink(timeout);
+            // timeouts more than one rotation away share the bucket, and stay until a later rotation
+            if (timeout.deadline - now > 0) {
+                link(timeout, bucket);
+                continue;
+            }
+            try {
+                timeout.expire();
+            }
+            catch (RuntimeException ignored) {
+                // an expiration failure must not prevent other timeouts from expiring
+            }
+        }
+    }
+
+    private static long ceilDiv(long value, long divisor)
+    {
+        if (value <= 0) {
+            return 0;
+        }
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Entry in the wheel. Subclasses implement the expiration action, which is
+     * called on the event loop after the timeout has been removed from the wheel.
+     */
+    abstract static class Timeout
+    {
+        private TimeoutWheel wheel;
+        private Timeout previous;
+        private Timeout next;
+        private int bucket;
+        private long deadline;
+
+        public boolean isScheduled()
+        {
+            return wheel != null;
+        }
+
+        protected abstract void expire();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.transport.TTransportException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Zlib transform, which is supported by all header transport implementations.
+ */
+@ThreadSafe
+class ZlibTransform
+        implements HeaderTransform
+{
+    static final int ZLIB_TRANSFORM_ID = 0x01;
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    // deflater and inflater hold native memory, so they are reused by each thread
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    @Override
+    public int getId()
+    {
+        return ZLIB_TRANSFORM_ID;
+    }
+
+    @Override
+    public void compress(ByteBuf input, ByteBuf output)
+    {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        try {
+            setInput(deflater, input);
+            deflater.finish();
+
+            output.ensureWritable(input.readableBytes() / 2);
+            byte[] chunk = CHUNK.get();
+            while (!deflater.finished()) {
+                if (output.hasArray()) {
+                    output.ensureWritable(CHUNK_SIZE);
+                    int written = deflater.deflate(output.array(), output.arrayOffset() + output.writerIndex(), output.writableBytes());
+                    output.writerIndex(output.writerIndex() + written);
+                }
+                else {
+                    int written = deflater.deflate(chunk);
+                    output.writeBytes(chunk, 0, written);
+                }
+            }
+        }
+        finally {
+            // release the reference to the input
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public ByteBuf decompress(ByteBufAllocator allocator, ByteBuf input, int maxSize)
+            throws TTransportException
+    {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+
+        // inflater requires an array, so the output is always a heap buffer
+        ByteBuf output = allocator.heapBuffer(Math.min(Math.max(input.readableBytes() * 2, CHUNK_SIZE), maxSize), maxSize);
+        try {
+            setInput(inflater, input);
+            while (!inflater.finished()) {
+                if (!output.isWritable() && output.writerIndex() < maxSize) {
+                    output.ensureWritable(Math.min(CHUNK_SIZE, maxSize - output.writerIndex()));
+                }
+                int written;
+                if (output.isWritable()) {
+                    written = inflater.inflate(output.array(), output.arrayOffset() + output.writerIndex(), output.writableBytes());
+                }
+                else {
+                    // output is at the maximum size, so the stream must end without producing more data
+                    if (inflater.inflate(CHUNK.get(), 0, 1) > 0) {
+                        throw new TTransportException("Decompressed response exceeds maximum size of " + maxSize + " bytes");
+                    }
+                    written = 0;
+                }
+                if (written == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new TTransportException("Zlib compressed response is truncated");
+                }
+                output.writerIndex(output.writerIndex() + written);
+            }
+            return output;
+        }
+        catch (DataFormatException e) {
+            output.release();
+            throw new TTransportException("Invalid zlib compressed response", e);
+        }
+        catch (Throwable t) {
+            output.release();
+            throw t;
+        }
+        finally {
+            inflater.reset();
+        }
+    }
+
+    private static void setInput(Deflater deflater, ByteBuf input)
+    {
+        if (input.hasArray()) {
+            deflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+        }
+        else {
+            byte[] bytes = new byte[input.readableBytes()];
+            input.getBytes(input.readerIndex(), bytes);
+            deflater.setInput(bytes);
+        }
+    }
+
+    private static void setInput(Inflater inflater, ByteBuf input)
+    {
+        if (input.hasArray()) {
+            inflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+        }
+        else {
+            byte[] bytes = new byte[input.readableBytes()];
+            input.getBytes(input.readerIndex(), bytes);
+            inflater.setInput(bytes);
+        }
+    }
+}
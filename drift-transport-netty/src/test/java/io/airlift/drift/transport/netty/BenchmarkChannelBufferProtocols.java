@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.transport.netty.ProtocolTestUtils.Payload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.drift.transport.netty.ProtocolTestUtils.createPayload;
+import static io.airlift.drift.transport.netty.ProtocolTestUtils.createProtocolFactory;
+
+/**
+ * Compares the ByteBuf native protocols with the transport based protocols
+ * adapted to ByteBuf, using a struct with a mix of scalar, string and
+ * nested struct fields.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkChannelBufferProtocols
+{
+    private static final ThriftCodec<Payload> CODEC = new ThriftCodecManager().getCodec(Payload.class);
+
+    @Param({"BINARY", "COMPACT", "FB_COMPACT"})
+    private String protocol = "BINARY";
+
+    @Param({"native", "transport"})
+    private String implementation = "native";
+
+    @Param({"10", "100"})
+    private int entries = 10;
+
+    private ChannelBufferProtocolFactory protocolFactory;
+    private Payload payload;
+    private ByteBuf encoded;
+    private ByteBuf output;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        protocolFactory = createProtocolFactory(protocol, implementation.equals("native"));
+        payload = createPayload(entries);
+
+        encoded = PooledByteBufAllocator.DEFAULT.buffer();
+        CODEC.write(payload, protocolFactory.createWriter(encoded));
+        output = PooledByteBufAllocator.DEFAULT.buffer(encoded.capacity());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        encoded.release();
+        output.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode()
+            throws Exception
+    {
+        output.clear();
+        CODEC.write(payload, protocolFactory.createWriter(output));
+        return output;
+    }
+
+    @Benchmark
+    public Payload decode()
+            throws Exception
+    {
+        return CODEC.read(protocolFactory.createReader(encoded.duplicate()));
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkChannelBufferProtocols.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+}
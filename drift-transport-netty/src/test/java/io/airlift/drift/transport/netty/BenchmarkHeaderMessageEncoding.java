@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a header transport request into a single pooled buffer with
+ * the previous approach of wrapping separate unpooled buffers for each part of
+ * the frame. Run with the GC profiler (enabled in {@link #main}) to compare the
+ * allocation rate.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkHeaderMessageEncoding
+{
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+    @Param({"composite", "single"})
+    private String encoder = "single";
+
+    @Param({"16", "4096"})
+    private int payloadSize = 16;
+
+    @Param({"0", "4"})
+    private int headerCount = 4;
+
+    private ChannelBufferProtocolFactory protocolFactory;
+    private HeaderMessageEncoding encoding;
+    private RequestSizeEstimator sizeEstimator;
+    private MethodMetadata method;
+    private List<Object> parameters;
+    private Map<String, String> headers;
+    private int sequenceId;
+
+    @Setup
+    public void setup()
+    {
+        protocolFactory = TChannelBufferBinaryProtocol.createFactory(-1, -1);
+        encoding = new HeaderMessageEncoding(protocolFactory, Protocol.BINARY);
+        sizeEstimator = new RequestSizeEstimator();
+        method = createMethod();
+        parameters = ImmutableList.of(Strings.repeat("x", payloadSize));
+
+        ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
+        for (int i = 0; i < headerCount; i++) {
+            headers.put("header-" + i, "value-" + i);
+        }
+        this.headers = headers.build();
+    }
+
+    @Benchmark
+    public int writeRequest()
+            throws Exception
+    {
+        ByteBuf request;
+        if (encoder.equals("composite")) {
+            request = writeCompositeRequest(sequenceId++);
+        }
+        else {
+            request = encoding.writeRequest(ALLOCATOR, sequenceId++, method, parameters, headers);
+        }
+        int size = request.readableBytes();
+        request.release();
+        return size;
+    }
+
+    // the previous HeaderMessageEncoding.writeRequest implementation
+    private ByteBuf writeCompositeRequest(int sequenceId)
+            throws Exception
+    {
+        ByteBuf message = MessageEncoding.encodeRequest(protocolFactory, sizeEstimator, ALLOCATOR, sequenceId, method, parameters);
+        // binary protocol
+        return CompositeRequestEncoding.encodeHeaderRequest(0, sequenceId, headers, message);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod()
+    {
+        ThriftCodec<Object> codec = (ThriftCodec<Object>) (Object) new ThriftCodecManager().getCodec(String.class);
+        return new MethodMetadata(
+                "test",
+                ImmutableList.of(new ParameterMetadata((short) 1, "value", codec)),
+                codec,
+                ImmutableMap.of(),
+                false,
+                new ResultsClassifier() {});
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkHeaderMessageEncoding.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
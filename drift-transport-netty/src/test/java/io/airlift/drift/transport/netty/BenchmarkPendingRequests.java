@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures registering and completing pending requests with a fixed number
+ * of requests in flight, comparing the boxed concurrent map previously used
+ * by the client handler with the primitive int keyed map.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkPendingRequests
+{
+    private static final int OPERATIONS = 10_000;
+    private static final Object REQUEST = new Object();
+
+    @Param({"concurrent", "primitive"})
+    private String map = "primitive";
+
+    @Param({"16", "1024"})
+    private int requestsInFlight = 16;
+
+    private ConcurrentHashMap<Integer, Object> concurrentMap;
+    private IntObjectMap<Object> primitiveMap;
+    private int sequenceId;
+
+    @Setup
+    public void setup()
+    {
+        concurrentMap = new ConcurrentHashMap<>();
+        primitiveMap = new IntObjectHashMap<>();
+        for (sequenceId = 0; sequenceId < requestsInFlight; sequenceId++) {
+            concurrentMap.put(sequenceId, REQUEST);
+            primitiveMap.put(sequenceId, REQUEST);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public Object registerAndComplete()
+    {
+        if (map.equals("concurrent")) {
+            return runConcurrent();
+        }
+        return runPrimitive();
+    }
+
+    private Object runConcurrent()
+    {
+        Object result = null;
+        for (int i = 0; i < OPERATIONS; i++) {
+            int id = sequenceId++;
+            if (concurrentMap.putIfAbsent(id, REQUEST) != null) {
+                throw new IllegalStateException("duplicate sequence id");
+            }
+            result = concurrentMap.remove(id - requestsInFlight);
+        }
+        return result;
+    }
+
+    private Object runPrimitive()
+    {
+        Object result = null;
+        for (int i = 0; i < OPERATIONS; i++) {
+            int id = sequenceId++;
+            if (primitiveMap.containsKey(id)) {
+                throw new IllegalStateException("duplicate sequence id");
+            }
+            primitiveMap.put(id, REQUEST);
+            result = primitiveMap.remove(id - requestsInFlight);
+        }
+        return result;
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkPendingRequests.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+}
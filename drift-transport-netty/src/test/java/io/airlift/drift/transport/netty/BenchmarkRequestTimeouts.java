@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.units.Duration;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures the event loop time spent registering and cancelling request
+ * timeouts, with a fixed number of requests in flight. Each operation
+ * completes the oldest request and starts a new one, which is what the
+ * client handler does for every request. The event loop does nothing
+ * else, so the time per operation is the event loop CPU cost.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkRequestTimeouts
+{
+    private static final int OPERATIONS = 10_000;
+    private static final long TIMEOUT_NANOS = SECONDS.toNanos(10);
+    private static final Runnable NO_OP = () -> { };
+
+    @Param({"scheduled", "wheel"})
+    private String scheduler = "wheel";
+
+    @Param({"100", "10000"})
+    private int requestsInFlight = 100;
+
+    private EventLoop eventLoop;
+    private TimeoutWheel wheel;
+    private ScheduledFuture<?>[] scheduledTimeouts;
+    private NoOpTimeout[] wheelTimeouts;
+    private int next;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        eventLoop = new DefaultEventLoop();
+        wheel = new TimeoutWheel(eventLoop, new Duration(10, MILLISECONDS));
+        scheduledTimeouts = new ScheduledFuture<?>[requestsInFlight];
+        wheelTimeouts = new NoOpTimeout[requestsInFlight];
+        for (int i = 0; i < requestsInFlight; i++) {
+            wheelTimeouts[i] = new NoOpTimeout();
+        }
+        // fill the in flight window
+        eventLoop.submit(this::runScheduled).get();
+        eventLoop.submit(this::runWheel).get();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        eventLoop.shutdownGracefully(0, 0, SECONDS).syncUninterruptibly();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public Object requestTimeouts()
+            throws Exception
+    {
+        if (scheduler.equals("scheduled")) {
+            return eventLoop.submit(this::runScheduled).get();
+        }
+        return eventLoop.submit(this::runWheel).get();
+    }
+
+    private int runScheduled()
+    {
+        for (int i = 0; i < OPERATIONS; i++) {
+            int slot = nextSlot();
+            ScheduledFuture<?> timeout = scheduledTimeouts[slot];
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            scheduledTimeouts[slot] = eventLoop.schedule(NO_OP, TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+        }
+        return next;
+    }
+
+    private int runWheel()
+    {
+        for (int i = 0; i < OPERATIONS; i++) {
+            // requests allocate the timeout as part of the request handler, so allocate here as well
+            int slot = nextSlot();
+            NoOpTimeout timeout = wheelTimeouts[slot];
+            wheel.remove(timeout);
+            timeout = new NoOpTimeout();
+            wheel.add(timeout, TIMEOUT_NANOS);
+            wheelTimeouts[slot] = timeout;
+        }
+        return next;
+    }
+
+    private int nextSlot()
+    {
+        int slot = next;
+        next = (next + 1) % requestsInFlight;
+        return slot;
+    }
+
+    private static class NoOpTimeout
+            extends TimeoutWheel.Timeout
+    {
+        @Override
+        protected void expire() {}
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkRequestTimeouts.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.codec.internal.ProtocolWriter;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocolFactory;
+import io.airlift.drift.protocol.TProtocolWriter;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ParameterMetadata;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static io.airlift.drift.protocol.TMessageType.CALL;
+import static io.airlift.drift.protocol.TMessageType.ONEWAY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Copy of the request encoding used before requests were written into a single
+ * buffer. Tests use it to verify that the encoded bytes are unchanged, and
+ * benchmarks use it as the baseline.
+ */
+final class CompositeRequestEncoding
+{
+    private CompositeRequestEncoding() {}
+
+    /**
+     * Encodes the request message with a transport based protocol.
+     */
+    public static ByteBuf encodeMessage(TProtocolFactory protocolFactory, ByteBufAllocator allocator, int sequenceId, MethodMetadata method, List<Object> parameters)
+            throws Exception
+    {
+        TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport(allocator.buffer(1024));
+        TProtocolWriter protocol = protocolFactory.getProtocol(transport);
+
+        protocol.writeMessageBegin(new TMessage(method.getName(), method.isOneway() ? ONEWAY : CALL, sequenceId));
+
+        // write the parameters
+        ProtocolWriter writer = new ProtocolWriter(protocol);
+        writer.writeStructBegin(method.getName() + "_args");
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            ParameterMetadata parameter = method.getParameters().get(i);
+            writer.writeField(parameter.getName(), parameter.getId(), parameter.getCodec(), value);
+        }
+        writer.writeStructEnd();
+
+        protocol.writeMessageEnd();
+        return transport.getOutputBuffer();
+    }
+
+    /**
+     * Wraps the encoded message in a header transport frame built from separate
+     * unpooled buffers for each part of the frame.
+     */
+    public static ByteBuf encodeHeaderRequest(int protocolId, int sequenceId, Map<String, String> headers, ByteBuf message)
+    {
+        // describe the encoding (Thrift protocol, no transforms)
+        ByteBuf encodingInfo = Unpooled.buffer(3);
+        encodingInfo.writeByte(protocolId);
+        encodingInfo.writeByte(0);
+
+        ByteBuf encodedHeaders = encodeHeaders(headers);
+
+        // Padding - header size must be a multiple of 4
+        int headerSize = encodingInfo.readableBytes() + encodedHeaders.readableBytes();
+        int paddingSize = 4 - headerSize % 4;
+        ByteBuf padding = Unpooled.buffer(paddingSize);
+        padding.writeZero(paddingSize);
+        headerSize += paddingSize;
+
+        // frame header (magic, flags, sequenceId, headerSize)
+        ByteBuf frameHeader = Unpooled.buffer(12);
+        frameHeader.writeShort(0x0FFF);
+        frameHeader.writeShort(1);
+        frameHeader.writeInt(sequenceId);
+        frameHeader.writeShort(headerSize >> 2);
+
+        return Unpooled.wrappedBuffer(
+                frameHeader,
+                encodingInfo,
+                encodedHeaders,
+                padding,
+                message);
+    }
+
+    private static ByteBuf encodeHeaders(Map<String, String> headers)
+    {
+        if (headers.isEmpty()) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+
+        // 1 bytes for header type, 5 for header count vint, and 5 for each header key and value length vint
+        int estimatedSize = 1 + 5 + (headers.size() * 10);
+        for (Entry<String, String> entry : headers.entrySet()) {
+            estimatedSize += entry.getKey().length() + entry.getValue().length();
+        }
+
+        ByteBuf headersBuffer = Unpooled.buffer(estimatedSize);
+        // non persistent header
+        headersBuffer.writeByte(0x01);
+        writeVint(headersBuffer, headers.size());
+        for (Entry<String, String> entry : headers.entrySet()) {
+            writeString(headersBuffer, entry.getKey());
+            writeString(headersBuffer, entry.getValue());
+        }
+        return headersBuffer;
+    }
+
+    private static void writeString(ByteBuf out, String value)
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeVint(ByteBuf out, int n)
+    {
+        while (true) {
+            if ((n & ~0x7F) == 0) {
+                out.writeByte(n);
+                return;
+            }
+
+            out.writeByte(n | 0x80);
+            n >>>= 7;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.drift.annotations.ThriftConstructor;
+import io.airlift.drift.annotations.ThriftField;
+import io.airlift.drift.annotations.ThriftStruct;
+import io.airlift.drift.protocol.TBinaryProtocol;
+import io.airlift.drift.protocol.TCompactProtocol;
+import io.airlift.drift.transport.netty.scribe.drift.LogEntry;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+/**
+ * Fixtures shared by the tests and benchmarks of the ByteBuf protocols.
+ */
+final class ProtocolTestUtils
+{
+    private ProtocolTestUtils() {}
+
+    /**
+     * Creates the ByteBuf native protocol, or the transport based protocol adapted to ByteBuf.
+     */
+    public static ChannelBufferProtocolFactory createProtocolFactory(String protocol, boolean nativeProtocol)
+    {
+        return createProtocolFactory(protocol, nativeProtocol, -1);
+    }
+
+    /**
+     * Creates a protocol that rejects strings, binary values and containers longer
+     * than the limit, or a protocol without a limit if the limit is -1. The Facebook
+     * compact protocol only limits strings and binary values.
+     */
+    public static ChannelBufferProtocolFactory createProtocolFactory(String protocol, boolean nativeProtocol, int lengthLimit)
+    {
+        switch (protocol) {
+            case "BINARY":
+                return nativeProtocol ?
+                        TChannelBufferBinaryProtocol.createFactory(lengthLimit, lengthLimit) :
+                        ChannelBufferProtocolFactory.fromTransportProtocolFactory(new TBinaryProtocol.Factory(false, true, lengthLimit, lengthLimit));
+            case "COMPACT":
+                return nativeProtocol ?
+                        TChannelBufferCompactProtocol.createFactory(lengthLimit, lengthLimit) :
+                        ChannelBufferProtocolFactory.fromTransportProtocolFactory(new TCompactProtocol.Factory(lengthLimit, lengthLimit));
+            case "FB_COMPACT":
+                return nativeProtocol ?
+                        TChannelBufferCompactProtocol.createFacebookFactory(lengthLimit) :
+                        ChannelBufferProtocolFactory.fromTransportProtocolFactory(new TFacebookCompactProtocol.Factory(lengthLimit));
+            default:
+                throw new IllegalArgumentException("Unknown protocol: " + protocol);
+        }
+    }
+
+    /**
+     * Creates a payload with a field of every type, where each container has the given number of entries.
+     */
+    public static Payload createPayload(int entries)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Long> values = random.longs(entries).boxed().collect(toImmutableList());
+        List<LogEntry> logEntries = IntStream.range(0, entries)
+                .mapToObj(i -> new LogEntry("category-" + i, "message with some unicode é中 " + random.nextLong()))
+                .collect(toImmutableList());
+        byte[] data = new byte[entries];
+        random.nextBytes(data);
+        Set<Integer> codes = IntStream.range(0, entries)
+                .boxed()
+                .collect(toImmutableSet());
+        Map<String, Long> counters = IntStream.range(0, entries)
+                .boxed()
+                .collect(toImmutableMap(i -> "counter-" + i, i -> random.nextLong()));
+        Map<String, LogEntry> entriesByCategory = logEntries.stream()
+                .collect(toImmutableMap(LogEntry::getCategory, Function.identity()));
+        return new Payload(
+                random.nextInt(),
+                random.nextLong(),
+                random.nextDouble(),
+                true,
+                "payload",
+                values,
+                logEntries,
+                (short) random.nextInt(),
+                (byte) random.nextInt(),
+                false,
+                ByteBuffer.wrap(data),
+                codes,
+                counters,
+                entriesByCategory);
+    }
+
+    @ThriftStruct
+    public static final class Payload
+    {
+        private final int id;
+        private final long timestamp;
+        private final double score;
+        private final boolean enabled;
+        private final String name;
+        private final List<Long> values;
+        private final List<LogEntry> entries;
+        private final short priority;
+        private final byte flags;
+        private final boolean deleted;
+        private final ByteBuffer data;
+        private final Set<Integer> codes;
+        private final Map<String, Long> counters;
+        private final Map<String, LogEntry> entriesByCategory;
+
+        @ThriftConstructor
+        public Payload(
+                @ThriftField(name = "id") int id,
+                @ThriftField(name = "timestamp") long timestamp,
+                @ThriftField(name = "score") double score,
+                @ThriftField(name = "enabled") boolean enabled,
+                @ThriftField(name = "name") String name,
+                @ThriftField(name = "values") List<Long> values,
+                @ThriftField(name = "entries") List<LogEntry> entries,
+                @ThriftField(name = "priority") short priority,
+                @ThriftField(name = "flags") byte flags,
+                @ThriftField(name = "deleted") boolean deleted,
+                @ThriftField(name = "data") ByteBuffer data,
+                @ThriftField(name = "codes") Set<Integer> codes,
+                @ThriftField(name = "counters") Map<String, Long> counters,
+                @ThriftField(name = "entriesByCategory") Map<String, LogEntry> entriesByCategory)
+        {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.score = score;
+            this.enabled = enabled;
+            this.name = name;
+            this.values = ImmutableList.copyOf(values);
+            this.entries = ImmutableList.copyOf(entries);
+            this.priority = priority;
+            this.flags = flags;
+            this.deleted = deleted;
+            this.data = data;
+            this.codes = ImmutableSet.copyOf(codes);
+            this.counters = ImmutableMap.copyOf(counters);
+            this.entriesByCategory = ImmutableMap.copyOf(entriesByCategory);
+        }
+
+        @ThriftField(1)
+        public int getId()
+        {
+            return id;
+        }
+
+        @ThriftField(2)
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        @ThriftField(3)
+        public double getScore()
+        {
+            return score;
+        }
+
+        @ThriftField(4)
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        @ThriftField(5)
+        public String getName()
+        {
+            return name;
+        }
+
+        @ThriftField(6)
+        public List<Long> getValues()
+        {
+            return values;
+        }
+
+        @ThriftField(7)
+        public List<LogEntry> getEntries()
+        {
+            return entries;
+        }
+
+        @ThriftField(8)
+        public short getPriority()
+        {
+            return priority;
+        }
+
+        @ThriftField(9)
+        public byte getFlags()
+        {
+            return flags;
+        }
+
+        @ThriftField(10)
+        public boolean isDeleted()
+        {
+            return deleted;
+        }
+
+        @ThriftField(11)
+        public ByteBuffer getData()
+        {
+            return data.duplicate();
+        }
+
+        @ThriftField(12)
+        public Set<Integer> getCodes()
+        {
+            return codes;
+        }
+
+        @ThriftField(13)
+        public Map<String, Long> getCounters()
+        {
+            return counters;
+        }
+
+        @ThriftField(14)
+        public Map<String, LogEntry> getEntriesByCategory()
+        {
+            return entriesByCategory;
+        }
+    }
+}
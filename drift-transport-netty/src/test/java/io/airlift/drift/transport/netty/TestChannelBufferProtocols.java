@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.base.Strings;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.protocol.TList;
+import io.airlift.drift.protocol.TMap;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocolException;
+import io.airlift.drift.protocol.TProtocolReader;
+import io.airlift.drift.protocol.TProtocolWriter;
+import io.airlift.drift.protocol.TSet;
+import io.airlift.drift.protocol.TType;
+import io.airlift.drift.transport.netty.ProtocolTestUtils.Payload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static io.airlift.drift.protocol.TMessageType.CALL;
+import static io.airlift.drift.transport.netty.ProtocolTestUtils.createPayload;
+import static io.airlift.drift.transport.netty.ProtocolTestUtils.createProtocolFactory;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestChannelBufferProtocols
+{
+    private static final ThriftCodec<Payload> CODEC = new ThriftCodecManager().getCodec(Payload.class);
+
+    @DataProvider
+    public static Object[][] protocols()
+    {
+        return new Object[][] {{"BINARY"}, {"COMPACT"}, {"FB_COMPACT"}};
+    }
+
+    @Test(dataProvider = "protocols")
+    public void testWireCompatible(String protocol)
+            throws Exception
+    {
+        // empty containers, and containers on both sides of the compact short header limit of 14 elements
+        for (int entries : new int[] {0, 1, 14, 15, 200}) {
+            assertWireCompatible(protocol, createPayload(entries));
+        }
+    }
+
+    @Test(dataProvider = "protocols")
+    public void testLengthLimits(String protocol)
+            throws Exception
+    {
+        for (boolean nativeProtocol : new boolean[] {true, false}) {
+            ChannelBufferProtocolFactory unlimited = createProtocolFactory(protocol, nativeProtocol);
+            ChannelBufferProtocolFactory limited = createProtocolFactory(protocol, nativeProtocol, 10);
+
+            for (int length : new int[] {10, 11}) {
+                boolean allowed = length <= 10;
+                // the Facebook compact protocol does not limit the size of containers
+                boolean containerAllowed = allowed || protocol.equals("FB_COMPACT");
+
+                ByteBuf buffer = Unpooled.buffer();
+                unlimited.createWriter(buffer).writeString(Strings.repeat("x", length));
+                assertLength(allowed, () -> assertEquals(limited.createReader(buffer).readString().length(), length));
+
+                buffer.clear();
+                unlimited.createWriter(buffer).writeBinary(ByteBuffer.wrap(new byte[length]));
+                assertLength(allowed, () -> assertEquals(limited.createReader(buffer).readBinary().remaining(), length));
+
+                buffer.clear();
+                unlimited.createWriter(buffer).writeListBegin(new TList(TType.I32, length));
+                assertLength(containerAllowed, () -> assertEquals(limited.createReader(buffer).readListBegin().getSize(), length));
+
+                buffer.clear();
+                unlimited.createWriter(buffer).writeSetBegin(new TSet(TType.I32, length));
+                assertLength(containerAllowed, () -> assertEquals(limited.createReader(buffer).readSetBegin().getSize(), length));
+
+                buffer.clear();
+                unlimited.createWriter(buffer).writeMapBegin(new TMap(TType.STRING, TType.I32, length));
+                assertLength(containerAllowed, () -> assertEquals(limited.createReader(buffer).readMapBegin().getSize(), length));
+            }
+        }
+    }
+
+    @Test(dataProvider = "protocols")
+    public void testTruncatedMessage(String protocol)
+            throws Exception
+    {
+        ChannelBufferProtocolFactory nativeFactory = createProtocolFactory(protocol, true);
+        ChannelBufferProtocolFactory transportFactory = createProtocolFactory(protocol, false);
+
+        ByteBuf message = encode(nativeFactory, createPayload(2));
+        for (int length = 0; length < message.readableBytes(); length++) {
+            Exception nativeFailure = decodeFailure(nativeFactory, message.slice(0, length));
+            Exception transportFailure = decodeFailure(transportFactory, message.slice(0, length));
+            assertNotNull(nativeFailure, "native protocol decoded a message truncated to " + length + " bytes");
+            assertNotNull(transportFailure, "transport protocol decoded a message truncated to " + length + " bytes");
+            assertEquals(nativeFailure.getClass(), transportFailure.getClass(), "message truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    public void testCompactEmptyMap()
+            throws Exception
+    {
+        for (String protocol : new String[] {"COMPACT", "FB_COMPACT"}) {
+            for (boolean nativeProtocol : new boolean[] {true, false}) {
+                ChannelBufferProtocolFactory protocolFactory = createProtocolFactory(protocol, nativeProtocol);
+
+                // an empty map is a single zero size, without the key and value types
+                ByteBuf buffer = Unpooled.buffer();
+                protocolFactory.createWriter(buffer).writeMapBegin(new TMap(TType.STRING, TType.I64, 0));
+                assertEquals(ByteBufUtil.hexDump(buffer), "00");
+
+                assertEquals(protocolFactory.createReader(buffer).readMapBegin().getSize(), 0);
+                assertFalse(buffer.isReadable());
+            }
+        }
+    }
+
+    @Test
+    public void testCompactDoubleByteOrder()
+            throws Exception
+    {
+        for (boolean nativeProtocol : new boolean[] {true, false}) {
+            // Apache compact writes doubles little endian, and the Facebook fork writes them big endian
+            assertDouble(createProtocolFactory("COMPACT", nativeProtocol), "000000000000f03f");
+            assertDouble(createProtocolFactory("FB_COMPACT", nativeProtocol), "3ff0000000000000");
+        }
+    }
+
+    private static void assertWireCompatible(String protocol, Payload payload)
+            throws Exception
+    {
+        ChannelBufferProtocolFactory nativeFactory = createProtocolFactory(protocol, true);
+        ChannelBufferProtocolFactory transportFactory = createProtocolFactory(protocol, false);
+
+        ByteBuf nativeBuffer = encode(nativeFactory, payload);
+        ByteBuf transportBuffer = encode(transportFactory, payload);
+
+        // native protocol must produce exactly the same bytes as the transport protocol
+        assertEquals(ByteBufUtil.hexDump(nativeBuffer), ByteBufUtil.hexDump(transportBuffer));
+
+        // and each must be able to read the output of the other
+        assertDecode(nativeFactory, transportBuffer.duplicate(), payload);
+        assertDecode(transportFactory, nativeBuffer.duplicate(), payload);
+    }
+
+    private static void assertDouble(ChannelBufferProtocolFactory protocolFactory, String expectedHex)
+            throws Exception
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        protocolFactory.createWriter(buffer).writeDouble(1.0);
+        assertEquals(ByteBufUtil.hexDump(buffer), expectedHex);
+        assertEquals(protocolFactory.createReader(buffer).readDouble(), 1.0);
+    }
+
+    private static void assertLength(boolean allowed, ReadAction action)
+            throws Exception
+    {
+        if (allowed) {
+            action.read();
+            return;
+        }
+        try {
+            action.read();
+            fail("expected exception");
+        }
+        catch (TProtocolException e) {
+            assertTrue(e.getMessage().contains("11"), e.getMessage());
+        }
+    }
+
+    private static ByteBuf encode(ChannelBufferProtocolFactory protocolFactory, Payload payload)
+            throws Exception
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        TProtocolWriter writer = protocolFactory.createWriter(buffer);
+        writer.writeMessageBegin(new TMessage("test", CALL, 42));
+        CODEC.write(payload, writer);
+        writer.writeMessageEnd();
+        return buffer;
+    }
+
+    private static Exception decodeFailure(ChannelBufferProtocolFactory protocolFactory, ByteBuf buffer)
+    {
+        try {
+            TProtocolReader reader = protocolFactory.createReader(buffer);
+            reader.readMessageBegin();
+            CODEC.read(reader);
+            reader.readMessageEnd();
+            return null;
+        }
+        catch (Exception e) {
+            return e;
+        }
+    }
+
+    private static void assertDecode(ChannelBufferProtocolFactory protocolFactory, ByteBuf buffer, Payload expected)
+            throws Exception
+    {
+        TProtocolReader reader = protocolFactory.createReader(buffer);
+        TMessage message = reader.readMessageBegin();
+        assertEquals(message.getName(), "test");
+        assertEquals(message.getType(), CALL);
+        assertEquals(message.getSequenceId(), 42);
+
+        Payload actual = CODEC.read(reader);
+        reader.readMessageEnd();
+        assertEquals(actual.getId(), expected.getId());
+        assertEquals(actual.getTimestamp(), expected.getTimestamp());
+        assertEquals(actual.getScore(), expected.getScore());
+        assertEquals(actual.isEnabled(), expected.isEnabled());
+        assertEquals(actual.getName(), expected.getName());
+        assertEquals(actual.getValues(), expected.getValues());
+        assertEquals(actual.getEntries(), expected.getEntries());
+        assertEquals(actual.getPriority(), expected.getPriority());
+        assertEquals(actual.getFlags(), expected.getFlags());
+        assertEquals(actual.isDeleted(), expected.isDeleted());
+        assertEquals(actual.getData(), expected.getData());
+        assertEquals(actual.getCodes(), expected.getCodes());
+        assertEquals(actual.getCounters(), expected.getCounters());
+        assertEquals(actual.getEntriesByCategory(), expected.getEntriesByCategory());
+        assertEquals(buffer.readableBytes(), 0);
+    }
+
+    private interface ReadAction
+    {
+        void read()
+                throws Exception;
+    }
+}
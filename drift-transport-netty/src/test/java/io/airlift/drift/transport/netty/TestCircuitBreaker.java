@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.base.Ticker;
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.netty.CircuitBreaker.State;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestCircuitBreaker
+{
+    private static final HostAndPort ADDRESS = HostAndPort.fromParts("localhost", 1234);
+    private static final HostAndPort OTHER_ADDRESS = HostAndPort.fromParts("localhost", 4321);
+
+    private final TestingTicker ticker = new TestingTicker();
+
+    @Test
+    public void testDisabled()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(false);
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onFailure(ADDRESS, true);
+        }
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+    }
+
+    @Test
+    public void testOpensOnHostDown()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+        circuitBreaker.onFailure(ADDRESS, true);
+        circuitBreaker.onFailure(ADDRESS, true);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+
+        // a success resets the consecutive count
+        circuitBreaker.onSuccess(ADDRESS);
+        circuitBreaker.onFailure(ADDRESS, true);
+        circuitBreaker.onFailure(ADDRESS, true);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+
+        circuitBreaker.onFailure(ADDRESS, true);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.OPEN);
+        assertFalse(circuitBreaker.tryAcquire(ADDRESS));
+        assertTrue(circuitBreaker.tryAcquire(OTHER_ADDRESS));
+        assertEquals(circuitBreaker.getOpened().getTotalCount(), 1);
+        assertEquals(circuitBreaker.getRejections().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testOpensOnFailureRate()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+
+        // below the minimum requests, the failure rate is not considered
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.onFailure(ADDRESS, false);
+        }
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.onSuccess(ADDRESS);
+        }
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+
+        circuitBreaker.onFailure(ADDRESS, false);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.OPEN);
+    }
+
+    @Test
+    public void testFailuresExpireFromWindow()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+        for (int i = 0; i < 9; i++) {
+            circuitBreaker.onFailure(ADDRESS, false);
+        }
+
+        ticker.increment(10, SECONDS);
+        circuitBreaker.onSuccess(ADDRESS);
+        circuitBreaker.onFailure(ADDRESS, false);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+    }
+
+    @Test
+    public void testHalfOpen()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+        openCircuit(circuitBreaker);
+
+        ticker.increment(5, SECONDS);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertEquals(circuitBreaker.getState(ADDRESS), State.HALF_OPEN);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertFalse(circuitBreaker.tryAcquire(ADDRESS));
+
+        // circuit closes once every probe succeeds
+        circuitBreaker.onSuccess(ADDRESS);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.HALF_OPEN);
+        circuitBreaker.onSuccess(ADDRESS);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+    }
+
+    @Test
+    public void testHalfOpenProbeFailure()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+        openCircuit(circuitBreaker);
+
+        ticker.increment(5, SECONDS);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        circuitBreaker.onFailure(ADDRESS, false);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.OPEN);
+        assertFalse(circuitBreaker.tryAcquire(ADDRESS));
+        assertEquals(circuitBreaker.getOpened().getTotalCount(), 2);
+    }
+
+    @Test
+    public void testHalfOpenIgnoredProbe()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+        openCircuit(circuitBreaker);
+
+        ticker.increment(5, SECONDS);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertFalse(circuitBreaker.tryAcquire(ADDRESS));
+
+        // an ignored probe is released immediately, without waiting for the open duration
+        circuitBreaker.onIgnored(ADDRESS);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.HALF_OPEN);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+
+        circuitBreaker.onSuccess(ADDRESS);
+        circuitBreaker.onSuccess(ADDRESS);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+
+        // ignored requests do not affect a closed circuit
+        circuitBreaker.onIgnored(ADDRESS);
+        assertEquals(circuitBreaker.getState(ADDRESS), State.CLOSED);
+    }
+
+    @Test
+    public void testHalfOpenAbandonedProbes()
+    {
+        CircuitBreaker circuitBreaker = createCircuitBreaker(true);
+        openCircuit(circuitBreaker);
+
+        ticker.increment(5, SECONDS);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+        assertFalse(circuitBreaker.tryAcquire(ADDRESS));
+
+        // probes that never report back are replaced after the open duration
+        ticker.increment(5, SECONDS);
+        assertTrue(circuitBreaker.tryAcquire(ADDRESS));
+    }
+
+    private static void openCircuit(CircuitBreaker circuitBreaker)
+    {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure(ADDRESS, true);
+        }
+        assertEquals(circuitBreaker.getState(ADDRESS), State.OPEN);
+    }
+
+    private CircuitBreaker createCircuitBreaker(boolean enabled)
+    {
+        return new CircuitBreaker(enabled, 0.5, 10, 3, new Duration(10, SECONDS), new Duration(5, SECONDS), 2, ticker);
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private volatile long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void increment(long delta, TimeUnit unit)
+        {
+            time += unit.toNanos(delta);
+        }
+    }
+}
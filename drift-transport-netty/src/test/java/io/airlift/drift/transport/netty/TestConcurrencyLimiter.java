@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.net.HostAndPort;
+import io.airlift.drift.transport.netty.ConcurrencyLimiter.Permit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestConcurrencyLimiter
+{
+    private static final HostAndPort ADDRESS = HostAndPort.fromParts("localhost", 1234);
+    private static final HostAndPort OTHER_ADDRESS = HostAndPort.fromParts("localhost", 4321);
+
+    @Test
+    public void testDisabled()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(false, 1, 1);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(limiter.tryAcquire(ADDRESS));
+        }
+        assertEquals(limiter.getRejections().getTotalCount(), 0);
+    }
+
+    @Test
+    public void testRejectsAtLimit()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 2, 10);
+        Permit first = limiter.tryAcquire(ADDRESS);
+        assertNotNull(first);
+        assertNotNull(limiter.tryAcquire(ADDRESS));
+        assertNull(limiter.tryAcquire(ADDRESS));
+        assertEquals(limiter.getRejections().getTotalCount(), 1);
+
+        // limits are tracked per host
+        assertNotNull(limiter.tryAcquire(OTHER_ADDRESS));
+
+        // permits are only released once
+        first.onIgnored();
+        first.onIgnored();
+        assertNotNull(limiter.tryAcquire(ADDRESS));
+        assertNull(limiter.tryAcquire(ADDRESS));
+    }
+
+    @Test
+    public void testLimitGrowsWithStableLatency()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 10, 100);
+        for (int round = 0; round < 50; round++) {
+            List<Permit> permits = acquireAll(limiter);
+            permits.forEach(permit -> permit.onSuccess(MILLISECONDS.toNanos(10)));
+        }
+        assertTrue(limiter.getLimit(ADDRESS) > 50, "limit " + limiter.getLimit(ADDRESS));
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyIncreases()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 50, 100);
+        for (int i = 0; i < 100; i++) {
+            acquireAll(limiter).forEach(permit -> permit.onSuccess(MILLISECONDS.toNanos(10)));
+        }
+        int limit = limiter.getLimit(ADDRESS);
+
+        // requests queue on the host, so latency grows with the number in flight
+        for (int round = 0; round < 20; round++) {
+            List<Permit> permits = acquireAll(limiter);
+            permits.forEach(permit -> permit.onSuccess(MILLISECONDS.toNanos(permits.size())));
+        }
+        assertTrue(limiter.getLimit(ADDRESS) < limit / 2, "limit " + limiter.getLimit(ADDRESS) + " was " + limit);
+    }
+
+    @Test
+    public void testLimitShrinksOnDrops()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(true, 20, 100);
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(ADDRESS).onDropped();
+        }
+        assertEquals(limiter.getLimit(ADDRESS), 6);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire(ADDRESS).onDropped();
+        }
+        assertEquals(limiter.getLimit(ADDRESS), 1);
+    }
+
+    private static List<Permit> acquireAll(ConcurrencyLimiter limiter)
+    {
+        List<Permit> permits = new ArrayList<>();
+        while (true) {
+            Permit permit = limiter.tryAcquire(ADDRESS);
+            if (permit == null) {
+                return permits;
+            }
+            permits.add(permit);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestConnectionPool
+{
+    private static final HostAndPort ADDRESS = HostAndPort.fromParts("localhost", 1234);
+    private static final HostAndPort OTHER_ADDRESS = HostAndPort.fromParts("localhost", 4321);
+
+    private EventLoopGroup group;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        group = new DefaultEventLoopGroup(1);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        group.shutdownGracefully();
+    }
+
+    @Test
+    public void testLeastLoadedConnection()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setMaxConnectionsPerHost(2)
+                .setMaxRequestsPerConnection(2);
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            // first request opens a connection
+            Channel first = pool.getConnection(ADDRESS).get();
+            assertEquals(connectionManager.getConnectionCount(), 1);
+
+            // first connection is busy, so a second connection is opened in the background
+            assertSame(pool.getConnection(ADDRESS).get(), first);
+            assertEquals(connectionManager.getConnectionCount(), 2);
+            // connections are established on the event loop
+            group.submit(() -> { }).get();
+
+            // pool is full, so requests are multiplexed on the least loaded connection
+            Channel second = pool.getConnection(ADDRESS).get();
+            assertNotSame(first, second);
+            assertSame(pool.getConnection(ADDRESS).get(), second);
+            assertEquals(connectionManager.getConnectionCount(), 2);
+
+            // all connections are at the request limit
+            Future<Channel> exhausted = pool.getConnection(ADDRESS).await();
+            assertFalse(exhausted.isSuccess());
+
+            // returning a request frees a slot on that connection
+            pool.returnConnection(second);
+            assertSame(pool.getConnection(ADDRESS).get(), second);
+            assertEquals(connectionManager.getConnectionCount(), 2);
+        }
+    }
+
+    @Test
+    public void testRequestsDoNotWaitForNewConnection()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setMaxConnectionsPerHost(2)
+                .setMaxRequestsPerConnection(10);
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            Channel first = pool.getConnection(ADDRESS).get();
+            group.submit(() -> { }).get();
+
+            // requests stay on the established connection while the second connection is being established
+            connectionManager.setHoldConnections(true);
+            for (int i = 0; i < 3; i++) {
+                Future<Channel> future = pool.getConnection(ADDRESS);
+                assertTrue(future.isDone());
+                assertSame(future.getNow(), first);
+            }
+            assertEquals(connectionManager.getConnectionCount(), 2);
+
+            connectionManager.releaseHeldConnections();
+            group.submit(() -> { }).get();
+            Channel second = pool.getConnection(ADDRESS).get();
+            assertNotSame(first, second);
+            assertEquals(connectionManager.getConnectionCount(), 2);
+        }
+    }
+
+    @Test
+    public void testClosedConnectionIsReplaced()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig();
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            Channel first = pool.getConnection(ADDRESS).get();
+            pool.returnConnection(first);
+            assertSame(pool.getConnection(ADDRESS).get(), first);
+            pool.returnConnection(first);
+
+            first.close().await();
+
+            Channel second = pool.getConnection(ADDRESS).get();
+            assertNotSame(first, second);
+            assertTrue(second.isActive());
+            assertEquals(connectionManager.getConnectionCount(), 2);
+        }
+    }
+
+    @Test
+    public void testCloseClosesConnections()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        ConnectionPool pool = new ConnectionPool(connectionManager, group, new DriftNettyClientConfig());
+
+        Channel channel = pool.getConnection(ADDRESS).get();
+        pool.close();
+        // connections are closed from the event loop
+        group.submit(() -> { }).get();
+
+        assertFalse(channel.isActive());
+        assertFalse(pool.getConnection(ADDRESS).await().isSuccess());
+    }
+
+    @Test
+    public void testWarmUp()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setMaxConnectionsPerHost(3)
+                .setMinConnectionsPerHost(2);
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            pool.warmUp(() -> ImmutableList.of(ADDRESS, OTHER_ADDRESS));
+            assertEventually(() -> connectionManager.getConnectionCount() == 4);
+
+            // requests use the warm connections instead of opening new ones
+            Channel first = pool.getConnection(ADDRESS).get();
+            Channel second = pool.getConnection(ADDRESS).get();
+            assertNotSame(first, second);
+            assertEquals(connectionManager.getConnectionCount(), 4);
+        }
+    }
+
+    @Test
+    public void testWarmConnectionIsReopened()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setMinConnectionsPerHost(1);
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            pool.warmUp(() -> ImmutableList.of(ADDRESS));
+            assertEventually(() -> connectionManager.getConnectionCount() == 1);
+
+            Channel first = pool.getConnection(ADDRESS).get();
+            pool.returnConnection(first);
+            first.close().await();
+
+            // the closed connection is replaced in the background
+            assertEventually(() -> connectionManager.getConnectionCount() == 2);
+            Channel second = pool.getConnection(ADDRESS).get();
+            assertNotSame(first, second);
+            assertTrue(second.isActive());
+            assertEquals(connectionManager.getConnectionCount(), 2);
+        }
+    }
+
+    @Test
+    public void testWarmAddressesRefreshed()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setMinConnectionsPerHost(1)
+                .setConnectionIdleTimeout(new Duration(1, MILLISECONDS));
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            AtomicReference<List<HostAndPort>> addresses = new AtomicReference<>(ImmutableList.of(ADDRESS));
+            pool.warmUp(addresses::get);
+            assertEventually(() -> connectionManager.getConnectionCount(ADDRESS) == 1);
+            Channel removed = connectionManager.getConnections(ADDRESS).get(0);
+
+            // address is resolved to another host, which is warmed, and the idle connection to the removed host is closed
+            addresses.set(ImmutableList.of(OTHER_ADDRESS));
+            assertEventually(() -> connectionManager.getConnectionCount(OTHER_ADDRESS) == 1);
+            assertEventually(() -> !removed.isOpen());
+
+            // removed host is not reconnected
+            SECONDS.sleep(2);
+            assertEquals(connectionManager.getConnectionCount(ADDRESS), 1);
+            assertEquals(connectionManager.getConnectionCount(OTHER_ADDRESS), 1);
+        }
+    }
+
+    @Test
+    public void testClosedWarmConnectionBackoff()
+            throws Exception
+    {
+        TestingConnectionManager connectionManager = new TestingConnectionManager(group);
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setMinConnectionsPerHost(1)
+                .setReconnectDelay(new Duration(100, MILLISECONDS))
+                .setMaxReconnectDelay(new Duration(1, MINUTES));
+
+        try (ConnectionPool pool = new ConnectionPool(connectionManager, group, config)) {
+            // host accepts connections and closes them immediately
+            connectionManager.setCloseConnections(true);
+            pool.warmUp(() -> ImmutableList.of(ADDRESS));
+            assertEventually(() -> connectionManager.getConnectionCount() >= 1);
+
+            // reconnects back off to 100ms, 200ms, 400ms and 800ms, instead of reconnecting in a loop
+            SECONDS.sleep(1);
+            int connectionCount = connectionManager.getConnectionCount();
+            assertTrue(connectionCount >= 2 && connectionCount <= 5, "unexpected connection count: " + connectionCount);
+        }
+    }
+
+    private static void assertEventually(BooleanSupplier condition)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0, "condition was not met");
+            MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static class TestingConnectionManager
+            implements ConnectionManager
+    {
+        private final EventLoopGroup group;
+        private final AtomicInteger connectionCount = new AtomicInteger();
+        private final ListMultimap<HostAndPort, Channel> connections = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+        private final Queue<Runnable> heldConnections = new ConcurrentLinkedQueue<>();
+        private volatile boolean closeConnections;
+        private volatile boolean holdConnections;
+
+        public TestingConnectionManager(EventLoopGroup group)
+        {
+            this.group = group;
+        }
+
+        public int getConnectionCount()
+        {
+            return connectionCount.get();
+        }
+
+        public int getConnectionCount(HostAndPort address)
+        {
+            return getConnections(address).size();
+        }
+
+        public List<Channel> getConnections(HostAndPort address)
+        {
+            synchronized (connections) {
+                return ImmutableList.copyOf(connections.get(address));
+            }
+        }
+
+        /**
+         * New connections are closed as soon as they are opened.
+         */
+        public void setCloseConnections(boolean closeConnections)
+        {
+            this.closeConnections = closeConnections;
+        }
+
+        /**
+         * New connections are not established until they are released.
+         */
+        public void setHoldConnections(boolean holdConnections)
+        {
+            this.holdConnections = holdConnections;
+        }
+
+        public void releaseHeldConnections()
+        {
+            Runnable connection;
+            while ((connection = heldConnections.poll()) != null) {
+                connection.run();
+            }
+        }
+
+        @Override
+        public Future<Channel> getConnection(HostAndPort address)
+        {
+            connectionCount.incrementAndGet();
+            Channel channel = new EmbeddedChannel();
+            connections.put(address, channel);
+            if (closeConnections) {
+                channel.close();
+            }
+            if (holdConnections) {
+                Promise<Channel> promise = group.next().newPromise();
+                heldConnections.add(() -> promise.setSuccess(channel));
+                return promise;
+            }
+            return group.next().newSucceededFuture(channel);
+        }
+
+        @Override
+        public void returnConnection(Channel connection)
+        {
+            connection.close();
+        }
+    }
+}
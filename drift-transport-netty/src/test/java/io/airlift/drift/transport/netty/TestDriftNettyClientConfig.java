@@ -27,15 +27,19 @@ import java.util.Map;
 import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
 import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
 import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Compression.NONE;
+import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Compression.SNAPPY;
 import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol.BINARY;
 import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol.COMPACT;
 import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Transport.FRAMED;
 import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Transport.HEADER;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TestDriftNettyClientConfig
 {
@@ -50,6 +54,32 @@ public class TestDriftNettyClientConfig
                 .setSocksProxy(null)
                 .setMaxFrameSize(new DataSize(16, MEGABYTE))
                 .setPoolEnabled(false)
+                .setMaxConnectionsPerHost(1)
+                .setMaxRequestsPerConnection(1000)
+                .setConnectionIdleTimeout(new Duration(10, MINUTES))
+                .setMaxConnectionLifetime(null)
+                .setMinConnectionsPerHost(0)
+                .setReconnectDelay(new Duration(100, MILLISECONDS))
+                .setMaxReconnectDelay(new Duration(30, SECONDS))
+                .setWriteCoalescingEnabled(false)
+                .setMaxWriteBatchSize(128)
+                .setMaxWriteDelay(new Duration(0, MILLISECONDS))
+                .setSendBufferSize(null)
+                .setReceiveBufferSize(null)
+                .setWriteBufferLowWaterMark(new DataSize(32, KILOBYTE))
+                .setWriteBufferHighWaterMark(new DataSize(64, KILOBYTE))
+                .setTcpNoDelay(true)
+                .setTcpQuickAck(false)
+                .setTcpKeepAliveInterval(null)
+                .setHedgingEnabled(false)
+                .setHedgingDelay(new Duration(100, MILLISECONDS))
+                .setHedgingLatencyPercentile(null)
+                .setHedgingBudgetRatio(0.1)
+                .setHedgingBudgetBurst(10)
+                .setCompression(NONE)
+                .setCompressionThreshold(new DataSize(1, KILOBYTE))
+                .setCompressionMethods("")
+                .setDecoderOffloadThreshold(null)
                 .setSslEnabled(false)
                 .setTrustCertificate(null)
                 .setKey(null)
@@ -70,6 +100,32 @@ public class TestDriftNettyClientConfig
                 .put("thrift.client.socks-proxy", "localhost:11")
                 .put("thrift.client.max-frame-size", "55MB")
                 .put("thrift.client.pool-enabled", "true")
+                .put("thrift.client.pool.max-connections-per-host", "8")
+                .put("thrift.client.pool.max-requests-per-connection", "77")
+                .put("thrift.client.pool.idle-timeout", "3m")
+                .put("thrift.client.pool.max-connection-lifetime", "2h")
+                .put("thrift.client.pool.min-connections-per-host", "2")
+                .put("thrift.client.pool.reconnect-delay", "250ms")
+                .put("thrift.client.pool.max-reconnect-delay", "1m")
+                .put("thrift.client.write-coalescing-enabled", "true")
+                .put("thrift.client.write-coalescing.max-batch-size", "16")
+                .put("thrift.client.write-coalescing.max-delay", "5ms")
+                .put("thrift.client.socket.send-buffer-size", "1MB")
+                .put("thrift.client.socket.receive-buffer-size", "2MB")
+                .put("thrift.client.write-buffer.low-water-mark", "100kB")
+                .put("thrift.client.write-buffer.high-water-mark", "200kB")
+                .put("thrift.client.socket.tcp-no-delay", "false")
+                .put("thrift.client.socket.tcp-quick-ack", "true")
+                .put("thrift.client.socket.tcp-keep-alive-interval", "15s")
+                .put("thrift.client.hedging.enabled", "true")
+                .put("thrift.client.hedging.delay", "20ms")
+                .put("thrift.client.hedging.latency-percentile", "99.5")
+                .put("thrift.client.hedging.budget-ratio", "0.25")
+                .put("thrift.client.hedging.budget-burst", "33")
+                .put("thrift.client.compression", "SNAPPY")
+                .put("thrift.client.compression.threshold", "64kB")
+                .put("thrift.client.compression.methods", "scan,list")
+                .put("thrift.client.decoder.offload-threshold", "256kB")
                 .put("thrift.client.ssl.enabled", "true")
                 .put("thrift.client.ssl.trust-certificate", "trust")
                 .put("thrift.client.ssl.key", "key")
@@ -87,6 +143,32 @@ public class TestDriftNettyClientConfig
                 .setSocksProxy(HostAndPort.fromParts("localhost", 11))
                 .setMaxFrameSize(new DataSize(55, MEGABYTE))
                 .setPoolEnabled(true)
+                .setMaxConnectionsPerHost(8)
+                .setMaxRequestsPerConnection(77)
+                .setConnectionIdleTimeout(new Duration(3, MINUTES))
+                .setMaxConnectionLifetime(new Duration(2, HOURS))
+                .setMinConnectionsPerHost(2)
+                .setReconnectDelay(new Duration(250, MILLISECONDS))
+                .setMaxReconnectDelay(new Duration(1, MINUTES))
+                .setWriteCoalescingEnabled(true)
+                .setMaxWriteBatchSize(16)
+                .setMaxWriteDelay(new Duration(5, MILLISECONDS))
+                .setSendBufferSize(new DataSize(1, MEGABYTE))
+                .setReceiveBufferSize(new DataSize(2, MEGABYTE))
+                .setWriteBufferLowWaterMark(new DataSize(100, KILOBYTE))
+                .setWriteBufferHighWaterMark(new DataSize(200, KILOBYTE))
+                .setTcpNoDelay(false)
+                .setTcpQuickAck(true)
+                .setTcpKeepAliveInterval(new Duration(15, SECONDS))
+                .setHedgingEnabled(true)
+                .setHedgingDelay(new Duration(20, MILLISECONDS))
+                .setHedgingLatencyPercentile(99.5)
+                .setHedgingBudgetRatio(0.25)
+                .setHedgingBudgetBurst(33)
+                .setCompression(SNAPPY)
+                .setCompressionThreshold(new DataSize(64, KILOBYTE))
+                .setCompressionMethods("scan,list")
+                .setDecoderOffloadThreshold(new DataSize(256, KILOBYTE))
                 .setSslEnabled(true)
                 .setTrustCertificate(new File("trust"))
                 .setKey(new File("key"))
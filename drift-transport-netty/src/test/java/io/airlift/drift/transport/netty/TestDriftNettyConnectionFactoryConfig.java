@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
+import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
+import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class TestDriftNettyConnectionFactoryConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        assertRecordedDefaults(recordDefaults(DriftNettyConnectionFactoryConfig.class)
+                .setThreadCount(Runtime.getRuntime().availableProcessors() * 2)
+                .setDecoderThreadCount(Runtime.getRuntime().availableProcessors())
+                .setNativeTransportEnabled(false)
+                .setTimeoutTickDuration(new Duration(10, MILLISECONDS))
+                .setConcurrencyLimitEnabled(false)
+                .setConcurrencyLimitInitial(20)
+                .setConcurrencyLimitMax(1000)
+                .setCircuitBreakerEnabled(false)
+                .setCircuitBreakerFailureRateThreshold(0.5)
+                .setCircuitBreakerMinimumRequests(20)
+                .setCircuitBreakerHostDownThreshold(3)
+                .setCircuitBreakerWindow(new Duration(10, SECONDS))
+                .setCircuitBreakerOpenDuration(new Duration(5, SECONDS))
+                .setCircuitBreakerHalfOpenProbes(3));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("thrift.client.thread-count", "99")
+                .put("thrift.client.decoder-thread-count", "7")
+                .put("thrift.client.native-transport", "true")
+                .put("thrift.client.timeout-tick-duration", "50ms")
+                .put("thrift.client.concurrency-limit.enabled", "true")
+                .put("thrift.client.concurrency-limit.initial", "5")
+                .put("thrift.client.concurrency-limit.max", "200")
+                .put("thrift.client.circuit-breaker.enabled", "true")
+                .put("thrift.client.circuit-breaker.failure-rate-threshold", "0.25")
+                .put("thrift.client.circuit-breaker.minimum-requests", "50")
+                .put("thrift.client.circuit-breaker.host-down-threshold", "7")
+                .put("thrift.client.circuit-breaker.window", "1m")
+                .put("thrift.client.circuit-breaker.open-duration", "30s")
+                .put("thrift.client.circuit-breaker.half-open-probes", "9")
+                .build();
+
+        DriftNettyConnectionFactoryConfig expected = new DriftNettyConnectionFactoryConfig()
+                .setThreadCount(99)
+                .setDecoderThreadCount(7)
+                .setNativeTransportEnabled(true)
+                .setTimeoutTickDuration(new Duration(50, MILLISECONDS))
+                .setConcurrencyLimitEnabled(true)
+                .setConcurrencyLimitInitial(5)
+                .setConcurrencyLimitMax(200)
+                .setCircuitBreakerEnabled(true)
+                .setCircuitBreakerFailureRateThreshold(0.25)
+                .setCircuitBreakerMinimumRequests(50)
+                .setCircuitBreakerHostDownThreshold(7)
+                .setCircuitBreakerWindow(new Duration(1, MINUTES))
+                .setCircuitBreakerOpenDuration(new Duration(30, SECONDS))
+                .setCircuitBreakerHalfOpenProbes(9);
+
+        assertFullMapping(properties, expected);
+    }
+}
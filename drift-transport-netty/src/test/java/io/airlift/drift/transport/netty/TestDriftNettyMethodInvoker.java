@@ -20,28 +20,48 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.drift.annotations.ThriftConstructor;
+import io.airlift.drift.annotations.ThriftField;
+import io.airlift.drift.annotations.ThriftStruct;
 import io.airlift.drift.codec.ThriftCodec;
 import io.airlift.drift.codec.ThriftCodecManager;
 import io.airlift.drift.transport.AddressSelector;
+import io.airlift.drift.transport.DriftApplicationException;
 import io.airlift.drift.transport.InvokeRequest;
+import io.airlift.drift.transport.InvokeResponse;
 import io.airlift.drift.transport.MethodInvoker;
 import io.airlift.drift.transport.MethodMetadata;
 import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.RequestBudget;
+import io.airlift.drift.transport.ResultClassification;
 import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.RetryPolicy;
+import io.airlift.drift.transport.TTransportException;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Transport;
 import io.airlift.drift.transport.netty.scribe.apache.LogEntry;
 import io.airlift.drift.transport.netty.scribe.apache.ResultCode;
 import io.airlift.drift.transport.netty.scribe.apache.ScribeService;
 import io.airlift.drift.transport.netty.scribe.apache.scribe;
 import io.airlift.drift.transport.netty.scribe.apache.scribe.AsyncClient.Log_call;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.netty.buffer.ByteBuf;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.async.AsyncMethodCallback;
 import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.TServer.Args;
 import org.apache.thrift.server.TSimpleServer;
+import org.apache.thrift.server.TThreadPoolServer;
 import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TNonblockingSocket;
 import org.apache.thrift.transport.TServerSocket;
@@ -49,16 +69,46 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransportFactory;
 import org.testng.annotations.Test;
 
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Lists.newArrayList;
 import static io.airlift.drift.codec.metadata.ThriftType.list;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.nCopies;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class TestDriftNettyMethodInvoker
 {
@@ -83,13 +133,386 @@ public class TestDriftNettyMethodInvoker
         assertEquals(scribeService.getMessages(), expectedMessages);
     }
 
+    @Test
+    public void testNativeTransport()
+            throws Exception
+    {
+        try (ScribeServer server = new ScribeServer(false)) {
+            // falls back to NIO when epoll is not available on this platform
+            DriftNettyConnectionFactoryConfig factoryConfig = new DriftNettyConnectionFactoryConfig()
+                    .setNativeTransportEnabled(true);
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setSendBufferSize(new DataSize(64, KILOBYTE))
+                    .setReceiveBufferSize(new DataSize(64, KILOBYTE))
+                    .setTcpNoDelay(false)
+                    .setTcpQuickAck(true);
+            try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(factoryConfig, clientIdentity -> config)) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(server.getAddress()), null);
+                MethodMetadata method = createLogMethod(Optional.empty(), false);
+
+                ListenableFuture<Object> future = methodInvoker.invoke(new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES)));
+                assertEquals(future.get(10, SECONDS), DRIFT_OK);
+                assertEquals(server.getInvocations(), 1);
+            }
+        }
+    }
+
+    @Test
+    public void testInvokeSync()
+            throws Exception
+    {
+        try (ScribeServer server = new ScribeServer(false)) {
+            try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> new DriftNettyClientConfig())) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(server.getAddress()), null);
+                InvokeRequest request = new InvokeRequest(createLogMethod(Optional.empty(), false), Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES));
+
+                assertEquals(methodInvoker.invokeSync(request), DRIFT_OK);
+                assertEquals(server.getInvocations(), 1);
+            }
+        }
+    }
+
+    @Test
+    public void testInvokeSyncApplicationException()
+            throws Exception
+    {
+        testProcessor(applicationExceptionProcessor("application failure"), ImmutableList.of(address -> {
+            try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> new DriftNettyClientConfig())) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(address), null);
+                Exception failure = assertInvokeSyncFailure(methodInvoker, DriftApplicationException.class);
+                assertTrue(failure.getCause() instanceof TestingException, "unexpected cause: " + failure.getCause());
+                assertEquals(failure.getCause().getMessage(), "application failure");
+            }
+            return 0;
+        }));
+    }
+
+    @Test
+    public void testInvokeSyncTransportException()
+            throws Exception
+    {
+        HostAndPort address;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            address = HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+        }
+
+        // nothing is listening on the port, so both paths fail with the same connection failure
+        try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> new DriftNettyClientConfig())) {
+            MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(address), null);
+            Exception failure = assertInvokeSyncFailure(methodInvoker, io.airlift.drift.TException.class);
+            assertTrue(failure.getCause() instanceof ConnectException, "unexpected cause: " + failure.getCause());
+        }
+    }
+
+    @Test
+    public void testDecoderOffload()
+            throws Exception
+    {
+        try (ScribeServer server = new ScribeServer(false)) {
+            // only responses of at least the threshold size are decoded on the decoder threads
+            assertEquals(invokeWithDecoderOffloadThreshold(server.getAddress(), new DataSize(1, MEGABYTE)).getOffloadedResponses().getTotalCount(), 0);
+
+            DriftNettyClientStats stats = invokeWithDecoderOffloadThreshold(server.getAddress(), new DataSize(1, BYTE));
+            assertEquals(stats.getOffloadedResponses().getTotalCount(), 1);
+            assertEquals(stats.getOffloadedDecodeTime().getAllTime().getCount(), 1.0);
+        }
+    }
+
+    @Test
+    public void testDeadlineExceeded()
+            throws Exception
+    {
+        try (ScribeServer server = new ScribeServer(true)) {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setRequestTimeout(new Duration(1, MINUTES));
+
+            long start = System.nanoTime();
+            TTransportException failure = invokeFailed(server.getAddress(), config, createLogMethod(Optional.empty(), false), Optional.of(new Duration(300, MILLISECONDS)));
+            assertElapsed(start, new Duration(300, MILLISECONDS), new Duration(5, SECONDS));
+            assertTrue(failure.getMessage().contains("deadline") || failure.getMessage().startsWith("Timed out waiting"), failure.getMessage());
+            assertEquals(server.getInvocations(), 1);
+        }
+    }
+
+    @Test
+    public void testRequestTimeoutShorterThanDeadline()
+            throws Exception
+    {
+        try (ScribeServer server = new ScribeServer(true)) {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setRequestTimeout(new Duration(300, MILLISECONDS));
+
+            // the configured request timeout is used when it is shorter than the deadline
+            long start = System.nanoTime();
+            TTransportException failure = invokeFailed(server.getAddress(), config, createLogMethod(Optional.empty(), false), Optional.of(new Duration(1, MINUTES)));
+            assertElapsed(start, new Duration(300, MILLISECONDS), new Duration(5, SECONDS));
+            assertTrue(failure.getMessage().startsWith("Timed out waiting 300.00ms"), failure.getMessage());
+        }
+    }
+
+    @Test
+    public void testDeadlineAcrossRetries()
+            throws Exception
+    {
+        try (ScribeServer server = new ScribeServer(true)) {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setRequestTimeout(new Duration(300, MILLISECONDS));
+            RetryPolicy retryPolicy = new RetryPolicy(
+                    100,
+                    new Duration(10, MILLISECONDS),
+                    new Duration(10, MILLISECONDS),
+                    1.0,
+                    0.0,
+                    new Duration(1, MINUTES),
+                    Optional.empty(),
+                    new RequestBudget(1.0, 100, true));
+
+            // every attempt times out, and the retries stop at the deadline instead of the retry limits
+            long start = System.nanoTime();
+            invokeFailed(server.getAddress(), config, createLogMethod(Optional.of(retryPolicy), true), Optional.of(new Duration(1, SECONDS)));
+            assertElapsed(start, new Duration(1, SECONDS), new Duration(5, SECONDS));
+            assertTrue(server.getInvocations() > 1, "request was not retried");
+            assertTrue(server.getInvocations() <= 4, "attempts did not share the deadline: " + server.getInvocations());
+        }
+    }
+
+    @Test
+    public void testClientTimeoutHeader()
+            throws Exception
+    {
+        try (HeaderCapturingServer server = new HeaderCapturingServer()) {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setTransport(Transport.HEADER)
+                    .setRequestTimeout(new Duration(1, MINUTES));
+            try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> config)) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(server.getAddress()), null);
+                MethodMetadata method = createLogMethod(Optional.empty(), false);
+
+                // the server is told the time remaining until the deadline
+                methodInvoker.invoke(new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES), Optional.of(new Duration(5, SECONDS))));
+                String clientTimeout = getHeader(server.takeFrame(), ThriftClientHandler.CLIENT_TIMEOUT_HEADER);
+                assertNotNull(clientTimeout);
+                long clientTimeoutMillis = Long.parseLong(clientTimeout);
+                assertTrue(clientTimeoutMillis > 0 && clientTimeoutMillis <= 5000, "invalid client timeout: " + clientTimeout);
+
+                // requests without a deadline do not send the header
+                methodInvoker.invoke(new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES), Optional.empty()));
+                assertNull(getHeader(server.takeFrame(), ThriftClientHandler.CLIENT_TIMEOUT_HEADER));
+            }
+        }
+    }
+
+    @Test
+    public void testResponseHeaders()
+            throws Exception
+    {
+        Map<String, String> headers = ImmutableMap.of("header", "value");
+        Map<String, String> persistentHeaders = ImmutableMap.of("persistent", "value");
+        MethodMetadata method = createLogMethod(Optional.empty(), false);
+        try (HeaderCapturingServer server = new HeaderCapturingServer(method, headers, persistentHeaders)) {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setTransport(Transport.HEADER);
+            try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> config)) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(server.getAddress()), null);
+                InvokeRequest request = new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES));
+
+                InvokeResponse response = methodInvoker.invokeWithResponse(request).get(10, SECONDS);
+                assertEquals(response.getValue(), DRIFT_OK);
+                assertEquals(response.getHeaders(), headers);
+                assertEquals(response.getPersistentHeaders(), persistentHeaders);
+
+                // plain invocations only return the value
+                assertEquals(methodInvoker.invoke(request).get(10, SECONDS), DRIFT_OK);
+            }
+        }
+    }
+
+    @Test
+    public void testHedgedRequest()
+            throws Exception
+    {
+        try (ScribeServer slowServer = new ScribeServer(true);
+                ScribeServer server = new ScribeServer(false)) {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setHedgingEnabled(true)
+                    .setHedgingDelay(new Duration(100, MILLISECONDS))
+                    .setHedgingBudgetRatio(1.0);
+            try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> config)) {
+                MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(slowServer.getAddress(), server.getAddress()), null);
+                MethodMetadata method = createLogMethod(Optional.empty(), true);
+
+                // slow server does not respond within the hedging delay, so the hedge to the other server wins
+                ListenableFuture<Object> future = methodInvoker.invoke(new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES)));
+                assertEquals(future.get(10, SECONDS), DRIFT_OK);
+                assertEquals(slowServer.getInvocations(), 1);
+                assertEquals(server.getInvocations(), 1);
+
+                DriftNettyClientStats stats = methodInvokerFactory.getStats();
+                assertEquals(stats.getHedges().getTotalCount(), 1);
+
+                // losing request is abandoned on its event loop, so its late response is dropped
+                long start = System.nanoTime();
+                while (stats.getAbandonedRequests().getTotalCount() == 0) {
+                    assertTrue(Duration.nanosSince(start).compareTo(new Duration(10, SECONDS)) < 0, "losing request was not abandoned");
+                    Thread.sleep(10);
+                }
+                assertEquals(stats.getAbandonedRequests().getTotalCount(), 1);
+            }
+        }
+    }
+
+    private static DriftNettyClientStats invokeWithDecoderOffloadThreshold(HostAndPort address, DataSize decoderOffloadThreshold)
+            throws Exception
+    {
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setDecoderOffloadThreshold(decoderOffloadThreshold);
+        try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> config)) {
+            MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(address), null);
+            MethodMetadata method = createLogMethod(Optional.empty(), false);
+
+            ListenableFuture<Object> future = methodInvoker.invoke(new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES)));
+            assertEquals(future.get(10, SECONDS), DRIFT_OK);
+            return methodInvokerFactory.getStats();
+        }
+    }
+
+    private static TTransportException invokeFailed(HostAndPort address, DriftNettyClientConfig config, MethodMetadata method, Optional<Duration> timeout)
+            throws Exception
+    {
+        try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> config)) {
+            MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(context -> ImmutableList.of(address), null);
+            ListenableFuture<Object> future = methodInvoker.invoke(new InvokeRequest(method, Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES), timeout));
+            try {
+                future.get(10, SECONDS);
+                fail("expected exception");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TTransportException, "unexpected failure: " + e.getCause());
+                return (TTransportException) e.getCause();
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private static MethodMetadata createLogMethod(Optional<RetryPolicy> retryPolicy, boolean idempotent)
+    {
+        ParameterMetadata parameter = new ParameterMetadata(
+                (short) 1,
+                "messages",
+                (ThriftCodec<Object>) codecManager.getCodec(list(codecManager.getCodec(io.airlift.drift.transport.netty.scribe.drift.LogEntry.class).getType())));
+
+        return new MethodMetadata(
+                "Log",
+                ImmutableList.of(parameter),
+                (ThriftCodec<Object>) (Object) codecManager.getCodec(io.airlift.drift.transport.netty.scribe.drift.ResultCode.class),
+                ImmutableMap.of((short) 1, (ThriftCodec<Object>) (Object) codecManager.getCodec(TestingException.class)),
+                false,
+                idempotent,
+                new ResultsClassifier()
+                {
+                    @Override
+                    public ResultClassification classifyException(Throwable throwable)
+                    {
+                        // treat timeouts as a failed host, so an idempotent request is retried on the same host
+                        return new ResultClassification(Optional.empty(), throwable instanceof TTransportException);
+                    }
+                },
+                retryPolicy);
+    }
+
+    /**
+     * Invokes the log method both asynchronously and synchronously, and verifies that
+     * {@code invokeSync} throws the exception contained in the future of {@code invoke}.
+     */
+    private static Exception assertInvokeSyncFailure(MethodInvoker methodInvoker, Class<? extends Exception> expectedType)
+    {
+        InvokeRequest request = new InvokeRequest(createLogMethod(Optional.empty(), false), Optional.empty(), ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES));
+
+        Throwable asyncFailure = null;
+        try {
+            methodInvoker.invoke(request).get(10, SECONDS);
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            asyncFailure = e.getCause();
+        }
+        catch (InterruptedException | TimeoutException e) {
+            throw new RuntimeException(e);
+        }
+        assertTrue(expectedType.isInstance(asyncFailure), "unexpected async failure: " + asyncFailure);
+
+        try {
+            methodInvoker.invokeSync(request);
+            fail("expected exception");
+        }
+        catch (Exception e) {
+            assertEquals(e.getClass(), asyncFailure.getClass());
+            assertEquals(e.getMessage(), asyncFailure.getMessage());
+            return e;
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Processor that answers every request with a {@link TestingException} in result field 1.
+     */
+    private static TProcessor applicationExceptionProcessor(String message)
+    {
+        return (in, out) -> {
+            TMessage request = in.readMessageBegin();
+            TProtocolUtil.skip(in, TType.STRUCT);
+            in.readMessageEnd();
+
+            out.writeMessageBegin(new TMessage(request.name, TMessageType.REPLY, request.seqid));
+            out.writeStructBegin(new TStruct(request.name + "_result"));
+            out.writeFieldBegin(new TField("exception", TType.STRUCT, (short) 1));
+            out.writeStructBegin(new TStruct("TestingException"));
+            out.writeFieldBegin(new TField("message", TType.STRING, (short) 1));
+            out.writeString(message);
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            out.writeFieldEnd();
+            out.writeFieldStop();
+            out.writeStructEnd();
+            out.writeMessageEnd();
+            out.getTransport().flush();
+            return true;
+        };
+    }
+
+    private static void assertElapsed(long startNanos, Duration min, Duration max)
+    {
+        Duration elapsed = Duration.nanosSince(startNanos);
+        // the timeout wheel may expire a timeout up to one tick early
+        assertTrue(elapsed.compareTo(new Duration(min.toMillis() - 50, MILLISECONDS)) >= 0, "completed too early: " + elapsed);
+        assertTrue(elapsed.compareTo(max) < 0, "completed too late: " + elapsed);
+    }
+
+    @Nullable
+    private static String getHeader(byte[] frame, String name)
+    {
+        byte[] key = name.getBytes(UTF_8);
+        for (int i = 0; i + key.length < frame.length; i++) {
+            // header strings are written with a one byte length when they are shorter than 128 bytes
+            if (frame[i] == key.length && Arrays.equals(Arrays.copyOfRange(frame, i + 1, i + 1 + key.length), key)) {
+                int valueLength = frame[i + 1 + key.length];
+                int valueStart = i + 2 + key.length;
+                return new String(frame, valueStart, valueLength, UTF_8);
+            }
+        }
+        return null;
+    }
+
     private static List<LogEntry> testProcessor(TProcessor processor)
             throws Exception
     {
         int invocationCount = testProcessor(processor, ImmutableList.of(
                 address -> logThrift(address, MESSAGES),
                 address -> logThriftAsync(address, MESSAGES),
-                address -> logNiftyInvocationHandler1(address, DRIFT_MESSAGES)));
+                address -> logNiftyInvocationHandler1(address, DRIFT_MESSAGES, new DriftNettyClientConfig()),
+                // every response is decoded on the decoder threads
+                address -> logNiftyInvocationHandler1(address, DRIFT_MESSAGES, new DriftNettyClientConfig().setDecoderOffloadThreshold(new DataSize(0, BYTE)))));
 
         return newArrayList(concat(nCopies(invocationCount, MESSAGES)));
     }
@@ -183,11 +606,10 @@ public class TestDriftNettyMethodInvoker
         return 1;
     }
 
-    private static int logNiftyInvocationHandler1(HostAndPort address, List<io.airlift.drift.transport.netty.scribe.drift.LogEntry> entries)
+    private static int logNiftyInvocationHandler1(HostAndPort address, List<io.airlift.drift.transport.netty.scribe.drift.LogEntry> entries, DriftNettyClientConfig config)
     {
         AddressSelector addressSelector = context -> ImmutableList.of(address);
-        DriftNettyClientConfig config = new DriftNettyClientConfig()
-                .setPoolEnabled(true);
+        config.setPoolEnabled(true);
         try (DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(new DriftNettyConnectionFactoryConfig(), clientIdentity -> config)) {
             MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(addressSelector, null);
 
@@ -213,4 +635,196 @@ public class TestDriftNettyMethodInvoker
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Scribe server that optionally does not respond until it is closed.
+     */
+    private static class ScribeServer
+            implements Closeable
+    {
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final AtomicInteger invocations = new AtomicInteger();
+        private final TServerSocket serverTransport;
+        private final TServer server;
+        private final Thread serverThread;
+
+        public ScribeServer(boolean slow)
+                throws Exception
+        {
+            TProcessor processor = new scribe.Processor<>(messages -> {
+                invocations.incrementAndGet();
+                if (slow) {
+                    try {
+                        closed.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return ResultCode.OK;
+            });
+            serverTransport = new TServerSocket(0);
+            server = new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport)
+                    .protocolFactory(new TBinaryProtocol.Factory())
+                    .transportFactory(new TFramedTransport.Factory())
+                    .processor(processor));
+            serverThread = new Thread(server::serve);
+            serverThread.start();
+        }
+
+        public HostAndPort getAddress()
+        {
+            return HostAndPort.fromParts("localhost", serverTransport.getServerSocket().getLocalPort());
+        }
+
+        public int getInvocations()
+        {
+            return invocations.get();
+        }
+
+        @Override
+        public void close()
+        {
+            closed.countDown();
+            server.stop();
+            serverThread.interrupt();
+            serverTransport.close();
+        }
+    }
+
+    /**
+     * Server that captures the request frames of every connection. If a method is
+     * specified, each request is answered with a successful result and the specified
+     * response headers; otherwise only the first frame is read and no response is sent.
+     */
+    private static class HeaderCapturingServer
+            implements Closeable
+    {
+        private final Optional<MethodMetadata> method;
+        private final Map<String, String> responseHeaders;
+        private final Map<String, String> responsePersistentHeaders;
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+        private final List<Socket> connections = new CopyOnWriteArrayList<>();
+        private final Thread serverThread;
+
+        public HeaderCapturingServer()
+                throws IOException
+        {
+            this(Optional.empty(), ImmutableMap.of(), ImmutableMap.of());
+        }
+
+        public HeaderCapturingServer(MethodMetadata method, Map<String, String> responseHeaders, Map<String, String> responsePersistentHeaders)
+                throws IOException
+        {
+            this(Optional.of(method), responseHeaders, responsePersistentHeaders);
+        }
+
+        private HeaderCapturingServer(Optional<MethodMetadata> method, Map<String, String> responseHeaders, Map<String, String> responsePersistentHeaders)
+                throws IOException
+        {
+            this.method = method;
+            this.responseHeaders = responseHeaders;
+            this.responsePersistentHeaders = responsePersistentHeaders;
+            serverSocket = new ServerSocket(0);
+            serverThread = new Thread(this::serve);
+            serverThread.start();
+        }
+
+        private void serve()
+        {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    connections.add(socket);
+                    if (method.isPresent()) {
+                        Thread connectionThread = new Thread(() -> respond(socket));
+                        connectionThread.setDaemon(true);
+                        connectionThread.start();
+                    }
+                    else {
+                        frames.add(readFrame(new DataInputStream(socket.getInputStream())));
+                    }
+                }
+            }
+            catch (IOException ignored) {
+                // server was closed
+            }
+        }
+
+        private void respond(Socket socket)
+        {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                while (true) {
+                    byte[] frame = readFrame(in);
+                    frames.add(frame);
+                    int sequenceId = ByteBuffer.wrap(frame).getInt(4);
+                    ByteBuf response = TestHeaderMessageEncoding.writeResponse(method.get(), sequenceId, DRIFT_OK, responseHeaders, responsePersistentHeaders, false);
+                    try {
+                        out.writeInt(response.readableBytes());
+                        response.readBytes(out, response.readableBytes());
+                        out.flush();
+                    }
+                    finally {
+                        response.release();
+                    }
+                }
+            }
+            catch (Exception ignored) {
+                // connection was closed
+            }
+        }
+
+        private static byte[] readFrame(DataInputStream in)
+                throws IOException
+        {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            return frame;
+        }
+
+        public HostAndPort getAddress()
+        {
+            return HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+        }
+
+        public byte[] takeFrame()
+                throws InterruptedException
+        {
+            byte[] frame = frames.poll(10, SECONDS);
+            assertNotNull(frame, "no request received");
+            return frame;
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            serverSocket.close();
+            for (Socket connection : connections) {
+                connection.close();
+            }
+            serverThread.interrupt();
+        }
+    }
+
+    @ThriftStruct
+    public static class TestingException
+            extends Exception
+    {
+        @ThriftConstructor
+        public TestingException(@ThriftField(1) String message)
+        {
+            super(message);
+        }
+
+        @ThriftField(1)
+        @Override
+        public String getMessage()
+        {
+            return super.getMessage();
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.stats.DistributionStat;
+import io.airlift.units.Duration;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+
+public class TestFlushCoalescingHandler
+{
+    @Test
+    public void testFlushDeferredToEndOfLoopIteration()
+    {
+        DistributionStat flushBatchSize = new DistributionStat();
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushCoalescingHandler(10, new Duration(0, MILLISECONDS), flushBatchSize));
+
+        channel.writeAndFlush("a");
+        channel.writeAndFlush("b");
+        channel.writeAndFlush("c");
+        assertEquals(channel.outboundMessages().size(), 0);
+
+        channel.runPendingTasks();
+        assertEquals(channel.outboundMessages().size(), 3);
+        assertEquals((long) flushBatchSize.getAllTime().getCount(), 1);
+        assertEquals((long) flushBatchSize.getAllTime().getMax(), 3);
+
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testFlushAtMaxBatchSize()
+    {
+        DistributionStat flushBatchSize = new DistributionStat();
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushCoalescingHandler(2, new Duration(1, MILLISECONDS), flushBatchSize));
+
+        channel.writeAndFlush("a");
+        assertEquals(channel.outboundMessages().size(), 0);
+        channel.writeAndFlush("b");
+        assertEquals(channel.outboundMessages().size(), 2);
+
+        channel.writeAndFlush("c");
+        assertEquals(channel.outboundMessages().size(), 2);
+
+        // closing the channel flushes the remaining write
+        channel.close();
+        assertEquals(channel.outboundMessages().size(), 3);
+        assertEquals((long) flushBatchSize.getAllTime().getCount(), 2);
+
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.codec.internal.ProtocolWriter;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocolReader;
+import io.airlift.drift.protocol.TProtocolWriter;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Compression;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
+import io.airlift.units.DataSize;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.google.common.collect.Maps.immutableEntry;
+import static io.airlift.drift.protocol.TMessageType.CALL;
+import static io.airlift.drift.protocol.TMessageType.REPLY;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestHeaderMessageEncoding
+{
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+    private static final ChannelBufferProtocolFactory PROTOCOL_FACTORY = TChannelBufferBinaryProtocol.createFactory(-1, -1);
+    private static final MethodMetadata METHOD = createMethod();
+
+    private static final int HEADER_MAGIC = 0x0FFF;
+    private static final int NORMAL_HEADERS = 1;
+    private static final int PERSISTENT_HEADERS = 2;
+
+    @Test
+    public void testRequestHeaders()
+            throws Exception
+    {
+        HeaderMessageEncoding encoding = new HeaderMessageEncoding(PROTOCOL_FACTORY, Protocol.BINARY);
+        Map<String, String> headers = ImmutableMap.of("ascii", "value", "unicode", "über ☃");
+
+        ByteBuf request = encoding.writeRequest(ALLOCATOR, 42, METHOD, ImmutableList.of("hello"), headers);
+        try {
+            assertEquals(request.readShort(), HEADER_MAGIC);
+            assertEquals(request.readShort(), 1);
+            assertEquals(request.readInt(), 42);
+            int headerSize = request.readShort() << 2;
+            assertEquals(headerSize % 4, 0);
+
+            ByteBuf messageHeader = request.readSlice(headerSize);
+            // binary protocol and no transforms
+            assertEquals(messageHeader.readByte(), 0);
+            assertEquals(messageHeader.readByte(), 0);
+            assertEquals(messageHeader.readByte(), NORMAL_HEADERS);
+            assertEquals(readHeaders(messageHeader), headers);
+            while (messageHeader.isReadable()) {
+                assertEquals(messageHeader.readByte(), 0);
+            }
+
+            TProtocolReader protocol = PROTOCOL_FACTORY.createReader(request);
+            TMessage message = protocol.readMessageBegin();
+            assertEquals(message.getName(), "test");
+            assertEquals(message.getType(), CALL);
+            assertEquals(message.getSequenceId(), 42);
+        }
+        finally {
+            request.release();
+        }
+    }
+
+    @Test
+    public void testRequestWithoutHeaders()
+            throws Exception
+    {
+        HeaderMessageEncoding encoding = new HeaderMessageEncoding(PROTOCOL_FACTORY, Protocol.BINARY);
+
+        ByteBuf request = encoding.writeRequest(ALLOCATOR, 42, METHOD, ImmutableList.of("hello"), ImmutableMap.of());
+        try {
+            request.skipBytes(8);
+            ByteBuf messageHeader = request.readSlice(request.readShort() << 2);
+            assertEquals(messageHeader.readByte(), 0);
+            assertEquals(messageHeader.readByte(), 0);
+            while (messageHeader.isReadable()) {
+                assertEquals(messageHeader.readByte(), 0);
+            }
+        }
+        finally {
+            request.release();
+        }
+    }
+
+    @Test
+    public void testResponseHeaders()
+            throws Exception
+    {
+        assertResponse(ImmutableMap.of(), ImmutableMap.of());
+        assertResponse(ImmutableMap.of("header", "value", "unicode", "über ☃"), ImmutableMap.of());
+        assertResponse(ImmutableMap.of(), ImmutableMap.of("persistent", "value"));
+        assertResponse(ImmutableMap.of("a", "1", "b", "2"), ImmutableMap.of("persistent", "value"));
+    }
+
+    @Test
+    public void testRepeatedResponseHeaders()
+            throws Exception
+    {
+        HeaderMessageEncoding encoding = new HeaderMessageEncoding(PROTOCOL_FACTORY, Protocol.BINARY);
+
+        ByteBuf response = writeResponse(
+                METHOD,
+                13,
+                "result",
+                ImmutableList.of(immutableEntry("a", "1"), immutableEntry("b", "2"), immutableEntry("a", "3")),
+                ImmutableList.of(immutableEntry("persistent", "first"), immutableEntry("persistent", "second")),
+                false);
+        try {
+            // the last value of a repeated key wins
+            ThriftResponse thriftResponse = encoding.readResponse(response, 13, METHOD);
+            assertEquals(thriftResponse.getValue(), "result");
+            assertEquals(thriftResponse.getHeaders(), ImmutableMap.of("a", "3", "b", "2"));
+            assertEquals(thriftResponse.getPersistentHeaders(), ImmutableMap.of("persistent", "second"));
+        }
+        finally {
+            response.release();
+        }
+    }
+
+    @Test
+    public void testCompressedResponseHeaders()
+            throws Exception
+    {
+        HeaderMessageEncoding encoding = new HeaderMessageEncoding(PROTOCOL_FACTORY, Protocol.BINARY);
+        Map<String, String> headers = ImmutableMap.of("header", "value");
+        Map<String, String> persistentHeaders = ImmutableMap.of("persistent", "value");
+
+        ByteBuf response = writeResponse(7, "compressed", headers, persistentHeaders, true);
+        try {
+            ThriftResponse thriftResponse = encoding.readResponse(response, 7, METHOD);
+            assertEquals(thriftResponse.getValue(), "compressed");
+            assertEquals(thriftResponse.getHeaders(), headers);
+            assertEquals(thriftResponse.getPersistentHeaders(), persistentHeaders);
+        }
+        finally {
+            response.release();
+        }
+    }
+
+    @Test
+    public void testCompressionStats()
+            throws Exception
+    {
+        DriftNettyClientStats stats = new DriftNettyClientStats();
+        HeaderMessageEncoding encoding = new HeaderMessageEncoding(
+                PROTOCOL_FACTORY,
+                Protocol.BINARY,
+                Compression.ZLIB,
+                new DataSize(0, BYTE),
+                ImmutableList.of(),
+                new DataSize(16, MEGABYTE),
+                stats);
+
+        ByteBuf request = encoding.writeRequest(ALLOCATOR, 1, METHOD, ImmutableList.of(Strings.repeat("request", 100)), ImmutableMap.of());
+        request.release();
+        assertEquals(stats.getCompressionTime().getAllTime().getCount(), 1.0);
+        assertTrue(stats.getRequestCompressedBytes().getTotalCount() > 0);
+        assertTrue(stats.getRequestUncompressedBytes().getTotalCount() > stats.getRequestCompressedBytes().getTotalCount());
+        assertEquals(stats.getRequestCompressionRatio().getAllTime().getCount(), 1.0);
+
+        // decompressing a response does not change the request stats
+        long requestCompressedBytes = stats.getRequestCompressedBytes().getTotalCount();
+        long requestUncompressedBytes = stats.getRequestUncompressedBytes().getTotalCount();
+        assertEquals(stats.getResponseCompressedBytes().getTotalCount(), 0);
+
+        ByteBuf response = writeResponse(2, Strings.repeat("response", 100), ImmutableMap.of(), ImmutableMap.of(), true);
+        try {
+            assertEquals(encoding.readResponse(response, 2, METHOD).getValue(), Strings.repeat("response", 100));
+        }
+        finally {
+            response.release();
+        }
+        assertEquals(stats.getDecompressionTime().getAllTime().getCount(), 1.0);
+        assertTrue(stats.getResponseCompressedBytes().getTotalCount() > 0);
+        assertTrue(stats.getResponseUncompressedBytes().getTotalCount() > stats.getResponseCompressedBytes().getTotalCount());
+        assertEquals(stats.getResponseCompressionRatio().getAllTime().getCount(), 1.0);
+
+        assertEquals(stats.getCompressionTime().getAllTime().getCount(), 1.0);
+        assertEquals(stats.getRequestCompressedBytes().getTotalCount(), requestCompressedBytes);
+        assertEquals(stats.getRequestUncompressedBytes().getTotalCount(), requestUncompressedBytes);
+        assertEquals(stats.getRequestCompressionRatio().getAllTime().getCount(), 1.0);
+    }
+
+    private static void assertResponse(Map<String, String> headers, Map<String, String> persistentHeaders)
+            throws Exception
+    {
+        HeaderMessageEncoding encoding = new HeaderMessageEncoding(PROTOCOL_FACTORY, Protocol.BINARY);
+
+        ByteBuf response = writeResponse(13, "result", headers, persistentHeaders, false);
+        try {
+            ThriftResponse thriftResponse = encoding.readResponse(response, 13, METHOD);
+            assertEquals(thriftResponse.getValue(), "result");
+            assertEquals(thriftResponse.getHeaders(), headers);
+            assertEquals(thriftResponse.getPersistentHeaders(), persistentHeaders);
+            assertFalse(response.isReadable());
+        }
+        finally {
+            response.release();
+        }
+    }
+
+    private static ByteBuf writeResponse(int sequenceId, String value, Map<String, String> headers, Map<String, String> persistentHeaders, boolean compressed)
+            throws Exception
+    {
+        return writeResponse(METHOD, sequenceId, value, headers, persistentHeaders, compressed);
+    }
+
+    /**
+     * Writes a binary protocol reply frame, without the frame length, like a header transport server.
+     */
+    static ByteBuf writeResponse(MethodMetadata method, int sequenceId, Object value, Map<String, String> headers, Map<String, String> persistentHeaders, boolean compressed)
+            throws Exception
+    {
+        return writeResponse(method, sequenceId, value, ImmutableList.copyOf(headers.entrySet()), ImmutableList.copyOf(persistentHeaders.entrySet()), compressed);
+    }
+
+    private static ByteBuf writeResponse(MethodMetadata method, int sequenceId, Object value, List<Entry<String, String>> headers, List<Entry<String, String>> persistentHeaders, boolean compressed)
+            throws Exception
+    {
+        ByteBuf messageHeader = ALLOCATOR.buffer();
+        ByteBuf message = ALLOCATOR.buffer();
+        try {
+            // binary protocol
+            messageHeader.writeByte(0);
+            if (compressed) {
+                messageHeader.writeByte(1);
+                messageHeader.writeByte(ZlibTransform.ZLIB_TRANSFORM_ID);
+            }
+            else {
+                messageHeader.writeByte(0);
+            }
+            // persistent headers are written first, to verify sections are read in any order
+            writeHeaders(messageHeader, PERSISTENT_HEADERS, persistentHeaders);
+            writeHeaders(messageHeader, NORMAL_HEADERS, headers);
+            messageHeader.writeZero(4 - messageHeader.readableBytes() % 4);
+
+            TProtocolWriter protocol = PROTOCOL_FACTORY.createWriter(message);
+            protocol.writeMessageBegin(new TMessage(method.getName(), REPLY, sequenceId));
+            ProtocolWriter writer = new ProtocolWriter(protocol);
+            writer.writeStructBegin(method.getName() + "_result");
+            writer.writeField("success", (short) 0, method.getResultCodec(), value);
+            writer.writeStructEnd();
+            protocol.writeMessageEnd();
+
+            ByteBuf frame = ALLOCATOR.buffer();
+            frame.writeShort(HEADER_MAGIC);
+            frame.writeShort(1);
+            frame.writeInt(sequenceId);
+            frame.writeShort(messageHeader.readableBytes() >> 2);
+            frame.writeBytes(messageHeader);
+            if (compressed) {
+                new ZlibTransform().compress(message, frame);
+            }
+            else {
+                frame.writeBytes(message);
+            }
+            return frame;
+        }
+        finally {
+            messageHeader.release();
+            message.release();
+        }
+    }
+
+    private static void writeHeaders(ByteBuf out, int headersType, List<Entry<String, String>> headers)
+    {
+        if (headers.isEmpty()) {
+            return;
+        }
+        out.writeByte(headersType);
+        writeVint(out, headers.size());
+        for (Entry<String, String> entry : headers) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static void writeString(ByteBuf out, String value)
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeVint(ByteBuf out, int n)
+    {
+        while (true) {
+            if ((n & ~0x7F) == 0) {
+                out.writeByte(n);
+                return;
+            }
+
+            out.writeByte(n | 0x80);
+            n >>>= 7;
+        }
+    }
+
+    private static Map<String, String> readHeaders(ByteBuf in)
+    {
+        int count = readVint(in);
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            headers.put(readString(in), readString(in));
+        }
+        return headers;
+    }
+
+    private static String readString(ByteBuf in)
+    {
+        int length = readVint(in);
+        return in.readCharSequence(length, UTF_8).toString();
+    }
+
+    private static int readVint(ByteBuf in)
+    {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod()
+    {
+        ThriftCodec<Object> codec = (ThriftCodec<Object>) (Object) new ThriftCodecManager().getCodec(String.class);
+        return new MethodMetadata(
+                "test",
+                ImmutableList.of(new ParameterMetadata((short) 1, "value", codec)),
+                codec,
+                ImmutableMap.of(),
+                false,
+                new ResultsClassifier() {});
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.transport.TTransportException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHeaderTransforms
+{
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+    @DataProvider
+    public static Object[][] transforms()
+    {
+        return new Object[][] {{new ZlibTransform()}, {new SnappyTransform()}};
+    }
+
+    @Test(dataProvider = "transforms")
+    public void testRoundTrip(HeaderTransform transform)
+            throws Exception
+    {
+        for (int size : new int[] {0, 1, 100, 10_000, 1_000_000}) {
+            assertRoundTrip(transform, Unpooled.wrappedBuffer(createData(size)));
+            assertRoundTrip(transform, Unpooled.directBuffer(size).writeBytes(createData(size)));
+        }
+    }
+
+    @Test(dataProvider = "transforms")
+    public void testCompressAfterExistingData(HeaderTransform transform)
+            throws Exception
+    {
+        byte[] data = createData(10_000);
+        ByteBuf compressed = ALLOCATOR.buffer();
+        compressed.writeInt(0xCAFE);
+        transform.compress(Unpooled.wrappedBuffer(data), compressed);
+
+        assertEquals(compressed.readInt(), 0xCAFE);
+        ByteBuf decompressed = transform.decompress(ALLOCATOR, compressed, data.length);
+        assertEquals(getBytes(decompressed), data);
+        compressed.release();
+        decompressed.release();
+    }
+
+    @Test(dataProvider = "transforms", expectedExceptions = TTransportException.class, expectedExceptionsMessageRegExp = "Decompressed response exceeds maximum size.*")
+    public void testMaxSize(HeaderTransform transform)
+            throws Exception
+    {
+        ByteBuf compressed = ALLOCATOR.buffer();
+        try {
+            transform.compress(Unpooled.wrappedBuffer(createData(100_000)), compressed);
+            transform.decompress(ALLOCATOR, compressed, 50_000);
+        }
+        finally {
+            compressed.release();
+        }
+    }
+
+    @Test(dataProvider = "transforms", expectedExceptions = TTransportException.class)
+    public void testInvalidData(HeaderTransform transform)
+            throws Exception
+    {
+        transform.decompress(ALLOCATOR, Unpooled.wrappedBuffer(new byte[] {0x10, 0x22, 0x33, 0x44, 0x55}), 1000);
+    }
+
+    private static void assertRoundTrip(HeaderTransform transform, ByteBuf input)
+            throws Exception
+    {
+        byte[] data = getBytes(input.duplicate());
+
+        ByteBuf compressed = ALLOCATOR.buffer();
+        transform.compress(input, compressed);
+        // input must not be modified
+        assertEquals(input.readableBytes(), data.length);
+        if (data.length >= 10_000) {
+            assertTrue(compressed.readableBytes() < data.length / 2, "data was not compressed");
+        }
+
+        ByteBuf decompressed = transform.decompress(ALLOCATOR, compressed, data.length);
+        assertEquals(getBytes(decompressed), data);
+
+        compressed.release();
+        decompressed.release();
+        input.release();
+    }
+
+    private static byte[] createData(int size)
+    {
+        // repeating data with some randomness
+        byte[] data = new byte[size];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i % 100 == 0 ? random.nextInt() : 'a' + i % 26);
+        }
+        return data;
+    }
+
+    private static byte[] getBytes(ByteBuf buffer)
+    {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.RequestBudget;
+import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestHedgingPolicy
+{
+    private static final MethodMetadata IDEMPOTENT_METHOD = createMethod("idempotent", true);
+    private static final MethodMetadata NON_IDEMPOTENT_METHOD = createMethod("nonIdempotent", false);
+
+    @Test
+    public void testOnlyIdempotentMethodsAreHedged()
+    {
+        HedgingPolicy policy = new HedgingPolicy(new Duration(25, MILLISECONDS), Optional.empty(), new RequestBudget(1, 10, false));
+        assertEquals(policy.getHedgeDelay(IDEMPOTENT_METHOD).get().roundTo(MILLISECONDS), 25);
+        assertFalse(policy.getHedgeDelay(NON_IDEMPOTENT_METHOD).isPresent());
+
+        // only the idempotent request was counted towards the budget
+        assertTrue(policy.tryAcquireHedge());
+        assertFalse(policy.tryAcquireHedge());
+    }
+
+    @Test
+    public void testLatencyPercentileDelay()
+    {
+        HedgingPolicy policy = new HedgingPolicy(new Duration(25, MILLISECONDS), Optional.of(50.0), new RequestBudget(1, 10, false));
+
+        // fixed delay is used until enough samples are recorded
+        for (int i = 1; i < 128; i++) {
+            policy.recordLatency(IDEMPOTENT_METHOD, new Duration(i, MILLISECONDS));
+        }
+        assertEquals(policy.getHedgeDelay(IDEMPOTENT_METHOD).get().roundTo(MILLISECONDS), 25);
+
+        policy.recordLatency(IDEMPOTENT_METHOD, new Duration(128, MILLISECONDS));
+        assertEquals(policy.getHedgeDelay(IDEMPOTENT_METHOD).get().roundTo(MILLISECONDS), 64);
+    }
+
+    @Test
+    public void testMethodsWithSameName()
+    {
+        // methods of different services can have the same name but very different latencies
+        MethodMetadata otherIdempotentMethod = createMethod("idempotent", true);
+        HedgingPolicy policy = new HedgingPolicy(new Duration(25, MILLISECONDS), Optional.of(50.0), new RequestBudget(1, 10, false));
+
+        for (int i = 0; i < 128; i++) {
+            policy.recordLatency(IDEMPOTENT_METHOD, new Duration(100, MILLISECONDS));
+        }
+        assertEquals(policy.getHedgeDelay(IDEMPOTENT_METHOD).get().roundTo(MILLISECONDS), 100);
+        assertEquals(policy.getHedgeDelay(otherIdempotentMethod).get().roundTo(MILLISECONDS), 25);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod(String name, boolean idempotent)
+    {
+        return new MethodMetadata(
+                name,
+                ImmutableList.of(),
+                (ThriftCodec<Object>) (Object) new ThriftCodecManager().getCodec(String.class),
+                ImmutableMap.of(),
+                false,
+                idempotent,
+                new ResultsClassifier() {});
+    }
+}
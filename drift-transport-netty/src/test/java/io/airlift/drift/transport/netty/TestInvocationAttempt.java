@@ -0,0 +1,648 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.drift.transport.RequestBudget;
+import io.airlift.drift.transport.ResultClassification;
+import io.airlift.drift.transport.RetryPolicy;
+import io.airlift.drift.transport.TTransportException;
+import io.airlift.drift.transport.netty.CircuitBreaker.State;
+import io.airlift.testing.TestingTicker;
+import io.airlift.units.Duration;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestInvocationAttempt
+{
+    private static final HostAndPort FIRST = HostAndPort.fromParts("first", 1111);
+    private static final HostAndPort SECOND = HostAndPort.fromParts("second", 2222);
+    private static final HostAndPort THIRD = HostAndPort.fromParts("third", 3333);
+
+    private EventLoopGroup group;
+    private RequestTimeoutManager requestTimeoutManager;
+    private DriftNettyClientStats stats;
+    private CircuitBreaker circuitBreaker;
+    private Optional<Duration> hedgeDelay;
+    private TestingConnectionManager connectionManager;
+    private TestingInvocationFunction invocationFunction;
+    private List<HostAndPort> failedConnections;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        group = new DefaultEventLoopGroup(1);
+        requestTimeoutManager = new RequestTimeoutManager(new Duration(1, MILLISECONDS));
+        stats = new DriftNettyClientStats();
+        hedgeDelay = Optional.empty();
+        circuitBreaker = new CircuitBreaker(false, 0.5, 1, 1, new Duration(10, SECONDS), new Duration(1, SECONDS), 1, Ticker.systemTicker());
+        connectionManager = new TestingConnectionManager();
+        invocationFunction = new TestingInvocationFunction();
+        failedConnections = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        group.shutdownGracefully(0, 0, SECONDS);
+    }
+
+    @Test
+    public void testWithoutRetryPolicyEachAddressIsTriedOnce()
+            throws Exception
+    {
+        connectionManager.setUnreachable(FIRST, SECOND);
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.empty(), true).getFuture();
+
+        assertFailed(future, ConnectException.class);
+        assertEquals(connectionManager.getConnections(), ImmutableList.of(FIRST, SECOND));
+        assertEquals(stats.getRetries().getTotalCount(), 0);
+    }
+
+    @Test
+    public void testConnectFailureRepeatedForIdempotentMethod()
+            throws Exception
+    {
+        connectionManager.setUnreachable(FIRST);
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.of(createRetryPolicy(3, Optional.empty())), true).getFuture();
+
+        // the request never reached the host, so it is repeated on the only address until the attempts are exhausted
+        assertFailed(future, ConnectException.class);
+        assertEquals(connectionManager.getConnections(), ImmutableList.of(FIRST, FIRST, FIRST));
+        assertEquals(stats.getRetries().getTotalCount(), 2);
+        assertEquals(stats.getRetriesExhausted().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testConnectFailureNotRepeatedForNonIdempotentMethod()
+            throws Exception
+    {
+        connectionManager.setUnreachable(FIRST);
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.of(createRetryPolicy(3, Optional.empty())), false).getFuture();
+
+        assertFailed(future, ConnectException.class);
+        assertEquals(connectionManager.getConnections(), ImmutableList.of(FIRST));
+    }
+
+    @Test
+    public void testLocalConnectionFailureNotReported()
+            throws Exception
+    {
+        connectionManager.setUnreachable(FIRST);
+        connectionManager.setConnectFailure(SECOND, new TTransportException("All 1 connections to " + SECOND + " have 1 requests in flight"));
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.of(createRetryPolicy(3, Optional.empty())), true).getFuture();
+
+        // the saturated pool did not contact the host, so it is neither reported nor repeated
+        assertFailed(future, TTransportException.class);
+        assertEquals(connectionManager.getConnections(), ImmutableList.of(FIRST, SECOND));
+        assertEquals(failedConnections, ImmutableList.of(FIRST));
+    }
+
+    @Test
+    public void testHostDownRepeatedForIdempotentMethod()
+            throws Exception
+    {
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.of(createRetryPolicy(3, Optional.empty())), true).getFuture();
+
+        Invocation first = invocationFunction.takeInvocation();
+        first.getFuture().setException(new HostDownException());
+
+        Invocation second = invocationFunction.takeInvocation();
+        assertEquals(second.getAddress(), FIRST);
+        second.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+        assertEquals(stats.getRetries().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testRequestFailureNotRepeatedOnSameHost()
+            throws Exception
+    {
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.of(createRetryPolicy(3, Optional.empty())), true).getFuture();
+
+        // the host received the request and is healthy, so a timeout or transport error is not repeated on it
+        invocationFunction.takeInvocation().getFuture().setException(new TTransportException("failed"));
+
+        assertFailed(future, TTransportException.class);
+        invocationFunction.assertNoInvocation();
+        assertEquals(connectionManager.getConnections(), ImmutableList.of(FIRST));
+    }
+
+    @Test
+    public void testRetryBackoff()
+            throws Exception
+    {
+        RetryPolicy retryPolicy = new RetryPolicy(
+                3,
+                new Duration(200, MILLISECONDS),
+                new Duration(200, MILLISECONDS),
+                1.0,
+                0.0,
+                new Duration(1, MINUTES),
+                Optional.empty(),
+                new RequestBudget(1.0, 100, true));
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.of(retryPolicy), false).getFuture();
+
+        Invocation first = invocationFunction.takeInvocation();
+        long failureTime = System.nanoTime();
+        first.getFuture().setException(new TTransportException("failed"));
+
+        // next address is only tried after the backoff delay
+        Invocation second = invocationFunction.takeInvocation();
+        assertEquals(second.getAddress(), SECOND);
+        assertTrue(Duration.nanosSince(failureTime).toMillis() >= 200, "retry was not delayed");
+        assertEquals(stats.getRetries().getTotalCount(), 1);
+
+        second.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+    }
+
+    @Test
+    public void testRetryRejectedByBudget()
+            throws Exception
+    {
+        RetryPolicy retryPolicy = new RetryPolicy(
+                3,
+                new Duration(1, MILLISECONDS),
+                new Duration(1, MILLISECONDS),
+                1.0,
+                0.0,
+                new Duration(1, MINUTES),
+                Optional.empty(),
+                new RequestBudget(0.0, 1, false));
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.of(retryPolicy), false).getFuture();
+
+        invocationFunction.takeInvocation().getFuture().setException(new TTransportException("failed"));
+
+        assertFailed(future, TTransportException.class);
+        invocationFunction.assertNoInvocation();
+        assertEquals(stats.getRetriesRejected().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testAttemptTimeout()
+            throws Exception
+    {
+        RetryPolicy retryPolicy = createRetryPolicy(3, Optional.of(new Duration(100, MILLISECONDS)));
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.of(retryPolicy), false).getFuture();
+
+        Invocation first = invocationFunction.takeInvocation();
+        assertEquals(getTimeoutCount(), 1);
+
+        // first request never responds, so it is cancelled and the next address is tried
+        Invocation second = invocationFunction.takeInvocation();
+        assertEquals(second.getAddress(), SECOND);
+        assertTrue(first.getFuture().isCancelled());
+        assertEquals(stats.getAttemptTimeouts().getTotalCount(), 1);
+
+        second.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+        assertEquals(getTimeoutCount(), 0);
+    }
+
+    @Test
+    public void testDeadline()
+            throws Exception
+    {
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.empty(), false, OptionalLong.of(System.nanoTime() + MILLISECONDS.toNanos(100))).getFuture();
+        Invocation invocation = invocationFunction.takeInvocation();
+
+        // the deadline timer on the timeout wheel fails the invocation and cancels the request
+        assertFailed(future, TTransportException.class);
+        assertCancelled(invocation.getFuture());
+        assertEquals(getTimeoutCount(), 0);
+    }
+
+    @Test
+    public void testDeadlineCancelledOnCompletion()
+            throws Exception
+    {
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.empty(), false, OptionalLong.of(System.nanoTime() + MINUTES.toNanos(1))).getFuture();
+        Invocation invocation = invocationFunction.takeInvocation();
+        assertEquals(getTimeoutCount(), 1);
+
+        invocation.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+        assertEquals(getTimeoutCount(), 0);
+    }
+
+    @Test
+    public void testNoAttemptTimerWithoutAttemptTimeout()
+            throws Exception
+    {
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.of(createRetryPolicy(3, Optional.empty())), false).getFuture();
+
+        Invocation invocation = invocationFunction.takeInvocation();
+        assertEquals(getTimeoutCount(), 0);
+
+        invocation.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+    }
+
+    @Test
+    public void testCircuitBreakerProbes()
+            throws Exception
+    {
+        TestingTicker ticker = new TestingTicker();
+        circuitBreaker = new CircuitBreaker(true, 0.5, 10, 1, new Duration(10, SECONDS), new Duration(5, SECONDS), 1, ticker);
+
+        // host down result opens the circuit
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.empty(), false).getFuture();
+        invocationFunction.takeInvocation().getFuture().setException(new HostDownException());
+        assertFailed(future, HostDownException.class);
+        assertEquals(circuitBreaker.getState(FIRST), State.OPEN);
+
+        // open circuit fails the request without connecting
+        assertFailed(createAttempt(ImmutableList.of(FIRST), Optional.empty(), false).getFuture(), TTransportException.class);
+        assertEquals(connectionManager.getConnections(), ImmutableList.of(FIRST));
+
+        ticker.increment(5, SECONDS);
+
+        // probe that fails inside the client, such as on an exhausted connection pool, is released
+        connectionManager.setConnectFailure(FIRST, new TTransportException("Connection pool exhausted"));
+        assertFailed(createAttempt(ImmutableList.of(FIRST), Optional.empty(), false).getFuture(), TTransportException.class);
+        assertEquals(circuitBreaker.getState(FIRST), State.HALF_OPEN);
+        connectionManager.clearConnectFailures();
+
+        // probe that is canceled while connecting is released
+        connectionManager.setHoldConnections(true);
+        future = createAttempt(ImmutableList.of(FIRST), Optional.empty(), false).getFuture();
+        future.cancel(true);
+        connectionManager.releaseHeldConnections();
+        connectionManager.setHoldConnections(false);
+
+        // probe that is canceled while in flight is released
+        future = createAttempt(ImmutableList.of(FIRST), Optional.empty(), false, OptionalLong.of(System.nanoTime() + MINUTES.toNanos(1))).getFuture();
+        Invocation canceledProbe = invocationFunction.takeInvocation();
+        future.cancel(true);
+        assertTrue(canceledProbe.getFuture().isCancelled());
+        assertEquals(circuitBreaker.getState(FIRST), State.HALF_OPEN);
+
+        // next probe is sent without waiting for the open duration, and closes the circuit
+        future = createAttempt(ImmutableList.of(FIRST), Optional.empty(), false).getFuture();
+        invocationFunction.takeInvocation().getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+        assertEquals(circuitBreaker.getState(FIRST), State.CLOSED);
+    }
+
+    @Test
+    public void testHedge()
+            throws Exception
+    {
+        hedgeDelay = Optional.of(new Duration(50, MILLISECONDS));
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.empty(), true).getFuture();
+
+        // original request does not respond within the hedge delay, so a hedge is sent to the next address
+        Invocation original = invocationFunction.takeInvocation();
+        assertEquals(original.getAddress(), FIRST);
+        Invocation hedge = invocationFunction.takeInvocation();
+        assertEquals(hedge.getAddress(), SECOND);
+        assertEquals(stats.getHedges().getTotalCount(), 1);
+
+        // first result wins, and the losing request is cancelled
+        hedge.getFuture().set("hedge");
+        assertEquals(future.get(10, SECONDS), "hedge");
+        assertCancelled(original.getFuture());
+        invocationFunction.assertNoInvocation();
+    }
+
+    @Test
+    public void testNoHedgeToInFlightAddress()
+            throws Exception
+    {
+        hedgeDelay = Optional.of(new Duration(10, MILLISECONDS));
+
+        // single address client does not hedge to the same host
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST), Optional.of(createRetryPolicy(3, Optional.empty())), true).getFuture();
+        Invocation original = invocationFunction.takeInvocation();
+        invocationFunction.assertNoInvocation();
+        assertEquals(stats.getHedges().getTotalCount(), 0);
+        original.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+
+        // retries of a failed hedge repeat addresses, but skip the host with the original request in flight
+        future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.of(createRetryPolicy(3, Optional.empty())), true).getFuture();
+        original = invocationFunction.takeInvocation();
+        assertEquals(original.getAddress(), FIRST);
+        Invocation hedge = invocationFunction.takeInvocation();
+        assertEquals(hedge.getAddress(), SECOND);
+        hedge.getFuture().setException(new HostDownException());
+
+        Invocation retry = invocationFunction.takeInvocation();
+        assertEquals(retry.getAddress(), SECOND);
+        invocationFunction.assertNoInvocation();
+
+        original.getFuture().set("result");
+        assertEquals(future.get(10, SECONDS), "result");
+        assertCancelled(retry.getFuture());
+    }
+
+    @Test
+    public void testNonRetryableFailureWaitsForHedge()
+            throws Exception
+    {
+        hedgeDelay = Optional.of(new Duration(10, MILLISECONDS));
+
+        // hedge still succeeds after the original fails
+        ListenableFuture<Object> future = createAttempt(ImmutableList.of(FIRST, SECOND), Optional.empty(), true).getFuture();
+        Invocation original = invocationFunction.takeInvocation();
+        Invocation hedge = invocationFunction.takeInvocation();
+        original.getFuture().setException(new NonRetryableException());
+        assertFalse(future.isDone());
+        hedge.getFuture().set("hedge");
+        assertEquals(future.get(10, SECONDS), "hedge");
+
+        // non-retryable failure is reported when the hedge also fails
+        future = createAttempt(ImmutableList.of(FIRST, SECOND, THIRD), Optional.empty(), true).getFuture();
+        original = invocationFunction.takeInvocation();
+        hedge = invocationFunction.takeInvocation();
+        original.getFuture().setException(new NonRetryableException());
+        assertFalse(future.isDone());
+        hedge.getFuture().setException(new HostDownException());
+        assertFailed(future, NonRetryableException.class);
+        // the hedge chain does not continue after the non-retryable failure
+        invocationFunction.assertNoInvocation();
+    }
+
+    private InvocationAttempt createAttempt(List<HostAndPort> addresses, Optional<RetryPolicy> retryPolicy, boolean idempotent)
+    {
+        return createAttempt(addresses, retryPolicy, idempotent, OptionalLong.empty());
+    }
+
+    private InvocationAttempt createAttempt(List<HostAndPort> addresses, Optional<RetryPolicy> retryPolicy, boolean idempotent, OptionalLong deadlineNanos)
+    {
+        return new InvocationAttempt(
+                addresses,
+                connectionManager,
+                new ConcurrencyLimiter(false, 1, 1),
+                circuitBreaker,
+                invocationFunction,
+                failedConnections::add,
+                (address, latency) -> { },
+                address -> { },
+                address -> { },
+                retryPolicy,
+                idempotent,
+                deadlineNanos,
+                hedgeDelay,
+                () -> true,
+                group,
+                requestTimeoutManager,
+                stats);
+    }
+
+    private static RetryPolicy createRetryPolicy(int maxAttempts, Optional<Duration> attemptTimeout)
+    {
+        return new RetryPolicy(
+                maxAttempts,
+                new Duration(1, MILLISECONDS),
+                new Duration(1, MILLISECONDS),
+                1.0,
+                0.0,
+                new Duration(1, MINUTES),
+                attemptTimeout,
+                new RequestBudget(1.0, 100, true));
+    }
+
+    private int getTimeoutCount()
+            throws Exception
+    {
+        // wheel is only accessed from its event loop, which also runs any pending timer updates first
+        return group.next().submit(() -> requestTimeoutManager.getTimeoutWheel(group.next()).getTimeoutCount()).get();
+    }
+
+    private static void assertFailed(ListenableFuture<Object> future, Class<? extends Throwable> expectedCause)
+            throws Exception
+    {
+        try {
+            future.get(10, SECONDS);
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // non-TException failures are wrapped in a TException
+            if (!expectedCause.isInstance(cause) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertTrue(expectedCause.isInstance(cause), "unexpected failure: " + e.getCause());
+        }
+    }
+
+    private static void assertCancelled(java.util.concurrent.Future<?> future)
+            throws InterruptedException
+    {
+        // losing requests are cancelled by a listener, which may run after the result is visible
+        long start = System.nanoTime();
+        while (!future.isCancelled()) {
+            assertTrue(Duration.nanosSince(start).compareTo(new Duration(10, SECONDS)) < 0, "request was not cancelled");
+            MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static class HostDownException
+            extends TTransportException
+    {
+        public HostDownException()
+        {
+            super("host down");
+        }
+    }
+
+    private static class NonRetryableException
+            extends TTransportException
+    {
+        public NonRetryableException()
+        {
+            super("non-retryable");
+        }
+    }
+
+    private static class Invocation
+    {
+        private final HostAndPort address;
+        private final SettableFuture<Object> future = SettableFuture.create();
+
+        public Invocation(HostAndPort address)
+        {
+            this.address = address;
+        }
+
+        public HostAndPort getAddress()
+        {
+            return address;
+        }
+
+        public SettableFuture<Object> getFuture()
+        {
+            return future;
+        }
+    }
+
+    private class TestingInvocationFunction
+            implements InvocationFunction<Channel>
+    {
+        private final BlockingQueue<Invocation> invocations = new LinkedBlockingQueue<>();
+
+        @Override
+        public ListenableFuture<Object> invokeOn(Channel channel)
+        {
+            Invocation invocation = new Invocation(connectionManager.getAddress(channel));
+            invocations.add(invocation);
+            return invocation.getFuture();
+        }
+
+        @Override
+        public ResultClassification classifyException(Throwable throwable)
+        {
+            if (throwable instanceof NonRetryableException) {
+                return new ResultClassification(Optional.of(false), false);
+            }
+            return new ResultClassification(Optional.empty(), throwable instanceof HostDownException);
+        }
+
+        public Invocation takeInvocation()
+                throws InterruptedException
+        {
+            Invocation invocation = invocations.poll(10, SECONDS);
+            assertNotNull(invocation, "no invocation");
+            return invocation;
+        }
+
+        public void assertNoInvocation()
+                throws InterruptedException
+        {
+            assertNull(invocations.poll(100, MILLISECONDS));
+        }
+    }
+
+    private class TestingConnectionManager
+            implements ConnectionManager
+    {
+        private final Map<HostAndPort, Throwable> connectFailures = new ConcurrentHashMap<>();
+        private final List<HostAndPort> connections = new CopyOnWriteArrayList<>();
+        private final Map<Channel, HostAndPort> addresses = new ConcurrentHashMap<>();
+        private final Queue<Runnable> heldConnections = new ConcurrentLinkedQueue<>();
+        private volatile boolean holdConnections;
+
+        public void setUnreachable(HostAndPort... addresses)
+        {
+            for (HostAndPort address : addresses) {
+                setConnectFailure(address, new ConnectException("Connection refused: " + address));
+            }
+        }
+
+        public void setConnectFailure(HostAndPort address, Throwable failure)
+        {
+            connectFailures.put(address, failure);
+        }
+
+        public void clearConnectFailures()
+        {
+            connectFailures.clear();
+        }
+
+        /**
+         * Connections are not completed until they are released.
+         */
+        public void setHoldConnections(boolean holdConnections)
+        {
+            this.holdConnections = holdConnections;
+        }
+
+        public void releaseHeldConnections()
+                throws Exception
+        {
+            Runnable connection;
+            while ((connection = heldConnections.poll()) != null) {
+                connection.run();
+            }
+            // wait for the connection listeners to run on the event loop
+            group.submit(() -> { }).get();
+        }
+
+        public List<HostAndPort> getConnections()
+        {
+            return ImmutableList.copyOf(connections);
+        }
+
+        public HostAndPort getAddress(Channel channel)
+        {
+            return addresses.get(channel);
+        }
+
+        @Override
+        public Future<Channel> getConnection(HostAndPort address)
+        {
+            connections.add(address);
+            Throwable connectFailure = connectFailures.get(address);
+            if (connectFailure != null) {
+                return group.next().newFailedFuture(connectFailure);
+            }
+
+            // channel is registered with the event loop, so timers can be scheduled on it
+            Channel channel = new LocalChannel();
+            addresses.put(channel, address);
+            Promise<Channel> promise = group.next().newPromise();
+            Runnable connect = () -> group.register(channel).addListener(ignored -> promise.setSuccess(channel));
+            if (holdConnections) {
+                heldConnections.add(connect);
+            }
+            else {
+                connect.run();
+            }
+            return promise;
+        }
+
+        @Override
+        public void returnConnection(Channel connection)
+        {
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.protocol.TBinaryProtocol;
+import io.airlift.drift.protocol.TCompactProtocol;
+import io.airlift.drift.protocol.TProtocolFactory;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
+import io.airlift.drift.transport.netty.scribe.drift.LogEntry;
+import io.airlift.drift.transport.netty.scribe.drift.ResultCode;
+import io.airlift.units.DataSize;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.airlift.drift.codec.metadata.ThriftType.list;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Verifies that requests written into a single buffer have exactly the same
+ * bytes on the wire as the previous encoding in {@link CompositeRequestEncoding}.
+ */
+public class TestRequestEncoding
+{
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+    private static final ThriftCodecManager CODEC_MANAGER = new ThriftCodecManager();
+    private static final MethodMetadata METHOD = createMethod();
+    private static final DataSize MAX_FRAME_SIZE = new DataSize(16, MEGABYTE);
+
+    // the large request does not fit in the estimated size, so the buffer must grow
+    private static final List<List<Object>> PARAMETERS = ImmutableList.of(
+            ImmutableList.of(createEntries(0)),
+            ImmutableList.of(createEntries(3)),
+            ImmutableList.of(createEntries(1000)));
+
+    @Test
+    public void testFramed()
+            throws Exception
+    {
+        MessageFraming framing = new LengthPrefixedMessageFraming(MAX_FRAME_SIZE);
+        assertSimpleEncoding(framing, TChannelBufferBinaryProtocol.createFactory(-1, -1), new TBinaryProtocol.Factory());
+        assertSimpleEncoding(framing, TChannelBufferCompactProtocol.createFactory(-1, -1), new TCompactProtocol.Factory());
+    }
+
+    @Test
+    public void testUnframed()
+            throws Exception
+    {
+        assertSimpleEncoding(new NoMessageFraming(Protocol.BINARY, MAX_FRAME_SIZE), TChannelBufferBinaryProtocol.createFactory(-1, -1), new TBinaryProtocol.Factory());
+        assertSimpleEncoding(new NoMessageFraming(Protocol.COMPACT, MAX_FRAME_SIZE), TChannelBufferCompactProtocol.createFactory(-1, -1), new TCompactProtocol.Factory());
+    }
+
+    @Test
+    public void testHeader()
+            throws Exception
+    {
+        List<Map<String, String>> headers = ImmutableList.of(
+                ImmutableMap.of(),
+                ImmutableMap.of("a", "b"),
+                ImmutableMap.of("header", "value", "other", "value"),
+                // non-ASCII names and values are not written with the ASCII fast path
+                ImmutableMap.of("header", "value é中", "é", "value"));
+        for (Map<String, String> requestHeaders : headers) {
+            assertHeaderEncoding(Protocol.BINARY, TChannelBufferBinaryProtocol.createFactory(-1, -1), new TBinaryProtocol.Factory(), 0, requestHeaders);
+            // header transport uses the FB fork of the compact protocol
+            assertHeaderEncoding(Protocol.COMPACT, TChannelBufferCompactProtocol.createFacebookFactory(-1), new TFacebookCompactProtocol.Factory(), 2, requestHeaders);
+        }
+    }
+
+    private static void assertSimpleEncoding(MessageFraming framing, ChannelBufferProtocolFactory protocolFactory, TProtocolFactory previousProtocolFactory)
+            throws Exception
+    {
+        MessageEncoding encoding = new SimpleMessageEncoding(protocolFactory);
+        // requests after the first are written into a buffer sized from the previous requests
+        for (int sequenceId = 1; sequenceId <= 3; sequenceId++) {
+            for (List<Object> parameters : PARAMETERS) {
+                ByteBuf request = encoding.writeRequest(ALLOCATOR, sequenceId, METHOD, parameters, ImmutableMap.of());
+                ByteBuf expected = CompositeRequestEncoding.encodeMessage(previousProtocolFactory, ALLOCATOR, sequenceId, METHOD, parameters);
+                assertEquals(writeFrame(framing, request), writeFrame(framing, expected));
+            }
+        }
+    }
+
+    private static void assertHeaderEncoding(Protocol protocol, ChannelBufferProtocolFactory protocolFactory, TProtocolFactory previousProtocolFactory, int protocolId, Map<String, String> headers)
+            throws Exception
+    {
+        MessageFraming framing = new LengthPrefixedMessageFraming(MAX_FRAME_SIZE);
+        MessageEncoding encoding = new HeaderMessageEncoding(protocolFactory, protocol);
+        for (int sequenceId = 1; sequenceId <= 3; sequenceId++) {
+            for (List<Object> parameters : PARAMETERS) {
+                ByteBuf request = encoding.writeRequest(ALLOCATOR, sequenceId, METHOD, parameters, headers);
+                ByteBuf message = CompositeRequestEncoding.encodeMessage(previousProtocolFactory, ALLOCATOR, sequenceId, METHOD, parameters);
+                ByteBuf expected = CompositeRequestEncoding.encodeHeaderRequest(protocolId, sequenceId, headers, message);
+                assertEquals(writeFrame(framing, request), writeFrame(framing, expected));
+            }
+        }
+    }
+
+    /**
+     * Writes the request through the frame handlers, and returns the bytes sent on the wire.
+     */
+    private static String writeFrame(MessageFraming framing, ByteBuf request)
+    {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        framing.addFrameHandlers(channel.pipeline());
+        assertTrue(channel.writeOutbound(request));
+
+        StringBuilder frame = new StringBuilder();
+        while (true) {
+            ByteBuf buffer = channel.readOutbound();
+            if (buffer == null) {
+                break;
+            }
+            frame.append(ByteBufUtil.hexDump(buffer));
+            buffer.release();
+        }
+        assertFalse(channel.finish());
+        return frame.toString();
+    }
+
+    private static List<LogEntry> createEntries(int count)
+    {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new LogEntry("category-" + i, "message é中 " + i))
+                .collect(toImmutableList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod()
+    {
+        ParameterMetadata parameter = new ParameterMetadata(
+                (short) 1,
+                "messages",
+                (ThriftCodec<Object>) CODEC_MANAGER.getCodec(list(CODEC_MANAGER.getCodec(LogEntry.class).getType())));
+
+        return new MethodMetadata(
+                "Log",
+                ImmutableList.of(parameter),
+                (ThriftCodec<Object>) (Object) CODEC_MANAGER.getCodec(ResultCode.class),
+                ImmutableMap.of(),
+                false,
+                new ResultsClassifier() {});
+    }
+}
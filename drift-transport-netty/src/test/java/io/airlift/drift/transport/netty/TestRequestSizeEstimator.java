@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ResultsClassifier;
+import org.testng.annotations.Test;
+
+import static io.airlift.drift.transport.netty.RequestSizeEstimator.DEFAULT_INITIAL_SIZE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestRequestSizeEstimator
+{
+    private static final MethodMetadata SMALL_METHOD = createMethod("small");
+    private static final MethodMetadata LARGE_METHOD = createMethod("large");
+
+    @Test
+    public void testEstimateSize()
+    {
+        RequestSizeEstimator estimator = new RequestSizeEstimator();
+        assertEquals(estimator.estimateSize(SMALL_METHOD), DEFAULT_INITIAL_SIZE);
+
+        // first sample sets the average
+        estimator.recordSize(SMALL_METHOD, 100);
+        assertEquals(estimator.estimateSize(SMALL_METHOD), 125);
+        estimator.recordSize(LARGE_METHOD, 100_000);
+        assertEquals(estimator.estimateSize(LARGE_METHOD), 125_000);
+
+        // methods are tracked independently
+        assertEquals(estimator.estimateSize(SMALL_METHOD), 125);
+
+        // a single outlier only moves the average part of the way
+        estimator.recordSize(SMALL_METHOD, 900);
+        assertEquals(estimator.estimateSize(SMALL_METHOD), 250);
+
+        // converges to a new steady state
+        for (int i = 0; i < 100; i++) {
+            estimator.recordSize(LARGE_METHOD, 8_000);
+        }
+        int estimate = estimator.estimateSize(LARGE_METHOD);
+        assertTrue(estimate >= 8_000 && estimate <= 10_100, "estimate is " + estimate);
+    }
+
+    @Test
+    public void testMethodsWithSameName()
+    {
+        // methods of different services can have the same name but very different request sizes
+        MethodMetadata otherSmallMethod = createMethod("small");
+
+        RequestSizeEstimator estimator = new RequestSizeEstimator();
+        estimator.recordSize(SMALL_METHOD, 100);
+        assertEquals(estimator.estimateSize(otherSmallMethod), DEFAULT_INITIAL_SIZE);
+
+        estimator.recordSize(otherSmallMethod, 100_000);
+        assertEquals(estimator.estimateSize(SMALL_METHOD), 125);
+        assertEquals(estimator.estimateSize(otherSmallMethod), 125_000);
+    }
+
+    @Test
+    public void testMinimumSize()
+    {
+        RequestSizeEstimator estimator = new RequestSizeEstimator();
+        estimator.recordSize(SMALL_METHOD, 0);
+        assertEquals(estimator.estimateSize(SMALL_METHOD), 64);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod(String name)
+    {
+        return new MethodMetadata(
+                name,
+                ImmutableList.of(),
+                (ThriftCodec<Object>) (Object) new ThriftCodecManager().getCodec(String.class),
+                ImmutableMap.of(),
+                false,
+                new ResultsClassifier() {});
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.drift.TApplicationException;
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.codec.internal.ProtocolWriter;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocolWriter;
+import io.airlift.drift.transport.MethodMetadata;
+import io.airlift.drift.transport.ParameterMetadata;
+import io.airlift.drift.transport.ResultsClassifier;
+import io.airlift.drift.transport.netty.ThriftClientHandler.ThriftRequest;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static io.airlift.drift.protocol.TMessageType.REPLY;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestThriftClientHandler
+{
+    private static final ChannelBufferProtocolFactory PROTOCOL_FACTORY = TChannelBufferBinaryProtocol.createFactory(-1, -1);
+    private static final MethodMetadata METHOD = createMethod();
+
+    @Test
+    public void testSmallResponseDecodedOnEventLoop()
+            throws Exception
+    {
+        RecordingExecutor decoderExecutor = new RecordingExecutor();
+        DriftNettyClientStats stats = new DriftNettyClientStats();
+        EmbeddedChannel channel = createChannel(decoderExecutor, Optional.of(new DataSize(1, MEGABYTE)), stats);
+
+        ThriftRequest request = sendRequest(channel);
+        ByteBuf response = createResponse(request, channel, "small");
+        channel.writeInbound(response);
+
+        assertTrue(decoderExecutor.getTasks().isEmpty());
+        assertEquals(request.get(), "small");
+        assertEquals(response.refCnt(), 0);
+        assertEquals(stats.getOffloadedResponses().getTotalCount(), 0);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testOffloadedResponse()
+            throws Exception
+    {
+        RecordingExecutor decoderExecutor = new RecordingExecutor();
+        DriftNettyClientStats stats = new DriftNettyClientStats();
+        EmbeddedChannel channel = createChannel(decoderExecutor, Optional.of(new DataSize(1, BYTE)), stats);
+
+        ThriftRequest request = sendRequest(channel);
+        ByteBuf response = createResponse(request, channel, "offloaded");
+        channel.writeInbound(response);
+
+        // response is handed to the decoder, without being decoded or released on the event loop
+        assertEquals(decoderExecutor.getTasks().size(), 1);
+        assertEquals(response.refCnt(), 1);
+        assertFalse(request.isDone());
+        assertEquals(stats.getOffloadedResponses().getTotalCount(), 1);
+
+        // frame is released by the decoder, but the request is completed on the event loop
+        decoderExecutor.runTasks();
+        assertEquals(response.refCnt(), 0);
+        assertFalse(request.isDone());
+        assertEquals(stats.getOffloadedDecodeTime().getAllTime().getCount(), 1.0);
+
+        channel.runPendingTasks();
+        assertEquals(request.get(), "offloaded");
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testOffloadedResponseFailure()
+            throws Exception
+    {
+        RecordingExecutor decoderExecutor = new RecordingExecutor();
+        EmbeddedChannel channel = createChannel(decoderExecutor, Optional.of(new DataSize(1, BYTE)), new DriftNettyClientStats());
+
+        ThriftRequest request = sendRequest(channel);
+        ByteBuf response = createResponse(request, channel, "wrong method", "other");
+        channel.writeInbound(response);
+
+        decoderExecutor.runTasks();
+        assertEquals(response.refCnt(), 0);
+        assertFalse(request.isDone());
+
+        channel.runPendingTasks();
+        assertFailed(request, TApplicationException.class);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testRejectedOffloadDecodedOnEventLoop()
+            throws Exception
+    {
+        Executor rejectingExecutor = task -> {
+            throw new RejectedExecutionException("decoder is shut down");
+        };
+        DriftNettyClientStats stats = new DriftNettyClientStats();
+        EmbeddedChannel channel = createChannel(rejectingExecutor, Optional.of(new DataSize(1, BYTE)), stats);
+
+        ThriftRequest request = sendRequest(channel);
+        ByteBuf response = createResponse(request, channel, "rejected");
+        channel.writeInbound(response);
+
+        assertEquals(request.get(), "rejected");
+        assertEquals(response.refCnt(), 0);
+        assertEquals(stats.getOffloadedResponses().getTotalCount(), 0);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testCancelledRequestResponseReleased()
+            throws Exception
+    {
+        RecordingExecutor decoderExecutor = new RecordingExecutor();
+        DriftNettyClientStats stats = new DriftNettyClientStats();
+        EmbeddedChannel channel = createChannel(decoderExecutor, Optional.of(new DataSize(1, BYTE)), stats);
+
+        ThriftRequest request = sendRequest(channel);
+        ByteBuf response = createResponse(request, channel, "late");
+        request.cancel(false);
+        channel.runPendingTasks();
+        assertEquals(stats.getAbandonedRequests().getTotalCount(), 1);
+
+        // late response to an abandoned request is dropped without decoding
+        channel.writeInbound(response);
+        assertTrue(decoderExecutor.getTasks().isEmpty());
+        assertEquals(response.refCnt(), 0);
+        assertTrue(channel.isActive());
+        channel.finishAndReleaseAll();
+    }
+
+    private static EmbeddedChannel createChannel(Executor decoderExecutor, Optional<DataSize> decoderOffloadThreshold, DriftNettyClientStats stats)
+    {
+        return new EmbeddedChannel(new ThriftClientHandler(
+                new Duration(1, MINUTES),
+                new SimpleMessageEncoding(PROTOCOL_FACTORY),
+                new RequestTimeoutManager(new Duration(10, MILLISECONDS)),
+                decoderExecutor,
+                decoderOffloadThreshold,
+                stats));
+    }
+
+    private static ThriftRequest sendRequest(EmbeddedChannel channel)
+    {
+        ThriftRequest request = new ThriftRequest(METHOD, ImmutableList.of("request"), ImmutableMap.of());
+        channel.writeOutbound(request);
+        return request;
+    }
+
+    private static ByteBuf createResponse(ThriftRequest request, EmbeddedChannel channel, String value)
+            throws Exception
+    {
+        return createResponse(request, channel, value, METHOD.getName());
+    }
+
+    private static ByteBuf createResponse(ThriftRequest request, EmbeddedChannel channel, String value, String methodName)
+            throws Exception
+    {
+        ByteBuf requestBuffer = channel.readOutbound();
+        int sequenceId;
+        try {
+            sequenceId = PROTOCOL_FACTORY.createReader(requestBuffer).readMessageBegin().getSequenceId();
+        }
+        finally {
+            requestBuffer.release();
+        }
+
+        ByteBuf response = Unpooled.buffer();
+        TProtocolWriter protocol = PROTOCOL_FACTORY.createWriter(response);
+        protocol.writeMessageBegin(new TMessage(methodName, REPLY, sequenceId));
+        ProtocolWriter writer = new ProtocolWriter(protocol);
+        writer.writeStructBegin(methodName + "_result");
+        writer.writeField("success", (short) 0, request.getMethod().getResultCodec(), value);
+        writer.writeStructEnd();
+        protocol.writeMessageEnd();
+        return response;
+    }
+
+    private static void assertFailed(ThriftRequest request, Class<? extends Throwable> expectedException)
+            throws InterruptedException
+    {
+        try {
+            request.get();
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            assertTrue(expectedException.isInstance(e.getCause()), "unexpected failure: " + e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MethodMetadata createMethod()
+    {
+        ThriftCodec<Object> codec = (ThriftCodec<Object>) (Object) new ThriftCodecManager().getCodec(String.class);
+        return new MethodMetadata(
+                "test",
+                ImmutableList.of(new ParameterMetadata((short) 1, "value", codec)),
+                codec,
+                ImmutableMap.of(),
+                false,
+                new ResultsClassifier() {});
+    }
+
+    private static class RecordingExecutor
+            implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task)
+        {
+            tasks.add(task);
+        }
+
+        public List<Runnable> getTasks()
+        {
+            return tasks;
+        }
+
+        public void runTasks()
+        {
+            List<Runnable> tasks = ImmutableList.copyOf(this.tasks);
+            this.tasks.clear();
+            tasks.forEach(Runnable::run);
+        }
+    }
+}
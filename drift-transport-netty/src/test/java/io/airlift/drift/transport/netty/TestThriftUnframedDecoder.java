@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.drift.codec.ThriftCodecManager;
+import io.airlift.drift.protocol.TMessage;
+import io.airlift.drift.protocol.TProtocolWriter;
+import io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol;
+import io.airlift.drift.transport.netty.ProtocolTestUtils.Payload;
+import io.airlift.units.DataSize;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import org.testng.annotations.Test;
+
+import static io.airlift.drift.protocol.TMessageType.REPLY;
+import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol.BINARY;
+import static io.airlift.drift.transport.netty.DriftNettyClientConfig.Protocol.COMPACT;
+import static io.airlift.drift.transport.netty.ProtocolTestUtils.createPayload;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestThriftUnframedDecoder
+{
+    private static final ThriftCodec<Payload> CODEC = new ThriftCodecManager().getCodec(Payload.class);
+
+    @Test
+    public void testBinary()
+            throws Exception
+    {
+        assertDecoder(BINARY, TChannelBufferBinaryProtocol.createFactory(-1, -1));
+    }
+
+    @Test
+    public void testCompact()
+            throws Exception
+    {
+        assertDecoder(COMPACT, TChannelBufferCompactProtocol.createFactory(-1, -1));
+    }
+
+    @Test
+    public void testMaxFrameSizeEnforcedBeforeMessageIsBuffered()
+            throws Exception
+    {
+        ByteBuf message = createMessage(TChannelBufferBinaryProtocol.createFactory(-1, -1), createPayload(1000));
+        EmbeddedChannel channel = new EmbeddedChannel(new ThriftUnframedDecoder(BINARY, new DataSize(1024, BYTE)));
+        try {
+            // the limit is exceeded long before the entire message arrives
+            for (int offset = 0; offset < 2048; offset += 64) {
+                channel.writeInbound(message.retainedSlice(offset, 64));
+            }
+            fail("expected TooLongFrameException");
+        }
+        catch (TooLongFrameException e) {
+            assertTrue(e.getMessage().startsWith("Response message exceeds max size 1024"), e.getMessage());
+        }
+        finally {
+            message.release();
+            try {
+                channel.finishAndReleaseAll();
+            }
+            catch (TooLongFrameException ignored) {
+                // the oversized message is still buffered, so it is reported again when the channel closes
+            }
+        }
+    }
+
+    private static void assertDecoder(Protocol protocol, ChannelBufferProtocolFactory protocolFactory)
+            throws Exception
+    {
+        ByteBuf first = createMessage(protocolFactory, createPayload(10));
+        ByteBuf second = createMessage(protocolFactory, createPayload(100));
+        ByteBuf stream = Unpooled.wrappedBuffer(first.retain(), second.retain());
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ThriftUnframedDecoder(protocol, new DataSize(1, MEGABYTE)));
+        try {
+            // deliver the two messages one byte at a time
+            while (stream.isReadable()) {
+                channel.writeInbound(stream.readRetainedSlice(1));
+            }
+            assertFrame(channel.readInbound(), first);
+            assertFrame(channel.readInbound(), second);
+            assertNull(channel.readInbound());
+        }
+        finally {
+            stream.release();
+            first.release();
+            second.release();
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private static void assertFrame(ByteBuf actual, ByteBuf expected)
+    {
+        try {
+            assertEquals(actual, expected);
+        }
+        finally {
+            actual.release();
+        }
+    }
+
+    private static ByteBuf createMessage(ChannelBufferProtocolFactory protocolFactory, Payload payload)
+            throws Exception
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        TProtocolWriter writer = protocolFactory.createWriter(buffer);
+        writer.writeMessageBegin(new TMessage("test", REPLY, 42));
+        CODEC.write(payload, writer);
+        writer.writeMessageEnd();
+        return buffer;
+    }
+}
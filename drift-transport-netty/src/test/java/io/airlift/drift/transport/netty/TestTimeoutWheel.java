@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport.netty;
+
+import io.airlift.units.Duration;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTimeoutWheel
+{
+    private EventLoop eventLoop;
+    private TimeoutWheel wheel;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        eventLoop = new DefaultEventLoop();
+        // small wheel, so timeouts wrap around the wheel several times
+        wheel = new TimeoutWheel(eventLoop, new Duration(1, MILLISECONDS), 8);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        eventLoop.shutdownGracefully();
+    }
+
+    @Test
+    public void testExpiration()
+            throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(3);
+        TestingTimeout shortTimeout = new TestingTimeout(latch);
+        TestingTimeout mediumTimeout = new TestingTimeout(latch);
+        TestingTimeout longTimeout = new TestingTimeout(latch);
+
+        eventLoop.submit(() -> {
+            shortTimeout.start();
+            wheel.add(shortTimeout, MILLISECONDS.toNanos(2));
+            mediumTimeout.start();
+            wheel.add(mediumTimeout, MILLISECONDS.toNanos(20));
+            longTimeout.start();
+            wheel.add(longTimeout, MILLISECONDS.toNanos(50));
+        }).get();
+
+        assertTrue(latch.await(10, SECONDS));
+
+        // timeouts never fire early
+        assertTrue(shortTimeout.getElapsedNanos() >= MILLISECONDS.toNanos(2));
+        assertTrue(mediumTimeout.getElapsedNanos() >= MILLISECONDS.toNanos(20));
+        assertTrue(longTimeout.getElapsedNanos() >= MILLISECONDS.toNanos(50));
+        assertEquals((int) eventLoop.submit(wheel::getTimeoutCount).get(), 0);
+    }
+
+    @Test
+    public void testRemove()
+            throws Exception
+    {
+        CountDownLatch removedLatch = new CountDownLatch(1);
+        CountDownLatch expiredLatch = new CountDownLatch(1);
+        TestingTimeout removed = new TestingTimeout(removedLatch);
+        TestingTimeout expired = new TestingTimeout(expiredLatch);
+
+        eventLoop.submit(() -> {
+            wheel.add(removed, MILLISECONDS.toNanos(5));
+            wheel.add(expired, MILLISECONDS.toNanos(10));
+            wheel.remove(removed);
+            // removing twice is a no-op
+            wheel.remove(removed);
+        }).get();
+
+        assertTrue(expiredLatch.await(10, SECONDS));
+        assertFalse(removedLatch.await(0, SECONDS));
+        assertFalse(removed.isScheduled());
+        assertEquals((int) eventLoop.submit(wheel::getTimeoutCount).get(), 0);
+    }
+
+    @Test
+    public void testExpirationRemovesNeighbour()
+            throws Exception
+    {
+        // one rotation takes longer than the test waits, so a timeout skipped in its bucket does not expire
+        TimeoutWheel slowWheel = new TimeoutWheel(eventLoop, new Duration(10, MILLISECONDS), 512);
+        CountDownLatch removedLatch = new CountDownLatch(1);
+        CountDownLatch expiredLatch = new CountDownLatch(2);
+        TestingTimeout removed = new TestingTimeout(removedLatch);
+        TestingTimeout last = new TestingTimeout(expiredLatch);
+        TimeoutWheel.Timeout first = new TimeoutWheel.Timeout()
+        {
+            @Override
+            protected void expire()
+            {
+                slowWheel.remove(removed);
+                expiredLatch.countDown();
+            }
+        };
+
+        eventLoop.submit(() -> {
+            // timeouts are linked at the head of their bucket, so the first timeout expires first
+            slowWheel.add(last, MILLISECONDS.toNanos(20));
+            slowWheel.add(removed, MILLISECONDS.toNanos(20));
+            slowWheel.add(first, MILLISECONDS.toNanos(20));
+        }).get();
+
+        assertTrue(expiredLatch.await(2, SECONDS));
+        assertFalse(removedLatch.await(0, SECONDS));
+        assertEquals((int) eventLoop.submit(slowWheel::getTimeoutCount).get(), 0);
+    }
+
+    private static class TestingTimeout
+            extends TimeoutWheel.Timeout
+    {
+        private final CountDownLatch latch;
+        private final AtomicLong startNanos = new AtomicLong();
+        private final AtomicLong elapsedNanos = new AtomicLong();
+
+        public TestingTimeout(CountDownLatch latch)
+        {
+            this.latch = latch;
+        }
+
+        public void start()
+        {
+            startNanos.set(System.nanoTime());
+        }
+
+        public long getElapsedNanos()
+        {
+            return elapsedNanos.get();
+        }
+
+        @Override
+        protected void expire()
+        {
+            elapsedNanos.set(System.nanoTime() - startNanos.get());
+            latch.countDown();
+        }
+    }
+}
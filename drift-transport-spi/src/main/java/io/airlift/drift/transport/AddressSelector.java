@@ -16,13 +16,51 @@
 package io.airlift.drift.transport;
 
 import com.google.common.net.HostAndPort;
+import io.airlift.units.Duration;
 
 import java.util.List;
 import java.util.Optional;
 
 public interface AddressSelector
 {
+    /**
+     * Returns the addresses to try, in order. The returned list is used without
+     * copying, so it must not be modified after it is returned.
+     */
     List<HostAndPort> getAddresses(Optional<String> addressSelectionContext);
 
+    /**
+     * Returns every address the selector knows about, including addresses that are
+     * marked down, so transports can keep connections to them open. The result changes
+     * when the addresses are resolved again. The default returns the addresses selected
+     * without a selection context.
+     */
+    default List<HostAndPort> getKnownAddresses()
+    {
+        return getAddresses(Optional.empty());
+    }
+
+    /**
+     * Called when a request to the address failed because the host is down.
+     */
     default void markdown(HostAndPort address) {}
+
+    /**
+     * Called when a request to the address completed successfully.
+     *
+     * @param latency time from sending the request until the response was received
+     */
+    default void markSuccess(HostAndPort address, Duration latency) {}
+
+    /**
+     * Called when a request is sent to the address. Every call is followed by
+     * a call to {@link #markRequestFinished} once the request completes, fails
+     * or is cancelled, so selectors can track the requests in flight.
+     */
+    default void markRequestStarted(HostAndPort address) {}
+
+    /**
+     * Called when a request started with {@link #markRequestStarted} is no longer in flight.
+     */
+    default void markRequestFinished(HostAndPort address) {}
 }
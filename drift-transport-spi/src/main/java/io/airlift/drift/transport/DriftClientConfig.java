@@ -16,10 +16,33 @@
 package io.airlift.drift.transport;
 
 import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class DriftClientConfig
 {
     private boolean statsEnabled = true;
+    private Duration invocationTimeout;
+
+    private boolean retryEnabled;
+    private int maxAttempts = 3;
+    private Duration minBackoff = new Duration(10, MILLISECONDS);
+    private Duration maxBackoff = new Duration(1, SECONDS);
+    private double backoffScaleFactor = 2.0;
+    private double backoffJitter = 0.5;
+    private Duration maxRetryTime = new Duration(1, MINUTES);
+    private Duration attemptTimeout;
+    private double retryBudgetRatio = 0.1;
+    private int retryBudgetBurst = 10;
 
     public boolean isStatsEnabled()
     {
@@ -32,4 +55,171 @@ public class DriftClientConfig
         this.statsEnabled = statsEnabled;
         return this;
     }
+
+    public Duration getInvocationTimeout()
+    {
+        return invocationTimeout;
+    }
+
+    /**
+     * Deadline for an entire invocation, including connecting and retries.
+     */
+    @Config("thrift.client.invocation-timeout")
+    public DriftClientConfig setInvocationTimeout(Duration invocationTimeout)
+    {
+        this.invocationTimeout = invocationTimeout;
+        return this;
+    }
+
+    public boolean isRetryEnabled()
+    {
+        return retryEnabled;
+    }
+
+    /**
+     * Applies the retry policy to all methods of the client. When disabled, only
+     * methods annotated with a retry policy are retried with backoff, and other
+     * methods try each address once.
+     */
+    @Config("thrift.client.retry.enabled")
+    public DriftClientConfig setRetryEnabled(boolean retryEnabled)
+    {
+        this.retryEnabled = retryEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    /**
+     * Maximum number of attempts for an invocation, including the first.
+     */
+    @Config("thrift.client.retry.max-attempts")
+    public DriftClientConfig setMaxAttempts(int maxAttempts)
+    {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    @NotNull
+    public Duration getMinBackoff()
+    {
+        return minBackoff;
+    }
+
+    @Config("thrift.client.retry.min-backoff")
+    public DriftClientConfig setMinBackoff(Duration minBackoff)
+    {
+        this.minBackoff = minBackoff;
+        return this;
+    }
+
+    @NotNull
+    public Duration getMaxBackoff()
+    {
+        return maxBackoff;
+    }
+
+    @Config("thrift.client.retry.max-backoff")
+    public DriftClientConfig setMaxBackoff(Duration maxBackoff)
+    {
+        this.maxBackoff = maxBackoff;
+        return this;
+    }
+
+    @DecimalMin("1.0")
+    public double getBackoffScaleFactor()
+    {
+        return backoffScaleFactor;
+    }
+
+    @Config("thrift.client.retry.backoff-scale-factor")
+    public DriftClientConfig setBackoffScaleFactor(double backoffScaleFactor)
+    {
+        this.backoffScaleFactor = backoffScaleFactor;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getBackoffJitter()
+    {
+        return backoffJitter;
+    }
+
+    /**
+     * Maximum fraction by which each backoff delay is randomly reduced.
+     */
+    @Config("thrift.client.retry.backoff-jitter")
+    public DriftClientConfig setBackoffJitter(double backoffJitter)
+    {
+        this.backoffJitter = backoffJitter;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getMaxRetryTime()
+    {
+        return maxRetryTime;
+    }
+
+    /**
+     * Overall deadline for an invocation, including all retries.
+     */
+    @Config("thrift.client.retry.max-retry-time")
+    public DriftClientConfig setMaxRetryTime(Duration maxRetryTime)
+    {
+        this.maxRetryTime = maxRetryTime;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getAttemptTimeout()
+    {
+        return attemptTimeout;
+    }
+
+    /**
+     * Deadline for a single attempt, after which the next address is tried.
+     */
+    @Config("thrift.client.retry.attempt-timeout")
+    public DriftClientConfig setAttemptTimeout(Duration attemptTimeout)
+    {
+        this.attemptTimeout = attemptTimeout;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getRetryBudgetRatio()
+    {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * Maximum number of retries as a fraction of all invocations of the client.
+     */
+    @Config("thrift.client.retry.budget-ratio")
+    public DriftClientConfig setRetryBudgetRatio(double retryBudgetRatio)
+    {
+        this.retryBudgetRatio = retryBudgetRatio;
+        return this;
+    }
+
+    @Min(1)
+    public int getRetryBudgetBurst()
+    {
+        return retryBudgetBurst;
+    }
+
+    @Config("thrift.client.retry.budget-burst")
+    public DriftClientConfig setRetryBudgetBurst(int retryBudgetBurst)
+    {
+        this.retryBudgetBurst = retryBudgetBurst;
+        return this;
+    }
 }
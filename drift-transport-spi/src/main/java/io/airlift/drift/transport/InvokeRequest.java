@@ -15,6 +15,8 @@
  */
 package io.airlift.drift.transport;
 
+import io.airlift.units.Duration;
+
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -28,13 +30,20 @@ public final class InvokeRequest
     private final Optional<String> addressSelectionContext;
     private final Map<String, String> headers;
     private final List<Object> parameters;
+    private final Optional<Duration> timeout;
 
     public InvokeRequest(MethodMetadata method, Optional<String> addressSelectionContext, Map<String, String> headers, List<Object> parameters)
+    {
+        this(method, addressSelectionContext, headers, parameters, method.getTimeout());
+    }
+
+    public InvokeRequest(MethodMetadata method, Optional<String> addressSelectionContext, Map<String, String> headers, List<Object> parameters, Optional<Duration> timeout)
     {
         this.method = requireNonNull(method, "method is null");
         this.addressSelectionContext = requireNonNull(addressSelectionContext, "addressSelectionContext is null");
         this.headers = requireNonNull(headers, "headers is null");
         this.parameters = requireNonNull(parameters, "parameters is null");
+        this.timeout = requireNonNull(timeout, "timeout is null");
     }
 
     public MethodMetadata getMethod()
@@ -57,6 +66,14 @@ public final class InvokeRequest
         return parameters;
     }
 
+    /**
+     * Deadline for the entire invocation, including connecting and retries.
+     */
+    public Optional<Duration> getTimeout()
+    {
+        return timeout;
+    }
+
     @Override
     public String toString()
     {
@@ -65,6 +82,7 @@ public final class InvokeRequest
                 .add("method", method)
                 .add("addressSelectionContext", addressSelectionContext.orElse(null))
                 .add("headers", headers.isEmpty() ? null : headers)
+                .add("timeout", timeout.orElse(null))
                 .toString();
     }
 }
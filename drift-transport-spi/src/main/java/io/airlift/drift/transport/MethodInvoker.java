@@ -15,8 +15,15 @@
  */
 package io.airlift.drift.transport;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 public interface MethodInvoker
 {
     /**
@@ -26,4 +33,38 @@ public interface MethodInvoker
      * {@code DriftApplicationException} wrapper; otherwise, the future will contain the raw transport exception.
      */
     ListenableFuture<Object> invoke(InvokeRequest request);
+
+    /**
+     * Invoke the specified method asynchronously, and return the result together with
+     * the headers sent by the server. The failures are the same as {@link #invoke(InvokeRequest)}.
+     * <p>
+     * The default implementation returns no headers, which is correct for transports
+     * that do not support response headers.
+     */
+    default ListenableFuture<InvokeResponse> invokeWithResponse(InvokeRequest request)
+    {
+        return Futures.transform(invoke(request), InvokeResponse::new, directExecutor());
+    }
+
+    /**
+     * Invoke the specified method and wait for the result.
+     * <p>
+     * The exceptions thrown are the same as those contained in the future returned by
+     * {@link #invoke(InvokeRequest)}. The default implementation blocks on that future,
+     * but blocking transports should override this to perform the request directly on
+     * the calling thread.
+     */
+    default Object invokeSync(InvokeRequest request)
+            throws Exception
+    {
+        try {
+            return invoke(request).get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throwIfInstanceOf(cause, Exception.class);
+            throwIfUnchecked(cause);
+            throw e;
+        }
+    }
 }
@@ -18,9 +18,11 @@ package io.airlift.drift.transport;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.airlift.drift.codec.ThriftCodec;
+import io.airlift.units.Duration;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static java.util.Objects.requireNonNull;
@@ -32,7 +34,10 @@ public final class MethodMetadata
     private final ThriftCodec<Object> resultCodec;
     private final Map<Short, ThriftCodec<Object>> exceptionCodecs;
     private final boolean oneway;
+    private final boolean idempotent;
     private final ResultsClassifier resultsClassifier;
+    private final Optional<RetryPolicy> retryPolicy;
+    private final Optional<Duration> timeout;
 
     public MethodMetadata(
             String name,
@@ -41,13 +46,55 @@ public final class MethodMetadata
             Map<Short, ThriftCodec<Object>> exceptionCodecs,
             boolean oneway,
             ResultsClassifier resultsClassifier)
+    {
+        this(name, parameters, resultCodec, exceptionCodecs, oneway, false, resultsClassifier);
+    }
+
+    public MethodMetadata(
+            String name,
+            List<ParameterMetadata> parameters,
+            ThriftCodec<Object> resultCodec,
+            Map<Short, ThriftCodec<Object>> exceptionCodecs,
+            boolean oneway,
+            boolean idempotent,
+            ResultsClassifier resultsClassifier)
+    {
+        this(name, parameters, resultCodec, exceptionCodecs, oneway, idempotent, resultsClassifier, Optional.empty());
+    }
+
+    public MethodMetadata(
+            String name,
+            List<ParameterMetadata> parameters,
+            ThriftCodec<Object> resultCodec,
+            Map<Short, ThriftCodec<Object>> exceptionCodecs,
+            boolean oneway,
+            boolean idempotent,
+            ResultsClassifier resultsClassifier,
+            Optional<RetryPolicy> retryPolicy)
+    {
+        this(name, parameters, resultCodec, exceptionCodecs, oneway, idempotent, resultsClassifier, retryPolicy, Optional.empty());
+    }
+
+    public MethodMetadata(
+            String name,
+            List<ParameterMetadata> parameters,
+            ThriftCodec<Object> resultCodec,
+            Map<Short, ThriftCodec<Object>> exceptionCodecs,
+            boolean oneway,
+            boolean idempotent,
+            ResultsClassifier resultsClassifier,
+            Optional<RetryPolicy> retryPolicy,
+            Optional<Duration> timeout)
     {
         this.name = requireNonNull(name, "name is null");
         this.parameters = ImmutableList.copyOf(requireNonNull(parameters, "parameters is null"));
         this.resultCodec = requireNonNull(resultCodec, "resultCodec is null");
         this.exceptionCodecs = ImmutableMap.copyOf(requireNonNull(exceptionCodecs, "exceptionCodecs is null"));
         this.oneway = oneway;
+        this.idempotent = idempotent;
         this.resultsClassifier = requireNonNull(resultsClassifier, "resultsClassifier is null");
+        this.retryPolicy = requireNonNull(retryPolicy, "retryPolicy is null");
+        this.timeout = requireNonNull(timeout, "timeout is null");
     }
 
     public String getName()
@@ -75,11 +122,37 @@ public final class MethodMetadata
         return oneway;
     }
 
+    /**
+     * Idempotent methods may be sent to more than one server for a single invocation.
+     */
+    public boolean isIdempotent()
+    {
+        return idempotent;
+    }
+
     public ResultsClassifier getResultsClassifier()
     {
         return resultsClassifier;
     }
 
+    /**
+     * Limits retries of failed invocations. If empty, each remaining address is
+     * tried immediately until the invocation succeeds.
+     */
+    public Optional<RetryPolicy> getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * Default deadline for an entire invocation, including connecting and retries,
+     * which may be overridden for each call.
+     */
+    public Optional<Duration> getTimeout()
+    {
+        return timeout;
+    }
+
     @Override
     public String toString()
     {
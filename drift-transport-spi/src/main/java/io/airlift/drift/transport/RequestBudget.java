@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Token bucket that limits extra requests, such as retries or hedges, to a
+ * fraction of all requests. Each request deposits a fraction of a token, each
+ * extra request withdraws a whole token, and the balance is capped at the
+ * burst size, so a period without extra requests can not be followed by an
+ * unbounded spike of them.
+ * <p>
+ * This class is thread safe.
+ */
+public final class RequestBudget
+{
+    // balance is tracked in thousandths of a token to avoid floating point updates
+    private static final long TOKEN = 1000;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * @param ratio maximum extra requests as a fraction of all requests
+     * @param burst maximum number of extra requests that can be sent back to back
+     * @param initiallyFull if false, the budget starts empty
+     */
+    public RequestBudget(double ratio, int burst, boolean initiallyFull)
+    {
+        checkArgument(ratio >= 0 && ratio <= 1, "ratio must be between 0 and 1");
+        checkArgument(burst >= 1, "burst must be at least 1");
+        this.deposit = Math.round(ratio * TOKEN);
+        this.maxBalance = burst * TOKEN;
+        this.balance = new AtomicLong(initiallyFull ? maxBalance : 0);
+    }
+
+    public void recordRequest()
+    {
+        if (deposit == 0) {
+            return;
+        }
+        while (true) {
+            long current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+            if (balance.compareAndSet(current, Math.min(current + deposit, maxBalance))) {
+                return;
+            }
+        }
+    }
+
+    public boolean tryAcquire()
+    {
+        while (true) {
+            long current = balance.get();
+            if (current < TOKEN) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport;
+
+import io.airlift.units.Duration;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Limits how a failed invocation is retried on the remaining addresses.
+ * Retries are delayed with exponential backoff and jitter, stop after the
+ * maximum number of attempts or the maximum retry time, and are only sent
+ * while the retry budget shared by all methods of the client allows them.
+ */
+public final class RetryPolicy
+{
+    private final int maxAttempts;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final double backoffScaleFactor;
+    private final double jitter;
+    private final Duration maxRetryTime;
+    private final Optional<Duration> attemptTimeout;
+    private final RequestBudget budget;
+
+    public RetryPolicy(
+            int maxAttempts,
+            Duration minBackoff,
+            Duration maxBackoff,
+            double backoffScaleFactor,
+            double jitter,
+            Duration maxRetryTime,
+            Optional<Duration> attemptTimeout,
+            RequestBudget budget)
+    {
+        checkArgument(maxAttempts >= 1, "maxAttempts must be at least 1");
+        checkArgument(backoffScaleFactor >= 1.0, "backoffScaleFactor must be at least 1");
+        checkArgument(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+        this.maxAttempts = maxAttempts;
+        this.minBackoff = requireNonNull(minBackoff, "minBackoff is null");
+        this.maxBackoff = requireNonNull(maxBackoff, "maxBackoff is null");
+        this.backoffScaleFactor = backoffScaleFactor;
+        this.jitter = jitter;
+        this.maxRetryTime = requireNonNull(maxRetryTime, "maxRetryTime is null");
+        this.attemptTimeout = requireNonNull(attemptTimeout, "attemptTimeout is null");
+        this.budget = requireNonNull(budget, "budget is null");
+    }
+
+    public static RetryPolicy createRetryPolicy(DriftClientConfig config)
+    {
+        return new RetryPolicy(
+                config.getMaxAttempts(),
+                config.getMinBackoff(),
+                config.getMaxBackoff(),
+                config.getBackoffScaleFactor(),
+                config.getBackoffJitter(),
+                config.getMaxRetryTime(),
+                Optional.ofNullable(config.getAttemptTimeout()),
+                new RequestBudget(config.getRetryBudgetRatio(), config.getRetryBudgetBurst(), true));
+    }
+
+    /**
+     * Returns a copy of this policy with the specified settings replaced. The
+     * copy shares the retry budget of this policy.
+     */
+    public RetryPolicy withOverrides(OptionalInt maxAttempts, Optional<Duration> attemptTimeout, Optional<Duration> maxRetryTime)
+    {
+        return new RetryPolicy(
+                maxAttempts.orElse(this.maxAttempts),
+                minBackoff,
+                maxBackoff,
+                backoffScaleFactor,
+                jitter,
+                maxRetryTime.orElse(this.maxRetryTime),
+                attemptTimeout.isPresent() ? attemptTimeout : this.attemptTimeout,
+                budget);
+    }
+
+    /**
+     * Maximum number of attempts, including the first.
+     */
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    /**
+     * Time after the start of the invocation after which no further attempts are
+     * made. When an attempt timeout is set, an attempt is also timed out when
+     * this time passes.
+     */
+    public Duration getMaxRetryTime()
+    {
+        return maxRetryTime;
+    }
+
+    public Optional<Duration> getAttemptTimeout()
+    {
+        return attemptTimeout;
+    }
+
+    public RequestBudget getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Returns the delay before the specified retry, where the first retry is one.
+     * The delay grows exponentially from the minimum to the maximum backoff, and
+     * is reduced by a random fraction of up to the jitter.
+     */
+    public Duration getBackoffDelay(int retry)
+    {
+        checkArgument(retry >= 1, "retry must be at least 1");
+        double delayNanos = minBackoff.getValue(NANOSECONDS) * Math.pow(backoffScaleFactor, retry - 1);
+        delayNanos = Math.min(delayNanos, maxBackoff.getValue(NANOSECONDS));
+        if (jitter > 0) {
+            delayNanos *= 1.0 - (jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return new Duration(delayNanos, NANOSECONDS);
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("maxAttempts", maxAttempts)
+                .add("minBackoff", minBackoff)
+                .add("maxBackoff", maxBackoff)
+                .add("backoffScaleFactor", backoffScaleFactor)
+                .add("jitter", jitter)
+                .add("maxRetryTime", maxRetryTime)
+                .add("attemptTimeout", attemptTimeout.orElse(null))
+                .toString();
+    }
+}
@@ -16,6 +16,7 @@
 package io.airlift.drift.transport;
 
 import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
 import java.util.Map;
@@ -23,6 +24,9 @@ import java.util.Map;
 import static io.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
 import static io.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
 import static io.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TestDriftClientConfig
 {
@@ -30,7 +34,18 @@ public class TestDriftClientConfig
     public void testDefaults()
     {
         assertRecordedDefaults(recordDefaults(DriftClientConfig.class)
-                .setStatsEnabled(true));
+                .setStatsEnabled(true)
+                .setInvocationTimeout(null)
+                .setRetryEnabled(false)
+                .setMaxAttempts(3)
+                .setMinBackoff(new Duration(10, MILLISECONDS))
+                .setMaxBackoff(new Duration(1, SECONDS))
+                .setBackoffScaleFactor(2.0)
+                .setBackoffJitter(0.5)
+                .setMaxRetryTime(new Duration(1, MINUTES))
+                .setAttemptTimeout(null)
+                .setRetryBudgetRatio(0.1)
+                .setRetryBudgetBurst(10));
     }
 
     @Test
@@ -38,10 +53,32 @@ public class TestDriftClientConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("thrift.client.stats-enabled", "false")
+                .put("thrift.client.invocation-timeout", "30s")
+                .put("thrift.client.retry.enabled", "true")
+                .put("thrift.client.retry.max-attempts", "7")
+                .put("thrift.client.retry.min-backoff", "33ms")
+                .put("thrift.client.retry.max-backoff", "44s")
+                .put("thrift.client.retry.backoff-scale-factor", "1.5")
+                .put("thrift.client.retry.backoff-jitter", "0.25")
+                .put("thrift.client.retry.max-retry-time", "5m")
+                .put("thrift.client.retry.attempt-timeout", "2s")
+                .put("thrift.client.retry.budget-ratio", "0.2")
+                .put("thrift.client.retry.budget-burst", "55")
                 .build();
 
         DriftClientConfig expected = new DriftClientConfig()
-                .setStatsEnabled(false);
+                .setStatsEnabled(false)
+                .setInvocationTimeout(new Duration(30, SECONDS))
+                .setRetryEnabled(true)
+                .setMaxAttempts(7)
+                .setMinBackoff(new Duration(33, MILLISECONDS))
+                .setMaxBackoff(new Duration(44, SECONDS))
+                .setBackoffScaleFactor(1.5)
+                .setBackoffJitter(0.25)
+                .setMaxRetryTime(new Duration(5, MINUTES))
+                .setAttemptTimeout(new Duration(2, SECONDS))
+                .setRetryBudgetRatio(0.2)
+                .setRetryBudgetBurst(55);
 
         assertFullMapping(properties, expected);
     }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport;
+
+import io.airlift.drift.TException;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+public class TestMethodInvoker
+{
+    @Test
+    public void testInvokeSync()
+            throws Exception
+    {
+        MethodInvoker invoker = request -> immediateFuture("result");
+        assertEquals(invoker.invokeSync(null), "result");
+    }
+
+    @Test
+    public void testInvokeSyncFailure()
+    {
+        // the cause of the future failure is thrown directly, so the exceptions match the async path
+        assertInvokeSyncFailure(new DriftApplicationException(new Exception("application")));
+        assertInvokeSyncFailure(new TTransportException("transport"));
+        assertInvokeSyncFailure(new TException("thrift"));
+        assertInvokeSyncFailure(new InterruptedException());
+        assertInvokeSyncFailure(new IllegalStateException());
+        assertInvokeSyncFailure(new Error());
+    }
+
+    @Test
+    public void testInvokeSyncThrowableFailure()
+            throws Exception
+    {
+        // a throwable that is neither an exception nor an error cannot be thrown directly
+        Throwable failure = new Throwable();
+        MethodInvoker invoker = request -> immediateFailedFuture(failure);
+        try {
+            invoker.invokeSync(null);
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            assertSame(e.getCause(), failure);
+        }
+    }
+
+    private static void assertInvokeSyncFailure(Throwable failure)
+    {
+        MethodInvoker invoker = request -> immediateFailedFuture(failure);
+        try {
+            invoker.invokeSync(null);
+            fail("expected exception");
+        }
+        catch (Throwable e) {
+            assertSame(e, failure);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestRequestBudget
+{
+    @Test
+    public void testBudget()
+    {
+        RequestBudget budget = new RequestBudget(0.5, 2, false);
+
+        // budget starts empty
+        assertFalse(budget.tryAcquire());
+
+        budget.recordRequest();
+        assertFalse(budget.tryAcquire());
+        budget.recordRequest();
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        // balance is capped at the burst size
+        for (int i = 0; i < 100; i++) {
+            budget.recordRequest();
+        }
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testZeroBudget()
+    {
+        RequestBudget budget = new RequestBudget(0, 10, false);
+        for (int i = 0; i < 100; i++) {
+            budget.recordRequest();
+        }
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testInitiallyFull()
+    {
+        RequestBudget budget = new RequestBudget(0.1, 3, true);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.airlift.drift.transport;
+
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestRetryPolicy
+{
+    @Test
+    public void testBackoffDelay()
+    {
+        RetryPolicy policy = createPolicy(0.0);
+
+        // delay doubles from the minimum backoff until it reaches the maximum backoff
+        assertEquals(policy.getBackoffDelay(1).roundTo(MILLISECONDS), 10);
+        assertEquals(policy.getBackoffDelay(2).roundTo(MILLISECONDS), 20);
+        assertEquals(policy.getBackoffDelay(3).roundTo(MILLISECONDS), 40);
+        assertEquals(policy.getBackoffDelay(7).roundTo(MILLISECONDS), 640);
+        assertEquals(policy.getBackoffDelay(8).roundTo(MILLISECONDS), 1000);
+        assertEquals(policy.getBackoffDelay(100).roundTo(MILLISECONDS), 1000);
+    }
+
+    @Test
+    public void testBackoffDelayJitter()
+    {
+        RetryPolicy policy = createPolicy(0.5);
+        for (int i = 0; i < 1000; i++) {
+            // jitter only reduces the delay, by at most half
+            double delay = policy.getBackoffDelay(3).getValue(MILLISECONDS);
+            assertTrue(delay > 20 && delay <= 40, "delay " + delay);
+            delay = policy.getBackoffDelay(100).getValue(MILLISECONDS);
+            assertTrue(delay > 500 && delay <= 1000, "delay " + delay);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "retry must be at least 1")
+    public void testBackoffDelayFirstAttempt()
+    {
+        createPolicy(0.0).getBackoffDelay(0);
+    }
+
+    @Test
+    public void testWithOverrides()
+    {
+        RetryPolicy policy = createPolicy(0.0);
+
+        RetryPolicy overridden = policy.withOverrides(OptionalInt.of(7), Optional.of(new Duration(2, SECONDS)), Optional.of(new Duration(5, MINUTES)));
+        assertEquals(overridden.getMaxAttempts(), 7);
+        assertEquals(overridden.getAttemptTimeout(), Optional.of(new Duration(2, SECONDS)));
+        assertEquals(overridden.getMaxRetryTime(), new Duration(5, MINUTES));
+        // backoff settings and the retry budget are not overridden
+        assertEquals(overridden.getBackoffDelay(3).roundTo(MILLISECONDS), 40);
+        assertSame(overridden.getBudget(), policy.getBudget());
+
+        RetryPolicy unchanged = policy.withOverrides(OptionalInt.empty(), Optional.empty(), Optional.empty());
+        assertEquals(unchanged.getMaxAttempts(), 3);
+        assertEquals(unchanged.getAttemptTimeout(), Optional.of(new Duration(500, MILLISECONDS)));
+        assertEquals(unchanged.getMaxRetryTime(), new Duration(1, MINUTES));
+        assertSame(unchanged.getBudget(), policy.getBudget());
+    }
+
+    private static RetryPolicy createPolicy(double jitter)
+    {
+        return new RetryPolicy(
+                3,
+                new Duration(10, MILLISECONDS),
+                new Duration(1, SECONDS),
+                2.0,
+                jitter,
+                new Duration(1, MINUTES),
+                Optional.of(new Duration(500, MILLISECONDS)),
+                new RequestBudget(0.1, 10, true));
+    }
+}